@@ -9,7 +9,9 @@ import lombok.Setter;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "ai_chat_history")
+@Table(name = "ai_chat_history", indexes = {
+        @Index(name = "idx_ai_chat_history_intent", columnList = "intent")
+})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -28,4 +30,8 @@ public class AiChatHistory {
     private String content;
 
     private LocalDateTime createdAt = LocalDateTime.now();
+
+    // Nhãn intent LLM gán cho câu hỏi (chỉ tin nhắn user) → dữ liệu huấn luyện bộ phân loại local
+    @Column(length = 16)
+    private String intent;
 }
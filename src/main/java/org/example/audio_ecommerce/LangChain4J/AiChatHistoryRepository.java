@@ -1,12 +1,31 @@
 package org.example.audio_ecommerce.LangChain4J;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface AiChatHistoryRepository extends JpaRepository<AiChatHistory, Long> {
 
     List<AiChatHistory> findTop20ByUserIdOrderByCreatedAtDesc(String userId);
-}
\ No newline at end of file
+
+    Optional<AiChatHistory> findFirstByUserIdAndRoleOrderByIdDesc(String userId, String role);
+
+    interface LabeledQuestion {
+        String getContent();
+        String getIntent();
+    }
+
+    // Câu hỏi đã có nhãn LLM, mới nhất trước (đi index intent)
+    @Query("""
+            select h.content as content, h.intent as intent
+            from AiChatHistory h
+            where h.intent is not null and h.role = 'user'
+            order by h.id desc
+            """)
+    List<LabeledQuestion> findLabeledQuestions(Pageable pageable);
+}
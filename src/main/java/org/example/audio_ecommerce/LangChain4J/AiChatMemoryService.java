@@ -64,14 +64,14 @@ public class AiChatMemoryService {
      * Lưu tin nhắn từ user
      */
     public void saveUserMessage(String userId, String content) {
-        repo.save(new AiChatHistory(null, userId, "user", content, LocalDateTime.now()));
+        repo.save(new AiChatHistory(null, userId, "user", content, LocalDateTime.now(), null));
     }
 
     /**
      * Lưu tin nhắn từ assistant
      */
     public void saveAssistantMessage(String userId, String content) {
-        repo.save(new AiChatHistory(null, userId, "assistant", content, LocalDateTime.now()));
+        repo.save(new AiChatHistory(null, userId, "assistant", content, LocalDateTime.now(), null));
     }
 
     /**
@@ -86,7 +86,20 @@ public class AiChatMemoryService {
                 userId,
                 "assistant",
                 compressed,
-                LocalDateTime.now()
+                LocalDateTime.now(),
+                null
         ));
     }
+
+    /**
+     * Gắn nhãn intent (do LLM phân loại) vào tin nhắn user vừa lưu → dữ liệu huấn luyện bộ phân loại local
+     */
+    public void labelLatestUserMessage(String userId, String content, String intent) {
+        repo.findFirstByUserIdAndRoleOrderByIdDesc(userId, "user")
+                .filter(h -> h.getIntent() == null && content.equals(h.getContent()))
+                .ifPresent(h -> {
+                    h.setIntent(intent);
+                    repo.save(h);
+                });
+    }
 }
@@ -0,0 +1,105 @@
+package org.example.audio_ecommerce.LangChain4J;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.util.AfterCommit;
+import org.example.audio_ecommerce.util.SingleFlightCache;
+import org.example.audio_ecommerce.util.VietnameseText;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Cache câu hỏi đã chuẩn hoá → SQL do LLM sinh → danh sách product_id.
+ * Câu hỏi phổ biến ("loa bluetooth dưới 2 triệu") không phải gọi LLM + chạy lại SQL mỗi lần.
+ * - Giá sản phẩm đổi → bỏ toàn bộ (sản phẩm khác có thể lọt vào / ra khỏi khoảng giá).
+ * - Giá hiệu lực đổi do campaign → bỏ entry chứa sản phẩm đó hoặc có SQL dùng cột giá.
+ * - Tồn kho đổi → chỉ bỏ entry chứa sản phẩm đó hoặc có SQL dùng cột tồn kho.
+ * - Câu hỏi phụ thuộc ngữ cảnh hội thoại ("cái thứ 2", "rẻ hơn cái đó") không dùng cache.
+ */
+@Slf4j
+@Component
+public class AiSqlResultCache {
+
+    public record CachedSql(String sql, List<UUID> productIds) {}
+
+    private static final Pattern STOCK_COLUMNS = Pattern.compile(
+            "\\b(stock_quantity|variant_stock)\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern PRICE_COLUMNS = Pattern.compile(
+            "\\b(price|discount_price|final_price|variant_price|effective_min_price)\\b", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern FOLLOW_UP = Pattern.compile(
+            "\\b(cai|san pham|mau|loai|con|bo) (do|nay|kia|tren|vua roi)\\b"
+                    + "|\\b(thu|so) (nhat|hai|ba|bon|nam|\\d+)\\b"
+                    + "|\\b(o tren|vua roi|luc nay|ban nay|nhu tren|nhu vay|tuong tu)\\b");
+
+    private final SingleFlightCache<String, CachedSql> cache;
+
+    public AiSqlResultCache(MeterRegistry meterRegistry,
+                            @Value("${ai.sql-cache.ttl-ms:600000}") long ttlMs,
+                            @Value("${ai.sql-cache.max-size:5000}") int maxSize) {
+        this.cache = new SingleFlightCache<>("ai.sql", ttlMs, maxSize, v -> true, meterRegistry);
+    }
+
+    /**
+     * Lấy kết quả cho câu hỏi; chưa có thì gọi loader (LLM + chạy SQL), nhiều request giống nhau dùng chung 1 lần gọi.
+     * scope tách riêng từng luồng sinh SQL (prompt khác nhau → SQL khác nhau).
+     */
+    public CachedSql get(String scope, String question, Supplier<CachedSql> loader) {
+        return cache.get(scope + "|" + normalize(question), k -> loader.get());
+    }
+
+    /** Câu hỏi tự đủ nghĩa, không tham chiếu kết quả / tin nhắn trước. */
+    public static boolean isContextFree(String question) {
+        return !FOLLOW_UP.matcher(normalize(question)).find();
+    }
+
+    /** Chữ thường, bỏ dấu tiếng Việt, bỏ dấu câu, gộp khoảng trắng. */
+    public static String normalize(String question) {
+        return String.join(" ", VietnameseText.tokenize(question));
+    }
+
+    // ========================================================
+    // INVALIDATE
+    // ========================================================
+
+    /** Giá đổi → bỏ toàn bộ sau khi transaction commit. */
+    public void invalidateAllAfterCommit() {
+        AfterCommit.run(cache::invalidateAll);
+    }
+
+    /** Tồn kho đổi → bỏ entry chứa các sản phẩm này hoặc có SQL dùng cột tồn kho. */
+    public void invalidateProductsAfterCommit(Collection<UUID> productIds) {
+        if (productIds == null || productIds.isEmpty()) return;
+        Set<UUID> changed = Set.copyOf(productIds);
+        AfterCommit.run(() -> {
+            int n = invalidate(changed, STOCK_COLUMNS);
+            if (n > 0) log.debug("[AI SQL Cache] Stock changed → dropped {} entries", n);
+        });
+    }
+
+    /**
+     * Giá hiệu lực (effective_min_price) của các sản phẩm này đã đổi và đã commit (vd: campaign bắt đầu / kết thúc)
+     * → bỏ entry chứa chúng hoặc có SQL dùng cột giá (lọc / sort theo giá có thể ra kết quả khác).
+     */
+    public void invalidatePrices(Collection<UUID> productIds) {
+        if (productIds == null || productIds.isEmpty()) return;
+        int n = invalidate(Set.copyOf(productIds), PRICE_COLUMNS);
+        if (n > 0) log.debug("[AI SQL Cache] Effective price changed → dropped {} entries", n);
+    }
+
+    private int invalidate(Set<UUID> changed, Pattern columns) {
+        return cache.invalidateIf((k, v) -> columns.matcher(v.sql()).find()
+                || v.productIds().stream().anyMatch(changed::contains));
+    }
+
+    public int size() {
+        return cache.size();
+    }
+}
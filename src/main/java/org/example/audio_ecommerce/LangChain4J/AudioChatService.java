@@ -3,7 +3,9 @@ package org.example.audio_ecommerce.LangChain4J;
 import dev.langchain4j.data.message.ChatMessage;
 import dev.langchain4j.data.message.SystemMessage;
 import dev.langchain4j.model.openai.OpenAiChatModel;
+import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
 import lombok.RequiredArgsConstructor;
+import org.example.audio_ecommerce.util.TokenSink;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -13,10 +15,30 @@ import java.util.List;
 public class AudioChatService {
 
     private final OpenAiChatModel chatModel;
+    private final OpenAiStreamingChatModel streamingChatModel;
     private final AiChatMemoryService memoryService;
 
     public String chat(String userId, String message) {
 
+        var response = chatModel.generate(prepareConversation(userId, message));
+        String reply = response.content().text();
+
+        memoryService.saveAssistantMessage(userId, reply);
+
+        return reply;
+    }
+
+    /**
+     * Như chat() nhưng token đẩy vào sink ngay khi model sinh ra; hàm trả về ngay sau khi gửi request,
+     * câu trả lời được lưu vào bộ nhớ khi stream kết thúc.
+     */
+    public void chatStream(String userId, String message, TokenSink sink) {
+        streamingChatModel.generate(prepareConversation(userId, message),
+                new TokenSinkHandler(sink, reply -> memoryService.saveAssistantMessage(userId, reply)));
+    }
+
+    private List<ChatMessage> prepareConversation(String userId, String message) {
+
         // Save user message
         memoryService.saveUserMessage(userId, message);
 
@@ -33,12 +55,6 @@ public class AudioChatService {
             Do NOT answer outside the audio domain.
         """));
 
-        var response = chatModel.generate(history);
-        String reply = response.content().text();
-
-        memoryService.saveAssistantMessage(userId, reply);
-
-        return reply;
+        return history;
     }
 }
-
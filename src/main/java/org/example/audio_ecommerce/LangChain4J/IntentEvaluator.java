@@ -0,0 +1,87 @@
+package org.example.audio_ecommerce.LangChain4J;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+/**
+ * Đánh giá offline bộ phân loại local so với nhãn LLM:
+ * chia train / holdout theo seed, huấn luyện trên phần train, chạy holdout và báo
+ * - coverage: tỉ lệ câu trả lời được tại chỗ (không cần gọi LLM),
+ * - accuracy: tỉ lệ đúng nhãn LLM trong các câu trả lời tại chỗ,
+ * - độ trễ local p50 / p99 và thời gian tiết kiệm ước tính (coverage × độ trễ LLM trung bình),
+ * - ma trận nhầm lẫn nhãn LLM → nhãn local.
+ */
+public final class IntentEvaluator {
+
+    public record Report(int trainSize, int testSize, double coverage, double accuracy,
+                         double keywordShare, long p50Nanos, long p99Nanos,
+                         double savedMsPerRequest, Map<String, Map<String, Integer>> confusion) {
+
+        @Override
+        public String toString() {
+            return ("train=%d holdout=%d coverage=%.1f%% accuracy=%.1f%% keyword=%.1f%% "
+                    + "local p50=%.1fµs p99=%.1fµs saved≈%.0fms/request confusion(llm→local)=%s").formatted(
+                    trainSize, testSize, coverage * 100, accuracy * 100, keywordShare * 100,
+                    p50Nanos / 1_000.0, p99Nanos / 1_000.0, savedMsPerRequest, confusion);
+        }
+    }
+
+    private IntentEvaluator() {
+    }
+
+    public static Report evaluate(List<IntentLinearModel.Example> examples, double holdout,
+                                  double minConfidence, double llmLatencyMs, long seed) {
+        List<IntentLinearModel.Example> shuffled = new ArrayList<>(examples);
+        Collections.shuffle(shuffled, new Random(seed));
+        int testSize = (int) Math.round(shuffled.size() * holdout);
+        List<IntentLinearModel.Example> test = shuffled.subList(0, testSize);
+        List<IntentLinearModel.Example> train = shuffled.subList(testSize, shuffled.size());
+
+        LocalIntentClassifier classifier = LocalIntentClassifier.train(train, minConfidence, seed);
+
+        Map<String, Map<String, Integer>> confusion = new LinkedHashMap<>();
+        for (String label : LocalIntentClassifier.LABELS) confusion.put(label, new LinkedHashMap<>());
+
+        long[] nanos = new long[test.size()];
+        int answered = 0;
+        int correct = 0;
+        int byKeyword = 0;
+        for (int i = 0; i < test.size(); i++) {
+            IntentLinearModel.Example e = test.get(i);
+            long start = System.nanoTime();
+            Optional<LocalIntentClassifier.Prediction> p = classifier.classify(e.text());
+            nanos[i] = System.nanoTime() - start;
+
+            String local = p.map(LocalIntentClassifier.Prediction::intent).orElse("LLM");
+            confusion.computeIfAbsent(e.label(), k -> new LinkedHashMap<>()).merge(local, 1, Integer::sum);
+            if (p.isEmpty()) continue;
+            answered++;
+            if (p.get().intent().equals(e.label())) correct++;
+            if ("keyword".equals(p.get().source())) byKeyword++;
+        }
+
+        Arrays.sort(nanos);
+        double coverage = test.isEmpty() ? 0 : (double) answered / test.size();
+        return new Report(
+                train.size(),
+                test.size(),
+                coverage,
+                answered == 0 ? 0 : (double) correct / answered,
+                answered == 0 ? 0 : (double) byKeyword / answered,
+                percentile(nanos, 0.50),
+                percentile(nanos, 0.99),
+                coverage * llmLatencyMs,
+                confusion);
+    }
+
+    private static long percentile(long[] sorted, double q) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * q) - 1)];
+    }
+}
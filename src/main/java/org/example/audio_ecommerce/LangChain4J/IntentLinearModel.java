@@ -0,0 +1,116 @@
+package org.example.audio_ecommerce.LangChain4J;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Hồi quy logistic đa lớp (softmax) trên feature băm (feature hashing, 2^15 chiều).
+ * Feature do featurizer sinh ra (token, bigram, cụm từ khoá...); mô hình chỉ băm + cộng trọng số.
+ * Nhỏ (vài trăm KB), huấn luyện SGD vài epoch trên câu hỏi đã có nhãn LLM, dự đoán cỡ micro giây.
+ * Bất biến sau khi huấn luyện → dùng chung giữa các luồng.
+ */
+public final class IntentLinearModel {
+
+    public record Example(String text, String label) {}
+
+    private static final int DIM = 1 << 15;
+    private static final int EPOCHS = 8;
+    private static final double LEARNING_RATE = 0.2;
+    private static final double L2 = 1e-5;
+
+    private final List<String> labels;
+    private final Function<String, List<String>> featurizer;
+    private final float[][] weights;
+    private final float[] bias;
+    private final int trainedOn;
+
+    private IntentLinearModel(List<String> labels, Function<String, List<String>> featurizer,
+                              float[][] weights, float[] bias, int trainedOn) {
+        this.labels = labels;
+        this.featurizer = featurizer;
+        this.weights = weights;
+        this.bias = bias;
+        this.trainedOn = trainedOn;
+    }
+
+    /** Huấn luyện trên các ví dụ có nhãn thuộc labels (nhãn khác bị bỏ qua). Thứ tự trộn cố định theo seed. */
+    public static IntentLinearModel train(List<Example> examples, List<String> labels,
+                                          Function<String, List<String>> featurizer, long seed) {
+        int k = labels.size();
+        float[][] w = new float[k][DIM];
+        float[] b = new float[k];
+
+        List<int[]> xs = new ArrayList<>();
+        List<Integer> ys = new ArrayList<>();
+        for (Example e : examples) {
+            int y = labels.indexOf(e.label());
+            if (y < 0 || e.text() == null || e.text().isBlank()) continue;
+            xs.add(hash(featurizer.apply(e.text())));
+            ys.add(y);
+        }
+
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < xs.size(); i++) order.add(i);
+        Random random = new Random(seed);
+        double[] p = new double[k];
+
+        for (int epoch = 0; epoch < EPOCHS; epoch++) {
+            Collections.shuffle(order, random);
+            double lr = LEARNING_RATE / (1 + epoch);
+            for (int i : order) {
+                int[] x = xs.get(i);
+                softmax(w, b, x, p);
+                for (int c = 0; c < k; c++) {
+                    // Gradient cross-entropy: p - 1{c = y}
+                    double g = p[c] - (c == ys.get(i) ? 1 : 0);
+                    float step = (float) (lr * g);
+                    for (int f : x) w[c][f] -= step + (float) (lr * L2 * w[c][f]);
+                    b[c] -= step;
+                }
+            }
+        }
+        return new IntentLinearModel(List.copyOf(labels), featurizer, w, b, xs.size());
+    }
+
+    /** Xác suất theo thứ tự labels(). */
+    public double[] predict(String text) {
+        double[] p = new double[labels.size()];
+        softmax(weights, bias, hash(featurizer.apply(text)), p);
+        return p;
+    }
+
+    public int trainedOn() {
+        return trainedOn;
+    }
+
+    public List<String> labels() {
+        return labels;
+    }
+
+    private static void softmax(float[][] w, float[] b, int[] x, double[] out) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < out.length; c++) {
+            double z = b[c];
+            for (int f : x) z += w[c][f];
+            out[c] = z;
+            max = Math.max(max, z);
+        }
+        double sum = 0;
+        for (int c = 0; c < out.length; c++) {
+            out[c] = Math.exp(out[c] - max);
+            sum += out[c];
+        }
+        for (int c = 0; c < out.length; c++) out[c] /= sum;
+    }
+
+    private static int[] hash(List<String> features) {
+        int[] idx = new int[features.size()];
+        for (int i = 0; i < idx.length; i++) {
+            idx[i] = Math.floorMod(features.get(i).hashCode() * 0x9E3779B9, DIM);
+        }
+        return idx;
+    }
+}
@@ -28,10 +28,13 @@
 package org.example.audio_ecommerce.LangChain4J;
 
 import dev.langchain4j.model.openai.OpenAiChatModel;
+import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+
 @Configuration
 public class LangChainConfig {
 
@@ -44,6 +47,9 @@ public class LangChainConfig {
     @Value("${llm.model}")
     private String model;
 
+    @Value("${llm.stream.timeout-ms:120000}")
+    private long streamTimeoutMs;
+
     @Bean
     public OpenAiChatModel chatModel() {
         return OpenAiChatModel.builder()
@@ -54,4 +60,17 @@ public class LangChainConfig {
                 .maxTokens(2048)
                 .build();
     }
+
+    // Cùng provider / model, trả token dần qua callback (SSE) → không giữ thread request trong lúc sinh
+    @Bean
+    public OpenAiStreamingChatModel streamingChatModel() {
+        return OpenAiStreamingChatModel.builder()
+                .apiKey(apiKey)
+                .baseUrl(baseUrl)
+                .modelName(model)
+                .temperature(0.2)
+                .maxTokens(2048)
+                .timeout(Duration.ofMillis(streamTimeoutMs))
+                .build();
+    }
 }
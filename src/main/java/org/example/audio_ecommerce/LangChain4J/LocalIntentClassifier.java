@@ -0,0 +1,121 @@
+package org.example.audio_ecommerce.LangChain4J;
+
+import org.example.audio_ecommerce.util.PhraseMatcher;
+import org.example.audio_ecommerce.util.VietnameseText;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Phân loại intent (SEARCH / ADVICE / NONE) trong process, chạy trước LLM:
+ * 1. Từ khoá / cụm từ (Aho-Corasick): chỉ 1 intent khớp và đủ điểm → trả luôn.
+ * 2. Mô hình tuyến tính học từ nhãn LLM đã log (AiChatHistory.intent), dùng cả cụm từ khoá làm feature:
+ *    xác suất cao nhất ≥ minConfidence → trả.
+ * 3. Còn lại → Optional.empty(), để ProductQueryIntentDetector hỏi LLM.
+ * Bất biến; huấn luyện lại = tạo instance mới.
+ */
+public final class LocalIntentClassifier {
+
+    public static final List<String> LABELS = List.of("SEARCH", "ADVICE", "NONE");
+
+    public record Prediction(String intent, double confidence, String source) {}
+
+    private record Keyword(String intent, double weight) {}
+
+    private static final double KEYWORD_MIN_SCORE = 1.0;
+
+    private static final PhraseMatcher<Keyword> LEXICON = new PhraseMatcher<>(lexicon());
+
+    private final IntentLinearModel model;
+    private final double minConfidence;
+
+    private LocalIntentClassifier(IntentLinearModel model, double minConfidence) {
+        this.model = model;
+        this.minConfidence = minConfidence;
+    }
+
+    /** Chỉ dùng từ khoá (chưa đủ dữ liệu huấn luyện). */
+    public static LocalIntentClassifier keywordOnly() {
+        return new LocalIntentClassifier(null, 1.1);
+    }
+
+    public static LocalIntentClassifier train(List<IntentLinearModel.Example> examples, double minConfidence, long seed) {
+        IntentLinearModel model = IntentLinearModel.train(examples, LABELS, LocalIntentClassifier::features, seed);
+        return new LocalIntentClassifier(model, minConfidence);
+    }
+
+    public Optional<Prediction> classify(String text) {
+        if (text == null || text.isBlank()) return Optional.empty();
+
+        Map<String, Double> scores = new LinkedHashMap<>();
+        for (PhraseMatcher.Match<Keyword> m : LEXICON.findAll(text)) {
+            scores.merge(m.value().intent(), m.value().weight(), Double::sum);
+        }
+        if (scores.size() == 1) {
+            Map.Entry<String, Double> only = scores.entrySet().iterator().next();
+            if (only.getValue() >= KEYWORD_MIN_SCORE) {
+                return Optional.of(new Prediction(only.getKey(), 1 - Math.pow(0.5, 1 + only.getValue()), "keyword"));
+            }
+        }
+
+        if (model == null) return Optional.empty();
+        double[] p = model.predict(text);
+        int best = 0;
+        for (int c = 1; c < p.length; c++) if (p[c] > p[best]) best = c;
+        return p[best] >= minConfidence
+                ? Optional.of(new Prediction(LABELS.get(best), p[best], "model"))
+                : Optional.empty();
+    }
+
+    public int trainedOn() {
+        return model == null ? 0 : model.trainedOn();
+    }
+
+    /** Token + bigram đã bỏ dấu + cụm từ khoá khớp được (kèm intent của cụm). */
+    static List<String> features(String text) {
+        List<String> tokens = VietnameseText.tokenize(text);
+        List<String> f = new ArrayList<>(tokens.size() * 2 + 4);
+        for (int i = 0; i < tokens.size(); i++) {
+            f.add("w:" + tokens.get(i));
+            if (i + 1 < tokens.size()) f.add("b:" + tokens.get(i) + "_" + tokens.get(i + 1));
+        }
+        for (PhraseMatcher.Match<Keyword> m : LEXICON.findAll(text)) {
+            f.add("k:" + m.phrase());
+            f.add("ki:" + m.value().intent());
+        }
+        return f;
+    }
+
+    // ========================================================
+    // TỪ KHOÁ (viết có dấu cho dễ đọc; so khớp sau khi bỏ dấu)
+    // ========================================================
+
+    private static Map<String, Keyword> lexicon() {
+        Map<String, Keyword> m = new LinkedHashMap<>();
+        put(m, "SEARCH", 1.0,
+                "tìm loa", "tìm amply", "tìm ampli", "tìm dac", "tìm sub", "tìm tai nghe", "tìm micro", "tìm mic",
+                "tìm mixer", "tìm soundbar", "tìm sản phẩm", "mua loa", "mua amply", "mua ampli", "mua dac",
+                "mua sub", "mua tai nghe", "mua micro", "mua mic", "mua mixer", "mua soundbar", "muốn mua",
+                "cần mua", "giá bao nhiêu", "bao nhiêu tiền", "loa nào tốt", "amply nào", "ampli nào", "dac nào",
+                "tai nghe nào", "micro nào", "gợi ý sản phẩm", "có bán", "còn hàng", "tầm giá", "ngân sách",
+                "khoảng giá", "rẻ nhất", "giá rẻ", "cho xem", "shop có");
+        put(m, "SEARCH", 0.5, "triệu", "dưới", "combo karaoke", "combo");
+        put(m, "ADVICE", 1.0,
+                "setup phòng", "setup", "phòng nghe", "phòng xem phim", "ghép loa", "phối ghép", "matching",
+                "ghép amply", "ghép ampli", "chọn sub", "diện tích", "dàn 2 1", "dàn 5 1", "dàn 7 1", "atmos",
+                "âm học", "tư vấn", "cách lắp", "bố trí loa", "vị trí đặt loa", "cách âm", "tiêu âm", "có nên",
+                "nên chọn", "khác nhau", "so sánh", "làm sao", "tại sao", "burn in", "trở kháng", "hợp với");
+        put(m, "NONE", 1.0,
+                "bitcoin", "crypto", "lập trình", "code", "javascript", "python", "java", "vận chuyển",
+                "giao hàng", "đổi trả", "hoàn tiền", "chính sách", "thời tiết", "xin chào", "hello", "cảm ơn",
+                "bạn là ai", "đơn hàng của tôi", "thanh toán", "mã giảm giá");
+        return m;
+    }
+
+    private static void put(Map<String, Keyword> m, String intent, double weight, String... phrases) {
+        for (String p : phrases) m.put(p, new Keyword(intent, weight));
+    }
+}
@@ -1,8 +1,11 @@
 package org.example.audio_ecommerce.LangChain4J;
 
 import lombok.RequiredArgsConstructor;
+import org.example.audio_ecommerce.util.SseStreams;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.Map;
 
@@ -14,44 +17,90 @@ public class ProductAiQueryController {
     private final ProductAiQueryService aiService;
     private final ProductQueryIntentDetector intentDetector;
     private final AudioChatService audioChatService;
+    private final AiChatMemoryService memoryService;
+    private final SseStreams sseStreams;
 
     @PostMapping("/search")
-public ResponseEntity<?> search(@RequestBody AiQueryRequest request) {
+    public ResponseEntity<?> search(@RequestBody AiQueryRequest request) {
 
-    String question = request.getQuestion();
-    String userId = (request.getUserId() == null || request.getUserId().isBlank())
-            ? "ANONYMOUS_USER"
-            : request.getUserId();
+        String question = request.getQuestion();
+        String userId = userIdOf(request);
 
-    String intent = intentDetector.detectIntent(question);
+        ProductQueryIntentDetector.Detection detection = intentDetector.detect(question);
 
-    switch (intent) {
-        case "ADVICE" -> {
-            String reply = audioChatService.chat(userId, question);
-            return ResponseEntity.ok(Map.of(
+        Map<String, Object> body = switch (detection.intent()) {
+            case "ADVICE" -> Map.of(
                     "mode", "advice",
                     "question", question,
-                    "reply", reply
-            ));
-        }
-
-        case "SEARCH" -> {
-            Map<String, Object> result = aiService.searchProduct(userId, question);
-            return ResponseEntity.ok(Map.of(
+                    "reply", audioChatService.chat(userId, question)
+            );
+            case "SEARCH" -> Map.of(
                     "mode", "product_search",
                     "question", question,
-                    "result", result
-            ));
-        }
-
-        default -> {
-            String reply = audioChatService.chat(userId, question);
-            return ResponseEntity.ok(Map.of(
+                    "result", aiService.searchProduct(userId, question)
+            );
+            default -> Map.of(
                     "mode", "none",
                     "question", question,
-                    "reply", reply
-            ));
+                    "reply", audioChatService.chat(userId, question)
+            );
+        };
+
+        // Nhãn LLM → dữ liệu huấn luyện bộ phân loại local (câu hỏi vừa được lưu trong nhánh trên)
+        if (detection.fromLlm()) {
+            memoryService.labelLatestUserMessage(userId, question, detection.intent());
         }
+        return ResponseEntity.ok(body);
+    }
+
+    /**
+     * Như /search nhưng trả Server-Sent Events:
+     * "intent" → (SEARCH) "products" ngay khi bước SQL xong → "token"... nhận xét của AI → "done";
+     * ADVICE / NONE: "intent" → "token"... → "done". Lỗi: "error".
+     */
+    @PostMapping(value = "/search/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter searchStream(@RequestBody AiQueryRequest request) {
+
+        String question = request.getQuestion();
+        String userId = userIdOf(request);
+
+        return sseStreams.start(session -> {
+            ProductQueryIntentDetector.Detection detection = intentDetector.detect(question);
+            session.send("intent", Map.of("mode", modeOf(detection.intent()), "question", question));
+
+            if ("SEARCH".equals(detection.intent())) {
+                Map<String, Object> result = aiService.searchProduct(userId, question);
+                if (detection.fromLlm()) {
+                    memoryService.labelLatestUserMessage(userId, question, detection.intent());
+                }
+
+                // Thẻ sản phẩm tới client trước, lời nhận xét của LLM stream theo sau
+                if (!session.send("products", result)) return;
+                if (result.get("count") instanceof Integer count && count > 0) {
+                    aiService.streamSummary(question, result, session.sink());
+                } else {
+                    session.complete();
+                }
+            } else {
+                audioChatService.chatStream(userId, question, session.sink());
+                if (detection.fromLlm()) {
+                    memoryService.labelLatestUserMessage(userId, question, detection.intent());
+                }
+            }
+        });
+    }
+
+    private static String userIdOf(AiQueryRequest request) {
+        return (request.getUserId() == null || request.getUserId().isBlank())
+                ? "ANONYMOUS_USER"
+                : request.getUserId();
+    }
+
+    private static String modeOf(String intent) {
+        return switch (intent) {
+            case "ADVICE" -> "advice";
+            case "SEARCH" -> "product_search";
+            default -> "none";
+        };
     }
-}
 }
@@ -3,15 +3,19 @@ package org.example.audio_ecommerce.LangChain4J;
 import dev.langchain4j.data.message.AiMessage;
 import dev.langchain4j.data.message.ChatMessage;
 import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.example.audio_ecommerce.entity.Product;
 import org.example.audio_ecommerce.repository.ProductRepository;
+import org.example.audio_ecommerce.util.TokenSink;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.util.*;
 import java.util.stream.Collectors;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class ProductAiQueryService {
@@ -22,6 +26,10 @@ public class ProductAiQueryService {
     private final ProductRepository productRepository;
 
     private final AiChatMemoryService memoryService;
+    private final AiSqlResultCache resultCache;
+    private final OpenAiStreamingChatModel streamingChatModel;
+
+    private static final String CACHE_SCOPE = "product-search";
 
     public Map<String, Object> searchProduct(String userId, String naturalQuestion) {
 
@@ -40,46 +48,23 @@ public class ProductAiQueryService {
             }
         }
 
-        // Build prompt
-        String fullPrompt = """
-            You are an expert SQL generator for an Audio E-Commerce platform.
-
-            ===========================
-            CONVERSATION HISTORY
-            ===========================
-            %s
-
-            ===========================
-            USER REQUEST
-            ===========================
-            %s
-
-            ===========================
-            SCHEMA
-            ===========================
-            %s
-            """.formatted(historyText, naturalQuestion, schemaLoader.loadSchema());
-
-        // Generate SQL
-        String sql = agent.generateSql(fullPrompt);
-
-        List<Map<String, Object>> rows;
+        // Câu hỏi tự đủ nghĩa → dùng chung kết quả đã sinh; câu hỏi nối tiếp phụ thuộc lịch sử → luôn sinh mới
+        AiSqlResultCache.CachedSql result;
         try {
-            rows = sqlExecutor.runSelect(sql);
-        } catch (Exception e) {
+            result = AiSqlResultCache.isContextFree(naturalQuestion)
+                    ? resultCache.get(CACHE_SCOPE, naturalQuestion, () -> generateAndRun(historyText, naturalQuestion))
+                    : generateAndRun(historyText, naturalQuestion);
+        } catch (GeneratedSqlException e) {
+            // SQL + lý do chỉ ghi log; không trả về client (lộ schema / điều kiện guard)
+            log.warn("[AI SQL] Generated SQL rejected or failed: {} | sql={}", e.getMessage(), e.sql);
             return Map.of(
                 "count", 0,
-                "error", e.getMessage(),
-                "sql", sql,
+                "error", "Không tạo được truy vấn phù hợp, vui lòng diễn đạt lại câu hỏi.",
                 "message", "AI generate SQL error"
             );
         }
 
-        // Convert to product IDs
-        List<UUID> productIds = rows.stream()
-                .map(r -> UUID.fromString(r.get("product_id").toString()))
-                .distinct()
-                .toList();
+        List<UUID> productIds = result.productIds();
 
         if (productIds.isEmpty()) {
             return Map.of(
@@ -148,6 +133,75 @@ public class ProductAiQueryService {
         );
     }
 
+    /**
+     * Nhận xét ngắn về kết quả searchProduct(), stream token vào sink.
+     * Client đã có thẻ sản phẩm từ bước SQL; phần này chỉ là lời tư vấn đi kèm nên không lưu vào bộ nhớ.
+     */
+    public void streamSummary(String naturalQuestion, Map<String, Object> result, TokenSink sink) {
+        StringBuilder list = new StringBuilder();
+        if (result.get("items") instanceof List<?> items) {
+            int index = 1;
+            for (Object item : items) {
+                if (item instanceof Map<?, ?> s) {
+                    list.append(index++).append(". ").append(s.get("summary")).append("\n");
+                }
+            }
+        }
+
+        String prompt = """
+            Bạn là nhân viên tư vấn của cửa hàng thiết bị âm thanh.
+            Khách hỏi: %s
+
+            Các sản phẩm tìm được (khách đã thấy danh sách này):
+            %s
+            Viết 2-4 câu tiếng Việt: sản phẩm nào hợp nhất với yêu cầu và vì sao, lưu ý nếu thiếu gì.
+            Không liệt kê lại toàn bộ danh sách, không bịa thông số không có ở trên.
+            """.formatted(naturalQuestion, list);
+
+        streamingChatModel.generate(prompt, new TokenSinkHandler(sink, reply -> {}));
+    }
+
+    private AiSqlResultCache.CachedSql generateAndRun(CharSequence historyText, String naturalQuestion) {
+        // Build prompt
+        String fullPrompt = """
+            You are an expert SQL generator for an Audio E-Commerce platform.
+
+            ===========================
+            CONVERSATION HISTORY
+            ===========================
+            %s
+
+            ===========================
+            USER REQUEST
+            ===========================
+            %s
+
+            ===========================
+            SCHEMA
+            ===========================
+            %s
+            """.formatted(historyText, naturalQuestion, schemaLoader.loadSchema());
+
+        // Generate SQL
+        String sql = agent.generateSql(fullPrompt);
+
+        try {
+            return new AiSqlResultCache.CachedSql(sql, sqlExecutor.selectProductIds(sql));
+        } catch (Exception e) {
+            throw new GeneratedSqlException(sql, e);
+        }
+    }
+
+    /** SQL do LLM sinh bị chặn / chạy lỗi → không cache; SQL chỉ để ghi log. */
+    private static class GeneratedSqlException extends RuntimeException {
+        private final String sql;
+
+        GeneratedSqlException(String sql, Exception cause) {
+            super(String.valueOf(cause.getMessage()), cause);
+            this.sql = sql;
+        }
+    }
+
     private Map<String, Object> buildSummary(Product p) {
 
         BigDecimal effectivePrice =
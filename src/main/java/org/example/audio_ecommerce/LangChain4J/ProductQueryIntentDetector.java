@@ -2,17 +2,109 @@ package org.example.audio_ecommerce.LangChain4J;
 
 import dev.langchain4j.data.message.*;
 import dev.langchain4j.model.openai.OpenAiChatModel;
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Phân loại intent câu hỏi AI chat: thử bộ phân loại local trước (từ khoá + mô hình tuyến tính, cỡ micro giây),
+ * chỉ gọi LLM khi local không đủ tự tin. Nhãn LLM được log vào AiChatHistory.intent để huấn luyện lại định kỳ.
+ * Một tỉ lệ nhỏ (shadow-rate) câu local đã trả lời vẫn hỏi LLM để đo độ khớp và tiếp tục có dữ liệu nhãn.
+ * Metrics: ai.intent.decisions{source=keyword|model|llm}, ai.intent.shadow{result=agree|disagree}, ai.intent.llm.
+ */
+@Slf4j
 @Component
-@RequiredArgsConstructor
 public class ProductQueryIntentDetector {
 
+    public record Detection(String intent, String source, double confidence) {
+        public boolean fromLlm() {
+            return "llm".equals(source);
+        }
+    }
+
+    private static final long TRAINING_SEED = 42;
+
     private final OpenAiChatModel chatModel;
+    private final AiChatHistoryRepository historyRepository;
+    private final MeterRegistry meterRegistry;
+    private final Timer llmTimer;
+    private final boolean localEnabled;
+    private final double minConfidence;
+    private final int minTrainingExamples;
+    private final int maxTrainingExamples;
+    private final double shadowRate;
+
+    private volatile LocalIntentClassifier local = LocalIntentClassifier.keywordOnly();
+
+    public ProductQueryIntentDetector(OpenAiChatModel chatModel,
+                                      AiChatHistoryRepository historyRepository,
+                                      MeterRegistry meterRegistry,
+                                      @Value("${ai.intent.local-enabled:true}") boolean localEnabled,
+                                      @Value("${ai.intent.min-confidence:0.85}") double minConfidence,
+                                      @Value("${ai.intent.min-training-examples:200}") int minTrainingExamples,
+                                      @Value("${ai.intent.max-training-examples:20000}") int maxTrainingExamples,
+                                      @Value("${ai.intent.shadow-rate:0.02}") double shadowRate) {
+        this.chatModel = chatModel;
+        this.historyRepository = historyRepository;
+        this.meterRegistry = meterRegistry;
+        this.llmTimer = meterRegistry.timer("ai.intent.llm");
+        this.localEnabled = localEnabled;
+        this.minConfidence = minConfidence;
+        this.minTrainingExamples = minTrainingExamples;
+        this.maxTrainingExamples = maxTrainingExamples;
+        this.shadowRate = shadowRate;
+    }
 
     public String detectIntent(String userMessage) {
+        return detect(userMessage).intent();
+    }
 
+    public Detection detect(String userMessage) {
+        Optional<LocalIntentClassifier.Prediction> fast = localEnabled
+                ? local.classify(userMessage)
+                : Optional.empty();
+
+        boolean shadow = fast.isPresent() && ThreadLocalRandom.current().nextDouble() < shadowRate;
+        if (fast.isPresent() && !shadow) {
+            LocalIntentClassifier.Prediction p = fast.get();
+            meterRegistry.counter("ai.intent.decisions", "source", p.source()).increment();
+            return new Detection(p.intent(), p.source(), p.confidence());
+        }
+
+        String label = llmTimer.record(() -> askLlm(userMessage));
+        meterRegistry.counter("ai.intent.decisions", "source", "llm").increment();
+        if (shadow) {
+            boolean agree = fast.get().intent().equals(label);
+            meterRegistry.counter("ai.intent.shadow", "result", agree ? "agree" : "disagree").increment();
+        }
+        return new Detection(label, "llm", 1.0);
+    }
+
+    /** Huấn luyện lại mô hình local từ câu hỏi đã có nhãn LLM; chưa đủ dữ liệu thì chỉ dùng từ khoá. */
+    public int retrain() {
+        List<IntentLinearModel.Example> examples = historyRepository
+                .findLabeledQuestions(PageRequest.of(0, maxTrainingExamples))
+                .stream()
+                .map(q -> new IntentLinearModel.Example(q.getContent(), q.getIntent()))
+                .toList();
+        if (examples.size() < minTrainingExamples) {
+            local = LocalIntentClassifier.keywordOnly();
+            log.info("[IntentDetector] {} labeled questions (< {}) → keyword-only", examples.size(), minTrainingExamples);
+            return 0;
+        }
+        local = LocalIntentClassifier.train(examples, minConfidence, TRAINING_SEED);
+        log.info("[IntentDetector] Trained local intent model on {} labeled questions", local.trainedOn());
+        return local.trainedOn();
+    }
+
+    private String askLlm(String userMessage) {
         var response = chatModel.generate(
                 SystemMessage.from("""
                         You are an INTENT CLASSIFIER for an AUDIO ASSISTANT.
@@ -59,6 +151,18 @@ public class ProductQueryIntentDetector {
                 UserMessage.from(userMessage)
         );
 
-        return response.content().text().trim().toUpperCase();
+        return toLabel(response.content().text());
+    }
+
+    /** Chuẩn hoá output LLM ("search.", " Advice ") về 1 nhãn hợp lệ; không nhận ra → NONE. */
+    static String toLabel(String raw) {
+        String text = raw == null ? "" : raw.trim().toUpperCase();
+        for (String label : LocalIntentClassifier.LABELS) {
+            if (text.startsWith(label)) return label;
+        }
+        for (String label : LocalIntentClassifier.LABELS) {
+            if (text.contains(label)) return label;
+        }
+        return "NONE";
     }
 }
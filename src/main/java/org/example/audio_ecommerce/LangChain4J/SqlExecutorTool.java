@@ -1,22 +1,243 @@
 package org.example.audio_ecommerce.LangChain4J;
 
-import lombok.RequiredArgsConstructor;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
+/**
+ * Chạy SQL do LLM sinh ra trong "lồng" riêng:
+ * - Pool JDBC riêng, nhỏ, read-only → query AI chậm không chiếm connection của luồng đặt hàng / thanh toán.
+ * - Chỉ 1 câu SELECT, chặn từ khoá ghi / hàm nguy hiểm / comment.
+ * - Chỉ đọc các bảng sản phẩm / danh mục trong whitelist (ai.sql.allowed-tables), kể cả trong subquery.
+ * - Luôn có LIMIT (thiếu thì thêm, lớn quá thì hạ xuống max-rows) + statement timeout.
+ * - Tuỳ chọn: EXPLAIN FORMAT=JSON (MySQL), query_cost vượt ngưỡng thì không chạy.
+ */
+@Slf4j
 @Component
-@RequiredArgsConstructor
 public class SqlExecutorTool {
 
+    private static final Pattern FORBIDDEN = Pattern.compile(
+            "\\b(insert|update|delete|drop|truncate|alter|create|grant|revoke|call|handler|load_file"
+                    + "|outfile|dumpfile|sleep|benchmark|get_lock)\\b|for\\s+update|lock\\s+in\\s+share\\s+mode",
+            Pattern.CASE_INSENSITIVE);
+    // Chuỗi, tên (có thể `quoted` / schema.table), hoặc 1 ký tự bất kỳ
+    private static final Pattern SQL_TOKEN = Pattern.compile(
+            "'(?:[^'\\\\]|\\\\.|'')*'|\"(?:[^\"\\\\]|\\\\.)*\""
+                    + "|(?:`[^`]*`|[A-Za-z_][\\w$]*)(?:\\s*\\.\\s*(?:`[^`]*`|[A-Za-z_][\\w$]*))*|\\S");
+    private static final Pattern IDENTIFIER = Pattern.compile("`[^`]*`|[A-Za-z_][\\w$]*");
+    // Gặp các từ này thì danh sách bảng sau FROM đã hết
+    private static final Set<String> FROM_LIST_END = Set.of(
+            "select", "where", "group", "order", "having", "limit", "union", "window", "into", "for", "lock");
+    // Từ khoá có thể đứng ngay sau tên bảng, không phải alias
+    private static final Set<String> NOT_ALIAS = Set.of(
+            "join", "inner", "left", "right", "cross", "natural", "straight_join", "outer", "on", "using",
+            "where", "group", "order", "having", "limit", "union", "window", "use", "force", "ignore");
+    private static final Pattern TRAILING_LIMIT = Pattern.compile(
+            "\\blimit\\s+(\\d+)(\\s*,\\s*(\\d+))?(\\s+offset\\s+\\d+)?\\s*$", Pattern.CASE_INSENSITIVE);
+
+    private final HikariDataSource dataSource;
     private final JdbcTemplate jdbc;
+    private final ObjectMapper objectMapper;
+    private final Set<String> allowedTables;
+    private final int maxRows;
+    private final double maxExplainCost;
+
+    private final Counter ok;
+    private final Counter rejected;
+    private final Counter failed;
+    private final Timer timer;
+
+    public SqlExecutorTool(ObjectMapper objectMapper,
+                           MeterRegistry meterRegistry,
+                           @Value("${ai.sql.datasource.url:${spring.datasource.url}}") String url,
+                           @Value("${ai.sql.datasource.username:${spring.datasource.username}}") String username,
+                           @Value("${ai.sql.datasource.password:${spring.datasource.password}}") String password,
+                           @Value("${ai.sql.pool-size:2}") int poolSize,
+                           @Value("${ai.sql.statement-timeout-seconds:3}") int statementTimeoutSeconds,
+                           @Value("${ai.sql.max-rows:50}") int maxRows,
+                           @Value("${ai.sql.max-explain-cost:0}") double maxExplainCost,
+                           @Value("${ai.sql.allowed-tables:products,product_variants,product_categories,categories,"
+                                   + "category_attributes,product_attribute_values}") String allowedTables) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("ai-sql");
+        config.setJdbcUrl(url);
+        config.setUsername(username);
+        config.setPassword(password);
+        config.setReadOnly(true);
+        config.setMaximumPoolSize(Math.max(1, poolSize));
+        config.setMinimumIdle(0);
+        config.setConnectionTimeout(2_000);
+        // DB chưa sẵn sàng lúc khởi động không được làm app chết; pool tự mở connection khi có query đầu tiên
+        config.setInitializationFailTimeout(-1);
+        this.dataSource = new HikariDataSource(config);
+
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.jdbc.setQueryTimeout(statementTimeoutSeconds);
+        this.jdbc.setMaxRows(maxRows);
+        this.objectMapper = objectMapper;
+        this.allowedTables = Arrays.stream(allowedTables.split(","))
+                .map(t -> t.trim().toLowerCase(Locale.ROOT))
+                .filter(t -> !t.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+        this.maxRows = maxRows;
+        this.maxExplainCost = maxExplainCost;
+
+        this.ok = meterRegistry.counter("ai.sql.executions", "result", "ok");
+        this.rejected = meterRegistry.counter("ai.sql.executions", "result", "rejected");
+        this.failed = meterRegistry.counter("ai.sql.executions", "result", "error");
+        this.timer = meterRegistry.timer("ai.sql.duration");
+    }
 
     public List<Map<String, Object>> runSelect(String sql) {
-        if (!sql.trim().toUpperCase().startsWith("SELECT")) {
-            throw new RuntimeException("Only SELECT allowed");
+        String safe = guard(sql);
+        return execute(() -> jdbc.queryForList(safe));
+    }
+
+    /** Chạy SQL và lấy cột product_id (không trùng, giữ thứ tự). */
+    public List<UUID> selectProductIds(String sql) {
+        String safe = guard(sql);
+        return execute(() -> jdbc.query(safe, (rs, rowNum) -> UUID.fromString(rs.getString("product_id"))))
+                .stream()
+                .distinct()
+                .toList();
+    }
+
+    private <T> T execute(Supplier<T> query) {
+        try {
+            T result = timer.record(query);
+            ok.increment();
+            return result;
+        } catch (RuntimeException e) {
+            failed.increment();
+            throw e;
+        }
+    }
+
+    /** Kiểm tra + chuẩn hoá câu SQL; trả về câu sẽ thực sự chạy. */
+    String guard(String sql) {
+        if (sql == null || sql.isBlank()) throw reject("SQL rỗng");
+
+        String s = sql.trim();
+        while (s.endsWith(";")) s = s.substring(0, s.length() - 1).trim();
+
+        if (!s.toLowerCase(Locale.ROOT).startsWith("select")) throw reject("Only SELECT allowed");
+        if (s.contains(";")) throw reject("Chỉ cho phép 1 câu lệnh");
+        if (s.contains("--") || s.contains("/*") || s.contains("#")) throw reject("Không cho phép comment trong SQL");
+        if (FORBIDDEN.matcher(s).find()) throw reject("SQL chứa từ khoá bị chặn");
+        for (String table : referencedTables(s)) {
+            if (!allowedTables.contains(table)) throw reject("Bảng không được phép: " + table);
+        }
+
+        s = enforceLimit(s);
+        if (maxExplainCost > 0) checkCost(s);
+        return s;
+    }
+
+    /**
+     * Tên bảng (chữ thường, bỏ `) sau FROM / JOIN và trong danh sách "FROM a, b", ở mọi cấp subquery.
+     * FROM nằm trong ngoặc không phải subquery (EXTRACT(YEAR FROM ...), TRIM(... FROM ...)) bỏ qua.
+     * Gặp gì không nhận ra ở vị trí tên bảng thì vẫn trả về nguyên token → whitelist sẽ chặn.
+     */
+    static List<String> referencedTables(String sql) {
+        List<String> tokens = new ArrayList<>();
+        Matcher m = SQL_TOKEN.matcher(sql);
+        while (m.find()) tokens.add(m.group());
+
+        List<String> tables = new ArrayList<>();
+        // Mỗi cấp ngoặc: [0] = ngoặc subquery (SELECT ...), [1] = đang ở danh sách bảng sau FROM
+        Deque<boolean[]> frames = new ArrayDeque<>();
+        frames.push(new boolean[]{true, false});
+        for (int i = 0; i < tokens.size(); i++) {
+            String t = tokens.get(i);
+            if (t.equals("(")) {
+                frames.push(new boolean[]{i + 1 < tokens.size() && tokens.get(i + 1).equalsIgnoreCase("select"), false});
+                continue;
+            }
+            if (t.equals(")")) {
+                if (frames.size() > 1) frames.pop();
+                continue;
+            }
+            boolean[] frame = frames.peek();
+            if (!frame[0]) continue;
+
+            String word = t.toLowerCase(Locale.ROOT);
+            if (word.equals("from")) {
+                frame[1] = true;
+                i = readTable(tokens, i + 1, tables);
+            } else if (word.equals("join") || word.equals("straight_join") || (frame[1] && t.equals(","))) {
+                i = readTable(tokens, i + 1, tables);
+            } else if (FROM_LIST_END.contains(word)) {
+                frame[1] = false;
+            }
+        }
+        return tables;
+    }
+
+    // Đọc tên bảng ở vị trí i (+ alias nếu có); trả về vị trí token cuối đã đọc
+    private static int readTable(List<String> tokens, int i, List<String> tables) {
+        if (i >= tokens.size()) return i;
+        String name = tokens.get(i);
+        if (name.equals("(")) return i - 1; // subquery / bảng dẫn xuất: vòng ngoài xử lý ngoặc
+        tables.add(name.replace("`", "").replaceAll("\\s+", "").toLowerCase(Locale.ROOT));
+
+        if (i + 1 < tokens.size() && tokens.get(i + 1).equalsIgnoreCase("as")) return i + 2;
+        if (i + 1 < tokens.size() && IDENTIFIER.matcher(tokens.get(i + 1)).matches()
+                && !NOT_ALIAS.contains(tokens.get(i + 1).toLowerCase(Locale.ROOT))) return i + 1;
+        return i;
+    }
+
+    private String enforceLimit(String sql) {
+        Matcher m = TRAILING_LIMIT.matcher(sql);
+        if (!m.find()) return sql + " LIMIT " + maxRows;
+
+        // "LIMIT offset, count" → count là nhóm 3; "LIMIT count [OFFSET x]" → count là nhóm 1
+        boolean offsetComma = m.group(3) != null;
+        long count = Long.parseLong(offsetComma ? m.group(3) : m.group(1));
+        if (count <= maxRows) return sql;
+
+        String head = sql.substring(0, m.start());
+        return offsetComma
+                ? head + "LIMIT " + m.group(1) + ", " + maxRows
+                : head + "LIMIT " + maxRows + (m.group(4) != null ? m.group(4) : "");
+    }
+
+    private void checkCost(String sql) {
+        double cost;
+        try {
+            String plan = jdbc.queryForObject("EXPLAIN FORMAT=JSON " + sql, String.class);
+            JsonNode root = objectMapper.readTree(plan);
+            cost = root.path("query_block").path("cost_info").path("query_cost").asDouble(Double.MAX_VALUE);
+        } catch (Exception e) {
+            throw reject("Không EXPLAIN được SQL: " + e.getMessage());
+        }
+        if (cost > maxExplainCost) {
+            throw reject("SQL quá nặng (cost " + cost + " > " + maxExplainCost + ")");
         }
-        return jdbc.queryForList(sql);
+    }
+
+    private IllegalArgumentException reject(String reason) {
+        rejected.increment();
+        log.warn("[AI SQL] Từ chối: {}", reason);
+        return new IllegalArgumentException(reason);
+    }
+
+    @PreDestroy
+    public void close() {
+        dataSource.close();
     }
 }
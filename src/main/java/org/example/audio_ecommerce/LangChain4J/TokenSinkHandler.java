@@ -0,0 +1,45 @@
+package org.example.audio_ecommerce.LangChain4J;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.output.Response;
+import org.example.audio_ecommerce.util.TokenSink;
+
+import java.util.function.Consumer;
+
+/**
+ * Nối callback của streaming model LangChain4j vào TokenSink.
+ * onReply chạy với toàn văn trước khi báo sink hoàn tất (vd lưu tin nhắn AI vào bộ nhớ hội thoại).
+ */
+class TokenSinkHandler implements StreamingResponseHandler<AiMessage> {
+
+    private final TokenSink sink;
+    private final Consumer<String> onReply;
+
+    TokenSinkHandler(TokenSink sink, Consumer<String> onReply) {
+        this.sink = sink;
+        this.onReply = onReply;
+    }
+
+    @Override
+    public void onNext(String token) {
+        if (!sink.isCancelled()) sink.onToken(token);
+    }
+
+    @Override
+    public void onComplete(Response<AiMessage> response) {
+        String reply = response.content() == null ? "" : response.content().text();
+        try {
+            onReply.accept(reply);
+        } catch (Exception e) {
+            sink.onError(e);
+            return;
+        }
+        sink.onComplete(reply);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        sink.onError(error);
+    }
+}
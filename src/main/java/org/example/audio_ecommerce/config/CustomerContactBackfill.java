@@ -0,0 +1,70 @@
+package org.example.audio_ecommerce.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.repository.CustomerRepository;
+import org.example.audio_ecommerce.util.ContactNormalizer;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Điền email_normalized / phone_normalized cho customer tạo trước khi có 2 cột này
+ * (bản ghi mới tự điền qua @PrePersist/@PreUpdate). Chạy 1 lần lúc khởi động, idempotent.
+ * Cột chuẩn hoá không unique → customer cũ trùng SĐT/email sau chuẩn hoá vẫn được điền, không bỏ sót.
+ */
+@Slf4j
+@Component
+public class CustomerContactBackfill {
+
+    private static final int BATCH = 500;
+
+    private final CustomerRepository customerRepository;
+    private final TransactionTemplate tx;
+
+    public CustomerContactBackfill(CustomerRepository customerRepository, PlatformTransactionManager txManager) {
+        this.customerRepository = customerRepository;
+        this.tx = new TransactionTemplate(txManager);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfill() {
+        try {
+            Integer emails = tx.execute(s -> customerRepository.backfillEmailNormalized());
+            int phones = backfillPhones();
+            if ((emails != null && emails > 0) || phones > 0) {
+                log.info("[CustomerContactBackfill] Normalized {} emails, {} phone numbers", emails, phones);
+            }
+        } catch (Exception e) {
+            log.error("[CustomerContactBackfill] Backfill failed, lookups may miss legacy customers", e);
+        }
+    }
+
+    // SĐT cần chuẩn hoá trong Java → keyset theo id, mỗi batch 1 transaction
+    private int backfillPhones() {
+        int updated = 0;
+        UUID after = null;
+        while (true) {
+            List<CustomerRepository.PhoneRow> rows =
+                    customerRepository.findPhonesToNormalize(after, PageRequest.of(0, BATCH));
+            if (rows.isEmpty()) return updated;
+
+            Integer n = tx.execute(s -> {
+                int count = 0;
+                for (CustomerRepository.PhoneRow r : rows) {
+                    String phone = ContactNormalizer.phone(r.getPhoneNumber());
+                    if (phone == null) continue;
+                    count += customerRepository.setPhoneNormalized(r.getId(), phone);
+                }
+                return count;
+            });
+            updated += n == null ? 0 : n;
+            after = rows.get(rows.size() - 1).getId();
+        }
+    }
+}
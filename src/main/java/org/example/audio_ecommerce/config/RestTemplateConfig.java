@@ -1,13 +1,59 @@
 package org.example.audio_ecommerce.config;
 
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.example.audio_ecommerce.util.UpstreamGuard;
+import org.example.audio_ecommerce.util.UpstreamGuards;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
+/**
+ * RestTemplate dùng chung hiện chỉ gọi GHN → gắn pool + timeout + guard của upstream "ghn".
+ * Tích hợp khác (Gemini, FCM) dùng HttpClient riêng với guard riêng, không chia pool với GHN.
+ */
 @Configuration
 public class RestTemplateConfig {
+
+    // Pool kết nối keep-alive tới GHN, giới hạn theo route; đóng khi app tắt
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient ghnHttpClient(UpstreamGuards guards) {
+        UpstreamGuard.Settings s = guards.get("ghn").settings();
+
+        PoolingHttpClientConnectionManager pool = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnPerRoute(s.maxPerRoute())
+                .setMaxConnTotal(s.maxTotal())
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(s.connectTimeoutMs()))
+                        .setSocketTimeout(Timeout.ofMilliseconds(s.readTimeoutMs()))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(10))
+                        .setTimeToLive(TimeValue.ofMinutes(5))
+                        .build())
+                .build();
+
+        return HttpClients.custom()
+                .setConnectionManager(pool)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        // Chờ lấy kết nối từ pool không quá thời gian chờ slot bulkhead
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(Math.max(s.acquireTimeoutMs(), 100)))
+                        .setResponseTimeout(Timeout.ofMilliseconds(s.readTimeoutMs()))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofSeconds(30))
+                .build();
+    }
+
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public RestTemplate restTemplate(CloseableHttpClient ghnHttpClient, UpstreamGuards guards) {
+        RestTemplate restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(ghnHttpClient));
+        restTemplate.getInterceptors().add(guards.get("ghn"));
+        return restTemplate;
     }
 }
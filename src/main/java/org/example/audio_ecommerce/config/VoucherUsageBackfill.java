@@ -0,0 +1,44 @@
+package org.example.audio_ecommerce.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.repository.PlatformCampaignProductUsageRepository;
+import org.example.audio_ecommerce.repository.ShopVoucherUsageRepository;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Điền last_used_at = first_used_at cho lịch sử dùng voucher ghi trước khi báo cáo lọc / sort theo last_used_at
+ * (bản ghi mới tự điền qua @PrePersist). Chạy 1 lần lúc khởi động, idempotent.
+ */
+@Slf4j
+@Component
+public class VoucherUsageBackfill {
+
+    private final ShopVoucherUsageRepository shopVoucherUsageRepo;
+    private final PlatformCampaignProductUsageRepository platformUsageRepo;
+    private final TransactionTemplate tx;
+
+    public VoucherUsageBackfill(ShopVoucherUsageRepository shopVoucherUsageRepo,
+                                PlatformCampaignProductUsageRepository platformUsageRepo,
+                                PlatformTransactionManager txManager) {
+        this.shopVoucherUsageRepo = shopVoucherUsageRepo;
+        this.platformUsageRepo = platformUsageRepo;
+        this.tx = new TransactionTemplate(txManager);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfill() {
+        try {
+            Integer shop = tx.execute(s -> shopVoucherUsageRepo.backfillLastUsedAt());
+            Integer platform = tx.execute(s -> platformUsageRepo.backfillLastUsedAt());
+            if ((shop != null && shop > 0) || (platform != null && platform > 0)) {
+                log.info("[VoucherUsageBackfill] Filled lastUsedAt for {} shop and {} platform usages", shop, platform);
+            }
+        } catch (Exception e) {
+            log.error("[VoucherUsageBackfill] Backfill failed, usage reports may miss legacy rows", e);
+        }
+    }
+}
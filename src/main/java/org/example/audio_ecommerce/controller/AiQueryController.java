@@ -7,8 +7,11 @@ import org.example.audio_ecommerce.dto.request.AiQueryRequest;
 import org.example.audio_ecommerce.dto.response.AiQueryResponse;
 import org.example.audio_ecommerce.service.AiQueryService;
 import org.example.audio_ecommerce.util.GeminiClient;
+import org.example.audio_ecommerce.util.SseStreams;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.Map;
 
@@ -20,6 +23,7 @@ public class AiQueryController {
 
     private final AiQueryService aiQueryService;
     private final GeminiClient geminiClient;
+    private final SseStreams sseStreams;
 
     // ============================================================
     // ⚙️ ADMIN NẠP SCHEMA TOÀN CỤC
@@ -49,6 +53,15 @@ public class AiQueryController {
         ));
     }
 
+    // ============================================================
+    // 📡 CHAT TỰ DO DẠNG STREAM (SSE) — event "token" từng đoạn, "done" khi xong, "error" khi lỗi
+    // ============================================================
+    @Operation(summary = "📡 Chat tự do với Gemini, trả lời dạng Server-Sent Events (token đến đâu đẩy đến đó)")
+    @PostMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter chatStream(@RequestBody AiQueryRequest request) {
+        return sseStreams.start(session -> aiQueryService.chatWithGeminiStream(request, session.sink()));
+    }
+
     // ============================================================
     // 🧠 SINH SQL QUERY (CẦN SCHEMA)
     // ============================================================
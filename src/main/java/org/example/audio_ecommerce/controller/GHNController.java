@@ -1,5 +1,8 @@
 package org.example.audio_ecommerce.controller;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -7,11 +10,15 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import org.example.audio_ecommerce.dto.request.GhnFeeRequest;
+import org.example.audio_ecommerce.service.GhnFeeService;
+import org.example.audio_ecommerce.service.Impl.GhnMasterDataStore;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.client.RestTemplate;
 
+import java.util.concurrent.TimeUnit;
+
 @RestController
 @RequestMapping("/api/ghn")
 @RequiredArgsConstructor
@@ -19,6 +26,9 @@ import org.springframework.web.client.RestTemplate;
 public class GHNController {
 
     private final RestTemplate restTemplate;
+    private final GhnMasterDataStore masterData;
+    private final GhnFeeService ghnFeeService;
+    private final ObjectMapper objectMapper;
 
     // ✅ Lấy từ application.yml
     @Value("${ghn.token}")
@@ -27,6 +37,12 @@ public class GHNController {
     @Value("${ghn.shopId}")
     private String ghnShopId;
 
+    @Value("${ghn.master-data.max-age-seconds:86400}")
+    private long masterDataMaxAge;
+
+    @Value("${ghn.master-data.pick-shifts-max-age-seconds:300}")
+    private long pickShiftsMaxAge;
+
     private static final String BASE_URL = "https://online-gateway.ghn.vn/shiip/public-api";
 
     // Hàm tạo Header GHN
@@ -43,17 +59,9 @@ public class GHNController {
     // ==========================================================
     @Operation(summary = "Lấy danh sách Tỉnh/Thành", description = "Trả về nguyên JSON từ GHN")
     @GetMapping("/provinces")
-    public ResponseEntity<String> getProvinces() {
-        HttpEntity<String> entity = new HttpEntity<>(createHeaders(false));
-        ResponseEntity<String> response = restTemplate.exchange(
-                BASE_URL + "/master-data/province",
-                HttpMethod.GET,
-                entity,
-                String.class
-        );
-        return ResponseEntity.status(response.getStatusCode())
-                .contentType(MediaType.APPLICATION_JSON)
-                .body(response.getBody());
+    public ResponseEntity<String> getProvinces(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return serve(masterData.provinces(), ifNoneMatch, masterDataMaxAge);
     }
 
     // ==========================================================
@@ -61,17 +69,19 @@ public class GHNController {
     // ==========================================================
     @Operation(summary = "Lấy danh sách Quận/Huyện", description = "Body mẫu: { \"province_id\": 202 }")
     @PostMapping("/districts")
-    public ResponseEntity<String> getDistricts(@RequestBody String body) {
-        HttpEntity<String> entity = new HttpEntity<>(body, createHeaders(false));
-        ResponseEntity<String> response = restTemplate.exchange(
-                BASE_URL + "/master-data/district",
-                HttpMethod.POST,
-                entity,
-                String.class
-        );
-        return ResponseEntity.status(response.getStatusCode())
-                .contentType(MediaType.APPLICATION_JSON)
-                .body(response.getBody());
+    public ResponseEntity<String> getDistricts(@RequestBody String body,
+                                               @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        Integer provinceId = idOf(body, "province_id");
+        if (provinceId == null) return missingId("province_id");
+        return serve(masterData.districts(provinceId), ifNoneMatch, masterDataMaxAge);
+    }
+
+    // GET để trình duyệt / CDN cache được theo ETag
+    @Operation(summary = "Lấy danh sách Quận/Huyện (GET, cache được)")
+    @GetMapping("/districts")
+    public ResponseEntity<String> getDistrictsByProvince(@RequestParam("province_id") int provinceId,
+                                                         @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return serve(masterData.districts(provinceId), ifNoneMatch, masterDataMaxAge);
     }
 
     // ==========================================================
@@ -79,18 +89,53 @@ public class GHNController {
     // ==========================================================
     @Operation(summary = "Lấy danh sách Phường/Xã", description = "Body mẫu: { \"district_id\": 3695 }")
     @PostMapping("/wards")
-    public ResponseEntity<String> getWards(@RequestBody String body) {
-        String districtId = body.replaceAll("\\D+", ""); // tách số
-        HttpEntity<String> entity = new HttpEntity<>(body, createHeaders(false));
-        ResponseEntity<String> response = restTemplate.exchange(
-                BASE_URL + "/master-data/ward?district_id=" + districtId,
-                HttpMethod.POST,
-                entity,
-                String.class
-        );
-        return ResponseEntity.status(response.getStatusCode())
+    public ResponseEntity<String> getWards(@RequestBody String body,
+                                           @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        Integer districtId = idOf(body, "district_id");
+        if (districtId == null) return missingId("district_id");
+        return serve(masterData.wards(districtId), ifNoneMatch, masterDataMaxAge);
+    }
+
+    @Operation(summary = "Lấy danh sách Phường/Xã (GET, cache được)")
+    @GetMapping("/wards")
+    public ResponseEntity<String> getWardsByDistrict(@RequestParam("district_id") int districtId,
+                                                     @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return serve(masterData.wards(districtId), ifNoneMatch, masterDataMaxAge);
+    }
+
+    // Master data phục vụ từ bộ nhớ: ETag khớp → 304, không gửi lại body
+    private ResponseEntity<String> serve(GhnMasterDataStore.MasterData data, String ifNoneMatch, long maxAgeSeconds) {
+        CacheControl cacheControl = CacheControl.maxAge(maxAgeSeconds, TimeUnit.SECONDS).cachePublic();
+        if (ifNoneMatch != null && (ifNoneMatch.contains(data.etag()) || ifNoneMatch.trim().equals("*"))) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(data.etag())
+                    .cacheControl(cacheControl)
+                    .build();
+        }
+        return ResponseEntity.ok()
+                .eTag(data.etag())
+                .cacheControl(cacheControl)
                 .contentType(MediaType.APPLICATION_JSON)
-                .body(response.getBody());
+                .body(data.body());
+    }
+
+    // Đọc đúng field id trong body JSON (số hoặc chuỗi số); thiếu / sai kiểu → null (400)
+    private Integer idOf(String body, String field) {
+        if (body == null || body.isBlank()) return null;
+        try {
+            JsonNode node = objectMapper.readTree(body).path(field);
+            if (node.isIntegralNumber() && node.canConvertToInt()) return node.intValue();
+            if (node.isTextual() && node.asText().matches("\\d{1,9}")) return Integer.valueOf(node.asText());
+            return null;
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    private static ResponseEntity<String> missingId(String field) {
+        return ResponseEntity.badRequest()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body("{\"code\":400,\"message\":\"" + field + " is required\",\"data\":null}");
     }
 
     // ==========================================================
@@ -192,16 +237,10 @@ public class GHNController {
     )
     @PostMapping("/fee")
     public ResponseEntity<String> calculateFee(@RequestBody GhnFeeRequest request) {
-        HttpEntity<GhnFeeRequest> entity = new HttpEntity<>(request, createHeaders(true));
-        ResponseEntity<String> response = restTemplate.exchange(
-                BASE_URL + "/v2/shipping-order/fee",
-                HttpMethod.POST,
-                entity,
-                String.class
-        );
-        return ResponseEntity.status(response.getStatusCode())
+        // Đi qua GhnFeeService → dùng chung cache + single-flight với luồng checkout
+        return ResponseEntity.ok()
                 .contentType(MediaType.APPLICATION_JSON)
-                .body(response.getBody());
+                .body(ghnFeeService.calculateFeeRaw(request));
     }
 
   // ==========================================================
@@ -639,19 +678,9 @@ public ResponseEntity<String> createOrder(
             }
     )
     @GetMapping("/pick-shifts")
-    public ResponseEntity<String> getPickShifts() {
-        HttpEntity<String> entity = new HttpEntity<>(createHeaders(false));
-
-        ResponseEntity<String> response = restTemplate.exchange(
-                BASE_URL + "/v2/shift/date",
-                HttpMethod.GET,
-                entity,
-                String.class
-        );
-
-        return ResponseEntity.status(response.getStatusCode())
-                .contentType(MediaType.APPLICATION_JSON)
-                .body(response.getBody());
+    public ResponseEntity<String> getPickShifts(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return serve(masterData.pickShifts(), ifNoneMatch, pickShiftsMaxAge);
     }
 
     // ==========================================================
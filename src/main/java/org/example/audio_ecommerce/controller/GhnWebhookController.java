@@ -0,0 +1,38 @@
+package org.example.audio_ecommerce.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.example.audio_ecommerce.dto.request.GhnWebhookRequest;
+import org.example.audio_ecommerce.service.Impl.GhnWebhookService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/api/ghn")
+@RequiredArgsConstructor
+@Tag(name = "GHN Webhook", description = "Nhận callback trạng thái đơn từ GHN")
+public class GhnWebhookController {
+
+    private final GhnWebhookService ghnWebhookService;
+
+    @Operation(summary = "Webhook trạng thái đơn GHN",
+            description = "Xác thực token/IP, ghi vào inbox rồi trả 200; trạng thái được áp bất đồng bộ theo lô")
+    @PostMapping("/webhook")
+    public ResponseEntity<Void> receiveWebhook(@RequestHeader(value = "X-GHN-Token", required = false) String headerToken,
+                                               @RequestParam(value = "token", required = false) String queryToken,
+                                               @RequestBody GhnWebhookRequest request,
+                                               HttpServletRequest http) {
+        String token = headerToken != null ? headerToken : queryToken;
+        if (!ghnWebhookService.isAuthorized(token, http.getRemoteAddr())) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        if (!ghnWebhookService.enqueue(request)) {
+            // Không ghi được inbox → GHN sẽ gửi lại
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        return ResponseEntity.ok().build();
+    }
+}
@@ -10,6 +10,7 @@ import org.example.audio_ecommerce.dto.response.CheckoutOnlineResponse;
 import org.example.audio_ecommerce.dto.response.WalletTopupResponse;
 import org.example.audio_ecommerce.service.CartService;
 import org.example.audio_ecommerce.service.PayOSEcomService;
+import org.example.audio_ecommerce.service.Impl.PaymentWebhookInboxService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import vn.payos.PayOS;
@@ -30,6 +31,7 @@ public class PayOSEcomController {
     private final CartService cartService;
     private final PayOSEcomService payOSEcomService;
     private final PayOS payOS; // dùng SDK để verify webhook
+    private final PaymentWebhookInboxService webhookInbox;
 
     @PostMapping("/checkout")
     public ResponseEntity<BaseResponse<CheckoutOnlineResponse>> checkoutOnline(
@@ -67,6 +69,7 @@ public class PayOSEcomController {
 
     /**
      * Webhook (SDK v2): đọc raw body, verify chữ ký bằng SDK → WebhookData.
+     * Chỉ ghi vào inbox rồi ACK ngay; worker xử lý ví / settlement / đơn sau.
      */
     @PostMapping("/webhook")
     public ResponseEntity<Void> receiveWebhook(HttpServletRequest request) throws IOException {
@@ -79,10 +82,8 @@ public class PayOSEcomController {
             // verify() nhận raw JSON (String/Object) và trả về WebhookData đã xác thực
             WebhookData webhookData = payOS.webhooks().verify(body);
 
-            // Gọi service xử lý: service có thể nhận Object/WebhookData.
-            // Nếu bạn đã sửa service theo gợi ý trước đó là confirmWebhook(Object),
-            // truyền thẳng webhookData vào confirmWebhook(webhookData) là OK.
-            payOSEcomService.confirmWebhook(webhookData);
+            // Callback trùng (PayOS gửi lại) cũng trả 200 để PayOS ngừng retry
+            webhookInbox.receive(webhookData, body);
             return ResponseEntity.ok().build();
 
         } catch (PayOSException e) {
@@ -33,7 +33,7 @@ public class ProductViewController {
         • status: trạng thái sản phẩm (ACTIVE / INACTIVE)
         • categoryId: lọc theo danh mục
         • storeId: lọc theo cửa hàng
-        • keyword: tìm theo tên sản phẩm
+        • keyword: tìm theo tên / thương hiệu / mô tả / danh mục / thuộc tính (không phân biệt dấu)
         • provinceCode / districtCode / wardCode: lọc theo địa chỉ cửa hàng
         • minPrice / maxPrice: lọc theo giá
         • minRating: lọc theo số sao tối thiểu
@@ -45,11 +45,13 @@ public class ProductViewController {
         📄 **Phân trang:**
         • page: số trang (0-based)
         • size: số lượng sản phẩm mỗi trang
+        • scroll=true: phân trang keyset (không đếm tổng, nhanh ở trang sâu) – truyền lại `page.nextCursor` vào `cursor`
         
         📌 **Ví dụ sử dụng (FE):**
         • /products/thumbnails?sortBy=price&sortDir=asc
         • /products/thumbnails?keyword=amply&minPrice=1000000&maxPrice=5000000
         • /products/thumbnails?categoryId=xxx&minRating=4
+        • /products/thumbnails?sortBy=price&scroll=true&cursor=<nextCursor>
         """
 )
 @ApiResponses(value = {
@@ -78,7 +80,10 @@ public class ProductViewController {
             @RequestParam(defaultValue = "10") int size,
             // Sorting
             @RequestParam(required = false, defaultValue = "name") String sortBy,
-            @RequestParam(required = false, defaultValue = "asc") String sortDir
+            @RequestParam(required = false, defaultValue = "asc") String sortDir,
+            // Keyset (infinite scroll)
+            @RequestParam(defaultValue = "false") boolean scroll,
+            @RequestParam(required = false) String cursor
     ) {
 
         Pageable pageable = PageRequest.of(page, size);
@@ -96,10 +101,35 @@ public class ProductViewController {
                 minRating,
                 pageable,
                 sortBy,
-                sortDir
+                sortDir,
+                scroll,
+                cursor
         );
     }
 
+    // ================================
+    // 🔍 1b) Full-text search + facets
+    // ================================
+    @Operation(
+            summary = "Tìm kiếm sản phẩm (xếp hạng theo độ liên quan, có facet)",
+            description = """
+        Tìm trong tên, thương hiệu, model, mô tả, danh mục và thuộc tính sản phẩm ACTIVE.
+        • Không phân biệt dấu: "loa bluetooth" khớp "Loa Bluetooth", "tai nghe" khớp "Tai Nghe"
+        • Khớp tiền tố và gõ sai nhẹ ("sennhiser" → "Sennheiser")
+        • categoryId / brand: lọc thêm; `facets` trả số lượng theo thương hiệu và danh mục
+        """
+    )
+    @GetMapping("/search")
+    public ResponseEntity<BaseResponse> searchProducts(
+            @RequestParam String keyword,
+            @RequestParam(required = false) UUID categoryId,
+            @RequestParam(required = false) String brand,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size
+    ) {
+        return productViewService.searchProducts(keyword, categoryId, brand, page, size);
+    }
+
     // ================================
     // 🎯 2) PDP – Active vouchers
     // ================================
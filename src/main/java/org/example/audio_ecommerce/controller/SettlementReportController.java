@@ -3,6 +3,7 @@ package org.example.audio_ecommerce.controller;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.constraints.Min;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -10,10 +11,15 @@ import org.example.audio_ecommerce.dto.response.SettlementReportResponse;
 import org.example.audio_ecommerce.dto.response.BaseResponse;
 import org.example.audio_ecommerce.entity.Enum.SettlementReportType;
 import org.example.audio_ecommerce.service.Impl.SettlementReportService;
+import org.example.audio_ecommerce.util.StreamingSheetWriter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.WebAsyncTask;
 
 import java.time.LocalDate;
 import java.util.LinkedHashMap;
@@ -25,6 +31,7 @@ import java.util.UUID;
         description = """
         API cho báo cáo settlement/payout — FE dùng để hiện dashboard tài chính, báo cáo payout, platform fee, v.v.
         - Endpoint chính: GET /api/v1/settlement/reports
+        - Tải file: GET /api/v1/settlement/reports/export (CSV / XLSX, ghi dần từng dòng)
         - Trả về: SettlementReportResponse (entries + tổng)
         """
 )
@@ -36,6 +43,10 @@ public class SettlementReportController {
 
     private final SettlementReportService reportService;
 
+    // Timeout riêng cho export (ghi dần có thể lâu), không nới timeout async toàn cục
+    @Value("${settlement.export.timeout-ms:600000}")
+    private long exportTimeoutMs;
+
     @Operation(
             summary = "📈 Lấy báo cáo settlement/payout",
             description = """
@@ -104,4 +115,48 @@ public class SettlementReportController {
                 .data(summary)
                 .build());
     }
+
+    @Operation(
+            summary = "⬇️ Tải báo cáo settlement (CSV / XLSX)",
+            description = """
+            Cùng tham số với /reports, thêm format=csv|xlsx (mặc định csv).
+            - 1 dòng / item + dòng TOTAL cuối
+            - Ghi dần từng dòng từ cursor DB → không giới hạn kích thước báo cáo
+            """
+    )
+    @GetMapping("/reports/export")
+    public Object exportSettlementReport(
+            @RequestParam("type") SettlementReportType type,
+            @RequestParam(value = "date", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(value = "storeId", required = false) UUID storeId,
+            @RequestParam(value = "format", required = false, defaultValue = "csv") String format,
+            HttpServletResponse response
+    ) {
+        log.info("REST request to export settlement report: type={}, date={}, storeId={}, format={}", type, date, storeId, format);
+
+        StreamingSheetWriter.Format fmt;
+        try {
+            fmt = StreamingSheetWriter.Format.parse(format);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(BaseResponse.builder()
+                    .status(HttpStatus.BAD_REQUEST.value())
+                    .message(e.getMessage())
+                    .build());
+        }
+
+        String filename = "settlement-" + type.name().toLowerCase()
+                + (date != null ? "-" + date : "")
+                + (storeId != null ? "-" + storeId : "")
+                + "." + fmt.extension;
+
+        // Ghi thẳng vào response trên luồng async, timeout gắn với riêng task export này
+        return new WebAsyncTask<Void>(exportTimeoutMs, () -> {
+            response.setStatus(HttpStatus.OK.value());
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+            response.setContentType(MediaType.parseMediaType(fmt.contentType).toString());
+            reportService.exportReport(type, date, storeId, fmt, response.getOutputStream());
+            response.flushBuffer();
+            return null;
+        });
+    }
 }
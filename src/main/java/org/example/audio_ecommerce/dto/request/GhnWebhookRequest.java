@@ -0,0 +1,32 @@
+package org.example.audio_ecommerce.dto.request;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.*;
+
+/**
+ * Payload callback trạng thái đơn của GHN (key viết hoa chữ cái đầu, y hệt GHN gửi).
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class GhnWebhookRequest {
+
+    @JsonProperty("OrderCode")
+    private String orderCode;     // Mã vận đơn GHN
+
+    @JsonProperty("Status")
+    private String status;        // ready_to_pick, picking, delivering, delivered, ...
+
+    @JsonProperty("Time")
+    private String time;          // "2025-11-18T03:52:50.158Z"
+
+    @JsonProperty("Type")
+    private String type;          // create, switch_status, update_weight, ...
+
+    @JsonProperty("ShopID")
+    private Long shopId;
+}
@@ -2,8 +2,10 @@ package org.example.audio_ecommerce.email;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 @Data
+@NoArgsConstructor
 @AllArgsConstructor
 public class AccountData {
     private String email;     // người nhận
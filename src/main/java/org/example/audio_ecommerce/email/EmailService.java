@@ -3,9 +3,9 @@ package org.example.audio_ecommerce.email;
 import jakarta.mail.MessagingException;
 import jakarta.mail.internet.MimeMessage;
 import lombok.RequiredArgsConstructor;
+import org.example.audio_ecommerce.service.Impl.NotificationOutbox;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.MimeMessageHelper;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -14,9 +14,18 @@ public class EmailService {
 
     private final JavaMailSender mailSender;
     private final EmailTemplateResolver templateResolver;
+    private final NotificationOutbox outbox;
 
-    @Async
+    /**
+     * Ghi email vào outbox cùng transaction đang chạy; OutboxRelay gửi SMTP sau khi commit.
+     * Transaction rollback → email không được gửi.
+     */
     public void sendEmail(EmailTemplateType type, Object data) throws MessagingException {
+        outbox.enqueueEmail(type, data);
+    }
+
+    /** Gửi SMTP ngay (chỉ OutboxRelay gọi). */
+    public void deliver(EmailTemplateType type, Object data) throws MessagingException {
         EmailTemplate template = templateResolver.resolve(type, data);
 
         MimeMessage message = mailSender.createMimeMessage();
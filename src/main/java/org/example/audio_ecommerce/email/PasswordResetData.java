@@ -0,0 +1,18 @@
+package org.example.audio_ecommerce.email;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+/**
+ * Email RESET_PASSWORD lưu trong outbox: chỉ id tài khoản, không lưu token / link.
+ * OutboxRelay đọc token hiện tại của tài khoản và dựng link lúc gửi.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PasswordResetData {
+    private UUID accountId;
+}
@@ -39,6 +39,10 @@ public class Account extends BaseEntity {
     @Column
     private java.time.LocalDateTime resetPasswordTokenExpiry;
 
+    // Lần đổi mật khẩu gần nhất: JWT phát hành (iat) trước mốc này bị từ chối
+    @Column
+    private java.time.LocalDateTime passwordChangedAt;
+
     @OneToOne(mappedBy = "account", cascade = CascadeType.ALL, fetch = FetchType.LAZY, orphanRemoval = true)
     private Store store;
 }
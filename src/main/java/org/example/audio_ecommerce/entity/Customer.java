@@ -10,6 +10,7 @@ import org.example.audio_ecommerce.entity.Enum.CustomerStatus;
 import org.example.audio_ecommerce.entity.Enum.Gender;
 import org.example.audio_ecommerce.entity.Enum.KycStatus;
 import org.example.audio_ecommerce.entity.Enum.LoyaltyLevel;
+import org.example.audio_ecommerce.util.ContactNormalizer;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
@@ -31,7 +32,10 @@ import java.util.List;
         indexes = {
                 @Index(name = "idx_customer_username", columnList = "username"),
                 @Index(name = "idx_customer_status", columnList = "status"),
-                @Index(name = "idx_customer_kyc", columnList = "kyc_status")
+                @Index(name = "idx_customer_kyc", columnList = "kyc_status"),
+                // Không unique: dữ liệu cũ có thể trùng sau chuẩn hoá (vd "0912..." và "+84 912...")
+                @Index(name = "idx_customer_email_normalized", columnList = "email_normalized"),
+                @Index(name = "idx_customer_phone_normalized", columnList = "phone_normalized")
         }
 )
 public class Customer extends BaseEntity {
@@ -51,6 +55,15 @@ public class Customer extends BaseEntity {
     @Column(name = "phone_number", length = 30, nullable = true)
     private String phoneNumber;
 
+    // Bản chuẩn hoá để tra cứu bằng index (không lower()/replace trên cột)
+    @JsonIgnore
+    @Column(name = "email_normalized", length = 255)
+    private String emailNormalized;
+
+    @JsonIgnore
+    @Column(name = "phone_normalized", length = 30)
+    private String phoneNormalized;
+
     @NotBlank
     @Size(min = 6)
     @Column(name = "password_hash", length = 255, nullable = false)
@@ -142,6 +155,13 @@ public class Customer extends BaseEntity {
     @JsonIgnore
     private Wallet wallet;
 
+    @PrePersist
+    @PreUpdate
+    public void normalizeContact() {
+        this.emailNormalized = ContactNormalizer.email(email);
+        this.phoneNormalized = ContactNormalizer.phone(phoneNumber);
+    }
+
     // ===== Helpers =====
     public void addAddress(CustomerAddress addr, boolean makeDefault) {
         addr.setCustomer(this);
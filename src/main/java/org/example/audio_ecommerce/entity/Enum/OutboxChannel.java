@@ -0,0 +1,6 @@
+package org.example.audio_ecommerce.entity.Enum;
+
+public enum OutboxChannel {
+    PUSH,    // FCM tới các device token của target
+    EMAIL    // SMTP theo EmailTemplateType
+}
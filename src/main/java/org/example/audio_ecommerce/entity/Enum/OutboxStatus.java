@@ -0,0 +1,7 @@
+package org.example.audio_ecommerce.entity.Enum;
+
+public enum OutboxStatus {
+    PENDING,   // chờ relay gửi
+    SENT,      // đã gửi (hoặc gộp vào 1 digest đã gửi)
+    FAILED     // hết số lần thử → cần xem tay
+}
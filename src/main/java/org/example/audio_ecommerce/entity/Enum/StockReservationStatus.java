@@ -0,0 +1,7 @@
+package org.example.audio_ecommerce.entity.Enum;
+
+public enum StockReservationStatus {
+    HELD,       // Đã trừ tồn kho, đang chờ thanh toán (online)
+    COMMITTED,  // Thanh toán thành công → giữ luôn
+    RELEASED    // Hết hạn / thanh toán thất bại → đã cộng lại tồn kho
+}
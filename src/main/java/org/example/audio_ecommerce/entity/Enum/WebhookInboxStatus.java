@@ -0,0 +1,7 @@
+package org.example.audio_ecommerce.entity.Enum;
+
+public enum WebhookInboxStatus {
+    PENDING,   // đã nhận, chờ worker xử lý
+    DONE,      // xử lý xong
+    FAILED     // hết số lần thử → cần xem tay
+}
@@ -15,7 +15,8 @@ import java.util.UUID;
         indexes = {
                 @Index(name="idx_ghn_order_store_order", columnList = "store_order_id"),
                 @Index(name="idx_ghn_order_store", columnList = "store_id"),
-                @Index(name="idx_ghn_order_code", columnList = "order_ghn")
+                @Index(name="idx_ghn_order_code", columnList = "order_ghn"),
+                @Index(name="idx_ghn_order_status_next_sync", columnList = "status, next_sync_at")
         })
 public class GhnOrder {
 
@@ -47,6 +48,14 @@ public class GhnOrder {
     @Column(name = "updated_at")
     private LocalDateTime updatedAt;
 
+    // Thời điểm (phía GHN) của trạng thái đang lưu → bỏ qua webhook tới trễ / sai thứ tự
+    @Column(name = "last_status_at")
+    private LocalDateTime lastStatusAt;
+
+    // Lần poll GHN kế tiếp (null = chưa poll lần nào → đến hạn ngay)
+    @Column(name = "next_sync_at")
+    private LocalDateTime nextSyncAt;
+
 
     @Column(name="created_at", nullable = false)
     private LocalDateTime createdAt;
@@ -0,0 +1,59 @@
+package org.example.audio_ecommerce.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.example.audio_ecommerce.entity.Enum.WebhookInboxStatus;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Hộp thư webhook GHN: callback được ghi xuống DB trước khi trả 200, worker áp trạng thái sau.
+ * Unique dedupe_key (orderCode|status|time) → GHN gửi lại cùng callback bị bỏ qua; restart không mất sự kiện.
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "ghn_webhook_inbox",
+        uniqueConstraints = @UniqueConstraint(name = "uk_ghn_webhook_dedupe", columnNames = "dedupe_key"),
+        indexes = @Index(name = "idx_ghn_webhook_status_next", columnList = "status, next_attempt_at"))
+public class GhnWebhookInbox {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+
+    @Column(name = "dedupe_key", nullable = false, length = 160)
+    private String dedupeKey;
+
+    @Column(name = "order_code", nullable = false, length = 64)
+    private String orderCode;
+
+    @Column(name = "raw_status", nullable = false, length = 64)
+    private String rawStatus; // ready_to_pick, delivering, delivered, ...
+
+    @Column(name = "event_time")
+    private LocalDateTime eventTime; // thời điểm GHN ghi nhận trạng thái
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private WebhookInboxStatus status;
+
+    @Column(nullable = false)
+    private int attempts;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+
+    @Column(name = "received_at", nullable = false)
+    private LocalDateTime receivedAt;
+
+    @Column(name = "next_attempt_at", nullable = false)
+    private LocalDateTime nextAttemptAt; // lỗi tạm → lùi lần thử kế tiếp
+
+    @Column(name = "processed_at")
+    private LocalDateTime processedAt;
+}
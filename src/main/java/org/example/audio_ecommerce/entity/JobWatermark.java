@@ -0,0 +1,29 @@
+package org.example.audio_ecommerce.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Mốc (watermark) của các job chạy tăng dần: lần chạy sau chỉ xử lý phần dữ liệu thay đổi sau mốc này.
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "job_watermark")
+public class JobWatermark {
+
+    @Id
+    @Column(name = "job_name", length = 100)
+    private String jobName;
+
+    @Column(name = "watermark")
+    private LocalDateTime watermark;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
@@ -3,6 +3,7 @@ package org.example.audio_ecommerce.entity;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.BatchSize;
 import org.example.audio_ecommerce.entity.Enum.WarrantyLogStatus;
 
 import java.math.BigDecimal;
@@ -46,6 +47,7 @@ public class LogWarranty {
     private LocalDateTime returnedAt;
 
     @OneToMany(mappedBy="log", cascade=CascadeType.ALL, orphanRemoval=true)
+    @BatchSize(size=50) // nhiều log → nạp parts theo lô (IN), không 1 query / log
     private List<WarrantyPart> parts = new ArrayList<>();
 
     @PrePersist
@@ -0,0 +1,74 @@
+package org.example.audio_ecommerce.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.example.audio_ecommerce.entity.Enum.OutboxChannel;
+import org.example.audio_ecommerce.entity.Enum.OutboxStatus;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Outbox cho push / email: ghi cùng transaction nghiệp vụ, relay gửi ra ngoài sau khi commit.
+ * Rollback → dòng outbox cũng mất → không bao giờ gửi push / email cho dữ liệu không tồn tại.
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "outbox_message", indexes = {
+        @Index(name = "idx_outbox_status_available", columnList = "status, available_at"),
+        @Index(name = "idx_outbox_coalesce_created", columnList = "coalesce_key, created_at"),
+        @Index(name = "idx_outbox_claim_token", columnList = "claim_token")
+})
+public class OutboxMessage {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private OutboxChannel channel;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private OutboxStatus status;
+
+    // Push cùng key trong 1 cửa sổ thời gian được gộp thành 1 digest (vd: PUSH:CUSTOMER:<id>)
+    @Column(name = "coalesce_key", length = 120)
+    private String coalesceKey;
+
+    // EMAIL: tên class dữ liệu template; PUSH: null
+    @Column(name = "payload_type", length = 200)
+    private String payloadType;
+
+    @Lob
+    @Column(name = "payload", nullable = false)
+    private String payload;
+
+    @Column(nullable = false)
+    private int attempts;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    // Relay chỉ nhặt dòng đã tới hạn (dùng cho backoff và cửa sổ gộp)
+    @Column(name = "available_at", nullable = false)
+    private LocalDateTime availableAt;
+
+    // Lease: instance đang gửi giữ dòng tới mốc này; hết hạn mà chưa đóng → instance khác nhặt lại
+    @Column(name = "locked_until")
+    private LocalDateTime lockedUntil;
+
+    @Column(name = "claim_token")
+    private UUID claimToken;
+
+    @Column(name = "sent_at")
+    private LocalDateTime sentAt;
+}
@@ -0,0 +1,37 @@
+package org.example.audio_ecommerce.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Ánh xạ mã đơn PayOS (1 link thanh toán cho nhiều CustomerOrder) → từng CustomerOrder trong nhóm.
+ * Webhook tra theo batch_code (có index) thay vì quét + parse JSON toàn bộ đơn.
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "payment_batch",
+        uniqueConstraints = @UniqueConstraint(name = "uk_payment_batch_order", columnNames = {"batch_code", "customer_order_id"}),
+        indexes = @Index(name = "idx_payment_batch_order", columnList = "customer_order_id"))
+public class PaymentBatch {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    @Column(columnDefinition = "CHAR(36)")
+    private UUID id;
+
+    @Column(name = "batch_code", nullable = false)
+    private Long batchCode; // orderCode gửi sang PayOS
+
+    @Column(name = "customer_order_id", nullable = false, columnDefinition = "CHAR(36)")
+    private UUID customerOrderId;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+}
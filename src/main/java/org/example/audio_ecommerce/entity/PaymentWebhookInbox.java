@@ -0,0 +1,57 @@
+package org.example.audio_ecommerce.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.example.audio_ecommerce.entity.Enum.WebhookInboxStatus;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Hộp thư webhook PayOS: ghi nhận callback (đã verify chữ ký) rồi trả 200 ngay,
+ * worker xử lý sau. Unique (order_code, result_code) → PayOS gửi lại cùng callback sẽ bị bỏ qua.
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "payment_webhook_inbox",
+        uniqueConstraints = @UniqueConstraint(name = "uk_payos_webhook_code", columnNames = {"order_code", "result_code"}),
+        indexes = @Index(name = "idx_payos_webhook_status_received", columnList = "status, received_at"))
+public class PaymentWebhookInbox {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+
+    @Column(name = "order_code", nullable = false)
+    private Long orderCode;
+
+    @Column(name = "result_code", nullable = false, length = 16)
+    private String resultCode; // "00" = thành công
+
+    @Column(name = "description", length = 512)
+    private String description;
+
+    @Lob
+    @Column(name = "payload")
+    private String payload; // raw body PayOS gửi, để đối soát
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private WebhookInboxStatus status;
+
+    @Column(nullable = false)
+    private int attempts;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+
+    @Column(name = "received_at", nullable = false)
+    private LocalDateTime receivedAt;
+
+    @Column(name = "processed_at")
+    private LocalDateTime processedAt;
+}
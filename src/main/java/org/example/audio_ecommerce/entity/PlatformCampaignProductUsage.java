@@ -19,6 +19,10 @@ import java.util.UUID;
                         name = "uk_campaign_product_customer",
                         columnNames = {"campaign_product_id", "customer_id"}
                 )
+        },
+        indexes = {
+                @Index(name = "idx_platform_usage_cp_last_used", columnList = "campaign_product_id, last_used_at"),
+                @Index(name = "idx_platform_usage_customer_last_used", columnList = "customer_id, last_used_at")
         }
 )
 public class PlatformCampaignProductUsage {
@@ -44,5 +48,7 @@ public class PlatformCampaignProductUsage {
     @PrePersist
     public void onCreate() {
         if (usedCount == null) usedCount = 0;
+        // báo cáo lọc / sort theo lastUsedAt (có index) → không để null
+        if (lastUsedAt == null) lastUsedAt = firstUsedAt;
     }
 }
@@ -0,0 +1,52 @@
+package org.example.audio_ecommerce.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Sub-balance (stripe) của ví PLATFORM: mỗi giao dịch cộng delta vào 1 stripe ngẫu nhiên
+ * thay vì read-modify-save cùng 1 dòng platform_wallet → các settlement song song không xếp hàng chờ 1 row lock.
+ * Số dư thật = platform_wallet (phần đã gộp) + SUM(stripe); job định kỳ gộp stripe về platform_wallet.
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "platform_wallet_stripe",
+        uniqueConstraints = @UniqueConstraint(name = "uk_platform_wallet_stripe", columnNames = {"wallet_id", "stripe_no"}))
+public class PlatformWalletStripe {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+
+    @Column(name = "wallet_id", nullable = false)
+    private UUID walletId;
+
+    @Column(name = "stripe_no", nullable = false)
+    private int stripeNo;
+
+    @Column(nullable = false, precision = 18, scale = 2)
+    private BigDecimal totalBalance;
+
+    @Column(nullable = false, precision = 18, scale = 2)
+    private BigDecimal pendingBalance;
+
+    @Column(nullable = false, precision = 18, scale = 2)
+    private BigDecimal doneBalance;
+
+    @Column(nullable = false, precision = 18, scale = 2)
+    private BigDecimal receivedTotal;
+
+    @Column(nullable = false, precision = 18, scale = 2)
+    private BigDecimal refundedTotal;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
@@ -5,6 +5,8 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jakarta.persistence.*;
 import lombok.*;
 import org.example.audio_ecommerce.entity.Enum.ProductStatus;
+import org.example.audio_ecommerce.util.VietnameseText;
+import org.hibernate.annotations.BatchSize;
 import org.hibernate.annotations.GenericGenerator;
 
 import java.math.BigDecimal;
@@ -24,9 +26,17 @@ import java.util.UUID;
 @Builder(toBuilder = true)
 @JsonIgnoreProperties({"hibernateLazyInitializer", "handler"})
 @Entity
-@Table(name = "products")
+@Table(name = "products", indexes = {
+        // Feed thumbnail: lọc status + sort/seek theo giá hoặc tên, product_id làm tie-breaker cho keyset
+        @Index(name = "idx_product_status_price", columnList = "status, effective_min_price, product_id"),
+        @Index(name = "idx_product_status_name", columnList = "status, name, product_id"),
+        @Index(name = "idx_product_status_rating", columnList = "status, rating_average"),
+        @Index(name = "idx_product_store_status", columnList = "store_id, status")
+})
 public class Product {
 
+    public static final int SEARCH_TEXT_LENGTH = 2000;
+
     // =========================================================
     // 🆔 KHÓA CHÍNH & QUAN HỆ
     // =========================================================
@@ -44,6 +54,7 @@ public class Product {
     // 📝 NOTE: Cửa hàng đăng bán | Ví dụ: `AudioPro Store (ID: 123)`
 
     @ManyToMany
+    @BatchSize(size = 50)
     @JoinTable(
             name = "product_categories",
             joinColumns = @JoinColumn(name = "product_id"),
@@ -52,6 +63,7 @@ public class Product {
     private List<Category> categories;
 
     @OneToMany(mappedBy = "product", cascade = CascadeType.ALL, orphanRemoval = true)
+    @BatchSize(size = 50)
     private List<ProductAttributeValue> attributeValues;
 
 
@@ -100,6 +112,7 @@ public class Product {
     // 🧩 PHÂN LOẠI SẢN PHẨM (VARIANT)
     // =========================================================
     @OneToMany(mappedBy = "product", cascade = CascadeType.ALL, orphanRemoval = true)
+    @BatchSize(size = 50)
     @JsonIgnore
     private List<ProductVariantEntity> variants;
 
@@ -107,6 +120,7 @@ public class Product {
     // 📸 HÌNH ẢNH & VIDEO
     // =========================================================
     @ElementCollection
+    @BatchSize(size = 50)
     @CollectionTable(name = "product_images", joinColumns = @JoinColumn(name = "product_id"))
     @Column(name = "image_url", columnDefinition = "LONGTEXT")
     private List<String> images;
@@ -147,6 +161,16 @@ public class Product {
     private BigDecimal finalPrice;
     // 📝 NOTE: Giá cuối cùng | Ví dụ: `2875000` (sau voucher)
 
+    @Column(name = "effective_min_price", precision = 15, scale = 2)
+    private BigDecimal effectiveMinPrice;
+    // 📝 NOTE: Giá thấp nhất đang bán (min giá variant / finalPrice, sau campaign đang chạy) — denormalized
+    //          để lọc & sắp xếp feed trong SQL | Do ProductEffectivePriceService cập nhật | Ví dụ: `2690000`
+
+    @Column(name = "search_text", length = Product.SEARCH_TEXT_LENGTH)
+    private String searchText;
+    // 📝 NOTE: name + brand + model + mô tả đã bỏ dấu, chữ thường — denormalized cho LIKE khi không dùng được
+    //          chỉ mục tìm kiếm | Tự tính khi lưu, ProductSearchIndex backfill dòng cũ | Ví dụ: `loa jbl charge 5 ...`
+
     private BigDecimal platformFeePercent;
     // 📝 NOTE: % phí nền tảng | Ví dụ: `5.00` (5%)
 
@@ -242,6 +266,7 @@ public class Product {
         this.updatedAt = now;
         this.lastUpdatedAt = now;          // xem như update gần nhất là khi tạo
         this.lastUpdateIntervalDays = 0L;  // lần đầu tạo => 0 ngày
+        refreshSearchText();
     }
 
     // ============= Tự tính số ngày mỗi khi update =============
@@ -261,6 +286,15 @@ public class Product {
         // cập nhật lại mốc thời gian
         this.lastUpdatedAt = this.updatedAt != null ? this.updatedAt : this.createdAt;
         this.updatedAt = now;
+        refreshSearchText();
+    }
+
+    public void refreshSearchText() {
+        this.searchText = computeSearchText();
+    }
+
+    public String computeSearchText() {
+        return VietnameseText.searchable(SEARCH_TEXT_LENGTH, name, brandName, model, shortDescription, description);
     }
 
 
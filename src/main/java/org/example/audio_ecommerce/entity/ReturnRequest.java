@@ -16,7 +16,11 @@ import java.util.UUID;
 @AllArgsConstructor
 @Builder
 @Entity
-@Table(name = "return_requests")
+@Table(name = "return_requests",
+        indexes = {
+                @Index(name = "idx_return_order_item", columnList = "order_item_id, created_at"),
+                @Index(name = "idx_return_updated_at", columnList = "updated_at")
+        })
 public class ReturnRequest extends BaseEntity {
 
     // ====== LIÊN KẾT ĐƠN HÀNG ======
@@ -19,6 +19,10 @@ import java.util.UUID;
                         name = "uk_shop_voucher_customer",
                         columnNames = {"voucher_id", "customer_id"}
                 )
+        },
+        indexes = {
+                @Index(name = "idx_shop_voucher_usage_voucher_last_used", columnList = "voucher_id, last_used_at"),
+                @Index(name = "idx_shop_voucher_usage_customer_last_used", columnList = "customer_id, last_used_at")
         }
 )
 public class ShopVoucherUsage {
@@ -44,5 +48,7 @@ public class ShopVoucherUsage {
     @PrePersist
     public void onCreate() {
         if (usedCount == null) usedCount = 0;
+        // báo cáo lọc / sort theo lastUsedAt (có index) → không để null
+        if (lastUsedAt == null) lastUsedAt = firstUsedAt;
     }
 }
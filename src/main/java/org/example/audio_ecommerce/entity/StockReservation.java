@@ -0,0 +1,57 @@
+package org.example.audio_ecommerce.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.example.audio_ecommerce.entity.Enum.StockReservationStatus;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Giữ chỗ tồn kho cho đơn ONLINE trong lúc chờ thanh toán.
+ * Tồn kho đã bị trừ ngay khi checkout; nếu quá expiresAt mà chưa thanh toán
+ * thì scheduler sẽ cộng trả lại và đánh dấu RELEASED.
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "stock_reservation",
+        indexes = {
+                @Index(name = "idx_stock_resv_order", columnList = "customer_order_id"),
+                @Index(name = "idx_stock_resv_status_expires", columnList = "status, expires_at")
+        })
+public class StockReservation {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+
+    @Column(name = "customer_order_id", nullable = false)
+    private UUID customerOrderId;
+
+    @Column(name = "product_id", nullable = false)
+    private UUID productId;
+
+    // null nếu sản phẩm không có biến thể
+    @Column(name = "variant_id")
+    private UUID variantId;
+
+    @Column(nullable = false)
+    private Integer quantity;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private StockReservationStatus status;
+
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
@@ -7,6 +7,7 @@ import com.fasterxml.jackson.annotation.JsonManagedReference;
 import jakarta.persistence.*;
 import lombok.*;
 import org.example.audio_ecommerce.entity.Enum.StoreStatus;
+import org.hibernate.annotations.BatchSize;
 import org.hibernate.annotations.GenericGenerator;
 
 import java.math.BigDecimal;
@@ -22,6 +23,7 @@ import java.util.UUID;
 @JsonIgnoreProperties({"hibernateLazyInitializer", "handler"})
 @Entity
 @Table(name = "stores")
+@BatchSize(size = 50) // feed sản phẩm nạp store theo lô thay vì từng product
 public class Store {
 
     @Id
@@ -89,5 +91,6 @@ private String coverImageUrl;
             fetch = FetchType.LAZY
     )
     @JsonManagedReference
+    @BatchSize(size = 50)
     private List<StoreAddressEntity> storeAddresses;
 }
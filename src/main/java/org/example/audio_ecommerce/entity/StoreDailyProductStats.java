@@ -0,0 +1,51 @@
+package org.example.audio_ecommerce.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.UUID;
+
+/**
+ * Thống kê theo ngày × sản phẩm của 1 store: số lượng bán, doanh thu, số return thành công.
+ * Dùng để tính top sản phẩm bán chạy / bị trả nhiều nhất mà không phải nạp item của mọi đơn.
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "store_daily_product_stats",
+        indexes = {
+                @Index(name = "idx_sdps_store_date", columnList = "store_id, stat_date")
+        })
+public class StoreDailyProductStats {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    @Column(columnDefinition = "CHAR(36)")
+    private UUID id;
+
+    @Column(name = "store_id", nullable = false, columnDefinition = "CHAR(36)")
+    private UUID storeId;
+
+    @Column(name = "stat_date", nullable = false)
+    private LocalDate statDate;
+
+    @Column(name = "product_id", nullable = false, columnDefinition = "CHAR(36)")
+    private UUID productId;
+
+    @Column(name = "product_name", length = 255)
+    private String productName;
+
+    @Column(name = "sold_quantity", nullable = false)
+    private long soldQuantity;
+
+    @Column(name = "revenue", precision = 18, scale = 2)
+    private BigDecimal revenue;
+
+    @Column(name = "return_success", nullable = false)
+    private long returnSuccess;
+}
@@ -0,0 +1,64 @@
+package org.example.audio_ecommerce.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Thống kê cộng dồn theo ngày của 1 store (rollup), dùng cho dashboard thay vì quét toàn bộ đơn.
+ * - Đơn giao thành công, doanh thu, phí nền tảng, phí ship chênh lệch / đã thu: theo ngày deliveredAt.
+ * - Return thành công: theo ngày tạo return. Phí ship return: theo ngày tạo phí.
+ * Mỗi dòng luôn được tính lại nguyên ngày từ dữ liệu gốc → chạy lại bao nhiêu lần cũng cho cùng kết quả.
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "store_daily_stats",
+        uniqueConstraints = @UniqueConstraint(name = "uk_store_daily_stats", columnNames = {"store_id", "stat_date"}))
+public class StoreDailyStats {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    @Column(columnDefinition = "CHAR(36)")
+    private UUID id;
+
+    @Column(name = "store_id", nullable = false, columnDefinition = "CHAR(36)")
+    private UUID storeId;
+
+    @Column(name = "stat_date", nullable = false)
+    private LocalDate statDate;
+
+    @Column(name = "delivered_orders", nullable = false)
+    private long deliveredOrders;
+
+    @Column(name = "order_grand_total", precision = 18, scale = 2)
+    private BigDecimal orderGrandTotal;     // Σ grandTotal đơn giao thành công
+
+    @Column(name = "item_revenue", precision = 18, scale = 2)
+    private BigDecimal itemRevenue;         // Σ finalLineTotal của item
+
+    @Column(name = "platform_fee", precision = 18, scale = 2)
+    private BigDecimal platformFee;         // Σ phí nền tảng theo % snapshot của item
+
+    @Column(name = "return_success", nullable = false)
+    private long returnSuccess;
+
+    @Column(name = "shipping_difference", precision = 18, scale = 2)
+    private BigDecimal shippingDifference;  // Σ shippingFeeForStore > 0
+
+    @Column(name = "shipping_collected", precision = 18, scale = 2)
+    private BigDecimal shippingCollected;   // Σ actualShippingFee
+
+    @Column(name = "return_shipping_fee", precision = 18, scale = 2)
+    private BigDecimal returnShippingFee;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
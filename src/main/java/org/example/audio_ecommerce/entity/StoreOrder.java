@@ -18,7 +18,10 @@ import java.util.*;
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
-@Table(name = "store_order")
+@Table(name = "store_order",
+        indexes = {
+                @Index(name = "idx_store_order_updated_at", columnList = "updated_at")
+        })
 public class StoreOrder {
     @Id
     @GeneratedValue(strategy = GenerationType.UUID)
@@ -38,6 +41,10 @@ public class StoreOrder {
     @Column(nullable = true)
     private LocalDateTime deliveredAt;
 
+    // Lần ghi gần nhất (insert/update) → các job tăng dần (vd: thống kê theo ngày) chỉ quét đơn vừa đổi
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
     @Enumerated(EnumType.STRING)
     @Column(name = "status", length = 64, nullable = false)
     private OrderStatus status = OrderStatus.PENDING;
@@ -169,6 +176,8 @@ public class StoreOrder {
     @PrePersist
     @PreUpdate
     public void calculateTotalAmount() {
+        updatedAt = LocalDateTime.now();
+
         if (items == null || items.isEmpty()) {
             totalAmount = BigDecimal.ZERO;
         } else {
@@ -15,7 +15,11 @@ import java.util.UUID;
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
-@Table(name = "store_order_item")
+@Table(name = "store_order_item",
+        indexes = {
+                // payout eligibility quét theo cửa sổ deliveredAt
+                @Index(name = "idx_soi_payout_delivered", columnList = "eligible_for_payout, is_payout, delivered_at")
+        })
 public class StoreOrderItem {
 
     // tính sao cho giá finalLineTotal tuyệt đối KHÔNG bao gồm phí ship. và x ố lượng ra
@@ -14,7 +14,8 @@ import java.util.UUID;
         indexes = {
                 @Index(name="idx_warranty_serial", columnList="serial_number"),
                 @Index(name="idx_warranty_customer", columnList="customer_id"),
-                @Index(name="idx_warranty_end_date", columnList="end_date")
+                @Index(name="idx_warranty_end_date", columnList="end_date"),
+                @Index(name="idx_warranty_store_order_item", columnList="store_order_item_id")
         },
         uniqueConstraints = {
                 @UniqueConstraint(name="uk_warranty_serial_product",
@@ -0,0 +1,18 @@
+package org.example.audio_ecommerce.exception;
+
+/**
+ * Upstream (GHN, Gemini, FCM...) đang bị chặn bởi bulkhead / circuit breaker → không gọi ra ngoài.
+ */
+public class UpstreamUnavailableException extends RuntimeException {
+
+    private final String upstream;
+
+    public UpstreamUnavailableException(String upstream, String reason) {
+        super("Upstream " + upstream + " unavailable: " + reason);
+        this.upstream = upstream;
+    }
+
+    public String getUpstream() {
+        return upstream;
+    }
+}
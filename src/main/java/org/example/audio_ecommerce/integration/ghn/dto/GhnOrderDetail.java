@@ -3,10 +3,20 @@ package org.example.audio_ecommerce.integration.ghn.dto;
 
 import lombok.Data;
 
+import java.util.List;
+
 @Data
 public class GhnOrderDetail {
     private String order_code;
     private String status;
     private String leadtime;      // "2025-11-22T16:59:59Z"
     private String finish_date;   // "2025-11-18T22:47:51.991Z" (có thể null)
+    private String updated_date;  // lần cập nhật cuối của đơn trên GHN
+    private List<StatusLog> log;  // lịch sử chuyển trạng thái (có thể null)
+
+    @Data
+    public static class StatusLog {
+        private String status;        // "delivering"
+        private String updated_date;  // "2025-11-18T08:12:03.123Z"
+    }
 }
@@ -3,8 +3,11 @@ package org.example.audio_ecommerce.repository;
 import org.example.audio_ecommerce.entity.Account;
 import org.example.audio_ecommerce.entity.Enum.RoleEnum;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -18,5 +21,14 @@ public interface AccountRepository extends JpaRepository<Account, UUID> {
     Optional<Account> findByEmail(String email);
     Optional<Account> findByResetPasswordToken(String token);
 
+    // Chỉ các cột cần để xác nhận principal JWT (không nạp entity / quan hệ)
+    interface AuthView {
+        String getEmail();
+        RoleEnum getRole();
+        LocalDateTime getPasswordChangedAt();
+    }
+
+    @Query("select a.email as email, a.role as role, a.passwordChangedAt as passwordChangedAt from Account a where a.id = :id")
+    Optional<AuthView> findAuthViewById(@Param("id") UUID id);
 
 }
\ No newline at end of file
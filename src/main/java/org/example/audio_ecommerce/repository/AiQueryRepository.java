@@ -1,7 +1,7 @@
 package org.example.audio_ecommerce.repository;
 
 import lombok.RequiredArgsConstructor;
-import org.springframework.jdbc.core.JdbcTemplate;
+import org.example.audio_ecommerce.LangChain4J.SqlExecutorTool;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -11,12 +11,12 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class AiQueryRepository {
 
-    private final JdbcTemplate jdbcTemplate;
+    private final SqlExecutorTool sqlExecutor;
 
     /**
      * 🧠 Thực thi câu SQL do Gemini sinh ra để lấy product_id.
      * - Chỉ cho phép SELECT từ bảng `products`.
-     * - Nếu chưa có LIMIT, sẽ tự động thêm LIMIT 50.
+     * - Chạy qua SqlExecutorTool: pool read-only riêng, statement timeout, LIMIT tối đa ai.sql.max-rows.
      * - Trả về List<UUID> (danh sách product_id).
      */
     public List<UUID> executeQuery(String sql) {
@@ -30,16 +30,9 @@ public class AiQueryRepository {
             throw new RuntimeException("❌ SQL nguy hiểm bị chặn: " + sql);
         }
 
-        // 🔄 Ép buộc LIMIT để tránh query quá lớn
-        if (!lower.contains("limit")) {
-            sql += " LIMIT 50";
-        }
-
         System.out.println("🧾 Thực thi SQL: " + sql);
 
-        // ✅ Thực thi query và map ra UUID của product_id
-        return jdbcTemplate.query(sql, (rs, rowNum) ->
-                UUID.fromString(rs.getString("product_id"))
-        );
+        // ✅ Thực thi query và lấy product_id
+        return sqlExecutor.selectProductIds(sql);
     }
 }
@@ -5,7 +5,13 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.example.audio_ecommerce.entity.CustomerOrder;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -20,5 +26,35 @@ public interface CustomerOrderRepository extends JpaRepository<CustomerOrder, UU
     Page<CustomerOrder> findByCustomer_IdAndStatus(UUID customerId,
                                                    OrderStatus status,
                                                    Pageable pageable);
-}
 
+    // Chuyển trạng thái cả nhóm đơn (webhook PayOS) bằng 1 câu UPDATE.
+    // flushAutomatically: thay đổi đang chờ của các đơn được ghi trước, không bị UPDATE này đè
+    @Modifying(flushAutomatically = true)
+    @Query("""
+        UPDATE CustomerOrder o
+        SET o.status = :status, o.createdAt = :now
+        WHERE o.id IN :ids
+    """)
+    int updateStatusForIds(@Param("ids") Collection<UUID> ids,
+                           @Param("status") OrderStatus status,
+                           @Param("now") LocalDateTime now);
+
+    // Huỷ đơn hết hạn thanh toán; chỉ đơn còn PENDING / UNPAID → không đè đơn webhook vừa chuyển PAID
+    @Modifying(flushAutomatically = true)
+    @Query("""
+        UPDATE CustomerOrder o
+        SET o.status = org.example.audio_ecommerce.entity.Enum.OrderStatus.CANCELLED
+        WHERE o.id IN :ids
+          AND o.status IN (org.example.audio_ecommerce.entity.Enum.OrderStatus.PENDING,
+                           org.example.audio_ecommerce.entity.Enum.OrderStatus.UNPAID)
+    """)
+    int cancelIfUnpaid(@Param("ids") Collection<UUID> ids);
+
+    // Đơn tạo trước khi có bảng payment_batch: mã batch chỉ nằm trong platformVoucherDetailJson
+    @Query("""
+        SELECT o FROM CustomerOrder o
+        WHERE o.paymentMethod = org.example.audio_ecommerce.entity.Enum.PaymentMethod.ONLINE
+          AND o.platformVoucherDetailJson LIKE :pattern
+    """)
+    List<CustomerOrder> findLegacyBatchCandidates(@Param("pattern") String pattern);
+}
@@ -7,6 +7,7 @@ import org.springframework.data.domain.*;
 import org.springframework.data.jpa.repository.*;
 import org.springframework.data.repository.query.Param;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -38,6 +39,35 @@ public interface CustomerRepository extends JpaRepository<Customer, UUID> {
                           @Param("status") CustomerStatus status,
                           Pageable pageable);
 
+    // ==== Tra cứu theo cột chuẩn hoá (index thường, có thể nhiều customer trùng) ====
+    @Query("select c.id from Customer c where c.emailNormalized = :email")
+    List<UUID> findIdsByEmailNormalized(@Param("email") String emailNormalized);
+
+    @Query("select c.id from Customer c where c.phoneNormalized = :phone")
+    List<UUID> findIdsByPhoneNormalized(@Param("phone") String phoneNormalized);
+
+    // Backfill cột chuẩn hoá cho dữ liệu có trước khi thêm cột
+    @Modifying
+    @Query("update Customer c set c.emailNormalized = lower(trim(c.email)) where c.emailNormalized is null")
+    int backfillEmailNormalized();
+
+    interface PhoneRow {
+        UUID getId();
+        String getPhoneNumber();
+    }
+
+    @Query("""
+        select c.id as id, c.phoneNumber as phoneNumber from Customer c
+        where c.phoneNormalized is null and c.phoneNumber is not null
+          and (:after is null or c.id > :after)
+        order by c.id
+        """)
+    List<PhoneRow> findPhonesToNormalize(@Param("after") UUID after, Pageable pageable);
+
+    @Modifying
+    @Query("update Customer c set c.phoneNormalized = :phone where c.id = :id")
+    int setPhoneNormalized(@Param("id") UUID id, @Param("phone") String phone);
+
      Optional<Customer> findByAccount_Email(String email);
     Optional<Customer> findByAccount(Account account);
 }
@@ -3,6 +3,9 @@ package org.example.audio_ecommerce.repository;
 import org.example.audio_ecommerce.entity.DeviceToken;
 import org.example.audio_ecommerce.entity.Enum.NotificationTarget;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.List;
 import java.util.Optional;
@@ -13,4 +16,9 @@ public interface DeviceTokenRepository extends JpaRepository<DeviceToken, UUID>
     List<DeviceToken> findByTargetAndTargetId(NotificationTarget target, UUID targetId);
 
     Optional<DeviceToken> findByToken(String token);
+
+    // Xoá token FCM báo không còn hiệu lực (UNREGISTERED)
+    @Modifying
+    @Query("DELETE FROM DeviceToken d WHERE d.token = :token")
+    int deleteByToken(@Param("token") String token);
 }
@@ -2,7 +2,11 @@ package org.example.audio_ecommerce.repository;
 
 import org.example.audio_ecommerce.entity.Enum.GhnStatus;
 import org.example.audio_ecommerce.entity.GhnOrder;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.time.LocalDateTime;
 import java.util.Collection;
@@ -12,6 +16,7 @@ import java.util.UUID;
 
 public interface GhnOrderRepository extends JpaRepository<GhnOrder, UUID> {
     Optional<GhnOrder> findByStoreOrderId(UUID storeOrderId);
+    List<GhnOrder> findAllByOrderGhnIn(Collection<String> orderCodes);
     boolean existsByStoreOrderId(UUID storeOrderId);
     // lấy các order đang “active” để sync
     List<GhnOrder> findAllByStatusIn(Collection<GhnStatus> statuses);
@@ -20,4 +25,20 @@ public interface GhnOrderRepository extends JpaRepository<GhnOrder, UUID> {
 
     // (optional) nếu muốn bó hẹp theo thời gian cập nhật gần đây
     List<GhnOrder> findByStatusAndUpdatedAtAfter(GhnStatus status, LocalDateTime after);
+
+    // Các order active đã tới hạn poll, đi theo updatedAt cũ nhất trước
+    @Query("""
+        SELECT g FROM GhnOrder g
+        WHERE g.status IN :statuses
+          AND (g.nextSyncAt IS NULL OR g.nextSyncAt <= :now)
+        ORDER BY g.updatedAt ASC, g.id ASC
+    """)
+    List<GhnOrder> findDueForSync(@Param("statuses") Collection<GhnStatus> statuses,
+                                  @Param("now") LocalDateTime now,
+                                  Pageable pageable);
+
+    // Chỉ đẩy lịch poll, không đụng updatedAt / các cột khác
+    @Modifying
+    @Query("UPDATE GhnOrder g SET g.nextSyncAt = :nextSyncAt WHERE g.id IN :ids")
+    int scheduleNextSync(@Param("ids") Collection<UUID> ids, @Param("nextSyncAt") LocalDateTime nextSyncAt);
 }
@@ -0,0 +1,53 @@
+package org.example.audio_ecommerce.repository;
+
+import org.example.audio_ecommerce.entity.Enum.WebhookInboxStatus;
+import org.example.audio_ecommerce.entity.GhnWebhookInbox;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+public interface GhnWebhookInboxRepository extends JpaRepository<GhnWebhookInbox, UUID> {
+
+    // Sự kiện PENDING tới lượt xử lý, nhận trước xử lý trước
+    @Query("""
+        SELECT w FROM GhnWebhookInbox w
+        WHERE w.status = org.example.audio_ecommerce.entity.Enum.WebhookInboxStatus.PENDING
+          AND w.nextAttemptAt <= :now
+        ORDER BY w.receivedAt
+    """)
+    List<GhnWebhookInbox> findDue(@Param("now") LocalDateTime now, Pageable pageable);
+
+    // Chỉ đóng row còn PENDING → chạy trong cùng transaction với việc áp trạng thái
+    @Modifying
+    @Query("""
+        UPDATE GhnWebhookInbox w
+        SET w.status = org.example.audio_ecommerce.entity.Enum.WebhookInboxStatus.DONE,
+            w.processedAt = :now, w.attempts = w.attempts + 1
+        WHERE w.id IN :ids
+          AND w.status = org.example.audio_ecommerce.entity.Enum.WebhookInboxStatus.PENDING
+    """)
+    int markDone(@Param("ids") Collection<UUID> ids, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("""
+        UPDATE GhnWebhookInbox w
+        SET w.status = :status, w.attempts = w.attempts + 1, w.lastError = :error,
+            w.nextAttemptAt = :nextAttemptAt, w.processedAt = :processedAt
+        WHERE w.id IN :ids
+          AND w.status = org.example.audio_ecommerce.entity.Enum.WebhookInboxStatus.PENDING
+    """)
+    int recordFailure(@Param("ids") Collection<UUID> ids,
+                      @Param("status") WebhookInboxStatus status,
+                      @Param("error") String error,
+                      @Param("nextAttemptAt") LocalDateTime nextAttemptAt,
+                      @Param("processedAt") LocalDateTime processedAt);
+
+    long countByStatus(WebhookInboxStatus status);
+}
@@ -0,0 +1,7 @@
+package org.example.audio_ecommerce.repository;
+
+import org.example.audio_ecommerce.entity.JobWatermark;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface JobWatermarkRepository extends JpaRepository<JobWatermark, String> {
+}
@@ -3,6 +3,8 @@ package org.example.audio_ecommerce.repository;
 import org.example.audio_ecommerce.entity.LogWarranty;
 import org.example.audio_ecommerce.entity.Enum.WarrantyLogStatus;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.List;
 import java.util.UUID;
@@ -10,4 +12,18 @@ import java.util.UUID;
 public interface LogWarrantyRepository extends JpaRepository<LogWarranty, UUID> {
     List<LogWarranty> findByWarrantyId(UUID warrantyId);
     List<LogWarranty> findByWarrantyIdAndStatus(UUID warrantyId, WarrantyLogStatus status);
+
+    // Lọc customer/store trong SQL, nạp sẵn warranty → không lazy-load từng log
+    @Query("""
+        select l from LogWarranty l
+        join fetch l.warranty w
+        where w.id = :warrantyId
+          and (:status is null or l.status = :status)
+          and (:customerId is null or w.customer.id = :customerId)
+          and (:storeId is null or w.store.storeId = :storeId)
+        """)
+    List<LogWarranty> searchByWarranty(@Param("warrantyId") UUID warrantyId,
+                                       @Param("status") WarrantyLogStatus status,
+                                       @Param("customerId") UUID customerId,
+                                       @Param("storeId") UUID storeId);
 }
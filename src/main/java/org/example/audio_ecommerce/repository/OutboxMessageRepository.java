@@ -0,0 +1,90 @@
+package org.example.audio_ecommerce.repository;
+
+import org.example.audio_ecommerce.entity.Enum.OutboxStatus;
+import org.example.audio_ecommerce.entity.OutboxMessage;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+public interface OutboxMessageRepository extends JpaRepository<OutboxMessage, UUID> {
+
+    // Dòng PENDING đã tới hạn, chưa bị instance khác giữ lease → cũ nhất trước
+    @Query("""
+        SELECT o.id FROM OutboxMessage o
+        WHERE o.status = org.example.audio_ecommerce.entity.Enum.OutboxStatus.PENDING
+          AND o.availableAt <= :now
+          AND (o.lockedUntil IS NULL OR o.lockedUntil < :now)
+        ORDER BY o.availableAt
+    """)
+    List<UUID> findDueIds(@Param("now") LocalDateTime now, Pageable pageable);
+
+    // Nhận lease cho cả batch; điều kiện lặp lại → 2 instance cùng nhặt thì mỗi dòng chỉ về 1 bên
+    @Modifying
+    @Query("""
+        UPDATE OutboxMessage o
+        SET o.claimToken = :token, o.lockedUntil = :until
+        WHERE o.id IN :ids
+          AND o.status = org.example.audio_ecommerce.entity.Enum.OutboxStatus.PENDING
+          AND (o.lockedUntil IS NULL OR o.lockedUntil < :now)
+    """)
+    int claim(@Param("ids") Collection<UUID> ids,
+              @Param("token") UUID token,
+              @Param("until") LocalDateTime until,
+              @Param("now") LocalDateTime now);
+
+    List<OutboxMessage> findByClaimTokenOrderByCreatedAt(UUID claimToken);
+
+    @Modifying
+    @Query("""
+        UPDATE OutboxMessage o
+        SET o.status = org.example.audio_ecommerce.entity.Enum.OutboxStatus.SENT,
+            o.sentAt = :now, o.attempts = o.attempts + 1, o.lockedUntil = NULL
+        WHERE o.id IN :ids
+    """)
+    int markSent(@Param("ids") Collection<UUID> ids, @Param("now") LocalDateTime now);
+
+    // Lỗi tạm → trả lease, hẹn lần thử sau
+    @Modifying
+    @Query("""
+        UPDATE OutboxMessage o
+        SET o.attempts = o.attempts + 1, o.lastError = :error,
+            o.availableAt = :retryAt, o.lockedUntil = NULL
+        WHERE o.id IN :ids
+    """)
+    int reschedule(@Param("ids") Collection<UUID> ids,
+                   @Param("error") String error,
+                   @Param("retryAt") LocalDateTime retryAt);
+
+    @Modifying
+    @Query("""
+        UPDATE OutboxMessage o
+        SET o.status = org.example.audio_ecommerce.entity.Enum.OutboxStatus.FAILED,
+            o.attempts = o.attempts + 1, o.lastError = :error, o.lockedUntil = NULL
+        WHERE o.id IN :ids
+    """)
+    int markFailed(@Param("ids") Collection<UUID> ids, @Param("error") String error);
+
+    // Mốc gửi muộn nhất của các dòng cùng key tạo gần đây → quyết định gửi ngay hay chờ gộp
+    @Query("""
+        SELECT MAX(o.availableAt) FROM OutboxMessage o
+        WHERE o.coalesceKey = :key AND o.createdAt > :since
+    """)
+    LocalDateTime findLatestAvailableAt(@Param("key") String key, @Param("since") LocalDateTime since);
+
+    @Modifying
+    @Query("""
+        DELETE FROM OutboxMessage o
+        WHERE o.status = org.example.audio_ecommerce.entity.Enum.OutboxStatus.SENT
+          AND o.sentAt < :before
+    """)
+    int purgeSentBefore(@Param("before") LocalDateTime before);
+
+    long countByStatus(OutboxStatus status);
+}
@@ -0,0 +1,20 @@
+package org.example.audio_ecommerce.repository;
+
+import org.example.audio_ecommerce.entity.CustomerOrder;
+import org.example.audio_ecommerce.entity.PaymentBatch;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+import java.util.UUID;
+
+public interface PaymentBatchRepository extends JpaRepository<PaymentBatch, UUID> {
+
+    // Unique (batch_code, customer_order_id) → prefix batch_code dùng được làm index tra cứu
+    @Query("""
+        SELECT o FROM CustomerOrder o
+        WHERE o.id IN (SELECT b.customerOrderId FROM PaymentBatch b WHERE b.batchCode = :batchCode)
+    """)
+    List<CustomerOrder> findOrdersByBatchCode(@Param("batchCode") Long batchCode);
+}
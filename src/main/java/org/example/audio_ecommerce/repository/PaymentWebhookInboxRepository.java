@@ -0,0 +1,48 @@
+package org.example.audio_ecommerce.repository;
+
+import org.example.audio_ecommerce.entity.Enum.WebhookInboxStatus;
+import org.example.audio_ecommerce.entity.PaymentWebhookInbox;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+public interface PaymentWebhookInboxRepository extends JpaRepository<PaymentWebhookInbox, UUID> {
+
+    // Webhook còn PENDING nhận trước mốc (worker chết / lỗi tạm) → quét lại, cũ nhất trước
+    @Query("""
+        SELECT w FROM PaymentWebhookInbox w
+        WHERE w.status = org.example.audio_ecommerce.entity.Enum.WebhookInboxStatus.PENDING
+          AND w.receivedAt < :before
+        ORDER BY w.receivedAt
+    """)
+    List<PaymentWebhookInbox> findStalePending(@Param("before") LocalDateTime before, Pageable pageable);
+
+    // Chỉ đóng khi còn PENDING → 2 worker cùng nhặt 1 webhook thì chỉ 1 bên ghi được
+    @Modifying
+    @Query("""
+        UPDATE PaymentWebhookInbox w
+        SET w.status = :to, w.processedAt = :now, w.attempts = w.attempts + 1, w.lastError = :error
+        WHERE w.id = :id
+          AND w.status = org.example.audio_ecommerce.entity.Enum.WebhookInboxStatus.PENDING
+    """)
+    int close(@Param("id") UUID id,
+              @Param("to") WebhookInboxStatus to,
+              @Param("now") LocalDateTime now,
+              @Param("error") String error);
+
+    @Modifying
+    @Query("""
+        UPDATE PaymentWebhookInbox w
+        SET w.attempts = w.attempts + 1, w.lastError = :error
+        WHERE w.id = :id
+    """)
+    int recordFailure(@Param("id") UUID id, @Param("error") String error);
+
+    long countByStatus(WebhookInboxStatus status);
+}
@@ -4,6 +4,7 @@ package org.example.audio_ecommerce.repository;
 import org.example.audio_ecommerce.entity.Enum.SlotStatus;
 import org.example.audio_ecommerce.entity.PlatformCampaignFlashSlot;
 import org.springframework.data.jpa.repository.*;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
@@ -28,4 +29,31 @@ public interface PlatformCampaignFlashSlotRepository extends JpaRepository<Platf
     @Modifying
     @Query("update PlatformCampaignFlashSlot s set s.status = :status where s.id in :ids")
     int bulkUpdateStatus(List<UUID> ids, SlotStatus status);
+
+    // ===== Chuyển trạng thái slot theo thời gian, giới hạn trong 1 campaign =====
+    @Modifying
+    @Query("update PlatformCampaignFlashSlot s set s.status = org.example.audio_ecommerce.entity.Enum.SlotStatus.ACTIVE " +
+           "where s.campaign.id = :campaignId and s.status = org.example.audio_ecommerce.entity.Enum.SlotStatus.PENDING " +
+           "and s.openTime <= :now and s.closeTime >= :now")
+    int openDueSlots(@Param("campaignId") UUID campaignId, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("update PlatformCampaignFlashSlot s set s.status = org.example.audio_ecommerce.entity.Enum.SlotStatus.CLOSED " +
+           "where s.campaign.id = :campaignId and s.status <> org.example.audio_ecommerce.entity.Enum.SlotStatus.CLOSED " +
+           "and s.closeTime < :now")
+    int closeEndedSlots(@Param("campaignId") UUID campaignId, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("update PlatformCampaignFlashSlot s set s.status = org.example.audio_ecommerce.entity.Enum.SlotStatus.PENDING " +
+           "where s.campaign.id = :campaignId and s.status <> org.example.audio_ecommerce.entity.Enum.SlotStatus.PENDING " +
+           "and s.openTime > :now")
+    int resetUpcomingSlots(@Param("campaignId") UUID campaignId, @Param("now") LocalDateTime now);
+
+    @Query("select min(s.openTime) from PlatformCampaignFlashSlot s " +
+           "where s.campaign.id = :campaignId and s.openTime >= :now")
+    LocalDateTime findNextOpenTime(@Param("campaignId") UUID campaignId, @Param("now") LocalDateTime now);
+
+    @Query("select min(s.closeTime) from PlatformCampaignFlashSlot s " +
+           "where s.campaign.id = :campaignId and s.closeTime >= :now")
+    LocalDateTime findNextCloseTime(@Param("campaignId") UUID campaignId, @Param("now") LocalDateTime now);
 }
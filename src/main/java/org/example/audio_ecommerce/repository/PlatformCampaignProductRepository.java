@@ -9,6 +9,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -174,4 +175,88 @@ public interface PlatformCampaignProductRepository extends JpaRepository<Platfor
             @Param("now") LocalDateTime now
     );
 
+    // ===== Nạp dữ liệu cho CampaignPriceIndex (fetch sẵn campaign để dùng ngoài session) =====
+    @Query("""
+    select cpp
+    from PlatformCampaignProduct cpp
+    join fetch cpp.campaign c
+    where cpp.status = org.example.audio_ecommerce.entity.Enum.VoucherStatus.ACTIVE
+""")
+    List<PlatformCampaignProduct> findAllActiveForPriceIndex();
+
+    @Query("""
+    select cpp
+    from PlatformCampaignProduct cpp
+    join fetch cpp.campaign c
+    where cpp.status = org.example.audio_ecommerce.entity.Enum.VoucherStatus.ACTIVE
+      and c.id in :campaignIds
+""")
+    List<PlatformCampaignProduct> findActiveForPriceIndexByCampaignIds(
+            @Param("campaignIds") Collection<UUID> campaignIds
+    );
+
+    // ===== Chuyển trạng thái sản phẩm theo thời gian, giới hạn trong 1 campaign =====
+    // FAST_SALE: slot đang mở → ONOPEN/APPROVE lên ACTIVE
+    @Modifying
+    @Query("""
+    update PlatformCampaignProduct p
+    set p.status = org.example.audio_ecommerce.entity.Enum.VoucherStatus.ACTIVE, p.updatedAt = :now
+    where p.campaign.id = :campaignId
+      and p.status in (org.example.audio_ecommerce.entity.Enum.VoucherStatus.ONOPEN, org.example.audio_ecommerce.entity.Enum.VoucherStatus.APPROVE)
+      and p.flashSlot.id in (
+            select s.id from PlatformCampaignFlashSlot s
+            where s.campaign.id = :campaignId
+              and s.openTime <= :now
+              and s.closeTime >= :now
+      )
+""")
+    int activateDueSlotProducts(@Param("campaignId") UUID campaignId, @Param("now") LocalDateTime now);
+
+    // MEGA_SALE: caller đã kiểm tra campaign ACTIVE và đang trong khung giờ campaign
+    @Modifying
+    @Query("""
+    update PlatformCampaignProduct p
+    set p.status = org.example.audio_ecommerce.entity.Enum.VoucherStatus.ACTIVE, p.updatedAt = :now
+    where p.campaign.id = :campaignId
+      and p.flashSlot is null
+      and p.status in (org.example.audio_ecommerce.entity.Enum.VoucherStatus.ONOPEN, org.example.audio_ecommerce.entity.Enum.VoucherStatus.APPROVE)
+""")
+    int activateCampaignWideProducts(@Param("campaignId") UUID campaignId, @Param("now") LocalDateTime now);
+
+    // Hết hạn theo endTime riêng hoặc slot đã đóng
+    @Modifying
+    @Query("""
+    update PlatformCampaignProduct p
+    set p.status = org.example.audio_ecommerce.entity.Enum.VoucherStatus.EXPIRED, p.updatedAt = :now
+    where p.campaign.id = :campaignId
+      and p.status <> org.example.audio_ecommerce.entity.Enum.VoucherStatus.EXPIRED
+      and (
+            (p.endTime is not null and p.endTime < :now)
+            or p.flashSlot.id in (
+                  select s.id from PlatformCampaignFlashSlot s
+                  where s.campaign.id = :campaignId
+                    and s.closeTime < :now
+            )
+      )
+""")
+    int expireEndedProducts(@Param("campaignId") UUID campaignId, @Param("now") LocalDateTime now);
+
+    // Campaign đã EXPIRED → toàn bộ sản phẩm EXPIRED
+    @Modifying
+    @Query("""
+    update PlatformCampaignProduct p
+    set p.status = org.example.audio_ecommerce.entity.Enum.VoucherStatus.EXPIRED, p.updatedAt = :now
+    where p.campaign.id = :campaignId
+      and p.status <> org.example.audio_ecommerce.entity.Enum.VoucherStatus.EXPIRED
+""")
+    int expireAllProducts(@Param("campaignId") UUID campaignId, @Param("now") LocalDateTime now);
+
+    @Query("""
+    select min(p.endTime)
+    from PlatformCampaignProduct p
+    where p.campaign.id = :campaignId
+      and p.status <> org.example.audio_ecommerce.entity.Enum.VoucherStatus.EXPIRED
+      and p.endTime >= :now
+""")
+    LocalDateTime findNextProductEndTime(@Param("campaignId") UUID campaignId, @Param("now") LocalDateTime now);
 }
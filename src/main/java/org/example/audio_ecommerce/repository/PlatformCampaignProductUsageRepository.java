@@ -3,8 +3,14 @@ package org.example.audio_ecommerce.repository;
 import org.example.audio_ecommerce.entity.Customer;
 import org.example.audio_ecommerce.entity.PlatformCampaignProduct;
 import org.example.audio_ecommerce.entity.PlatformCampaignProductUsage;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -15,4 +21,40 @@ public interface PlatformCampaignProductUsageRepository extends JpaRepository<Pl
             Customer customer
     );
 
+    // Báo cáo lịch sử dùng voucher platform: lọc + sort + phân trang trong SQL, nạp sẵn campaign/product/store/customer
+    @Query(value = """
+        select u from PlatformCampaignProductUsage u
+        join fetch u.campaignProduct cp
+        left join fetch cp.campaign cpn
+        left join fetch cp.product p
+        left join fetch cp.store s
+        join fetch u.customer c
+        where (:campaignId is null or cpn.id = :campaignId)
+          and (:campaignProductId is null or cp.id = :campaignProductId)
+          and (:storeId is null or s.storeId = :storeId)
+          and (:customerId is null or c.id = :customerId)
+          and (:from is null or u.lastUsedAt >= :from)
+          and (:to is null or u.lastUsedAt <= :to)
+        """,
+            countQuery = """
+        select count(u) from PlatformCampaignProductUsage u
+        where (:campaignId is null or u.campaignProduct.campaign.id = :campaignId)
+          and (:campaignProductId is null or u.campaignProduct.id = :campaignProductId)
+          and (:storeId is null or u.campaignProduct.store.storeId = :storeId)
+          and (:customerId is null or u.customer.id = :customerId)
+          and (:from is null or u.lastUsedAt >= :from)
+          and (:to is null or u.lastUsedAt <= :to)
+        """)
+    Page<PlatformCampaignProductUsage> searchUsage(@Param("campaignId") UUID campaignId,
+                                                   @Param("campaignProductId") UUID campaignProductId,
+                                                   @Param("storeId") UUID storeId,
+                                                   @Param("customerId") UUID customerId,
+                                                   @Param("from") LocalDateTime from,
+                                                   @Param("to") LocalDateTime to,
+                                                   Pageable pageable);
+
+    // Dữ liệu cũ chỉ có firstUsedAt → điền lastUsedAt để lọc / sort theo index không bỏ sót
+    @Modifying
+    @Query("update PlatformCampaignProductUsage u set u.lastUsedAt = u.firstUsedAt where u.lastUsedAt is null and u.firstUsedAt is not null")
+    int backfillLastUsedAt();
 }
@@ -4,6 +4,7 @@ import org.example.audio_ecommerce.entity.Enum.CampaignType;
 import org.example.audio_ecommerce.entity.Enum.VoucherStatus;
 import org.example.audio_ecommerce.entity.PlatformCampaign;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
@@ -29,4 +30,28 @@ public interface PlatformCampaignRepository extends JpaRepository<PlatformCampai
             @Param("start") LocalDateTime start,
             @Param("end") LocalDateTime end
     );
+
+    // ===== Chuyển trạng thái theo thời gian (CampaignTransitionService) =====
+    @Query("select c.id from PlatformCampaign c where c.status <> org.example.audio_ecommerce.entity.Enum.VoucherStatus.EXPIRED")
+    List<UUID> findIdsNotExpired();
+
+    @Modifying
+    @Query("""
+        UPDATE PlatformCampaign c SET c.status = org.example.audio_ecommerce.entity.Enum.VoucherStatus.ACTIVE
+        WHERE c.id = :id
+          AND c.status IN (org.example.audio_ecommerce.entity.Enum.VoucherStatus.ONOPEN, org.example.audio_ecommerce.entity.Enum.VoucherStatus.APPROVE)
+          AND c.startTime <= :now
+          AND c.endTime >= :now
+    """)
+    int activateIfDue(@Param("id") UUID id, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("""
+        UPDATE PlatformCampaign c SET c.status = org.example.audio_ecommerce.entity.Enum.VoucherStatus.EXPIRED
+        WHERE c.id = :id
+          AND c.status <> org.example.audio_ecommerce.entity.Enum.VoucherStatus.EXPIRED
+          AND (c.startTime IS NULL OR c.startTime <= :now)
+          AND c.endTime < :now
+    """)
+    int expireIfDue(@Param("id") UUID id, @Param("now") LocalDateTime now);
 }
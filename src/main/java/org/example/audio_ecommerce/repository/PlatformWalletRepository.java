@@ -3,7 +3,12 @@ package org.example.audio_ecommerce.repository;
 import org.example.audio_ecommerce.entity.PlatformWallet;
 import org.example.audio_ecommerce.entity.Enum.WalletOwnerType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -16,5 +21,23 @@ public interface PlatformWalletRepository extends JpaRepository<PlatformWallet,
 
     Optional<PlatformWallet> findFirstByOwnerType(WalletOwnerType ownerType);
 
-
+    // Gộp số dư từ các stripe vào dòng ví (PlatformLedger.fold)
+    @Modifying
+    @Query("""
+        UPDATE PlatformWallet w
+        SET w.totalBalance = w.totalBalance + :total,
+            w.pendingBalance = w.pendingBalance + :pending,
+            w.doneBalance = w.doneBalance + :done,
+            w.receivedTotal = w.receivedTotal + :received,
+            w.refundedTotal = w.refundedTotal + :refunded,
+            w.updatedAt = :now
+        WHERE w.id = :id
+    """)
+    int addBalances(@Param("id") UUID id,
+                    @Param("total") BigDecimal total,
+                    @Param("pending") BigDecimal pending,
+                    @Param("done") BigDecimal done,
+                    @Param("received") BigDecimal received,
+                    @Param("refunded") BigDecimal refunded,
+                    @Param("now") LocalDateTime now);
 }
@@ -0,0 +1,65 @@
+package org.example.audio_ecommerce.repository;
+
+import jakarta.persistence.LockModeType;
+import org.example.audio_ecommerce.entity.PlatformWalletStripe;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+public interface PlatformWalletStripeRepository extends JpaRepository<PlatformWalletStripe, UUID> {
+
+    interface Totals {
+        BigDecimal getTotalBalance();
+        BigDecimal getPendingBalance();
+        BigDecimal getDoneBalance();
+        BigDecimal getReceivedTotal();
+        BigDecimal getRefundedTotal();
+    }
+
+    // Cộng delta tại chỗ: chỉ khoá 1 stripe, không đọc trước
+    @Modifying
+    @Query("""
+        UPDATE PlatformWalletStripe s
+        SET s.totalBalance = s.totalBalance + :total,
+            s.pendingBalance = s.pendingBalance + :pending,
+            s.doneBalance = s.doneBalance + :done,
+            s.receivedTotal = s.receivedTotal + :received,
+            s.refundedTotal = s.refundedTotal + :refunded,
+            s.updatedAt = :now
+        WHERE s.walletId = :walletId AND s.stripeNo = :stripeNo
+    """)
+    int addDelta(@Param("walletId") UUID walletId,
+                 @Param("stripeNo") int stripeNo,
+                 @Param("total") BigDecimal total,
+                 @Param("pending") BigDecimal pending,
+                 @Param("done") BigDecimal done,
+                 @Param("received") BigDecimal received,
+                 @Param("refunded") BigDecimal refunded,
+                 @Param("now") LocalDateTime now);
+
+    // Dòng ví + SUM(stripe) trong 1 câu → cùng 1 snapshot, không lệch khi job gộp commit giữa chừng
+    @Query("""
+        SELECT w.totalBalance + COALESCE((SELECT SUM(s.totalBalance) FROM PlatformWalletStripe s WHERE s.walletId = w.id), 0) AS totalBalance,
+               w.pendingBalance + COALESCE((SELECT SUM(s.pendingBalance) FROM PlatformWalletStripe s WHERE s.walletId = w.id), 0) AS pendingBalance,
+               w.doneBalance + COALESCE((SELECT SUM(s.doneBalance) FROM PlatformWalletStripe s WHERE s.walletId = w.id), 0) AS doneBalance,
+               w.receivedTotal + COALESCE((SELECT SUM(s.receivedTotal) FROM PlatformWalletStripe s WHERE s.walletId = w.id), 0) AS receivedTotal,
+               w.refundedTotal + COALESCE((SELECT SUM(s.refundedTotal) FROM PlatformWalletStripe s WHERE s.walletId = w.id), 0) AS refundedTotal
+        FROM PlatformWallet w
+        WHERE w.id = :walletId
+    """)
+    Totals sumWithWallet(@Param("walletId") UUID walletId);
+
+    // Khoá theo thứ tự stripeNo → job gộp không deadlock với chính nó
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM PlatformWalletStripe s WHERE s.walletId = :walletId ORDER BY s.stripeNo")
+    List<PlatformWalletStripe> findAllForUpdate(@Param("walletId") UUID walletId);
+
+    List<PlatformWalletStripe> findAllByWalletId(UUID walletId);
+}
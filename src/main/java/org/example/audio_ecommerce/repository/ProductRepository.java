@@ -1,22 +1,37 @@
 package org.example.audio_ecommerce.repository;
 
+import jakarta.persistence.criteria.Join;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Subquery;
 import org.example.audio_ecommerce.entity.Category;
 import org.example.audio_ecommerce.entity.CategoryAttribute;
 import org.example.audio_ecommerce.entity.Product;
+import org.example.audio_ecommerce.entity.ProductAttributeValue;
 import org.example.audio_ecommerce.entity.Enum.ProductStatus;
 import org.example.audio_ecommerce.entity.Store;
+import org.example.audio_ecommerce.entity.StoreAddressEntity;
+import org.example.audio_ecommerce.util.VietnameseText;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
-public interface ProductRepository extends JpaRepository<Product, UUID> {
+public interface ProductRepository extends JpaRepository<Product, UUID>, JpaSpecificationExecutor<Product> {
 
     // =============================
     // BASIC FINDERS
@@ -111,12 +126,182 @@ Page<Product> findAllWithAdvancedFilters(
 
 
 
+    // =============================
+    // SEARCH INDEX (duyệt keyset theo productId)
+    // =============================
+    @Query("""
+        SELECT p FROM Product p
+        WHERE (:after IS NULL OR p.productId > :after)
+        ORDER BY p.productId
+    """)
+    List<Product> findSearchIndexBatch(@Param("after") UUID after, Pageable pageable);
+
+    // =============================
+    // THUMBNAIL FEED (mọi filter/sort đẩy xuống SQL)
+    // =============================
+    // Giống giới hạn số từ khoá của ProductSearchIndex
+    int KEYWORD_MAX_WORDS = 8;
+
+    record ThumbnailFilter(
+            ProductStatus status,
+            UUID categoryId,
+            UUID storeId,
+            String keyword,
+            String provinceCode,
+            String districtCode,
+            String wardCode,
+            BigDecimal minPrice,
+            BigDecimal maxPrice,
+            BigDecimal minRating,
+            Collection<UUID> productIds // tập id từ chỉ mục tìm kiếm (thay keyword); null = không giới hạn
+    ) {}
+
+    /** Phân trang offset, totalElements đếm đúng trên cùng bộ lọc. */
+    default Page<Product> searchThumbnails(ThumbnailFilter filter, Pageable pageable) {
+        return findAll(thumbnailSpec(filter), pageable);
+    }
+
+    /** Keyset (seek) cho infinite scroll: sort phải kết thúc bằng productId để vị trí là duy nhất. */
+    default Window<Product> scrollThumbnails(ThumbnailFilter filter, Sort sort, ScrollPosition position, int limit) {
+        return findBy(thumbnailSpec(filter), q -> q.sortBy(sort).limit(limit).scroll(position));
+    }
+
+    // EXISTS thay cho JOIN category/địa chỉ → không nhân bản dòng, không cần DISTINCT, count chính xác
+    static Specification<Product> thumbnailSpec(ThumbnailFilter f) {
+        return (root, query, cb) -> {
+            List<Predicate> predicates = new ArrayList<>();
+
+            if (f.status() != null) {
+                predicates.add(cb.equal(root.get("status"), f.status()));
+            }
+            if (f.storeId() != null) {
+                predicates.add(cb.equal(root.get("store").get("storeId"), f.storeId()));
+            }
+            if (f.categoryId() != null) {
+                Subquery<UUID> sq = query.subquery(UUID.class);
+                Root<Product> correlated = sq.correlate(root);
+                Join<Product, Category> c = correlated.join("categories");
+                sq.select(c.get("categoryId")).where(cb.equal(c.get("categoryId"), f.categoryId()));
+                predicates.add(cb.exists(sq));
+            }
+            if (f.productIds() != null) {
+                predicates.add(f.productIds().isEmpty() ? cb.disjunction() : root.get("productId").in(f.productIds()));
+            }
+            if (f.keyword() != null && !f.keyword().isBlank()) {
+                // Cùng trường và cùng luật như ProductSearchIndex: tách từ (bỏ dấu), mỗi từ phải có trong
+                // search_text (name/brand/model/mô tả) HOẶC tên danh mục HOẶC giá trị thuộc tính (AND giữa các từ).
+                // Khác chỉ mục: không khớp gần đúng; tên danh mục / thuộc tính so chữ thường, chưa bỏ dấu.
+                // Các cột gốc giữ lại cho dòng chưa được backfill search_text.
+                List<String> words = VietnameseText.tokenize(f.keyword()).stream()
+                        .distinct().limit(KEYWORD_MAX_WORDS).toList();
+                if (words.isEmpty()) {
+                    predicates.add(cb.disjunction());
+                }
+                for (String word : words) {
+                    String pattern = "%" + word + "%";
+
+                    Subquery<UUID> categorySq = query.subquery(UUID.class);
+                    Root<Product> correlated = categorySq.correlate(root);
+                    Join<Product, Category> c = correlated.join("categories");
+                    categorySq.select(c.get("categoryId")).where(cb.like(cb.lower(c.get("name")), pattern));
+
+                    Subquery<UUID> attributeSq = query.subquery(UUID.class);
+                    Root<ProductAttributeValue> a = attributeSq.from(ProductAttributeValue.class);
+                    attributeSq.select(a.get("id")).where(
+                            cb.equal(a.get("product"), root),
+                            cb.like(cb.lower(a.get("value")), pattern));
+
+                    predicates.add(cb.or(
+                            cb.like(root.get("searchText"), pattern),
+                            cb.like(cb.lower(root.get("name")), pattern),
+                            cb.like(cb.lower(root.get("brandName")), pattern),
+                            cb.like(cb.lower(root.get("description")), pattern),
+                            cb.exists(categorySq),
+                            cb.exists(attributeSq)
+                    ));
+                }
+            }
+            if (f.provinceCode() != null || f.districtCode() != null || f.wardCode() != null) {
+                Subquery<UUID> sq = query.subquery(UUID.class);
+                Root<StoreAddressEntity> addr = sq.from(StoreAddressEntity.class);
+                List<Predicate> addrPredicates = new ArrayList<>();
+                addrPredicates.add(cb.equal(addr.get("store"), root.get("store")));
+                if (f.provinceCode() != null) addrPredicates.add(cb.equal(addr.get("provinceCode"), f.provinceCode()));
+                if (f.districtCode() != null) addrPredicates.add(cb.equal(addr.get("districtCode"), f.districtCode()));
+                if (f.wardCode() != null) addrPredicates.add(cb.equal(addr.get("wardCode"), f.wardCode()));
+                sq.select(addr.get("id")).where(addrPredicates.toArray(new Predicate[0]));
+                predicates.add(cb.exists(sq));
+            }
+            if (f.minPrice() != null) {
+                predicates.add(cb.greaterThanOrEqualTo(root.get("effectiveMinPrice"), f.minPrice()));
+            }
+            if (f.maxPrice() != null) {
+                predicates.add(cb.lessThanOrEqualTo(root.get("effectiveMinPrice"), f.maxPrice()));
+            }
+            if (f.minRating() != null) {
+                predicates.add(cb.greaterThanOrEqualTo(root.get("ratingAverage"), f.minRating()));
+            }
+
+            return cb.and(predicates.toArray(new Predicate[0]));
+        };
+    }
+
+    // =============================
+    // EFFECTIVE MIN PRICE (denormalized)
+    // =============================
+    /** [productId, price, finalPrice, min(variantPrice)] */
+    @Query("""
+        SELECT p.productId, p.price, p.finalPrice,
+               (SELECT MIN(v.variantPrice) FROM ProductVariantEntity v WHERE v.product = p)
+        FROM Product p
+        WHERE p.productId IN :ids
+    """)
+    List<Object[]> findPriceBasis(@Param("ids") Collection<UUID> ids);
+
+    @Modifying
+    @Query("UPDATE Product p SET p.effectiveMinPrice = :price WHERE p.productId = :productId")
+    int updateEffectiveMinPrice(@Param("productId") UUID productId, @Param("price") BigDecimal price);
+
+    // =============================
+    // SEARCH TEXT (denormalized, đã bỏ dấu)
+    // =============================
+    @Query("SELECT p FROM Product p WHERE p.searchText IS NULL")
+    List<Product> findMissingSearchText(Pageable pageable);
+
+    // Bulk update → không chạy @PreUpdate (không đụng updatedAt)
+    @Modifying
+    @Query("UPDATE Product p SET p.searchText = :text WHERE p.productId = :productId")
+    int updateSearchText(@Param("productId") UUID productId, @Param("text") String text);
+
+    @Query("""
+        SELECT p.productId FROM Product p
+        WHERE p.effectiveMinPrice IS NULL
+          AND (p.price IS NOT NULL OR p.finalPrice IS NOT NULL
+               OR EXISTS (SELECT 1 FROM ProductVariantEntity v WHERE v.product = p AND v.variantPrice IS NOT NULL))
+    """)
+    List<UUID> findIdsMissingEffectivePrice(Pageable pageable);
+
     // =============================
     // STORE UTIL
     // =============================
     @Query("SELECT p.store FROM Product p WHERE p.productId = :productId")
     Optional<Store> findStoreByProductId(UUID productId);
 
+    // =============================
+    // STOCK (conditional UPDATE, không read-modify-write)
+    // =============================
+    @Modifying
+    @Query("""
+        UPDATE Product p
+        SET p.stockQuantity = p.stockQuantity - :qty
+        WHERE p.productId = :productId AND p.stockQuantity >= :qty
+    """)
+    int decrementStockIfAvailable(@Param("productId") UUID productId, @Param("qty") int qty);
+
+    @Modifying
+    @Query("UPDATE Product p SET p.stockQuantity = COALESCE(p.stockQuantity, 0) + :qty WHERE p.productId = :productId")
+    int incrementStock(@Param("productId") UUID productId, @Param("qty") int qty);
+
     @Modifying
     @Query("UPDATE Product p SET p.status = 'SUSPENDED' WHERE p.store.storeId = :storeId")
     int suspendAllProductsByStore(UUID storeId);
@@ -2,7 +2,9 @@ package org.example.audio_ecommerce.repository;
 
 import org.example.audio_ecommerce.entity.ProductVariantEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -71,4 +73,21 @@ public interface ProductVariantRepository extends JpaRepository<ProductVariantEn
          @Query("SELECT COUNT(soi) FROM StoreOrderItem soi WHERE soi.variantId = :variantId")
     int countOrdersByVariantId(UUID variantId);
 
+    // ============================================================
+    // 📌 TRỪ / CỘNG TỒN KHO NGUYÊN TỬ (conditional UPDATE)
+    //   -> trả về 0 nếu không đủ hàng, không cần đọc trước rồi trừ trong Java
+    // ============================================================
+    @Modifying
+    @Query("""
+        UPDATE ProductVariantEntity v
+        SET v.variantStock = v.variantStock - :qty
+        WHERE v.id = :variantId AND v.variantStock >= :qty
+    """)
+    int decrementStockIfAvailable(@Param("variantId") UUID variantId, @Param("qty") int qty);
+
+    // COALESCE: dòng cũ có variant_stock NULL (schema cũ) → cộng trả vẫn ra số, không kẹt NULL mãi
+    @Modifying
+    @Query("UPDATE ProductVariantEntity v SET v.variantStock = COALESCE(v.variantStock, 0) + :qty WHERE v.id = :variantId")
+    int incrementStock(@Param("variantId") UUID variantId, @Param("qty") int qty);
+
 }
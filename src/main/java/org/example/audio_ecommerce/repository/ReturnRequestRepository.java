@@ -9,6 +9,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -28,4 +29,10 @@ public interface ReturnRequestRepository extends JpaRepository<ReturnRequest, UU
     Optional<ReturnRequest> findTopByOrderItemIdOrderByCreatedAtDesc(UUID orderItemId);
     List<ReturnRequest> findAllByStatus(ReturnStatus status);
 
+    // Prefetch 1 lần cho cả lô item thay vì findTopBy... từng item
+    List<ReturnRequest> findAllByOrderItemIdIn(Collection<UUID> orderItemIds);
+
+    @Query("select distinct r.orderItemId from ReturnRequest r where r.updatedAt > :since")
+    List<UUID> findOrderItemIdsUpdatedSince(@Param("since") LocalDateTime since);
+
 }
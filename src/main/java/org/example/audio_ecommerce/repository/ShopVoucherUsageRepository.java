@@ -1,11 +1,49 @@
 package org.example.audio_ecommerce.repository;
 
 import org.example.audio_ecommerce.entity.ShopVoucherUsage;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
 import java.util.Optional;
 import java.util.UUID;
 
 public interface ShopVoucherUsageRepository extends JpaRepository<ShopVoucherUsage, UUID> {
     Optional<ShopVoucherUsage> findByVoucher_IdAndCustomer_Id(UUID voucherId, UUID customerId);
+
+    // Báo cáo lịch sử dùng voucher: lọc + sort + phân trang trong SQL, nạp sẵn voucher/shop/customer cho response
+    @Query(value = """
+        select u from ShopVoucherUsage u
+        join fetch u.voucher v
+        join fetch v.shop s
+        join fetch u.customer c
+        where (:storeId is null or s.storeId = :storeId)
+          and (:voucherId is null or v.id = :voucherId)
+          and (:customerId is null or c.id = :customerId)
+          and (:from is null or u.lastUsedAt >= :from)
+          and (:to is null or u.lastUsedAt <= :to)
+        """,
+            countQuery = """
+        select count(u) from ShopVoucherUsage u
+        where (:storeId is null or u.voucher.shop.storeId = :storeId)
+          and (:voucherId is null or u.voucher.id = :voucherId)
+          and (:customerId is null or u.customer.id = :customerId)
+          and (:from is null or u.lastUsedAt >= :from)
+          and (:to is null or u.lastUsedAt <= :to)
+        """)
+    Page<ShopVoucherUsage> searchUsage(@Param("storeId") UUID storeId,
+                                       @Param("voucherId") UUID voucherId,
+                                       @Param("customerId") UUID customerId,
+                                       @Param("from") LocalDateTime from,
+                                       @Param("to") LocalDateTime to,
+                                       Pageable pageable);
+
+    // Dữ liệu cũ chỉ có firstUsedAt → điền lastUsedAt để lọc / sort theo index không bỏ sót
+    @Modifying
+    @Query("update ShopVoucherUsage u set u.lastUsedAt = u.firstUsedAt where u.lastUsedAt is null and u.firstUsedAt is not null")
+    int backfillLastUsedAt();
 }
@@ -0,0 +1,40 @@
+package org.example.audio_ecommerce.repository;
+
+import org.example.audio_ecommerce.entity.Enum.StockReservationStatus;
+import org.example.audio_ecommerce.entity.StockReservation;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+public interface StockReservationRepository extends JpaRepository<StockReservation, UUID> {
+
+    List<StockReservation> findAllByCustomerOrderIdInAndStatus(Collection<UUID> customerOrderIds,
+                                                               StockReservationStatus status);
+
+    // Lấy theo lô các order có reservation HELD đã quá hạn
+    @Query("""
+        SELECT DISTINCT r.customerOrderId FROM StockReservation r
+        WHERE r.status = org.example.audio_ecommerce.entity.Enum.StockReservationStatus.HELD
+          AND r.expiresAt < :now
+    """)
+    List<UUID> findExpiredHeldOrderIds(@Param("now") LocalDateTime now, Pageable pageable);
+
+    // Chuyển trạng thái có điều kiện → chỉ 1 luồng "thắng" khi commit/release cùng lúc
+    @Modifying
+    @Query("""
+        UPDATE StockReservation r
+        SET r.status = :to, r.updatedAt = :now
+        WHERE r.id = :id AND r.status = :from
+    """)
+    int transition(@Param("id") UUID id,
+                   @Param("from") StockReservationStatus from,
+                   @Param("to") StockReservationStatus to,
+                   @Param("now") LocalDateTime now);
+}
@@ -0,0 +1,83 @@
+package org.example.audio_ecommerce.repository;
+
+import org.example.audio_ecommerce.entity.StoreDailyProductStats;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+public interface StoreDailyProductStatsRepository extends JpaRepository<StoreDailyProductStats, UUID> {
+
+    interface ProductTotals {
+        UUID getProductId();
+        String getProductName();
+        Long getSoldQuantity();
+        BigDecimal getRevenue();
+        Long getReturnSuccess();
+    }
+
+    @Modifying
+    @Query("DELETE FROM StoreDailyProductStats p WHERE p.storeId = :storeId AND p.statDate = :date")
+    int deleteDay(@Param("storeId") UUID storeId, @Param("date") LocalDate date);
+
+    // from/to = null → không giới hạn (lifetime)
+    @Query("""
+        SELECT p.productId AS productId,
+               MAX(p.productName) AS productName,
+               SUM(p.soldQuantity) AS soldQuantity,
+               COALESCE(SUM(p.revenue), 0) AS revenue,
+               SUM(p.returnSuccess) AS returnSuccess
+        FROM StoreDailyProductStats p
+        WHERE p.storeId = :storeId
+          AND (:from IS NULL OR p.statDate >= :from)
+          AND (:to IS NULL OR p.statDate <= :to)
+          AND p.soldQuantity > 0
+        GROUP BY p.productId
+        ORDER BY SUM(p.soldQuantity) DESC, p.productId
+    """)
+    List<ProductTotals> findTopSelling(@Param("storeId") UUID storeId,
+                                       @Param("from") LocalDate from,
+                                       @Param("to") LocalDate to,
+                                       Pageable pageable);
+
+    // Tổng trọn đời của 1 nhóm sản phẩm (gộp với đơn thiếu deliveredAt)
+    @Query("""
+        SELECT p.productId AS productId,
+               MAX(p.productName) AS productName,
+               SUM(p.soldQuantity) AS soldQuantity,
+               COALESCE(SUM(p.revenue), 0) AS revenue,
+               SUM(p.returnSuccess) AS returnSuccess
+        FROM StoreDailyProductStats p
+        WHERE p.storeId = :storeId
+          AND p.productId IN :productIds
+        GROUP BY p.productId
+    """)
+    List<ProductTotals> findLifetimeTotals(@Param("storeId") UUID storeId,
+                                           @Param("productIds") Collection<UUID> productIds);
+
+    @Query("""
+        SELECT p.productId AS productId,
+               MAX(p.productName) AS productName,
+               SUM(p.soldQuantity) AS soldQuantity,
+               COALESCE(SUM(p.revenue), 0) AS revenue,
+               SUM(p.returnSuccess) AS returnSuccess
+        FROM StoreDailyProductStats p
+        WHERE p.storeId = :storeId
+          AND (:from IS NULL OR p.statDate >= :from)
+          AND (:to IS NULL OR p.statDate <= :to)
+          AND p.returnSuccess > 0
+        GROUP BY p.productId
+        ORDER BY SUM(p.returnSuccess) DESC, p.productId
+    """)
+    List<ProductTotals> findTopReturned(@Param("storeId") UUID storeId,
+                                        @Param("from") LocalDate from,
+                                        @Param("to") LocalDate to,
+                                        Pageable pageable);
+}
@@ -0,0 +1,80 @@
+package org.example.audio_ecommerce.repository;
+
+import org.example.audio_ecommerce.entity.StoreDailyStats;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+public interface StoreDailyStatsRepository extends JpaRepository<StoreDailyStats, UUID> {
+
+    /** Tổng cộng dồn trên nhiều ngày. */
+    interface Totals {
+        Long getDeliveredOrders();
+        BigDecimal getOrderGrandTotal();
+        BigDecimal getItemRevenue();
+        BigDecimal getPlatformFee();
+        Long getReturnSuccess();
+        BigDecimal getShippingDifference();
+        BigDecimal getShippingCollected();
+        BigDecimal getReturnShippingFee();
+    }
+
+    interface MonthTotals extends Totals {
+        Integer getMonth();
+    }
+
+    Optional<StoreDailyStats> findByStoreIdAndStatDate(UUID storeId, LocalDate statDate);
+
+    @Modifying
+    @Query("DELETE FROM StoreDailyStats d WHERE d.storeId = :storeId AND d.statDate = :date")
+    int deleteDay(@Param("storeId") UUID storeId, @Param("date") LocalDate date);
+
+    // from/to = null → không giới hạn (lifetime)
+    @Query("""
+        SELECT COALESCE(SUM(d.deliveredOrders), 0) AS deliveredOrders,
+               COALESCE(SUM(d.orderGrandTotal), 0) AS orderGrandTotal,
+               COALESCE(SUM(d.itemRevenue), 0) AS itemRevenue,
+               COALESCE(SUM(d.platformFee), 0) AS platformFee,
+               COALESCE(SUM(d.returnSuccess), 0) AS returnSuccess,
+               COALESCE(SUM(d.shippingDifference), 0) AS shippingDifference,
+               COALESCE(SUM(d.shippingCollected), 0) AS shippingCollected,
+               COALESCE(SUM(d.returnShippingFee), 0) AS returnShippingFee
+        FROM StoreDailyStats d
+        WHERE d.storeId = :storeId
+          AND (:from IS NULL OR d.statDate >= :from)
+          AND (:to IS NULL OR d.statDate <= :to)
+    """)
+    Totals sumBetween(@Param("storeId") UUID storeId,
+                      @Param("from") LocalDate from,
+                      @Param("to") LocalDate to);
+
+    @Query("""
+        SELECT EXTRACT(MONTH FROM d.statDate) AS month,
+               COALESCE(SUM(d.deliveredOrders), 0) AS deliveredOrders,
+               COALESCE(SUM(d.orderGrandTotal), 0) AS orderGrandTotal,
+               COALESCE(SUM(d.itemRevenue), 0) AS itemRevenue,
+               COALESCE(SUM(d.platformFee), 0) AS platformFee,
+               COALESCE(SUM(d.returnSuccess), 0) AS returnSuccess,
+               COALESCE(SUM(d.shippingDifference), 0) AS shippingDifference,
+               COALESCE(SUM(d.shippingCollected), 0) AS shippingCollected,
+               COALESCE(SUM(d.returnShippingFee), 0) AS returnShippingFee
+        FROM StoreDailyStats d
+        WHERE d.storeId = :storeId
+          AND d.statDate >= :from
+          AND d.statDate <= :to
+        GROUP BY EXTRACT(MONTH FROM d.statDate)
+    """)
+    List<MonthTotals> sumByMonth(@Param("storeId") UUID storeId,
+                                 @Param("from") LocalDate from,
+                                 @Param("to") LocalDate to);
+
+    @Query("SELECT d.storeId, d.statDate FROM StoreDailyStats d WHERE d.statDate >= :from")
+    List<Object[]> findDaysSince(@Param("from") LocalDate from);
+}
@@ -1,22 +1,33 @@
     package org.example.audio_ecommerce.repository;
 
+    import jakarta.persistence.QueryHint;
     import org.example.audio_ecommerce.entity.Enum.PaymentMethod;
     import org.example.audio_ecommerce.entity.StoreOrderItem;
+    import org.hibernate.jpa.HibernateHints;
     import org.springframework.data.domain.Page;
     import org.springframework.data.domain.Pageable;
     import org.springframework.data.jpa.repository.JpaRepository;
+    import org.springframework.data.jpa.repository.Modifying;
     import org.springframework.data.jpa.repository.Query;
+    import org.springframework.data.jpa.repository.QueryHints;
     import org.springframework.data.repository.query.Param;
 
+    import java.math.BigDecimal;
     import java.time.LocalDateTime;
+    import java.util.Collection;
     import java.util.List;
     import java.util.UUID;
+    import java.util.stream.Stream;
 
     public interface StoreOrderItemRepository extends JpaRepository<StoreOrderItem, UUID> {
 
         // Lấy items theo storeOrderId
         List<StoreOrderItem> findByStoreOrder_Id(UUID storeOrderId);
 
+        // Id các item thuộc mọi store order của 1 customer order (tra cứu bảo hành theo đơn)
+        @Query("select i.id from StoreOrderItem i where i.storeOrder.customerOrder.id = :customerOrderId")
+        List<UUID> findIdsByCustomerOrderId(@Param("customerOrderId") UUID customerOrderId);
+
         // Lấy items theo storeId + storeOrderId (bảo vệ: order phải thuộc store)
         @Query("""
             select i from StoreOrderItem i
@@ -29,6 +40,78 @@
 
         List<StoreOrderItem> findAllByDeliveredAtIsNullAndStoreOrder_DeliveredAtIsNotNull();
 
+        // ====== Payout eligibility (incremental, set-based) ======
+
+        // Item vừa qua mốc deliveredAt + 7 ngày trong cửa sổ (from, to]
+        @Query("""
+            SELECT i.id FROM StoreOrderItem i
+            WHERE i.eligibleForPayout = false
+              AND i.isPayout = false
+              AND i.deliveredAt <= :to
+              AND (:from IS NULL OR i.deliveredAt > :from)
+        """)
+        List<UUID> findPayoutCandidateIds(@Param("from") LocalDateTime from,
+                                          @Param("to") LocalDateTime to);
+
+        // Item đã qua 7 ngày nhưng từng bị block, nay có return request thay đổi trạng thái
+        @Query("""
+            SELECT i.id FROM StoreOrderItem i
+            WHERE i.id IN :ids
+              AND i.eligibleForPayout = false
+              AND i.isPayout = false
+              AND i.deliveredAt <= :to
+        """)
+        List<UUID> findBlockedPayoutCandidateIds(@Param("ids") Collection<UUID> ids,
+                                                 @Param("to") LocalDateTime to);
+
+        @Modifying
+        @Query("""
+            UPDATE StoreOrderItem i
+            SET i.eligibleForPayout = true
+            WHERE i.id IN :ids
+              AND i.eligibleForPayout = false
+              AND i.isPayout = false
+        """)
+        int markEligibleForPayout(@Param("ids") Collection<UUID> ids);
+
+        // Item có ReturnRequest REFUNDED (đổi từ :since) mà chưa đánh dấu isReturned
+        @Query("""
+            SELECT i.id FROM StoreOrderItem i
+            WHERE i.isReturned = false
+              AND i.id IN (
+                  SELECT r.orderItemId FROM ReturnRequest r
+                  WHERE r.status = org.example.audio_ecommerce.entity.Enum.ReturnStatus.REFUNDED
+                    AND (:since IS NULL OR r.updatedAt > :since)
+              )
+        """)
+        List<UUID> findRefundedUnmarkedIds(@Param("since") LocalDateTime since);
+
+        @Modifying
+        @Query("""
+            UPDATE StoreOrderItem i
+            SET i.isReturned = true
+            WHERE i.id IN :ids
+              AND i.isReturned = false
+        """)
+        int markReturned(@Param("ids") Collection<UUID> ids);
+
+        // Item chưa có deliveredAt trong khi store order đã giao
+        @Query("""
+            SELECT i.id FROM StoreOrderItem i
+            WHERE i.deliveredAt IS NULL
+              AND i.storeOrder.deliveredAt IS NOT NULL
+        """)
+        List<UUID> findDeliveredAtSyncIds();
+
+        @Modifying
+        @Query("""
+            UPDATE StoreOrderItem i
+            SET i.deliveredAt = (SELECT so.deliveredAt FROM StoreOrder so WHERE so.id = i.storeOrder.id)
+            WHERE i.id IN :ids
+              AND i.deliveredAt IS NULL
+        """)
+        int syncDeliveredAtFromStoreOrder(@Param("ids") Collection<UUID> ids);
+
         @Query("""
             SELECT i FROM StoreOrderItem i
             WHERE i.storeOrder.store.storeId = :shopId
@@ -242,4 +325,76 @@ List<StoreOrderItem> findItemsForOverview(
             LocalDateTime fromDate,
             LocalDateTime toDate
     );
+
+        // ============================================================
+        // 4) SETTLEMENT REPORT — STREAM từng item (projection, không managed)
+        //    Lọc hết trong SQL, sắp theo storeOrder → gom theo đơn khi đọc.
+        //    delivered/eligible/processed: TRUE = đúng, FALSE = sai hoặc NULL
+        // ============================================================
+        interface SettlementItemRow {
+            UUID getStoreOrderId();
+            String getOrderCode();
+            UUID getStoreId();
+            PaymentMethod getPaymentMethod();
+            LocalDateTime getCreatedAt();
+            LocalDateTime getDeliveredAt();
+            BigDecimal getShippingFee();
+            BigDecimal getActualShippingFee();
+            BigDecimal getOrderShippingExtraForStore();
+            BigDecimal getPlatformFeePercentage();
+            UUID getItemId();
+            String getProductName();
+            Integer getQuantity();
+            BigDecimal getLineTotal();
+            BigDecimal getShippingFeeEstimated();
+            BigDecimal getShippingFeeActual();
+            BigDecimal getShippingExtraForStore();
+        }
+
+        // MySQL Connector/J chỉ stream từng dòng khi fetch size = Integer.MIN_VALUE
+        @QueryHints({
+                @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "-2147483648"),
+                @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+        })
+        @Query("""
+        SELECT so.id AS storeOrderId,
+               so.orderCode AS orderCode,
+               so.store.storeId AS storeId,
+               so.paymentMethod AS paymentMethod,
+               so.createdAt AS createdAt,
+               so.deliveredAt AS deliveredAt,
+               so.shippingFee AS shippingFee,
+               so.actualShippingFee AS actualShippingFee,
+               so.shippingExtraForStore AS orderShippingExtraForStore,
+               so.platformFeePercentage AS platformFeePercentage,
+               i.id AS itemId,
+               i.name AS productName,
+               i.quantity AS quantity,
+               i.lineTotal AS lineTotal,
+               i.shippingFeeEstimated AS shippingFeeEstimated,
+               i.shippingFeeActual AS shippingFeeActual,
+               i.shippingExtraForStore AS shippingExtraForStore
+        FROM StoreOrderItem i
+        JOIN i.storeOrder so
+        WHERE (:storeId IS NULL OR so.store.storeId = :storeId)
+          AND (:pm IS NULL OR so.paymentMethod = :pm)
+          AND ((:delivered = TRUE AND so.deliveredAt IS NOT NULL)
+               OR (:delivered = FALSE AND so.deliveredAt IS NULL))
+          AND ((:eligible = TRUE AND i.eligibleForPayout = TRUE)
+               OR (:eligible = FALSE AND (i.eligibleForPayout IS NULL OR i.eligibleForPayout = FALSE)))
+          AND ((:processed = TRUE AND i.payoutProcessed = TRUE)
+               OR (:processed = FALSE AND (i.payoutProcessed IS NULL OR i.payoutProcessed = FALSE)))
+          AND (:from IS NULL OR so.deliveredAt >= :from)
+          AND (:to IS NULL OR so.deliveredAt < :to)
+        ORDER BY so.id, i.id
+    """)
+    Stream<SettlementItemRow> streamSettlementItems(
+            @Param("storeId") UUID storeId,
+            @Param("pm") PaymentMethod pm,
+            @Param("delivered") boolean delivered,
+            @Param("eligible") boolean eligible,
+            @Param("processed") boolean processed,
+            @Param("from") LocalDateTime from,
+            @Param("to") LocalDateTime to
+    );
     }
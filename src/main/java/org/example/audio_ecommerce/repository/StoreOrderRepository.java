@@ -8,10 +8,12 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
@@ -19,6 +21,63 @@ public interface StoreOrderRepository extends JpaRepository<StoreOrder, UUID>, J
 
     List<StoreOrder> findAllByCustomerOrder_Id(UUID customerOrderId);
 
+    // Thanh toán tới trễ sau khi đơn bị huỷ vì hết hạn (đã trừ lại được hàng) → mở lại các đơn shop
+    @Modifying(flushAutomatically = true)
+    @Query("""
+        UPDATE StoreOrder so
+        SET so.status = org.example.audio_ecommerce.entity.Enum.OrderStatus.PENDING, so.updatedAt = :now
+        WHERE so.customerOrder.id IN :customerOrderIds
+          AND so.status = org.example.audio_ecommerce.entity.Enum.OrderStatus.CANCELLED
+    """)
+    int reopenCancelled(@Param("customerOrderIds") Collection<UUID> customerOrderIds,
+                        @Param("now") LocalDateTime now);
+
+    // Huỷ đơn shop theo đơn tổng: chỉ đơn tổng đã thực sự CANCELLED (cancelIfUnpaid thắng) mới kéo theo
+    @Modifying(flushAutomatically = true)
+    @Query("""
+        UPDATE StoreOrder so
+        SET so.status = org.example.audio_ecommerce.entity.Enum.OrderStatus.CANCELLED, so.updatedAt = :now
+        WHERE so.customerOrder.id IN (
+              SELECT o.id FROM CustomerOrder o
+              WHERE o.id IN :customerOrderIds
+                AND o.status = org.example.audio_ecommerce.entity.Enum.OrderStatus.CANCELLED)
+          AND so.status IN (org.example.audio_ecommerce.entity.Enum.OrderStatus.PENDING,
+                            org.example.audio_ecommerce.entity.Enum.OrderStatus.UNPAID)
+    """)
+    int cancelForCancelledOrders(@Param("customerOrderIds") Collection<UUID> customerOrderIds,
+                                 @Param("now") LocalDateTime now);
+
+    // Đơn có phí ship shop chịu = max(0, GHN thực tế - dự kiến) khác giá trị đang lưu
+    @Query("""
+        SELECT so.id FROM StoreOrder so
+        WHERE so.shippingFeeReal IS NOT NULL
+          AND (so.shippingFeeForStore IS NULL
+               OR so.shippingFeeForStore <> CASE
+                    WHEN so.shippingFeeReal - COALESCE(so.shippingFee, 0) > 0
+                    THEN so.shippingFeeReal - COALESCE(so.shippingFee, 0)
+                    ELSE 0 END)
+    """)
+    List<UUID> findShippingFeeForStoreStaleIds();
+
+    // Phí ship shop chịu = max(0, GHN thực tế - dự kiến); chỉ ghi các đơn có giá trị thay đổi
+    @Modifying
+    @Query("""
+        UPDATE StoreOrder so
+        SET so.shippingFeeForStore = CASE
+                WHEN so.shippingFeeReal - COALESCE(so.shippingFee, 0) > 0
+                THEN so.shippingFeeReal - COALESCE(so.shippingFee, 0)
+                ELSE 0 END,
+            so.updatedAt = LOCAL DATETIME
+        WHERE so.id IN :ids
+          AND so.shippingFeeReal IS NOT NULL
+          AND (so.shippingFeeForStore IS NULL
+               OR so.shippingFeeForStore <> CASE
+                    WHEN so.shippingFeeReal - COALESCE(so.shippingFee, 0) > 0
+                    THEN so.shippingFeeReal - COALESCE(so.shippingFee, 0)
+                    ELSE 0 END)
+    """)
+    int recalculateShippingFeeForStore(@Param("ids") Collection<UUID> ids);
+
     Page<StoreOrder> findByStore_StoreId(UUID storeId, Pageable pageable);
 
     List<StoreOrder> findAllByStore_StoreId(UUID customerOrderId);
@@ -96,8 +155,4 @@ public interface StoreOrderRepository extends JpaRepository<StoreOrder, UUID>, J
 
     @Query("select so from StoreOrder so left join fetch so.items i where so.deliveredAt = :date")
     List<StoreOrder> findDeliveredAtFetchItems(@Param("date") LocalDateTime date);
-
-    // fallback: fetch all storeOrders with items (careful perf)
-    @Query("select distinct so from StoreOrder so left join fetch so.items")
-    List<StoreOrder> findAllWithItemsFetch();
 }
@@ -166,4 +166,53 @@ public interface StoreStatsRepository extends JpaRepository<StoreOrder, UUID> {
             @Param("start") LocalDateTime start,
             @Param("end") LocalDateTime end);
 
+    // ========================================================
+    // 2b) DELIVERED ORDERS THIẾU deliveredAt (dữ liệu cũ) — không vào được rollup theo ngày
+    // ========================================================
+    @Query("""
+        SELECT o
+        FROM StoreOrder o
+        WHERE o.store.storeId = :storeId
+          AND o.status IN (
+              org.example.audio_ecommerce.entity.Enum.OrderStatus.COMPLETED,
+              org.example.audio_ecommerce.entity.Enum.OrderStatus.DELIVERY_SUCCESS
+          )
+          AND o.deliveredAt IS NULL
+    """)
+    List<StoreOrder> findDeliveredOrdersWithoutDate(@Param("storeId") UUID storeId);
+
+    // ========================================================
+    // 10) ROLLUP THEO NGÀY — TÌM (store, ngày) CẦN TÍNH LẠI
+    // since = null → toàn bộ (lần chạy đầu / backfill)
+    // ========================================================
+    @Query("""
+        SELECT DISTINCT o.store.storeId, CAST(o.deliveredAt AS LocalDate)
+        FROM StoreOrder o
+        WHERE o.deliveredAt IS NOT NULL
+          AND (:since IS NULL OR o.updatedAt > :since)
+    """)
+    List<Object[]> findDeliveredDaysChangedSince(@Param("since") LocalDateTime since);
+
+    @Query("""
+        SELECT DISTINCT o.store.storeId, CAST(o.deliveredAt AS LocalDate)
+        FROM StoreOrder o
+        WHERE o.deliveredAt >= :start
+    """)
+    List<Object[]> findDeliveredDaysFrom(@Param("start") LocalDateTime start);
+
+    @Query("""
+        SELECT DISTINCT r.shopId, CAST(r.createdAt AS LocalDate)
+        FROM ReturnRequest r
+        WHERE r.createdAt IS NOT NULL
+          AND (:since IS NULL OR r.updatedAt > :since OR r.createdAt > :since)
+    """)
+    List<Object[]> findReturnDaysChangedSince(@Param("since") LocalDateTime since);
+
+    @Query("""
+        SELECT DISTINCT f.storeId, CAST(f.createdAt AS LocalDate)
+        FROM ReturnShippingFee f
+        WHERE f.createdAt IS NOT NULL
+          AND (:since IS NULL OR f.updatedAt > :since OR f.createdAt > :since)
+    """)
+    List<Object[]> findReturnFeeDaysChangedSince(@Param("since") LocalDateTime since);
 }
@@ -3,6 +3,8 @@ package org.example.audio_ecommerce.repository;
 import org.example.audio_ecommerce.entity.Warranty;
 import org.example.audio_ecommerce.entity.Customer;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.time.LocalDate;
 import java.util.Collection;
@@ -16,4 +18,26 @@ public interface WarrantyRepository extends JpaRepository<Warranty, UUID> {
     List<Warranty> findByEndDateBeforeAndStatus(LocalDate date, org.example.audio_ecommerce.entity.Enum.WarrantyStatus status);
     List<Warranty> findByStoreOrderItemId(UUID storeOrderItemId);
     List<Warranty> findByStoreOrderItemIdIn(Collection<UUID> storeOrderItemIds);
+
+    // ==== Tra cứu công khai: 1 query, nạp sẵn product/store/customer để build response ====
+    @Query("""
+        select w from Warranty w
+        join fetch w.product join fetch w.store join fetch w.customer
+        where w.serialNumber = :serial
+        """)
+    Optional<Warranty> findDetailedBySerialNumber(@Param("serial") String serial);
+
+    @Query("""
+        select w from Warranty w
+        join fetch w.product join fetch w.store join fetch w.customer
+        where w.storeOrderItemId in :itemIds
+        """)
+    List<Warranty> findDetailedByStoreOrderItemIdIn(@Param("itemIds") Collection<UUID> itemIds);
+
+    @Query("""
+        select w from Warranty w
+        join fetch w.product join fetch w.store join fetch w.customer c
+        where c.id in :customerIds
+        """)
+    List<Warranty> findDetailedByCustomerIdIn(@Param("customerIds") Collection<UUID> customerIds);
 }
@@ -0,0 +1,26 @@
+package org.example.audio_ecommerce.scheduler;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.service.Impl.CampaignPriceIndex;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CampaignPriceIndexScheduler {
+
+    private final CampaignPriceIndex campaignPriceIndex;
+
+    // Lưới an toàn: rebuild toàn bộ chỉ mục giá campaign phòng khi có thay đổi không đi qua PlatformCampaignServiceImpl
+    @Scheduled(fixedDelayString = "${campaign.price-index.full-rebuild-ms:300000}",
+            initialDelayString = "${campaign.price-index.full-rebuild-ms:300000}")
+    public void rebuild() {
+        try {
+            campaignPriceIndex.rebuildAll();
+        } catch (Exception e) {
+            log.warn("[CampaignPriceIndexScheduler] Rebuild failed: {}", e.getMessage());
+        }
+    }
+}
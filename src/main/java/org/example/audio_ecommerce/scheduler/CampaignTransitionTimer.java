@@ -0,0 +1,128 @@
+package org.example.audio_ecommerce.scheduler;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.service.Impl.CampaignTransitionService;
+import org.example.audio_ecommerce.util.AfterCommit;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hẹn giờ chuyển trạng thái campaign thay cho quét toàn bảng mỗi phút:
+ * - Mỗi campaign còn hiệu lực có đúng 1 timer, đặt vào mốc start/end/open/close/endTime gần nhất.
+ * - Tới giờ → {@link CampaignTransitionService#applyTransitions} (UPDATE có điều kiện trong phạm vi campaign)
+ *   rồi đặt timer cho mốc kế tiếp.
+ * - Không có mốc nào tới hạn thì không có việc gì chạy.
+ * Toàn bộ việc áp trạng thái chạy trên 1 thread → không có 2 lần áp song song cho cùng 1 campaign.
+ */
+@Slf4j
+@Component
+public class CampaignTransitionTimer {
+
+    // Bắn ngay sau mốc để các điều kiện "now > endTime" / "now > startTime" đã đúng
+    private static final Duration FIRE_DELAY_AFTER_BOUNDARY = Duration.ofMillis(1);
+
+    private final CampaignTransitionService transitionService;
+    private final ScheduledThreadPoolExecutor executor;
+    private final Map<UUID, ScheduledFuture<?>> timers = new ConcurrentHashMap<>();
+
+    private final Counter firedCounter;
+    private final Timer applyTimer;
+
+    public CampaignTransitionTimer(CampaignTransitionService transitionService, MeterRegistry meterRegistry) {
+        this.transitionService = transitionService;
+        this.executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "campaign-transition-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        // Timer bị huỷ (đặt lại) phải rời hàng đợi ngay, không nằm chờ tới hạn cũ
+        this.executor.setRemoveOnCancelPolicy(true);
+
+        this.firedCounter = meterRegistry.counter("campaign.transition.fired");
+        this.applyTimer = meterRegistry.timer("campaign.transition.apply");
+        meterRegistry.gauge("campaign.transition.armed", timers, Map::size);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        reconcileAll();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Áp ngay các chuyển trạng thái đã tới hạn rồi đặt lại timer cho mọi campaign còn hiệu lực.
+     * Dùng lúc khởi động và làm lưới an toàn định kỳ (lệch đồng hồ, thay đổi ngoài service).
+     */
+    public void reconcileAll() {
+        try {
+            for (UUID campaignId : transitionService.findOpenCampaignIds()) {
+                executor.execute(() -> fire(campaignId));
+            }
+        } catch (Exception e) {
+            log.warn("[CampaignTransitionTimer] Reconcile failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Campaign vừa thay đổi (thời gian, trạng thái, slot, sản phẩm) → sau khi commit,
+     * áp ngay những gì đã tới hạn và đặt lại timer theo dữ liệu mới.
+     */
+    public void rescheduleAfterCommit(UUID campaignId) {
+        if (campaignId == null) return;
+        AfterCommit.run(() -> executor.execute(() -> fire(campaignId)));
+    }
+
+    private void fire(UUID campaignId) {
+        // Huỷ timer đang chờ (nếu lần chạy này do reschedule/reconcile kích hoạt sớm)
+        ScheduledFuture<?> pending = timers.remove(campaignId);
+        if (pending != null) pending.cancel(false);
+        firedCounter.increment();
+        try {
+            applyTimer.record(() -> {
+                int changed = transitionService.applyTransitions(campaignId, LocalDateTime.now());
+                if (changed > 0) {
+                    log.debug("[CampaignTransitionTimer] Campaign {} changed {} rows", campaignId, changed);
+                }
+            });
+        } catch (Exception e) {
+            log.warn("[CampaignTransitionTimer] Apply transitions for campaign {} failed: {}", campaignId, e.getMessage());
+        }
+        arm(campaignId);
+    }
+
+    private void arm(UUID campaignId) {
+        Optional<LocalDateTime> next;
+        try {
+            next = transitionService.nextTransitionAt(campaignId, LocalDateTime.now());
+        } catch (Exception e) {
+            log.warn("[CampaignTransitionTimer] Cannot compute next transition for campaign {}: {}",
+                    campaignId, e.getMessage());
+            return;
+        }
+        if (next.isEmpty()) return;
+
+        // +1ms bù phần lẻ bị cắt khi đổi sang millis → không bắn sớm hơn mốc
+        long delayMs = Math.max(0,
+                Duration.between(LocalDateTime.now(), next.get().plus(FIRE_DELAY_AFTER_BOUNDARY)).toMillis() + 1);
+        timers.put(campaignId, executor.schedule(() -> fire(campaignId), delayMs, TimeUnit.MILLISECONDS));
+    }
+}
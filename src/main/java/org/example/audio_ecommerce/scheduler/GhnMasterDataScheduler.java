@@ -0,0 +1,49 @@
+package org.example.audio_ecommerce.scheduler;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.service.Impl.GhnMasterDataStore;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class GhnMasterDataScheduler {
+
+    private final GhnMasterDataStore store;
+
+    // Tỉnh / quận / phường ít đổi → làm mới nền mỗi ngày, GHN lỗi thì giữ snapshot cũ
+    @Scheduled(initialDelayString = "${ghn.master-data.initial-delay-ms:60000}",
+            fixedDelayString = "${ghn.master-data.refresh-ms:86400000}")
+    public void refreshMasterData() {
+        try {
+            int n = store.refreshAll();
+            log.info("🗺️ [GhnMasterDataScheduler] Refreshed {} GHN master data entries", n);
+        } catch (Exception e) {
+            log.error("[GhnMasterDataScheduler] Refresh failed: {}", e.getMessage(), e);
+        }
+    }
+
+    // Key nạp lười (quận / phường mới) ghi gộp xuống snapshot → khởi động lại không phải gọi GHN lại
+    @Scheduled(fixedDelayString = "${ghn.master-data.snapshot-debounce-ms:30000}")
+    public void flushSnapshot() {
+        try {
+            store.saveSnapshotIfDirty();
+        } catch (Exception e) {
+            log.error("[GhnMasterDataScheduler] Snapshot flush failed: {}", e.getMessage(), e);
+        }
+    }
+
+    // Ca lấy hàng đổi theo ngày
+    @Scheduled(fixedDelayString = "${ghn.master-data.pick-shifts-refresh-ms:600000}")
+    public void refreshPickShifts() {
+        try {
+            if (!store.refreshPickShifts()) {
+                log.warn("[GhnMasterDataScheduler] Pick shifts refresh failed, serving last known");
+            }
+        } catch (Exception e) {
+            log.error("[GhnMasterDataScheduler] Pick shifts refresh failed: {}", e.getMessage(), e);
+        }
+    }
+}
@@ -5,7 +5,6 @@ import lombok.extern.slf4j.Slf4j;
 import org.example.audio_ecommerce.service.Impl.GhnStatusSyncService;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
 
 @Slf4j
 @Component
@@ -14,11 +13,11 @@ public class GhnOrderStatusScheduler {
 
     private final GhnStatusSyncService ghnStatusSyncService;
 
+    // Không mở transaction ở đây: mỗi order tự ghi trong transaction ngắn của nó
     @Scheduled(cron = "0 */1 * * * ?") //Test nhanh: "0 */1 * * * ?" (mỗi phút)
-    @Transactional
     public void syncGhnOrderStatuses() {
-        log.info("⏱ [Scheduler] Bắt đầu đồng bộ trạng thái GHN orders.");
+        log.debug("⏱ [Scheduler] Bắt đầu đồng bộ trạng thái GHN orders.");
         ghnStatusSyncService.syncAllActiveOrders();
-        log.info("✅ [Scheduler] Kết thúc đồng bộ trạng thái GHN orders.");
+        log.debug("✅ [Scheduler] Kết thúc đồng bộ trạng thái GHN orders.");
     }
 }
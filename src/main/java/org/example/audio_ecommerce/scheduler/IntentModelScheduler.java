@@ -0,0 +1,26 @@
+package org.example.audio_ecommerce.scheduler;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.LangChain4J.ProductQueryIntentDetector;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IntentModelScheduler {
+
+    private final ProductQueryIntentDetector intentDetector;
+
+    // Huấn luyện lần đầu ngay sau khởi động, sau đó mỗi ngày học thêm nhãn LLM mới
+    @Scheduled(initialDelayString = "${ai.intent.initial-delay-ms:30000}",
+            fixedDelayString = "${ai.intent.retrain-ms:86400000}")
+    public void retrain() {
+        try {
+            intentDetector.retrain();
+        } catch (Exception e) {
+            log.error("[IntentModelScheduler] Retrain failed, keeping current model: {}", e.getMessage(), e);
+        }
+    }
+}
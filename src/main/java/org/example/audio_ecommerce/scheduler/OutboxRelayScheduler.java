@@ -0,0 +1,43 @@
+package org.example.audio_ecommerce.scheduler;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.service.Impl.OutboxRelay;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Slf4j
+@Component
+public class OutboxRelayScheduler {
+
+    private final OutboxRelay relay;
+    private final Duration retention;
+
+    public OutboxRelayScheduler(OutboxRelay relay,
+                                @Value("${outbox.retention-days:7}") int retentionDays) {
+        this.relay = relay;
+        this.retention = Duration.ofDays(retentionDays);
+    }
+
+    // Gửi push / email đã commit trong outbox
+    @Scheduled(fixedDelayString = "${outbox.relay.poll-ms:1000}")
+    public void drain() {
+        try {
+            int n = relay.drain();
+            if (n > 0) {
+                log.debug("[OutboxRelayScheduler] Relayed {} outbox rows", n);
+            }
+        } catch (Exception e) {
+            log.error("[OutboxRelayScheduler] Drain failed: {}", e.getMessage(), e);
+        }
+    }
+
+    // Dọn dòng SENT cũ cho bảng outbox không phình
+    @Scheduled(cron = "${outbox.purge-cron:0 15 3 * * *}")
+    public void purge() {
+        int n = relay.purgeSent(retention);
+        log.info("🧹 [OutboxRelayScheduler] Purged {} sent outbox rows", n);
+    }
+}
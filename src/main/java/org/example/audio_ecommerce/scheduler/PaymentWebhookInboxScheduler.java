@@ -0,0 +1,24 @@
+package org.example.audio_ecommerce.scheduler;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.service.Impl.PaymentWebhookInboxService;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PaymentWebhookInboxScheduler {
+
+    private final PaymentWebhookInboxService webhookInbox;
+
+    // Webhook PENDING bị bỏ dở (restart / lỗi tạm) → đưa lại vào lane
+    @Scheduled(fixedDelayString = "${payos.webhook.sweep-ms:30000}")
+    public void redispatchStale() {
+        int n = webhookInbox.redispatchStale();
+        if (n > 0) {
+            log.info("[PaymentWebhookInboxScheduler] Re-dispatched {} pending webhooks", n);
+        }
+    }
+}
@@ -11,12 +11,12 @@ public class PayoutEligibilityScheduler {
 
     private final PayoutEligibilityService payoutEligibilityService;
 
-    // ✅ Chạy tự động mỗi 2 giây
-    @Scheduled(fixedRate = 2000) 
+    // ✅ Chạy tăng dần theo watermark → mỗi lượt chỉ đụng item vừa thay đổi, không quét toàn bảng
+    @Scheduled(fixedDelayString = "${payout.eligibility.interval-ms:2000}")
     public void runScheduler() {
+        payoutEligibilityService.syncDeliveredAtForItems();   // sync trước để evaluate thấy deliveredAt mới
+        payoutEligibilityService.checkReturnedItems();        // kiểm tra return success
         payoutEligibilityService.evaluateEligibility();
-        payoutEligibilityService.checkReturnedItems();    // kiểm tra return success
-        payoutEligibilityService.syncDeliveredAtForItems();
         payoutEligibilityService.calculateShippingFeeDifference();
     }
 
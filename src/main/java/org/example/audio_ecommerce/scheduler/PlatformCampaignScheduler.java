@@ -11,8 +11,9 @@ public class PlatformCampaignScheduler {
 
     private final PlatformCampaignService platformCampaignService;
 
-    // ✅ Chạy tự động mỗi phút
-    @Scheduled(fixedRate = 60000) // 60000 ms = 1 phút
+    // ✅ Chuyển trạng thái đúng mốc do CampaignTransitionTimer đảm nhận; ở đây chỉ đối soát định kỳ
+    @Scheduled(fixedDelayString = "${campaign.transition.reconcile-ms:600000}",
+            initialDelayString = "${campaign.transition.reconcile-ms:600000}")
     public void runScheduler() {
         platformCampaignService.tickAllCampaigns();
     }
@@ -0,0 +1,28 @@
+package org.example.audio_ecommerce.scheduler;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.service.Impl.PlatformLedger;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PlatformLedgerScheduler {
+
+    private final PlatformLedger platformLedger;
+
+    // Gộp các stripe về dòng platform_wallet → bảng ví luôn gần đúng, stripe không phình số
+    @Scheduled(fixedDelayString = "${platform.ledger.fold-ms:60000}")
+    public void fold() {
+        try {
+            int n = platformLedger.fold();
+            if (n > 0) {
+                log.debug("[PlatformLedgerScheduler] Folded {} stripes", n);
+            }
+        } catch (Exception e) {
+            log.warn("[PlatformLedgerScheduler] Fold failed: {}", e.getMessage());
+        }
+    }
+}
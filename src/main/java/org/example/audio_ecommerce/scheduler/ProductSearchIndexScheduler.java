@@ -0,0 +1,26 @@
+package org.example.audio_ecommerce.scheduler;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.service.Impl.ProductSearchIndex;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ProductSearchIndexScheduler {
+
+    private final ProductSearchIndex productSearchIndex;
+
+    // Lưới an toàn: build lại chỉ mục tìm kiếm phòng khi sản phẩm/danh mục đổi mà không đi qua ProductServiceImpl
+    @Scheduled(fixedDelayString = "${product.search-index.full-rebuild-ms:1800000}",
+            initialDelayString = "${product.search-index.full-rebuild-ms:1800000}")
+    public void rebuild() {
+        try {
+            productSearchIndex.rebuildAll();
+        } catch (Exception e) {
+            log.warn("[ProductSearchIndexScheduler] Rebuild failed: {}", e.getMessage());
+        }
+    }
+}
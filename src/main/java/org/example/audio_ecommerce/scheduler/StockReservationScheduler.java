@@ -0,0 +1,24 @@
+package org.example.audio_ecommerce.scheduler;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.service.StockReservationService;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StockReservationScheduler {
+
+    private final StockReservationService stockReservationService;
+
+    // Trả tồn kho cho các đơn ONLINE quá hạn thanh toán
+    @Scheduled(fixedDelayString = "${stock.reservation.sweep-ms:30000}")
+    public void releaseExpiredReservations() {
+        int released = stockReservationService.releaseExpiredReservations();
+        if (released > 0) {
+            log.info("[StockReservationScheduler] Released reservations of {} unpaid orders", released);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.audio_ecommerce.scheduler;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.service.Impl.StoreDailyStatsService;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StoreDailyStatsScheduler {
+
+    private final StoreDailyStatsService storeDailyStatsService;
+
+    // Tính lại các ngày có đơn / return thay đổi (lần đầu: backfill toàn bộ)
+    @Scheduled(fixedDelayString = "${store.stats.rollup-ms:60000}", initialDelay = 30000)
+    public void refreshChanged() {
+        try {
+            storeDailyStatsService.refreshChanged();
+        } catch (Exception e) {
+            log.warn("[StoreDailyStatsScheduler] Refresh failed: {}", e.getMessage());
+        }
+    }
+
+    // Sửa chữa hằng đêm: tính lại N ngày gần nhất
+    @Scheduled(cron = "${store.stats.repair-cron:0 30 2 * * *}")
+    public void repair() {
+        try {
+            storeDailyStatsService.repairRecent();
+        } catch (Exception e) {
+            log.warn("[StoreDailyStatsScheduler] Repair failed: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.example.audio_ecommerce.security;
+
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Principal dựng từ claim của access token (không đọc DB mỗi request).
+ * Vẫn là {@link User} với username = email:ROLE → code cũ dùng auth.getName() / @AuthenticationPrincipal User không đổi.
+ */
+public class AccountPrincipal extends User {
+
+    private final UUID accountId;
+    private final UUID customerId;
+    private final UUID storeId;
+    private final String role;
+
+    public AccountPrincipal(UUID accountId, UUID customerId, UUID storeId, String email, String role) {
+        super(email + ":" + role, "", List.of(new SimpleGrantedAuthority("ROLE_" + role)));
+        this.accountId = accountId;
+        this.customerId = customerId;
+        this.storeId = storeId;
+        this.role = role;
+    }
+
+    public UUID getAccountId() {
+        return accountId;
+    }
+
+    public UUID getCustomerId() {
+        return customerId;
+    }
+
+    public UUID getStoreId() {
+        return storeId;
+    }
+
+    public String getRole() {
+        return role;
+    }
+}
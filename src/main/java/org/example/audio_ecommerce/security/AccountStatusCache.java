@@ -0,0 +1,77 @@
+package org.example.audio_ecommerce.security;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.example.audio_ecommerce.entity.Enum.RoleEnum;
+import org.example.audio_ecommerce.repository.AccountRepository;
+import org.example.audio_ecommerce.util.AfterCommit;
+import org.example.audio_ecommerce.util.SingleFlightCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Trạng thái account (còn tồn tại, email, role, lần đổi mật khẩu) theo accountId, cache có TTL + giới hạn kích thước.
+ * JwtFilter đối chiếu claim của token với bản cache thay vì query Account mỗi request.
+ * Đổi mật khẩu / role / khoá account → gọi {@link #invalidate(UUID)} để request kế tiếp đọc lại DB.
+ */
+@Component
+public class AccountStatusCache {
+
+    /** exists = false: account đã bị xoá → token của nó không còn hiệu lực. */
+    public record AccountStatus(boolean exists, String email, RoleEnum role, Instant passwordChangedAt) {
+
+        static final AccountStatus MISSING = new AccountStatus(false, null, null, null);
+
+        public boolean matches(String email, String role) {
+            return exists && this.email != null && this.email.equals(email)
+                    && this.role != null && this.role.name().equals(role);
+        }
+
+        /**
+         * Token phát hành trước lần đổi mật khẩu gần nhất → đã bị thu hồi.
+         * iat của JWT tính theo giây nên so ở mức giây; token không có iat coi như cũ.
+         */
+        public boolean issuedBeforePasswordChange(Date issuedAt) {
+            if (passwordChangedAt == null) return false;
+            if (issuedAt == null) return true;
+            return issuedAt.toInstant().getEpochSecond() < passwordChangedAt.getEpochSecond();
+        }
+    }
+
+    private final AccountRepository accountRepository;
+    private final SingleFlightCache<UUID, AccountStatus> cache;
+
+    public AccountStatusCache(AccountRepository accountRepository,
+                              MeterRegistry meterRegistry,
+                              @Value("${security.account-cache.ttl-ms:60000}") long ttlMs,
+                              @Value("${security.account-cache.max-size:100000}") int maxSize) {
+        this.accountRepository = accountRepository;
+        // Cache cả kết quả "không tồn tại" để token của account đã xoá không dội DB
+        this.cache = new SingleFlightCache<>("security.account", ttlMs, maxSize, s -> true, meterRegistry);
+    }
+
+    public AccountStatus get(UUID accountId) {
+        return cache.get(accountId, id -> accountRepository.findAuthViewById(id)
+                .map(v -> new AccountStatus(true, v.getEmail(), v.getRole(), toInstant(v.getPasswordChangedAt())))
+                .orElse(AccountStatus.MISSING));
+    }
+
+    private static Instant toInstant(LocalDateTime t) {
+        return t == null ? null : t.atZone(ZoneId.systemDefault()).toInstant();
+    }
+
+    /** Bỏ cache sau khi transaction hiện tại commit (tránh nạp lại bản cũ trước khi commit). */
+    public void invalidate(UUID accountId) {
+        if (accountId == null) return;
+        AfterCommit.run(() -> cache.invalidate(accountId));
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+}
@@ -7,6 +7,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Component;
 
 import java.security.Key;
@@ -17,8 +18,12 @@ import java.util.UUID;
 public class JwtTokenProvider {
 
     private final UserDetailsService uds;
+    private final AccountStatusCache accountStatusCache;
     private final Key key;
     private final Key refreshKey;
+    // Parser JJWT immutable + thread-safe → dựng 1 lần, không build lại mỗi request
+    private final JwtParser accessParser;
+    private final JwtParser refreshParser;
     private final long expiry;
     private final long refreshExpiry;
 
@@ -27,17 +32,26 @@ public class JwtTokenProvider {
             @Value("${jwt.expiration-ms}") long expiry,
             @Value("${jwt.refresh-secret}") String refreshSecretBase64,
             @Value("${jwt.refresh-expiration-ms}") long refreshExpiry,
-            UserDetailsService uds
+            UserDetailsService uds,
+            AccountStatusCache accountStatusCache
     ) {
         this.uds = uds;
+        this.accountStatusCache = accountStatusCache;
         this.key = Keys.hmacShaKeyFor(Decoders.BASE64.decode(secretBase64));
         this.refreshKey = Keys.hmacShaKeyFor(Decoders.BASE64.decode(refreshSecretBase64));
+        this.accessParser = Jwts.parserBuilder().setSigningKey(key).build();
+        this.refreshParser = Jwts.parserBuilder().setSigningKey(refreshKey).build();
         this.expiry = expiry;
         this.refreshExpiry = refreshExpiry;
     }
 
     // ✅ ACCESS TOKEN: subject = email:ROLE (giữ đúng format)
     public String generateToken(UUID id, UUID customerId, String email, String role) {
+        return generateToken(id, customerId, null, email, role);
+    }
+
+    // storeId (chủ shop / staff) đi kèm token → principal không phải tra Store mỗi request
+    public String generateToken(UUID id, UUID customerId, UUID storeId, String email, String role) {
         var now = new Date();
         var exp = new Date(now.getTime() + expiry);
 
@@ -45,6 +59,7 @@ public class JwtTokenProvider {
                 .setSubject(email + ":" + role)
                 .claim("accountId", id != null ? id.toString() : null)
                 .claim("customerId", customerId != null ? customerId.toString() : null)
+                .claim("storeId", storeId != null ? storeId.toString() : null)
                 .claim("role", role)
                 .setIssuedAt(now)
                 .setExpiration(exp)
@@ -54,6 +69,10 @@ public class JwtTokenProvider {
 
     // ✅ REFRESH TOKEN: chỉ chứa thông tin cần thiết để tạo lại access token
     public String generateRefreshToken(UUID id, UUID customerId, String email, String role) {
+        return generateRefreshToken(id, customerId, null, email, role);
+    }
+
+    public String generateRefreshToken(UUID id, UUID customerId, UUID storeId, String email, String role) {
         var now = new Date();
         var exp = new Date(now.getTime() + refreshExpiry);
 
@@ -61,6 +80,7 @@ public class JwtTokenProvider {
                 .setSubject(email + ":" + role)
                 .claim("accountId", id != null ? id.toString() : null)
                 .claim("customerId", customerId != null ? customerId.toString() : null)
+                .claim("storeId", storeId != null ? storeId.toString() : null)
                 .claim("role", role)
                 .claim("type", "refresh")
                 .setIssuedAt(now)
@@ -70,22 +90,22 @@ public class JwtTokenProvider {
     }
 
     public boolean validateToken(String token) {
+        return parseAccessToken(token) != null;
+    }
+
+    /** Parse + verify access token 1 lần; null nếu sai chữ ký / hết hạn / hỏng. */
+    public Claims parseAccessToken(String token) {
         try {
-            Jwts.parserBuilder().setSigningKey(key).build().parseClaimsJws(token);
-            return true;
+            return accessParser.parseClaimsJws(token).getBody();
         } catch (JwtException | IllegalArgumentException e) {
-            return false;
+            return null;
         }
     }
 
     public boolean validateRefreshToken(String refreshToken) {
         try {
-            Claims claims = Jwts.parserBuilder()
-                    .setSigningKey(refreshKey)
-                    .build()
-                    .parseClaimsJws(refreshToken)
-                    .getBody();
-            
+            Claims claims = refreshParser.parseClaimsJws(refreshToken).getBody();
+
             // Kiểm tra xem có phải refresh token không
             String type = claims.get("type", String.class);
             return "refresh".equals(type);
@@ -95,41 +115,62 @@ public class JwtTokenProvider {
     }
 
     public Authentication getAuthentication(String token) {
-        Claims claims = Jwts.parserBuilder()
-                .setSigningKey(key)
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+        return getAuthentication(accessParser.parseClaimsJws(token).getBody());
+    }
 
+    /**
+     * Principal dựng từ claim; chỉ đối chiếu email/role/lần đổi mật khẩu với {@link AccountStatusCache} (không query mỗi request).
+     * null = account không còn / đã đổi role / token phát hành trước khi đổi mật khẩu → request đi tiếp như chưa đăng nhập.
+     */
+    public Authentication getAuthentication(Claims claims) {
         String usernameWithRole = claims.getSubject(); // email:ROLE
-        var user = uds.loadUserByUsername(usernameWithRole);
+        UUID accountId = uuidClaim(claims, "accountId");
+
+        if (accountId == null) {
+            // Token không có accountId → đường cũ qua UserDetailsService
+            try {
+                var user = uds.loadUserByUsername(usernameWithRole);
+                return new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
+            } catch (UsernameNotFoundException e) {
+                return null;
+            }
+        }
+
+        int sep = usernameWithRole != null ? usernameWithRole.lastIndexOf(':') : -1;
+        if (sep <= 0) return null;
+        String email = usernameWithRole.substring(0, sep);
+        String role = usernameWithRole.substring(sep + 1);
 
-        return new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
+        AccountStatusCache.AccountStatus status = accountStatusCache.get(accountId);
+        if (!status.matches(email, role) || status.issuedBeforePasswordChange(claims.getIssuedAt())) return null;
+
+        var principal = new AccountPrincipal(accountId, uuidClaim(claims, "customerId"),
+                uuidClaim(claims, "storeId"), email, role);
+        return new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities());
+    }
+
+    private static UUID uuidClaim(Claims claims, String name) {
+        String v = claims.get(name, String.class);
+        try {
+            return v != null ? UUID.fromString(v) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
     }
 
     public String getRoleFromToken(String token) {
-        return Jwts.parserBuilder()
-                .setSigningKey(key)
-                .build()
-                .parseClaimsJws(token)
-                .getBody()
-                .get("role", String.class);
+        return accessParser.parseClaimsJws(token).getBody().get("role", String.class);
     }
 
     public UUID getCustomerIdFromToken(String token) {
-        String id = Jwts.parserBuilder().setSigningKey(key).build()
-                .parseClaimsJws(token).getBody()
+        String id = accessParser.parseClaimsJws(token).getBody()
                 .get("customerId", String.class);
         return (id != null) ? UUID.fromString(id) : null;
     }
 
     // ✅ Lấy thông tin từ refresh token
     public Claims getClaimsFromRefreshToken(String refreshToken) {
-        return Jwts.parserBuilder()
-                .setSigningKey(refreshKey)
-                .build()
-                .parseClaimsJws(refreshToken)
-                .getBody();
+        return refreshParser.parseClaimsJws(refreshToken).getBody();
     }
 
     public UUID getAccountIdFromRefreshToken(String refreshToken) {
@@ -142,6 +183,15 @@ public class JwtTokenProvider {
         return (id != null) ? UUID.fromString(id) : null;
     }
 
+    public UUID getStoreIdFromRefreshToken(String refreshToken) {
+        String id = getClaimsFromRefreshToken(refreshToken).get("storeId", String.class);
+        return (id != null) ? UUID.fromString(id) : null;
+    }
+
+    public Date getIssuedAtFromRefreshToken(String refreshToken) {
+        return getClaimsFromRefreshToken(refreshToken).getIssuedAt();
+    }
+
     public String getEmailFromRefreshToken(String refreshToken) {
         String subject = getClaimsFromRefreshToken(refreshToken).getSubject();
         return subject.split(":")[0];
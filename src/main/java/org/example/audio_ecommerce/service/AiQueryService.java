@@ -2,6 +2,7 @@ package org.example.audio_ecommerce.service;
 
 import org.example.audio_ecommerce.dto.request.AiQueryRequest;
 import org.example.audio_ecommerce.dto.response.AiQueryResponse;
+import org.example.audio_ecommerce.util.TokenSink;
 
 public interface AiQueryService {
 
@@ -19,4 +20,9 @@ public interface AiQueryService {
      * Chat tự do với AI, phân biệt session theo userId
      */
     String chatWithGemini(AiQueryRequest request);
+
+    /**
+     * Chat tự do dạng stream: từng đoạn trả lời được đẩy vào sink ngay khi AI sinh ra
+     */
+    void chatWithGeminiStream(AiQueryRequest request, TokenSink sink);
 }
@@ -6,9 +6,20 @@ import java.util.Map;
 
 /**
  * Service gửi push notification qua Firebase Cloud Messaging (HTTP v1).
+ * sendToToken(s) chỉ xếp hàng rồi trả về ngay; việc gọi FCM, thử lại và dọn token chết chạy nền.
+ * deliverNow gửi đồng bộ và trả kết quả cho nơi tự lo việc thử lại (relay outbox).
  */
 public interface FirebasePushService {
 
+    /** Kết quả gửi đồng bộ theo số token: đã gửi / đã xoá (token chết) / lỗi tạm / lỗi hẳn. */
+    record DeliveryReport(int sent, int pruned, int retryable, int failed) {
+
+        /** Còn token sống nhưng không token nào nhận được → cần thử lại cả lượt. */
+        public boolean undelivered() {
+            return sent == 0 && (retryable > 0 || failed > 0);
+        }
+    }
+
     /**
      * Gửi notification tới 1 device token.
      */
@@ -22,4 +33,12 @@ public interface FirebasePushService {
     void sendToTokens(Iterable<String> tokens,
                       Notification notification,
                       Map<String, String> extraData);
+
+    /**
+     * Gửi ngay tới nhiều device token, chờ FCM trả lời từng token (không thử lại bên trong).
+     * Token UNREGISTERED / sai định dạng vẫn được xoá như luồng nền.
+     */
+    DeliveryReport deliverNow(Iterable<String> tokens,
+                              Notification notification,
+                              Map<String, String> extraData) throws InterruptedException;
 }
@@ -2,6 +2,10 @@ package org.example.audio_ecommerce.service;
 
 import org.example.audio_ecommerce.dto.request.GhnFeeRequest;
 
+import java.math.BigDecimal;
+
 public interface GhnFeeService {
     String calculateFeeRaw(GhnFeeRequest request); // trả về JSON gốc GHN
+
+    BigDecimal quoteTotalFee(GhnFeeRequest request); // data.total đã parse sẵn (0 nếu GHN lỗi)
 }
@@ -11,10 +11,12 @@ import org.example.audio_ecommerce.email.AccountData;
 import org.example.audio_ecommerce.entity.*;
 import org.example.audio_ecommerce.entity.Enum.*;
 import org.example.audio_ecommerce.repository.*;
+import org.example.audio_ecommerce.security.AccountStatusCache;
 import org.example.audio_ecommerce.security.JwtTokenProvider;
 import org.example.audio_ecommerce.service.AccountService;
 import org.example.audio_ecommerce.email.EmailService;
 import org.example.audio_ecommerce.email.EmailTemplateType;
+import org.example.audio_ecommerce.email.PasswordResetData;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -24,7 +26,6 @@ import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.beans.factory.annotation.Value;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
@@ -40,6 +41,7 @@ public class AccountServiceImpl implements AccountService {
     private final PasswordEncoder passwordEncoder;
     private final AuthenticationManager authenticationManager;
     private final JwtTokenProvider jwtTokenProvider;
+    private final AccountStatusCache accountStatusCache;
     private final WalletRepository walletRepository;
     private final StoreWalletRepository storeWalletRepository;
     private final StoreWalletTransactionRepository storeWalletTransactionRepository;
@@ -48,9 +50,6 @@ public class AccountServiceImpl implements AccountService {
     // 👇 thêm dependency EmailService
     private final EmailService emailService;
 
-    @Value("${app.frontend.url:http://localhost:3000}")
-    private String frontendUrl;
-
     // ==================== REGISTER ====================
     @Override
     public ResponseEntity<BaseResponse> registerCustomer(RegisterRequest request) {
@@ -224,8 +223,11 @@ public class AccountServiceImpl implements AccountService {
 
             var customerOpt = customerRepository.findByAccount_Id(user.getId());
             UUID customerId = customerOpt.map(Customer::getId).orElse(null);
-            String accessToken = jwtTokenProvider.generateToken(user.getId(), customerId, user.getEmail(), user.getRole().name());
-            String refreshToken = jwtTokenProvider.generateRefreshToken(user.getId(), customerId, user.getEmail(), user.getRole().name());
+            UUID storeId = role == RoleEnum.STOREOWNER
+                    ? storeRepository.findByAccount(user).map(Store::getStoreId).orElse(null)
+                    : null;
+            String accessToken = jwtTokenProvider.generateToken(user.getId(), customerId, storeId, user.getEmail(), user.getRole().name());
+            String refreshToken = jwtTokenProvider.generateRefreshToken(user.getId(), customerId, storeId, user.getEmail(), user.getRole().name());
             AccountResponse userResponse = new AccountResponse(user.getEmail(), user.getName(), user.getRole().toString());
             LoginResponse loginResponse = new LoginResponse(accessToken, refreshToken, userResponse);
 
@@ -249,6 +251,7 @@ public class AccountServiceImpl implements AccountService {
             // Extract information from refresh token
             UUID accountId = jwtTokenProvider.getAccountIdFromRefreshToken(request.getRefreshToken());
             UUID customerId = jwtTokenProvider.getCustomerIdFromRefreshToken(request.getRefreshToken());
+            UUID storeId = jwtTokenProvider.getStoreIdFromRefreshToken(request.getRefreshToken());
             String email = jwtTokenProvider.getEmailFromRefreshToken(request.getRefreshToken());
             String role = jwtTokenProvider.getRoleFromRefreshToken(request.getRefreshToken());
 
@@ -256,9 +259,16 @@ public class AccountServiceImpl implements AccountService {
             Account user = repository.findById(accountId)
                     .orElseThrow(() -> new UsernameNotFoundException("User not found"));
 
+            // Refresh token phát hành trước lần đặt lại mật khẩu → đã bị thu hồi
+            if (accountStatusCache.get(accountId)
+                    .issuedBeforePasswordChange(jwtTokenProvider.getIssuedAtFromRefreshToken(request.getRefreshToken()))) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                        .body(new BaseResponse<>(401, "Invalid refresh token", null));
+            }
+
             // Generate new access token
-            String newAccessToken = jwtTokenProvider.generateToken(accountId, customerId, email, role);
-            String newRefreshToken = jwtTokenProvider.generateRefreshToken(accountId, customerId, email, role);
+            String newAccessToken = jwtTokenProvider.generateToken(accountId, customerId, storeId, email, role);
+            String newRefreshToken = jwtTokenProvider.generateRefreshToken(accountId, customerId, storeId, email, role);
 
             // Create response
             AccountResponse userResponse = new AccountResponse(user.getEmail(), user.getName(), user.getRole().toString());
@@ -310,8 +320,8 @@ public class AccountServiceImpl implements AccountService {
 
             // ✅ Tạo token — giữ tương thích: vẫn generate theo (accountId, customerId, email, role)
             // Với staff thì customerId = null
-            String accessToken = jwtTokenProvider.generateToken(user.getId(), null, user.getEmail(), user.getRole().name());
-            String refreshToken = jwtTokenProvider.generateRefreshToken(user.getId(), null, user.getEmail(), user.getRole().name());
+            String accessToken = jwtTokenProvider.generateToken(user.getId(), null, storeId, user.getEmail(), user.getRole().name());
+            String refreshToken = jwtTokenProvider.generateRefreshToken(user.getId(), null, storeId, user.getEmail(), user.getRole().name());
 
             AccountResponse userResponse =
                     new AccountResponse(user.getEmail(), user.getName(), user.getRole().toString());
@@ -346,18 +356,8 @@ public class AccountServiceImpl implements AccountService {
             // Lưu vào database
             repository.save(account);
 
-            // Tạo link reset password
-            String resetLink = frontendUrl + "/reset-password?token=" + resetToken;
-
-            // Gửi email
-            AccountData emailData = new AccountData(
-                    account.getEmail(),
-                    account.getName(),
-                    account.getRole().toString(),
-                    resetLink
-            );
-
-            emailService.sendEmail(EmailTemplateType.RESET_PASSWORD, emailData);
+            // Gửi email: outbox chỉ lưu id tài khoản, link reset được dựng lúc relay gửi
+            emailService.sendEmail(EmailTemplateType.RESET_PASSWORD, new PasswordResetData(account.getId()));
 
             return ResponseEntity.ok(
                     new BaseResponse<>(200, "Email reset password đã được gửi thành công. Vui lòng kiểm tra hộp thư của bạn.", null)
@@ -391,12 +391,17 @@ public class AccountServiceImpl implements AccountService {
             // Cập nhật password mới
             account.setPassword(passwordEncoder.encode(request.getNewPassword()));
 
+            // Mọi access/refresh token phát hành trước thời điểm này bị từ chối
+            account.setPasswordChangedAt(LocalDateTime.now());
+
             // Xóa reset token và expiry
             account.setResetPasswordToken(null);
             account.setResetPasswordTokenExpiry(null);
 
             // Lưu vào database
             repository.save(account);
+            // Principal JWT đọc trạng thái account (gồm passwordChangedAt) từ cache → bỏ bản cũ sau commit
+            accountStatusCache.invalidate(account.getId());
 
             return ResponseEntity.ok(
                     new BaseResponse<>(200, "Mật khẩu đã được đặt lại thành công. Bạn có thể đăng nhập với mật khẩu mới.", null)
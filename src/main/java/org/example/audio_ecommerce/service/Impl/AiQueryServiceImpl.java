@@ -1,11 +1,13 @@
 package org.example.audio_ecommerce.service.Impl;
 
 import lombok.RequiredArgsConstructor;
+import org.example.audio_ecommerce.LangChain4J.AiSqlResultCache;
 import org.example.audio_ecommerce.dto.request.AiQueryRequest;
 import org.example.audio_ecommerce.dto.response.AiQueryResponse;
 import org.example.audio_ecommerce.repository.AiQueryRepository;
 import org.example.audio_ecommerce.service.AiQueryService;
 import org.example.audio_ecommerce.util.GeminiClient;
+import org.example.audio_ecommerce.util.TokenSink;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -18,6 +20,9 @@ public class AiQueryServiceImpl implements AiQueryService {
 
     private final GeminiClient geminiClient;
     private final AiQueryRepository aiQueryRepository;
+    private final AiSqlResultCache resultCache;
+
+    private static final String CACHE_SCOPE = "ai-query";
 
     // ============================================================
     // 🔧 SCHEMA sản phẩm rút gọn
@@ -202,6 +207,24 @@ public class AiQueryServiceImpl implements AiQueryService {
         String userName = request.getUserName() != null ? request.getUserName() : "guest";
         String userMessage = request.getMessage();
 
+        // 🗃️ Câu hỏi đã gặp (sau chuẩn hoá) → dùng lại SQL + kết quả, không gọi Gemini / DB lại
+        AiSqlResultCache.CachedSql result = resultCache.get(CACHE_SCOPE, userMessage,
+                () -> generateAndRun(userId, userName, userMessage));
+        String sql = result.sql();
+        List<UUID> productIds = result.productIds();
+
+        // ✅ Trả kết quả
+        return AiQueryResponse.builder()
+                .generatedSql(sql)
+                .rows(
+                        productIds.stream()
+                                .map(id -> Map.<String, Object>of("product_id", id.toString()))
+                                .toList()
+                )
+                .build();
+    }
+
+    private AiSqlResultCache.CachedSql generateAndRun(String userId, String userName, String userMessage) {
         String prompt = """
                 Bạn là AI chuyên phân tích dữ liệu MySQL cho nền tảng TMĐT thiết bị âm thanh.
                 Dữ liệu có 2 bảng:
@@ -246,17 +269,7 @@ public class AiQueryServiceImpl implements AiQueryService {
             throw new RuntimeException("❌ SQL nguy hiểm bị chặn: " + sql);
 
         // ✅ Thực thi SQL
-        List<UUID> productIds = aiQueryRepository.executeQuery(sql);
-
-        // ✅ Trả kết quả
-        return AiQueryResponse.builder()
-                .generatedSql(sql)
-                .rows(
-                        productIds.stream()
-                                .map(id -> Map.<String, Object>of("product_id", id.toString()))
-                                .toList()
-                )
-                .build();
+        return new AiSqlResultCache.CachedSql(sql, aiQueryRepository.executeQuery(sql));
     }
 
     // ============================================================
@@ -272,21 +285,10 @@ public class AiQueryServiceImpl implements AiQueryService {
         String userName = request.getUserName() != null ? request.getUserName() : "guest";
         String message = request.getMessage();
 
-        String topicPrompt = """
-                Bạn là chuyên gia trong lĩnh vực Âm thanh, Thiết bị Audio và Điện tử âm thanh.
-                
-                Quy tắc:
-                - Trả lời các câu hỏi về loa, tai nghe, DAC, ampli, micro, mixer, nhạc số, kỹ thuật nghe nhạc, phòng nghe, thiết bị thu âm, v.v.
-                - Nếu câu hỏi không liên quan đến âm thanh hoặc thiết bị audio, hãy từ chối nhẹ nhàng:
-                  "Xin lỗi, tôi chỉ hỗ trợ các chủ đề liên quan đến âm thanh và thiết bị audio."
-                - Trả lời bằng tiếng Việt, tự nhiên, chính xác và thân thiện.
-                
-                Câu hỏi từ người dùng:
-                👤 %s (%s)
-                💬 "%s"
-                """.formatted(userName, userId, message);
+        // GeminiClient.chat đã bọc câu hỏi trong prompt chuyên gia âm thanh + lịch sử;
+        // chỉ gửi câu hỏi gốc để bộ nhớ hội thoại không phải giữ lại cả prompt mỗi lượt
         try {
-            String answer = geminiClient.chat(userId, topicPrompt);
+            String answer = geminiClient.chat(userId, message);
             System.out.printf("🎙️ [%s] Gemini (Audio Expert): %s%n", userName, answer);
             return answer;
         } catch (Exception e) {
@@ -294,4 +296,17 @@ public class AiQueryServiceImpl implements AiQueryService {
         }
 
     }
+
+    // ============================================================
+    // 📡 API /chat/stream → như /chat nhưng đẩy từng đoạn trả lời ra ngay
+    // ============================================================
+    @Override
+    public void chatWithGeminiStream(AiQueryRequest request, TokenSink sink) {
+        if (request == null || request.getMessage() == null || request.getMessage().isBlank()) {
+            throw new RuntimeException("❌ Vui lòng nhập câu hỏi hợp lệ.");
+        }
+
+        String userId = request.getUserId() != null ? request.getUserId() : "anonymous";
+        geminiClient.chatStream(userId, request.getMessage(), sink);
+    }
 }
@@ -0,0 +1,363 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.entity.Enum.VoucherStatus;
+import org.example.audio_ecommerce.entity.PlatformCampaign;
+import org.example.audio_ecommerce.entity.PlatformCampaignProduct;
+import org.example.audio_ecommerce.repository.PlatformCampaignProductRepository;
+import org.example.audio_ecommerce.util.AfterCommit;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Chỉ mục giá campaign trong bộ nhớ: productId → danh sách rule giảm giá theo khung giờ.
+ * - Chứa mọi PlatformCampaignProduct đang ACTIVE (kèm campaign đã fetch sẵn).
+ * - Rule sắp theo mốc bắt đầu → tra cứu "đang áp dụng lúc now" dừng sớm, không cần query DB.
+ * - Ngữ nghĩa giữ nguyên như {@code findAllActiveByProductLegacy} / {@code findAllActiveOnlyStatus}.
+ * - Làm mới từng campaign sau khi transaction thay đổi campaign commit; rebuild toàn bộ định kỳ làm lưới an toàn.
+ * Các entity trong chỉ mục là bản detached, chỉ dùng để đọc.
+ */
+@Slf4j
+@Component
+public class CampaignPriceIndex {
+
+    /**
+     * 1 rule giảm giá. {@code from/to} là giao của khung giờ sản phẩm và khung giờ campaign;
+     * {@code priced = false} nghĩa là chỉ hiển thị (chưa duyệt / campaign chưa ACTIVE / thiếu thời gian).
+     */
+    record Rule(PlatformCampaignProduct cp, UUID campaignId,
+                LocalDateTime from, LocalDateTime to, boolean priced) {}
+
+    /** Snapshot bất biến, thay nguyên khối khi làm mới (copy-on-write). */
+    private record Snapshot(Map<UUID, Rule[]> byProduct, Map<UUID, Set<UUID>> productsByCampaign) {}
+
+    private static final Comparator<Rule> BY_FROM =
+            Comparator.comparing(Rule::from, Comparator.nullsLast(Comparator.<LocalDateTime>naturalOrder()))
+                    .thenComparing(r -> r.cp().getId(), Comparator.nullsLast(Comparator.<UUID>naturalOrder()));
+
+    private final PlatformCampaignProductRepository campaignProductRepository;
+    private final TransactionTemplate readTx;
+
+    private final Counter hitCounter;
+    private final Counter fallbackCounter;
+    private final Timer fullRebuildTimer;
+    private final Timer campaignRefreshTimer;
+
+    // null = chưa build xong → các lookup rơi về query DB như cũ
+    private volatile Snapshot snapshot;
+
+    // Được báo danh sách productId có rule giá thay đổi sau mỗi lần làm mới (vd: giá hiệu lực denormalized)
+    private final List<Consumer<Set<UUID>>> productChangeListeners = new CopyOnWriteArrayList<>();
+
+    public CampaignPriceIndex(PlatformCampaignProductRepository campaignProductRepository,
+                              PlatformTransactionManager transactionManager,
+                              MeterRegistry meterRegistry) {
+        this.campaignProductRepository = campaignProductRepository;
+        this.readTx = new TransactionTemplate(transactionManager);
+        this.readTx.setReadOnly(true);
+        // Transaction riêng → entity nạp vào chỉ mục không dính persistence context của request đang chạy
+        this.readTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        this.hitCounter = meterRegistry.counter("campaign.price.index.lookups", "result", "hit");
+        this.fallbackCounter = meterRegistry.counter("campaign.price.index.lookups", "result", "fallback");
+        this.fullRebuildTimer = meterRegistry.timer("campaign.price.index.rebuild", "scope", "full");
+        this.campaignRefreshTimer = meterRegistry.timer("campaign.price.index.rebuild", "scope", "campaign");
+        meterRegistry.gauge("campaign.price.index.products", this,
+                idx -> idx.snapshot == null ? 0 : idx.snapshot.byProduct().size());
+    }
+
+    // Build trước các listener khác (vd: backfill effective_min_price cần tra rule campaign)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        try {
+            rebuildAll();
+        } catch (Exception e) {
+            log.error("[CampaignPriceIndex] Initial build failed, lookups fall back to DB", e);
+        }
+    }
+
+    // =====================================================
+    // LOOKUP
+    // =====================================================
+
+    /**
+     * Tương đương {@code findAllActiveByProductLegacy(productId, now)}: các rule dùng để tính giá lúc {@code now}.
+     */
+    public List<PlatformCampaignProduct> findPricedCampaigns(UUID productId, LocalDateTime now) {
+        Snapshot s = snapshot;
+        if (s == null) {
+            fallbackCounter.increment();
+            return campaignProductRepository.findAllActiveByProductLegacy(productId, now);
+        }
+        hitCounter.increment();
+
+        Rule[] rules = s.byProduct().get(productId);
+        if (rules == null) return List.of();
+
+        List<PlatformCampaignProduct> result = null;
+        for (Rule r : rules) {
+            if (r.from() == null || r.from().isAfter(now)) break; // đã sắp theo from → phần còn lại chưa tới giờ
+            if (!r.priced() || r.to().isBefore(now)) continue;
+            if (result == null) result = new ArrayList<>(2);
+            result.add(r.cp());
+        }
+        return result == null ? List.of() : result;
+    }
+
+    /**
+     * Tương đương {@code findAllActiveOnlyStatus(productId)}: mọi mapping ACTIVE của sản phẩm (dùng để hiển thị).
+     */
+    public List<PlatformCampaignProduct> findActiveCampaigns(UUID productId) {
+        Snapshot s = snapshot;
+        if (s == null) {
+            fallbackCounter.increment();
+            return campaignProductRepository.findAllActiveOnlyStatus(productId);
+        }
+        hitCounter.increment();
+
+        Rule[] rules = s.byProduct().get(productId);
+        if (rules == null) return List.of();
+
+        List<PlatformCampaignProduct> result = new ArrayList<>(rules.length);
+        for (Rule r : rules) result.add(r.cp());
+        return result;
+    }
+
+    // =====================================================
+    // REFRESH
+    // =====================================================
+
+    public void addProductChangeListener(Consumer<Set<UUID>> listener) {
+        productChangeListeners.add(listener);
+    }
+
+    /**
+     * Đánh dấu campaign cần nạp lại. Nếu đang trong transaction → chỉ nạp lại sau khi commit
+     * (rollback thì không đụng chỉ mục); ngoài transaction → nạp ngay.
+     */
+    public void refreshCampaignsAfterCommit(Collection<UUID> campaignIds) {
+        if (campaignIds == null || campaignIds.isEmpty()) return;
+        Set<UUID> ids = new HashSet<>(campaignIds);
+        ids.remove(null);
+        if (ids.isEmpty()) return;
+
+        AfterCommit.run(() -> safeRefresh(ids));
+    }
+
+    public void refreshCampaignAfterCommit(UUID campaignId) {
+        if (campaignId != null) refreshCampaignsAfterCommit(List.of(campaignId));
+    }
+
+    /** Nạp lại toàn bộ chỉ mục (khởi động + lưới an toàn định kỳ). */
+    public void rebuildAll() {
+        long start = System.nanoTime();
+        List<PlatformCampaignProduct> rows = readTx.execute(st -> campaignProductRepository.findAllActiveForPriceIndex());
+
+        Map<UUID, List<Rule>> byProduct = new HashMap<>();
+        Map<UUID, Set<UUID>> productsByCampaign = new HashMap<>();
+        for (PlatformCampaignProduct cp : rows == null ? List.<PlatformCampaignProduct>of() : rows) {
+            addRule(byProduct, productsByCampaign, cp);
+        }
+
+        Snapshot old;
+        Snapshot fresh = new Snapshot(freeze(byProduct), productsByCampaign);
+        synchronized (this) {
+            old = snapshot;
+            snapshot = fresh;
+        }
+        if (old != null) {
+            notifyChanged(old.byProduct(), fresh.byProduct(), unionKeys(old.byProduct(), fresh.byProduct()));
+        }
+        long elapsed = System.nanoTime() - start;
+        fullRebuildTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        log.debug("[CampaignPriceIndex] Rebuilt {} rules for {} products in {} ms",
+                rows == null ? 0 : rows.size(), byProduct.size(), elapsed / 1_000_000);
+    }
+
+    private void safeRefresh(Set<UUID> campaignIds) {
+        try {
+            refreshCampaigns(campaignIds);
+        } catch (Exception e) {
+            // Không làm hỏng request vừa commit; rebuild định kỳ sẽ đồng bộ lại
+            log.warn("[CampaignPriceIndex] Refresh campaigns {} failed: {}", campaignIds, e.getMessage());
+        }
+    }
+
+    void refreshCampaigns(Set<UUID> campaignIds) {
+        if (snapshot == null) {
+            rebuildAll();
+            return;
+        }
+        long start = System.nanoTime();
+        List<PlatformCampaignProduct> rows =
+                readTx.execute(st -> campaignProductRepository.findActiveForPriceIndexByCampaignIds(campaignIds));
+
+        Map<UUID, Rule[]> changedOld;
+        Map<UUID, Rule[]> changedNew;
+        Set<UUID> changedKeys;
+        synchronized (this) {
+            Snapshot old = snapshot;
+            Map<UUID, Rule[]> byProduct = new HashMap<>(old.byProduct());
+            Map<UUID, Set<UUID>> productsByCampaign = new HashMap<>(old.productsByCampaign());
+
+            // 1) Gỡ rule cũ của các campaign này khỏi những product bị ảnh hưởng
+            Map<UUID, List<Rule>> touched = new HashMap<>();
+            for (UUID campaignId : campaignIds) {
+                Set<UUID> productIds = productsByCampaign.remove(campaignId);
+                if (productIds == null) continue;
+                for (UUID productId : productIds) {
+                    touched.computeIfAbsent(productId, k -> rulesOutside(byProduct.get(k), campaignIds));
+                }
+            }
+
+            // 2) Thêm rule mới nạp từ DB
+            for (PlatformCampaignProduct cp : rows == null ? List.<PlatformCampaignProduct>of() : rows) {
+                UUID productId = cp.getProduct().getProductId();
+                touched.computeIfAbsent(productId, k -> rulesOutside(byProduct.get(k), campaignIds));
+                addRule(touched, productsByCampaign, cp);
+            }
+
+            for (var e : touched.entrySet()) {
+                if (e.getValue().isEmpty()) {
+                    byProduct.remove(e.getKey());
+                } else {
+                    byProduct.put(e.getKey(), sorted(e.getValue()));
+                }
+            }
+            snapshot = new Snapshot(byProduct, productsByCampaign);
+            changedOld = old.byProduct();
+            changedNew = byProduct;
+            changedKeys = touched.keySet();
+        }
+        notifyChanged(changedOld, changedNew, changedKeys);
+        campaignRefreshTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    // =====================================================
+    // CHANGE NOTIFICATION
+    // =====================================================
+
+    private void notifyChanged(Map<UUID, Rule[]> before, Map<UUID, Rule[]> after, Set<UUID> candidates) {
+        if (productChangeListeners.isEmpty() || candidates.isEmpty()) return;
+
+        Set<UUID> changed = new HashSet<>();
+        for (UUID productId : candidates) {
+            if (!sameRules(before.get(productId), after.get(productId))) changed.add(productId);
+        }
+        if (changed.isEmpty()) return;
+
+        Set<UUID> view = Collections.unmodifiableSet(changed);
+        for (Consumer<Set<UUID>> listener : productChangeListeners) {
+            try {
+                listener.accept(view);
+            } catch (Exception e) {
+                log.warn("[CampaignPriceIndex] Product change listener failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private static Set<UUID> unionKeys(Map<UUID, Rule[]> a, Map<UUID, Rule[]> b) {
+        Set<UUID> keys = new HashSet<>(a.keySet());
+        keys.addAll(b.keySet());
+        return keys;
+    }
+
+    // So sánh theo nội dung ảnh hưởng tới giá (mỗi lần nạp là entity mới nên không so theo tham chiếu)
+    static boolean sameRules(Rule[] a, Rule[] b) {
+        int lenA = a == null ? 0 : a.length;
+        int lenB = b == null ? 0 : b.length;
+        if (lenA != lenB) return false;
+        for (int i = 0; i < lenA; i++) {
+            Rule x = a[i];
+            Rule y = b[i];
+            if (x.priced() != y.priced()
+                    || !Objects.equals(x.cp().getId(), y.cp().getId())
+                    || !Objects.equals(x.from(), y.from())
+                    || !Objects.equals(x.to(), y.to())
+                    || !Objects.equals(x.cp().getDiscountPercent(), y.cp().getDiscountPercent())
+                    || !sameAmount(x.cp().getDiscountValue(), y.cp().getDiscountValue())
+                    || !sameAmount(x.cp().getMaxDiscountValue(), y.cp().getMaxDiscountValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameAmount(BigDecimal a, BigDecimal b) {
+        if (a == null || b == null) return a == b;
+        return a.compareTo(b) == 0;
+    }
+
+    // =====================================================
+    // BUILD HELPERS
+    // =====================================================
+
+    private static void addRule(Map<UUID, List<Rule>> byProduct,
+                                Map<UUID, Set<UUID>> productsByCampaign,
+                                PlatformCampaignProduct cp) {
+        PlatformCampaign c = cp.getCampaign();
+        UUID productId = cp.getProduct().getProductId();
+        byProduct.computeIfAbsent(productId, k -> new ArrayList<>()).add(toRule(cp, c));
+        productsByCampaign.computeIfAbsent(c.getId(), k -> new HashSet<>()).add(productId);
+    }
+
+    static Rule toRule(PlatformCampaignProduct cp, PlatformCampaign c) {
+        LocalDateTime from = later(cp.getStartTime(), c.getStartTime());
+        LocalDateTime to = earlier(cp.getEndTime(), c.getEndTime());
+        boolean priced = Boolean.TRUE.equals(cp.getApproved())
+                && c.getStatus() == VoucherStatus.ACTIVE
+                && cp.getStartTime() != null && cp.getEndTime() != null
+                && c.getStartTime() != null && c.getEndTime() != null;
+        return new Rule(cp, c.getId(), priced ? from : null, priced ? to : null, priced);
+    }
+
+    // Các rule hiện có của product, bỏ đi rule thuộc những campaign đang nạp lại
+    private static List<Rule> rulesOutside(Rule[] current, Set<UUID> campaignIds) {
+        List<Rule> keep = new ArrayList<>();
+        if (current != null) {
+            for (Rule r : current) {
+                if (!campaignIds.contains(r.campaignId())) keep.add(r);
+            }
+        }
+        return keep;
+    }
+
+    private static Map<UUID, Rule[]> freeze(Map<UUID, List<Rule>> byProduct) {
+        Map<UUID, Rule[]> out = new HashMap<>(byProduct.size() * 2);
+        byProduct.forEach((k, v) -> out.put(k, sorted(v)));
+        return out;
+    }
+
+    static Rule[] sorted(List<Rule> rules) {
+        Rule[] arr = rules.toArray(new Rule[0]);
+        Arrays.sort(arr, BY_FROM);
+        return arr;
+    }
+
+    private static LocalDateTime later(LocalDateTime a, LocalDateTime b) {
+        if (a == null || b == null) return null;
+        return a.isAfter(b) ? a : b;
+    }
+
+    private static LocalDateTime earlier(LocalDateTime a, LocalDateTime b) {
+        if (a == null || b == null) return null;
+        return a.isBefore(b) ? a : b;
+    }
+}
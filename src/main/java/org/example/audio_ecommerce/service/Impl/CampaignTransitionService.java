@@ -0,0 +1,122 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.entity.Enum.VoucherStatus;
+import org.example.audio_ecommerce.entity.PlatformCampaign;
+import org.example.audio_ecommerce.repository.PlatformCampaignFlashSlotRepository;
+import org.example.audio_ecommerce.repository.PlatformCampaignProductRepository;
+import org.example.audio_ecommerce.repository.PlatformCampaignRepository;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Máy trạng thái campaign / slot / sản phẩm theo thời gian, áp dụng cho đúng 1 campaign.
+ * Mỗi bước là 1 câu UPDATE có điều kiện → chỉ những dòng thực sự đổi trạng thái mới bị ghi.
+ * Quy tắc giữ nguyên như tickAllCampaigns cũ:
+ * 1) Campaign: ONOPEN/APPROVE → ACTIVE trong [startTime, endTime]; quá endTime → EXPIRED.
+ * 2) Slot (chỉ khi campaign ACTIVE): PENDING → ACTIVE khi mở; quá closeTime → CLOSED; chưa tới openTime → PENDING.
+ * 3) Sản phẩm: ONOPEN/APPROVE → ACTIVE khi slot mở (FAST_SALE) hoặc campaign đang chạy (MEGA_SALE);
+ *    campaign EXPIRED / slot đóng / quá endTime riêng → EXPIRED.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CampaignTransitionService {
+
+    private final PlatformCampaignRepository campaignRepository;
+    private final PlatformCampaignFlashSlotRepository flashSlotRepository;
+    private final PlatformCampaignProductRepository campaignProductRepository;
+    private final CampaignPriceIndex campaignPriceIndex;
+
+    /** Các campaign còn có thể chuyển trạng thái. */
+    @Transactional(readOnly = true)
+    public List<UUID> findOpenCampaignIds() {
+        return campaignRepository.findIdsNotExpired();
+    }
+
+    /**
+     * Áp mọi chuyển trạng thái đã tới hạn của 1 campaign tại thời điểm {@code now}.
+     *
+     * @return số dòng đã đổi trạng thái (0 = không có gì tới hạn)
+     */
+    @Transactional
+    public int applyTransitions(UUID campaignId, LocalDateTime now) {
+        int changed = 0;
+
+        // 1) Campaign
+        int activated = campaignRepository.activateIfDue(campaignId, now);
+        int expired = campaignRepository.expireIfDue(campaignId, now);
+        changed += activated + expired;
+
+        PlatformCampaign campaign = campaignRepository.findById(campaignId).orElse(null);
+        if (campaign == null) return changed;
+        if (activated > 0) {
+            log.info("📢 Campaign '{}' → ACTIVE", campaign.getName());
+        }
+        if (expired > 0) {
+            log.info("📢 Campaign '{}' → EXPIRED", campaign.getName());
+        }
+
+        boolean campaignActive = campaign.getStatus() == VoucherStatus.ACTIVE;
+
+        // 2) Slot FAST_SALE
+        if (campaignActive) {
+            int opened = flashSlotRepository.openDueSlots(campaignId, now);
+            int closed = flashSlotRepository.closeEndedSlots(campaignId, now);
+            int reset = flashSlotRepository.resetUpcomingSlots(campaignId, now);
+            if (opened > 0) {
+                log.info("🟢 Campaign '{}' mở {} slot", campaign.getName(), opened);
+            }
+            changed += opened + closed + reset;
+        }
+
+        // 3) Sản phẩm trong campaign (ACTIVE trước, EXPIRED sau → EXPIRED luôn thắng như logic cũ)
+        if (campaignActive) {
+            changed += campaignProductRepository.activateDueSlotProducts(campaignId, now);
+            if (campaign.getStartTime() != null && campaign.getEndTime() != null
+                    && now.isAfter(campaign.getStartTime()) && now.isBefore(campaign.getEndTime())) {
+                changed += campaignProductRepository.activateCampaignWideProducts(campaignId, now);
+            }
+        }
+        if (campaign.getStatus() == VoucherStatus.EXPIRED) {
+            changed += campaignProductRepository.expireAllProducts(campaignId, now);
+        } else {
+            changed += campaignProductRepository.expireEndedProducts(campaignId, now);
+        }
+
+        if (changed > 0) {
+            campaignPriceIndex.refreshCampaignAfterCommit(campaignId);
+        }
+        return changed;
+    }
+
+    /**
+     * Mốc thời gian gần nhất (>= now) mà campaign có thể đổi trạng thái:
+     * start/end của campaign, open/close của slot, endTime của sản phẩm.
+     */
+    @Transactional(readOnly = true)
+    public Optional<LocalDateTime> nextTransitionAt(UUID campaignId, LocalDateTime now) {
+        PlatformCampaign campaign = campaignRepository.findById(campaignId).orElse(null);
+        if (campaign == null || campaign.getStatus() == VoucherStatus.EXPIRED) {
+            return Optional.empty();
+        }
+
+        return Stream.of(
+                        campaign.getStartTime(),
+                        campaign.getEndTime(),
+                        flashSlotRepository.findNextOpenTime(campaignId, now),
+                        flashSlotRepository.findNextCloseTime(campaignId, now),
+                        campaignProductRepository.findNextProductEndTime(campaignId, now))
+                .filter(Objects::nonNull)
+                .filter(t -> !t.isBefore(now))
+                .min(LocalDateTime::compareTo);
+    }
+}
@@ -10,6 +10,7 @@ import org.example.audio_ecommerce.dto.response.PreviewCampaignPriceResponse;
 import org.example.audio_ecommerce.entity.*;
 import org.example.audio_ecommerce.entity.Enum.*;
 import org.example.audio_ecommerce.repository.*;
+import org.example.audio_ecommerce.util.CampaignPricing;
 import org.example.audio_ecommerce.service.*;
 
 import static org.example.audio_ecommerce.service.Impl.GhnFeeRequestBuilder.buildForStoreShipment;
@@ -41,10 +42,11 @@ public class CartServiceImpl implements CartService {
     private final GhnFeeService ghnFeeService;
     private final ProductVariantRepository productVariantRepo;
     private final OrderCodeGeneratorService orderCodeGeneratorService;
-    private final PlatformCampaignProductRepository platformCampaignProductRepository;
+    private final CampaignPriceIndex campaignPriceIndex;
     private final NotificationCreatorService notificationCreatorService;
     private final PlatformFeeRepository platformFeeRepository;
     private final PlatformCampaignProductUsageRepository platformCampaignProductUsageRepository;
+    private final StockReservationService stockReservationService;
 
 
     // ====== NEW: để kiểm tra COD theo ví đặt cọc ======
@@ -427,7 +429,7 @@ public class CartServiceImpl implements CartService {
 
                 LocalDateTime now = LocalDateTime.now();
                 List<PlatformCampaignProduct> cps =
-                        platformCampaignProductRepository.findAllActiveByProductLegacy(p.getProductId(), now);
+                        campaignPriceIndex.findPricedCampaigns(p.getProductId(), now);
 
                 BigDecimal bestCampaignPrice = baseUnitPrice;
                 boolean hasCampaign = false;
@@ -551,8 +553,8 @@ public class CartServiceImpl implements CartService {
             throw new IllegalStateException("No matching items in cart for checkout");
         }
 
-        // Trừ tồn kho theo items chuẩn bị checkout
-        deductStockForCartItems(itemsToCheckout);
+        // Chỉ kiểm tra còn bán; trừ tồn kho để cuối cùng (sau báo giá GHN) → khoá SKU không bị giữ qua I/O ngoài
+        checkSellable(itemsToCheckout);
 
         // 2) Group theo store
         Map<UUID, List<CartItem>> itemsByStore = new HashMap<>();
@@ -637,13 +639,9 @@ public class CartServiceImpl implements CartService {
             } catch (Exception e) {
                 log.warn("[GHN-FEE] Failed to serialize request payload", e);
             }
-            // Call service
-            String feeRaw = ghnFeeService.calculateFeeRaw(reqGHN);
-
-            // === LOG RESPONSE RAW ===
-            log.info("[GHN-FEE][STORE:{}] Response raw: {}", storeIdKey, feeRaw);
-
-            BigDecimal shippingFee = extractTotalFee(ghnFeeService.calculateFeeRaw(reqGHN));
+            // Call service (báo giá cache theo request chuẩn hoá → không gọi GHN lặp lại)
+            BigDecimal shippingFee = ghnFeeService.quoteTotalFee(reqGHN);
+            log.info("[GHN-FEE][STORE:{}] Quoted total fee: {}", storeIdKey, shippingFee);
 
             // 4b) Tạo CustomerOrder cho shop
             CustomerOrder co = CustomerOrder.builder()
@@ -776,6 +774,11 @@ public class CartServiceImpl implements CartService {
             // Lưu để có id
             co = customerOrderRepository.save(co);
 
+            // Đơn ONLINE: tồn kho đã trừ ở trên chỉ là giữ chỗ có TTL, hết hạn thanh toán sẽ được trả lại
+            if (co.getPaymentMethod() == PaymentMethod.ONLINE) {
+                stockReservationService.holdForOrder(co.getId(), toStockLines(entry.getValue()));
+            }
+
             // 4e) Tạo StoreOrder (liên kết đến co)
             StoreOrder so = StoreOrder.builder()
                     .store(store)
@@ -998,6 +1001,9 @@ public class CartServiceImpl implements CartService {
         cartRepo.save(cart);
         cartItemRepo.deleteAll(itemsToCheckout);
 
+        // 8) Trừ tồn kho là bước cuối trước commit: stripe lock + row lock SKU chỉ giữ từ đây tới commit
+        deductStockForCartItems(itemsToCheckout);
+
         return createdOrders;
     }
 
@@ -1197,18 +1203,6 @@ public class CartServiceImpl implements CartService {
     }
 
 
-    // Tối giản: trích "data.total" từ JSON GHN
-    private static BigDecimal extractTotalFee(String feeJson) {
-        try {
-            com.fasterxml.jackson.databind.JsonNode node =
-                    new com.fasterxml.jackson.databind.ObjectMapper().readTree(feeJson);
-            var total = node.path("data").path("total").asLong(0L);
-            return BigDecimal.valueOf(total);
-        } catch (Exception e) {
-            return BigDecimal.ZERO;
-        }
-    }
-
     // ===== helper class cho tính tổng theo store (chỉ dùng nội bộ) =====
     private static class StoreSubtotal {
         BigDecimal subtotal = BigDecimal.ZERO;
@@ -1345,7 +1339,7 @@ public class CartServiceImpl implements CartService {
         if (itemsToCheckout.isEmpty()) {
             throw new IllegalStateException("No matching items in cart for checkout");
         }
-        deductStockForCartItems(itemsToCheckout);
+        checkSellable(itemsToCheckout);
 
         // 2) Group theo store
         Map<UUID, List<CartItem>> itemsByStore = new HashMap<>();
@@ -1623,6 +1617,9 @@ public class CartServiceImpl implements CartService {
         cartRepo.save(cart);
         cartItemRepo.deleteAll(itemsToCheckout);
 
+        // 8) Trừ tồn kho là bước cuối trước commit: stripe lock + row lock SKU chỉ giữ từ đây tới commit
+        deductStockForCartItems(itemsToCheckout);
+
         return createdOrders;
     }
 
@@ -1764,7 +1761,7 @@ public class CartServiceImpl implements CartService {
         // 2) Lấy list campaign active cho product này tại thời điểm hiện tại
         LocalDateTime now = LocalDateTime.now();
         List<PlatformCampaignProduct> cps =
-                platformCampaignProductRepository.findAllActiveByProductLegacy(product.getProductId(), now);
+                campaignPriceIndex.findPricedCampaigns(product.getProductId(), now);
         log.info("[CAMPAIGN-CHECK] campaignsFound={} for productId={} at now={}",
                 (cps == null ? 0 : cps.size()), product.getProductId(), now);
         if (cps == null || cps.isEmpty()) {
@@ -1832,35 +1829,8 @@ public class CartServiceImpl implements CartService {
      */
     private BigDecimal applyCampaignDiscount(BigDecimal basePrice,
                                              PlatformCampaignProduct cp) {
-        if (basePrice == null) return BigDecimal.ZERO;
-        BigDecimal discountAmount = BigDecimal.ZERO;
-
-        // Giảm theo %
-        if (cp.getDiscountPercent() != null && cp.getDiscountPercent() > 0) {
-            discountAmount = basePrice
-                    .multiply(BigDecimal.valueOf(cp.getDiscountPercent()))
-                    .divide(BigDecimal.valueOf(100), 2, RoundingMode.DOWN);
-        }
-
-        // Nếu không có % mà có giá cố định
-        if ((cp.getDiscountPercent() == null || cp.getDiscountPercent() == 0)
-                && cp.getDiscountValue() != null
-                && cp.getDiscountValue().compareTo(BigDecimal.ZERO) > 0) {
-            discountAmount = cp.getDiscountValue();
-        }
-
-        // Giới hạn maxDiscountValue nếu có
-        if (cp.getMaxDiscountValue() != null
-                && discountAmount.compareTo(cp.getMaxDiscountValue()) > 0) {
-            discountAmount = cp.getMaxDiscountValue();
-        }
-
-        BigDecimal result = basePrice.subtract(discountAmount);
-        if (result.compareTo(BigDecimal.ZERO) < 0) result = BigDecimal.ZERO;
-
         // FE sẽ tính và hiển thị giá discount dựa trên giá biến thể
-
-        return result;
+        return CampaignPricing.applyDiscount(basePrice, cp);
     }
 
     /**
@@ -1872,7 +1842,12 @@ public class CartServiceImpl implements CartService {
     private void deductStockForCartItems(List<CartItem> items) {
         if (items == null || items.isEmpty()) return;
 
-        // ✅ Bước 0: kiểm tra trạng thái sản phẩm trước khi trừ stock
+        // Trừ nguyên tử bằng UPDATE có điều kiện (stock >= qty), gom theo SKU + khoá theo thứ tự cố định
+        stockReservationService.deduct(toStockLines(items));
+    }
+
+    // Kiểm tra trạng thái sản phẩm trước khi báo giá / tạo đơn (không khoá gì)
+    private void checkSellable(List<CartItem> items) {
         for (CartItem item : items) {
             if (item.getType() != CartItemType.PRODUCT || item.getProduct() == null) {
                 continue; // bỏ qua COMBO, hoặc item không có product
@@ -1887,68 +1862,29 @@ public class CartServiceImpl implements CartService {
                 );
             }
         }
+    }
 
-        // Dùng map để tránh trừ trùng 1 product/variant nhiều lần nếu có nhiều CartItem
-        Map<UUID, Integer> productQtyMap = new HashMap<>();
-        Map<UUID, Integer> variantQtyMap = new HashMap<>();
-
+    private List<StockReservationService.StockLine> toStockLines(List<CartItem> items) {
+        List<StockReservationService.StockLine> lines = new ArrayList<>();
         for (CartItem item : items) {
             if (item.getType() != CartItemType.PRODUCT || item.getProduct() == null) {
                 continue; // bỏ qua COMBO
             }
-
-            int qty = item.getQuantity();
-            if (qty <= 0) continue;
+            if (item.getQuantity() <= 0) continue;
 
             Product p = item.getProduct();
-            productQtyMap.merge(p.getProductId(), qty, Integer::sum);
-
             ProductVariantEntity v = item.getVariant();
-            if (v != null) {
-                variantQtyMap.merge(v.getId(), qty, Integer::sum);
-            }
-        }
-
-        // 1) Trừ variant.stock
-        for (CartItem item : items) {
-            if (item.getType() != CartItemType.PRODUCT) continue;
-            ProductVariantEntity v = item.getVariant();
-            if (v == null) continue;
-
-            int totalQty = variantQtyMap.getOrDefault(v.getId(), 0);
-            if (totalQty <= 0) continue;
-
-            Integer stock = v.getVariantStock();
-            if (stock == null) stock = 0;
-
-            if (stock < totalQty) {
-                throw new IllegalStateException(
-                        "Variant out of stock when checkout: "
-                                + v.getOptionName() + " " + v.getOptionValue()
-                );
-            }
-            v.setVariantStock(stock - totalQty);
-            // Không cần gọi save riêng, JPA dirty checking sẽ tự flush vì đang trong @Transactional
-        }
-
-        // 2) Trừ product.stockQuantity
-        for (CartItem item : items) {
-            if (item.getType() != CartItemType.PRODUCT || item.getProduct() == null) continue;
-
-            Product p = item.getProduct();
-            int totalQty = productQtyMap.getOrDefault(p.getProductId(), 0);
-            if (totalQty <= 0) continue;
-
-            Integer stock = p.getStockQuantity();
-            if (stock == null) stock = 0;
-
-            if (stock < totalQty) {
-                throw new IllegalStateException(
-                        "Product out of stock when checkout: " + p.getName()
-                );
-            }
-            p.setStockQuantity(stock - totalQty);
-        }
+            String label = v != null
+                    ? p.getName() + " - " + v.getOptionName() + " " + v.getOptionValue()
+                    : p.getName();
+            lines.add(new StockReservationService.StockLine(
+                    p.getProductId(),
+                    v != null ? v.getId() : null,
+                    item.getQuantity(),
+                    label
+            ));
+        }
+        return lines;
     }
 
     /**
@@ -2146,7 +2082,7 @@ public class CartServiceImpl implements CartService {
 
                 LocalDateTime now = LocalDateTime.now();
                 List<PlatformCampaignProduct> cps =
-                        platformCampaignProductRepository.findAllActiveByProductLegacy(p.getProductId(), now);
+                        campaignPriceIndex.findPricedCampaigns(p.getProductId(), now);
 
                 BigDecimal bestCampaignPrice = basePrice;
                 boolean hasCampaign = false;
@@ -2264,7 +2200,7 @@ public class CartServiceImpl implements CartService {
         // ===== 2) Tìm campaign tốt nhất (không xét usage_per_user) =====
         LocalDateTime now = LocalDateTime.now();
         List<PlatformCampaignProduct> cps =
-                platformCampaignProductRepository.findAllActiveByProductLegacy(product.getProductId(), now);
+                campaignPriceIndex.findPricedCampaigns(product.getProductId(), now);
 
         BigDecimal bestCampaignPrice = basePrice;
         boolean hasCampaign = false;
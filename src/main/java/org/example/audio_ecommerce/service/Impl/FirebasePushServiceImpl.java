@@ -1,45 +1,151 @@
 package org.example.audio_ecommerce.service.Impl;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.auth.oauth2.GoogleCredentials;
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.example.audio_ecommerce.entity.Notification;
+import org.example.audio_ecommerce.repository.DeviceTokenRepository;
 import org.example.audio_ecommerce.service.FirebasePushService;
+import org.example.audio_ecommerce.util.UpstreamGuard;
+import org.example.audio_ecommerce.util.UpstreamGuards;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.Resource;
-import org.springframework.http.*;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.*;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Bộ gửi push FCM HTTP v1 chạy nền:
+ * - Credentials đọc 1 lần, access token chỉ refresh khi sắp hết hạn (không đọc lại JSON mỗi lần gửi).
+ * - 1 HttpClient HTTP/2 dùng chung → các request multiplex trên cùng kết nối tới fcm.googleapis.com;
+ *   timeout / bulkhead / circuit breaker theo guard "fcm" (http.upstream.fcm.*).
+ * - sendToToken(s) chỉ xếp job vào hàng đợi có giới hạn rồi trả về ngay; N worker gửi song song.
+ *   Hàng đợi đầy → bỏ push (có metric), không bao giờ chặn luồng nghiệp vụ.
+ * - deliverNow gửi đồng bộ trên luồng gọi và trả kết quả (relay outbox tự thử lại theo dòng).
+ * - 429 / 5xx / lỗi mạng → thử lại với backoff luỹ thừa (tôn trọng Retry-After).
+ * - Chỉ xoá khỏi device_tokens khi FCM báo errorCode UNREGISTERED hoặc token sai định dạng
+ *   (INVALID_ARGUMENT trên message.token); 404 khác coi là lỗi tạm → thử lại.
+ */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class FirebasePushServiceImpl implements FirebasePushService {
 
-    @Value("${firebase.credentials}")
-    private Resource firebaseConfigPath;
+    private static final String[] SCOPES = {
+            "https://www.googleapis.com/auth/cloud-platform",
+            "https://www.googleapis.com/auth/firebase.messaging"
+    };
 
-    @Value("${firebase.project-id}")
-    private String projectId;
+    private static final long MAX_BACKOFF_MS = 60_000;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    // Chỉ dùng để đọc body lỗi của FCM trong classify()
+    private static final ObjectMapper ERROR_READER = new ObjectMapper();
 
-    // ===========================================
-    // 🔥 Lấy Access Token chuẩn FCM HTTP v1
-    // ===========================================
-    private String getAccessToken() throws IOException {
-        GoogleCredentials googleCredentials = GoogleCredentials
-                .fromStream(firebaseConfigPath.getInputStream())
-                .createScoped(
-                        "https://www.googleapis.com/auth/cloud-platform",
-                        "https://www.googleapis.com/auth/firebase.messaging"
-                );
+    /** Kết quả 1 lần gọi FCM. */
+    enum Outcome { SENT, RETRY, PRUNE, FAILED }
+
+    /** 1 lần gọi FCM đã phân loại, kèm Retry-After (ms, -1 nếu không có) và chi tiết để log. */
+    private record Attempt(Outcome outcome, long retryAfterMs, String detail) {}
+
+    private record PushJob(String token, String body, int attempt) {
+        PushJob next() {
+            return new PushJob(token, body, attempt + 1);
+        }
+    }
+
+    private final DeviceTokenRepository deviceTokenRepo;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate tx;
+    private final String firebaseCredentials;
+    private final URI sendUri;
+    private final HttpClient http;
+    private final UpstreamGuard guard;
+    private final ThreadPoolExecutor senders;
+    private final ScheduledExecutorService retryTimer;
+    private final int maxAttempts;
+    private final long backoffMs;
+    private final Duration requestTimeout;
+
+    private volatile GoogleCredentials credentials;
+
+    private final Counter sentCounter;
+    private final Counter prunedCounter;
+    private final Counter failedCounter;
+    private final Counter droppedCounter;
+    private final Counter retryCounter;
+    private final Timer latencyTimer;
+
+    public FirebasePushServiceImpl(DeviceTokenRepository deviceTokenRepo,
+                                   ObjectMapper objectMapper,
+                                   PlatformTransactionManager transactionManager,
+                                   MeterRegistry meterRegistry,
+                                   UpstreamGuards guards,
+                                   @Value("${firebase.credentials}") String firebaseCredentials,
+                                   @Value("${firebase.project-id}") String projectId,
+                                   @Value("${firebase.push.concurrency:8}") int concurrency,
+                                   @Value("${firebase.push.queue-capacity:10000}") int queueCapacity,
+                                   @Value("${firebase.push.max-attempts:4}") int maxAttempts,
+                                   @Value("${firebase.push.backoff-ms:500}") long backoffMs) {
+        this.deviceTokenRepo = deviceTokenRepo;
+        this.objectMapper = objectMapper;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.firebaseCredentials = firebaseCredentials;
+        this.sendUri = URI.create("https://fcm.googleapis.com/v1/projects/" + projectId + "/messages:send");
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMs = Math.max(1, backoffMs);
+        this.guard = guards.get("fcm");
+        this.requestTimeout = Duration.ofMillis(guard.settings().readTimeoutMs());
+
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(guard.settings().connectTimeoutMs()))
+                .build();
+
+        int workers = Math.max(1, concurrency);
+        this.senders = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), daemon("fcm-push-"));
+        this.retryTimer = Executors.newSingleThreadScheduledExecutor(daemon("fcm-push-retry-"));
 
-        googleCredentials.refreshIfExpired();
-        return googleCredentials.getAccessToken().getTokenValue();
+        this.sentCounter = meterRegistry.counter("push.fcm.sent", "outcome", "sent");
+        this.prunedCounter = meterRegistry.counter("push.fcm.sent", "outcome", "pruned");
+        this.failedCounter = meterRegistry.counter("push.fcm.sent", "outcome", "failed");
+        this.droppedCounter = meterRegistry.counter("push.fcm.sent", "outcome", "dropped");
+        this.retryCounter = meterRegistry.counter("push.fcm.retries");
+        this.latencyTimer = meterRegistry.timer("push.fcm.latency");
+        meterRegistry.gauge("push.fcm.queue.depth", senders, e -> e.getQueue().size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retryTimer.shutdownNow();
+        senders.shutdown();
+        try {
+            // Cho job đang chờ 1 khoảng ngắn, còn lại bỏ (push không phải dữ liệu bắt buộc)
+            if (!senders.awaitTermination(5, TimeUnit.SECONDS)) {
+                senders.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            senders.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
     }
 
     // ===========================================
@@ -48,40 +154,272 @@ public class FirebasePushServiceImpl implements FirebasePushService {
     @Override
     public void sendToToken(String token, Notification n, Map<String, String> extra) {
         if (token == null || token.isBlank()) return;
+        enqueue(new PushJob(token, buildBody(token, n, extra), 1));
+    }
+
+    // ===========================================
+    // 🔥 Gửi tới nhiều token
+    // ===========================================
+    @Override
+    public void sendToTokens(Iterable<String> tokens, Notification n, Map<String, String> extra) {
+        uniqueTokens(tokens).forEach(token -> sendToToken(token, n, extra));
+    }
+
+    // ===========================================
+    // 🔥 Gửi đồng bộ (relay outbox)
+    // ===========================================
+    @Override
+    public DeliveryReport deliverNow(Iterable<String> tokens, Notification n, Map<String, String> extra)
+            throws InterruptedException {
+        int sent = 0, pruned = 0, retryable = 0, failed = 0;
+        for (String token : uniqueTokens(tokens)) {
+            Attempt a = attempt(new PushJob(token, buildBody(token, n, extra), 1));
+            switch (a.outcome()) {
+                case SENT -> {
+                    sentCounter.increment();
+                    sent++;
+                }
+                case PRUNE -> {
+                    prune(token);
+                    pruned++;
+                }
+                case RETRY -> {
+                    log.debug("FCM lỗi tạm token={}: {}", mask(token), a.detail());
+                    retryable++;
+                }
+                case FAILED -> {
+                    failedCounter.increment();
+                    log.error("FCM SEND FAILED token={}: {}", mask(token), a.detail());
+                    failed++;
+                }
+            }
+        }
+        return new DeliveryReport(sent, pruned, retryable, failed);
+    }
+
+    /** 1 thiết bị có thể đăng ký lại nhiều lần → bỏ token trùng / rỗng. */
+    private static Set<String> uniqueTokens(Iterable<String> tokens) {
+        Set<String> unique = new LinkedHashSet<>();
+        if (tokens != null) {
+            tokens.forEach(t -> {
+                if (t != null && !t.isBlank()) unique.add(t);
+            });
+        }
+        return unique;
+    }
+
+    // ===========================================
+    // HÀNG ĐỢI
+    // ===========================================
+    private void enqueue(PushJob job) {
+        try {
+            senders.execute(() -> deliver(job));
+        } catch (RejectedExecutionException e) {
+            droppedCounter.increment();
+            log.warn("FCM queue full/shutdown → drop push token={}", mask(job.token()));
+        }
+    }
+
+    private void deliver(PushJob job) {
+        Attempt a;
+        try {
+            a = attempt(job);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        switch (a.outcome()) {
+            case SENT -> sentCounter.increment();
+            case PRUNE -> prune(job.token());
+            case RETRY -> retry(job, a.retryAfterMs(), a.detail());
+            case FAILED -> {
+                failedCounter.increment();
+                log.error("FCM SEND FAILED token={}: {}", mask(job.token()), a.detail());
+            }
+        }
+    }
+
+    /** Gọi FCM 1 lần (401 → refresh access token rồi gửi lại) và phân loại kết quả. */
+    private Attempt attempt(PushJob job) throws InterruptedException {
+        try {
+            HttpResponse<String> resp = latencyTimer.recordCallable(() -> post(job.body(), false));
+            if (resp.statusCode() == 401) {
+                // Token bị thu hồi trước hạn → refresh cưỡng bức rồi gửi lại 1 lần
+                resp = latencyTimer.recordCallable(() -> post(job.body(), true));
+            }
+            return new Attempt(classify(resp.statusCode(), resp.body()), retryAfterMs(resp),
+                    resp.statusCode() + " " + resp.body());
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            return new Attempt(Outcome.RETRY, -1, e.getMessage());
+        }
+    }
+
+    /** 1 lần POST tới FCM qua guard "fcm" (package-private để test thay bằng phản hồi giả). */
+    HttpResponse<String> post(String body, boolean forceRefresh) throws Exception {
+        HttpRequest req = HttpRequest.newBuilder(sendUri)
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/json; charset=UTF-8")
+                .header("Authorization", "Bearer " + accessToken(forceRefresh))
+                .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
+                .build();
+        // Circuit mở → UpstreamUnavailableException → xử lý như lỗi tạm (thử lại sau backoff)
+        return guard.call(() -> http.send(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)),
+                HttpResponse::statusCode);
+    }
 
+    private void retry(PushJob job, long retryAfterMs, String detail) {
+        if (job.attempt() >= maxAttempts) {
+            failedCounter.increment();
+            log.error("FCM SEND FAILED sau {} lần token={}: {}", job.attempt(), mask(job.token()), detail);
+            return;
+        }
+        long delay = retryAfterMs > 0 ? retryAfterMs : backoffDelay(job.attempt());
+        retryCounter.increment();
+        log.debug("FCM retry #{} token={} sau {}ms: {}", job.attempt(), mask(job.token()), delay, detail);
         try {
-            String url = "https://fcm.googleapis.com/v1/projects/" + projectId + "/messages:send";
-
-            Map<String, Object> body = Map.of(
-                    "message", Map.of(
-                            "token", token,
-                            "notification", Map.of(
-                                    "title", n.getTitle(),
-                                    "body", n.getMessage()
-                            ),
-                            "data", extra != null ? extra : Map.of()
-                    )
-            );
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.setBearerAuth(getAccessToken());
-
-            HttpEntity<Object> req = new HttpEntity<>(body, headers);
-            ResponseEntity<String> resp = restTemplate.postForEntity(url, req, String.class);
-
-            log.info("FCM sent to {} => {}", token, resp.getStatusCode());
+            retryTimer.schedule(() -> enqueue(job.next()), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            droppedCounter.increment();
+        }
+    }
+
+    /** backoff * 2^(attempt-1) + jitter, tối đa 60s. */
+    private long backoffDelay(int attempt) {
+        long base = backoffMs << Math.min(attempt - 1, 16);
+        return Math.min(MAX_BACKOFF_MS, base + ThreadLocalRandom.current().nextLong(backoffMs));
+    }
+
+    private void prune(String token) {
+        try {
+            Integer n = tx.execute(st -> deviceTokenRepo.deleteByToken(token));
+            prunedCounter.increment();
+            log.info("FCM token không còn hiệu lực → xoá {} device token {}", n, mask(token));
         } catch (Exception e) {
-            log.error("FCM SEND FAILED: {}", e.getMessage());
+            log.warn("Không xoá được device token {}: {}", mask(token), e.getMessage());
         }
     }
 
     // ===========================================
-    // 🔥 Gửi tới nhiều token
+    // PHÂN LOẠI PHẢN HỒI FCM
     // ===========================================
-    @Override
-    public void sendToTokens(Iterable<String> tokens, Notification n, Map<String, String> extra) {
-        if (tokens == null) return;
-        tokens.forEach(token -> sendToToken(token, n, extra));
+
+    /**
+     * 2xx → SENT; errorCode UNREGISTERED hoặc 400 INVALID_ARGUMENT do token sai → PRUNE;
+     * 404 khác (NOT_FOUND tạm thời, sai route...), 429, 5xx → RETRY;
+     * còn lại (payload sai, 403 sender mismatch...) → FAILED.
+     * Đọc errorCode trong error.details thay vì tìm chuỗi → token chỉ bị xoá khi FCM nói rõ.
+     */
+    static Outcome classify(int status, String body) {
+        if (status >= 200 && status < 300) return Outcome.SENT;
+        JsonNode error = readError(body);
+        if ("UNREGISTERED".equals(fcmErrorCode(error))) return Outcome.PRUNE;
+        if (status == 400 && isInvalidToken(error)) return Outcome.PRUNE;
+        if (status == 404 || status == 429 || status >= 500) return Outcome.RETRY;
+        return Outcome.FAILED;
+    }
+
+    private static JsonNode readError(String body) {
+        if (body == null || body.isBlank()) return ERROR_READER.missingNode();
+        try {
+            return ERROR_READER.readTree(body).path("error");
+        } catch (IOException e) {
+            return ERROR_READER.missingNode();
+        }
+    }
+
+    /** errorCode của FcmError trong error.details (UNREGISTERED, INVALID_ARGUMENT, QUOTA_EXCEEDED...). */
+    private static String fcmErrorCode(JsonNode error) {
+        for (JsonNode d : error.path("details")) {
+            if (d.hasNonNull("errorCode")) return d.get("errorCode").asText();
+        }
+        return null;
+    }
+
+    /** INVALID_ARGUMENT chỉ vì token: BadRequest trỏ vào message.token hoặc message nói về registration token. */
+    private static boolean isInvalidToken(JsonNode error) {
+        boolean invalidArgument = "INVALID_ARGUMENT".equals(error.path("status").asText())
+                || "INVALID_ARGUMENT".equals(fcmErrorCode(error));
+        if (!invalidArgument) return false;
+        for (JsonNode d : error.path("details")) {
+            for (JsonNode v : d.path("fieldViolations")) {
+                if ("message.token".equals(v.path("field").asText())) return true;
+            }
+        }
+        return error.path("message").asText().contains("registration token");
+    }
+
+    private static long retryAfterMs(HttpResponse<?> resp) {
+        return resp.headers().firstValue("Retry-After").map(v -> {
+            try {
+                return Math.min(MAX_BACKOFF_MS, Long.parseLong(v.trim()) * 1000);
+            } catch (NumberFormatException e) {
+                return -1L;
+            }
+        }).orElse(-1L);
+    }
+
+    // ===========================================
+    // 🔥 Access Token FCM HTTP v1 (cache tới khi hết hạn)
+    // ===========================================
+    private String accessToken(boolean forceRefresh) throws IOException {
+        GoogleCredentials c = credentials();
+        if (forceRefresh) {
+            c.refresh();
+        } else {
+            // Chỉ gọi OAuth khi token sắp hết hạn; thread-safe bên trong thư viện
+            c.refreshIfExpired();
+        }
+        return c.getAccessToken().getTokenValue();
+    }
+
+    private GoogleCredentials credentials() throws IOException {
+        GoogleCredentials c = credentials;
+        if (c == null) {
+            synchronized (this) {
+                c = credentials;
+                if (c == null) {
+                    c = GoogleCredentials
+                            .fromStream(new ByteArrayInputStream(firebaseCredentials.getBytes(StandardCharsets.UTF_8)))
+                            .createScoped(SCOPES);
+                    credentials = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    // ===========================================
+    // PAYLOAD
+    // ===========================================
+    private String buildBody(String token, Notification n, Map<String, String> extra) {
+        ObjectNode root = objectMapper.createObjectNode();
+        ObjectNode message = root.putObject("message");
+        message.put("token", token);
+        ObjectNode notification = message.putObject("notification");
+        notification.put("title", n.getTitle());
+        notification.put("body", n.getMessage());
+        ObjectNode data = message.putObject("data");
+        if (extra != null) {
+            extra.forEach((k, v) -> {
+                if (k != null && v != null) data.put(k, v);
+            });
+        }
+        return root.toString();
+    }
+
+    private static String mask(String token) {
+        return token.length() <= 12 ? token : token.substring(0, 12) + "…";
+    }
+
+    private static ThreadFactory daemon(String prefix) {
+        AtomicInteger seq = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + seq.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
     }
 }
@@ -1,26 +1,74 @@
 package org.example.audio_ecommerce.service.Impl;
 
-import lombok.RequiredArgsConstructor;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.example.audio_ecommerce.dto.request.GhnFeeRequest;
 import org.example.audio_ecommerce.service.GhnFeeService;
+import org.example.audio_ecommerce.util.SingleFlightCache;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Báo giá phí GHN có cache: key = request đã chuẩn hoá (quận/phường 2 đầu, cân nặng làm tròn lên theo bucket,
+ * kích thước, dịch vụ, bảo hiểm, coupon, kích thước/cân nặng từng item — bỏ tên item vì không ảnh hưởng phí).
+ * TTL + LRU giới hạn kích thước; nhiều request giống hệt cùng lúc chỉ gọi GHN 1 lần.
+ * Chỉ cache báo giá thành công (code = 200); JSON được parse 1 lần khi nạp.
+ */
 @Service
-@RequiredArgsConstructor
 public class GhnFeeServiceImpl implements GhnFeeService {
 
-    private final RestTemplate restTemplate;
+    /** Báo giá đã parse sẵn. */
+    record FeeQuote(String raw, boolean ok, BigDecimal total) {}
+
+    record ItemKey(Integer quantity, Integer length, Integer width, Integer height, Integer weight) {}
 
-    @Value("${ghn.token}")
-    private String ghnToken;
+    record FeeQuoteKey(Integer serviceTypeId,
+                       Integer fromDistrictId, String fromWardCode,
+                       Integer toDistrictId, String toWardCode,
+                       Integer weight, Integer length, Integer width, Integer height,
+                       Integer insuranceValue, String coupon,
+                       List<ItemKey> items) {}
 
-    @Value("${ghn.shopId}")
-    private String ghnShopId;
+    private static final Comparator<ItemKey> ITEM_ORDER = Comparator
+            .comparing(ItemKey::quantity, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(ItemKey::length, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(ItemKey::width, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(ItemKey::height, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(ItemKey::weight, Comparator.nullsFirst(Comparator.naturalOrder()));
 
-    private static final String BASE_URL = "https://online-gateway.ghn.vn/shiip/public-api";
+    private final RestTemplate restTemplate;
+    private final ObjectMapper objectMapper;
+    private final String ghnToken;
+    private final String ghnShopId;
+    private final String baseUrl;
+    private final int weightBucketGrams;
+    private final SingleFlightCache<FeeQuoteKey, FeeQuote> cache;
+
+    public GhnFeeServiceImpl(RestTemplate restTemplate,
+                             ObjectMapper objectMapper,
+                             MeterRegistry meterRegistry,
+                             @Value("${ghn.token}") String ghnToken,
+                             @Value("${ghn.shopId}") String ghnShopId,
+                             @Value("${ghn.base-url:https://online-gateway.ghn.vn/shiip/public-api}") String baseUrl,
+                             @Value("${ghn.fee-cache.ttl-ms:600000}") long ttlMs,
+                             @Value("${ghn.fee-cache.max-size:10000}") int maxSize,
+                             @Value("${ghn.fee-cache.weight-bucket-grams:50}") int weightBucketGrams) {
+        this.restTemplate = restTemplate;
+        this.objectMapper = objectMapper;
+        this.ghnToken = ghnToken;
+        this.ghnShopId = ghnShopId;
+        this.baseUrl = baseUrl;
+        this.weightBucketGrams = Math.max(1, weightBucketGrams);
+        this.cache = new SingleFlightCache<>("ghn.fee", ttlMs, maxSize, FeeQuote::ok, meterRegistry);
+    }
 
     private HttpHeaders headers() {
         HttpHeaders h = new HttpHeaders();
@@ -32,10 +80,82 @@ public class GhnFeeServiceImpl implements GhnFeeService {
 
     @Override
     public String calculateFeeRaw(GhnFeeRequest req) {
+        return quote(req).raw();
+    }
+
+    @Override
+    public BigDecimal quoteTotalFee(GhnFeeRequest req) {
+        return quote(req).total();
+    }
+
+    private FeeQuote quote(GhnFeeRequest req) {
+        GhnFeeRequest normalized = normalize(req);
+        return cache.get(keyOf(normalized), k -> fetch(normalized));
+    }
+
+    private FeeQuote fetch(GhnFeeRequest req) {
         HttpEntity<GhnFeeRequest> entity = new HttpEntity<>(req, headers());
         ResponseEntity<String> resp = restTemplate.exchange(
-                BASE_URL + "/v2/shipping-order/fee",
+                baseUrl + "/v2/shipping-order/fee",
                 HttpMethod.POST, entity, String.class);
-        return resp.getBody();
+        return parse(resp.getBody());
+    }
+
+    private FeeQuote parse(String raw) {
+        try {
+            JsonNode node = objectMapper.readTree(raw);
+            boolean ok = node.path("code").asInt() == 200;
+            return new FeeQuote(raw, ok, BigDecimal.valueOf(node.path("data").path("total").asLong(0L)));
+        } catch (Exception e) {
+            return new FeeQuote(raw, false, BigDecimal.ZERO);
+        }
+    }
+
+    // ===========================================
+    // CHUẨN HOÁ REQUEST → KEY
+    // ===========================================
+
+    /** Bản sao request với cân nặng làm tròn lên bội số của bucket (báo giá đúng cho cân nặng đã làm tròn). */
+    private GhnFeeRequest normalize(GhnFeeRequest req) {
+        GhnFeeRequest n = new GhnFeeRequest();
+        n.setService_type_id(req.getService_type_id());
+        n.setFrom_district_id(req.getFrom_district_id());
+        n.setFrom_ward_code(trim(req.getFrom_ward_code()));
+        n.setTo_district_id(req.getTo_district_id());
+        n.setTo_ward_code(trim(req.getTo_ward_code()));
+        n.setWeight(roundUpWeight(req.getWeight()));
+        n.setLength(req.getLength());
+        n.setWidth(req.getWidth());
+        n.setHeight(req.getHeight());
+        n.setInsurance_value(req.getInsurance_value() == null ? 0 : req.getInsurance_value());
+        n.setCoupon(req.getCoupon() == null || req.getCoupon().isBlank() ? null : req.getCoupon().trim());
+        n.setItems(req.getItems());
+        return n;
+    }
+
+    private FeeQuoteKey keyOf(GhnFeeRequest n) {
+        List<ItemKey> items = new ArrayList<>();
+        if (n.getItems() != null) {
+            for (GhnFeeRequest.FeeItem i : n.getItems()) {
+                items.add(new ItemKey(i.getQuantity(), i.getLength(), i.getWidth(), i.getHeight(), i.getWeight()));
+            }
+            items.sort(ITEM_ORDER);
+        }
+        return new FeeQuoteKey(n.getService_type_id(),
+                n.getFrom_district_id(), n.getFrom_ward_code(),
+                n.getTo_district_id(), n.getTo_ward_code(),
+                n.getWeight(), n.getLength(), n.getWidth(), n.getHeight(),
+                n.getInsurance_value(), n.getCoupon(),
+                List.copyOf(items));
+    }
+
+    private Integer roundUpWeight(Integer grams) {
+        if (grams == null) return null;
+        int w = Math.max(grams, 1);
+        return ((w + weightBucketGrams - 1) / weightBucketGrams) * weightBucketGrams;
+    }
+
+    private static String trim(String s) {
+        return s == null ? null : s.trim();
     }
 }
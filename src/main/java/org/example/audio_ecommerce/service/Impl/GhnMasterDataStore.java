@@ -0,0 +1,374 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.exception.ResourceNotFoundException;
+import org.example.audio_ecommerce.exception.UpstreamUnavailableException;
+import org.example.audio_ecommerce.util.TokenBucketRateLimiter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.*;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Master data GHN (tỉnh, quận, phường, ca lấy hàng) giữ trong bộ nhớ:
+ * - Khởi động: nạp snapshot file (nếu có) → phục vụ ngay, không cần GHN.
+ * - Key chưa có (quận / phường của tỉnh mới chọn) → gọi GHN 1 lần rồi giữ lại, đánh dấu snapshot cần ghi
+ *   (id chỉ được nạp khi có trong danh sách cha đã cache: tỉnh trong provinces, quận trong các danh sách quận
+ *   → id client gửi bừa trả 404, không gọi GHN và không làm map phình)
+ *   (scheduler ghi gộp định kỳ → nhiều key mới chỉ tốn 1 lần ghi file).
+ * - Scheduler làm mới định kỳ mọi key đã biết (giới hạn tốc độ), ghi lại snapshot.
+ * - GHN lỗi → giữ nguyên dữ liệu cũ; chỉ báo 503 khi chưa từng có dữ liệu cho key đó.
+ * Chỉ lưu response code = 200; mỗi entry kèm ETag tính từ nội dung.
+ */
+@Slf4j
+@Service
+public class GhnMasterDataStore {
+
+    /** Nội dung JSON gốc GHN + ETag (nội dung đổi → ETag đổi). */
+    public record MasterData(String body, String etag, LocalDateTime fetchedAt) {}
+
+    private final RestTemplate restTemplate;
+    private final ObjectMapper objectMapper;
+    private final String ghnToken;
+    private final String baseUrl;
+    private final Path snapshotFile;
+    private final TokenBucketRateLimiter refreshLimiter;
+
+    private volatile MasterData provinces;
+    private volatile MasterData pickShifts;
+    private final Map<Integer, MasterData> districtsByProvince = new ConcurrentHashMap<>();
+    private final Map<Integer, MasterData> wardsByDistrict = new ConcurrentHashMap<>();
+
+    // Id hợp lệ lấy từ danh sách cha đã cache → chặn id lạ trước khi gọi GHN
+    private volatile Set<Integer> provinceIds = Set.of();
+    private final Set<Integer> knownDistrictIds = ConcurrentHashMap.newKeySet();
+
+    // Có key nạp lười chưa ghi xuống snapshot
+    private final AtomicBoolean snapshotDirty = new AtomicBoolean();
+
+    private final Counter upstreamCalls;
+    private final Counter upstreamFailures;
+
+    public GhnMasterDataStore(RestTemplate restTemplate,
+                              ObjectMapper objectMapper,
+                              MeterRegistry meterRegistry,
+                              @Value("${ghn.token}") String ghnToken,
+                              @Value("${ghn.base-url:https://online-gateway.ghn.vn/shiip/public-api}") String baseUrl,
+                              @Value("${ghn.master-data.snapshot-file:./data/ghn-master-data.json}") String snapshotFile,
+                              @Value("${ghn.master-data.refresh-rate-per-second:5}") double refreshRatePerSecond) {
+        this.restTemplate = restTemplate;
+        this.objectMapper = objectMapper;
+        this.ghnToken = ghnToken;
+        this.baseUrl = baseUrl;
+        this.snapshotFile = Path.of(snapshotFile);
+        this.refreshLimiter = new TokenBucketRateLimiter(refreshRatePerSecond, 1);
+
+        this.upstreamCalls = meterRegistry.counter("ghn.master_data.upstream", "result", "ok");
+        this.upstreamFailures = meterRegistry.counter("ghn.master_data.upstream", "result", "error");
+        meterRegistry.gauge("ghn.master_data.entries", this, s -> s.districtsByProvince.size() + s.wardsByDistrict.size());
+    }
+
+    // ========================================================
+    // ĐỌC (controller)
+    // ========================================================
+
+    public MasterData provinces() {
+        MasterData d = provinces;
+        if (d != null) return d;
+        synchronized (this) {
+            if (provinces == null) {
+                setProvinces(fetchOrThrow(this::fetchProvinces, "provinces"));
+                snapshotDirty.set(true);
+            }
+            return provinces;
+        }
+    }
+
+    public MasterData districts(int provinceId) {
+        MasterData d = districtsByProvince.get(provinceId);
+        if (d != null) return d;
+        provinces();
+        if (!provinceIds.contains(provinceId)) {
+            throw new ResourceNotFoundException("Không tìm thấy tỉnh/thành GHN: " + provinceId);
+        }
+        d = lazy(districtsByProvince, provinceId, () -> fetchDistricts(provinceId), "districts ");
+        knownDistrictIds.addAll(idsOf(d, "DistrictID"));
+        return d;
+    }
+
+    /** Quận phải thuộc danh sách quận đã tải (client luôn chọn tỉnh → quận trước khi lấy phường). */
+    public MasterData wards(int districtId) {
+        MasterData d = wardsByDistrict.get(districtId);
+        if (d != null) return d;
+        if (!knownDistrictIds.contains(districtId)) {
+            throw new ResourceNotFoundException("Không tìm thấy quận/huyện GHN: " + districtId);
+        }
+        return lazy(wardsByDistrict, districtId, () -> fetchWards(districtId), "wards ");
+    }
+
+    /**
+     * Gọi GHN NGOÀI computeIfAbsent (không giữ khoá bin của ConcurrentHashMap suốt lời gọi HTTP,
+     * không chặn các key khác cùng bin); 2 luồng cùng nạp 1 key thì bản ghi trước thắng.
+     */
+    private MasterData lazy(Map<Integer, MasterData> map, int id, Fetch fetch, String what) {
+        MasterData d = map.get(id);
+        if (d != null) return d;
+        MasterData fetched = fetchOrThrow(fetch, what + id);
+        MasterData existing = map.putIfAbsent(id, fetched);
+        if (existing != null) return existing;
+        snapshotDirty.set(true);
+        return fetched;
+    }
+
+    public MasterData pickShifts() {
+        MasterData d = pickShifts;
+        if (d != null) return d;
+        synchronized (this) {
+            if (pickShifts == null) {
+                pickShifts = fetchOrThrow(this::fetchPickShifts, "pick-shifts");
+                snapshotDirty.set(true);
+            }
+            return pickShifts;
+        }
+    }
+
+    // ========================================================
+    // LÀM MỚI (scheduler)
+    // ========================================================
+
+    /** Làm mới tỉnh + mọi quận / phường đã biết; lỗi từng key bỏ qua (giữ bản cũ). Trả về số key đã cập nhật. */
+    public int refreshAll() {
+        int n = 0;
+        MasterData p = tryFetch(this::fetchProvinces);
+        if (p != null) {
+            setProvinces(p);
+            n++;
+        }
+        for (Integer provinceId : List.copyOf(districtsByProvince.keySet())) {
+            refreshLimiter.acquire();
+            MasterData d = tryFetch(() -> fetchDistricts(provinceId));
+            if (d != null) {
+                districtsByProvince.put(provinceId, d);
+                knownDistrictIds.addAll(idsOf(d, "DistrictID"));
+                n++;
+            }
+        }
+        for (Integer districtId : List.copyOf(wardsByDistrict.keySet())) {
+            refreshLimiter.acquire();
+            MasterData d = tryFetch(() -> fetchWards(districtId));
+            if (d != null) {
+                wardsByDistrict.put(districtId, d);
+                n++;
+            }
+        }
+        saveSnapshot();
+        return n;
+    }
+
+    /** Ca lấy hàng đổi theo ngày → làm mới dày hơn. */
+    public boolean refreshPickShifts() {
+        MasterData d = tryFetch(this::fetchPickShifts);
+        if (d == null) return false;
+        pickShifts = d;
+        return true;
+    }
+
+    // ========================================================
+    // GỌI GHN
+    // ========================================================
+
+    private interface Fetch {
+        MasterData get();
+    }
+
+    private MasterData fetchProvinces() {
+        return call(HttpMethod.GET, "/master-data/province", null);
+    }
+
+    private MasterData fetchDistricts(int provinceId) {
+        return call(HttpMethod.POST, "/master-data/district", "{\"province_id\":" + provinceId + "}");
+    }
+
+    private MasterData fetchWards(int districtId) {
+        return call(HttpMethod.POST, "/master-data/ward?district_id=" + districtId,
+                "{\"district_id\":" + districtId + "}");
+    }
+
+    private MasterData fetchPickShifts() {
+        return call(HttpMethod.GET, "/v2/shift/date", null);
+    }
+
+    private MasterData call(HttpMethod method, String path, String body) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Token", ghnToken);
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        ResponseEntity<String> resp = restTemplate.exchange(baseUrl + path, method,
+                new HttpEntity<>(body, headers), String.class);
+        String json = resp.getBody();
+        if (!isSuccess(json)) {
+            throw new IllegalStateException("GHN " + path + " trả về lỗi: " + json);
+        }
+        upstreamCalls.increment();
+        return entry(json, LocalDateTime.now());
+    }
+
+    private MasterData fetchOrThrow(Fetch fetch, String what) {
+        try {
+            return fetch.get();
+        } catch (UpstreamUnavailableException e) {
+            upstreamFailures.increment();
+            throw e;
+        } catch (Exception e) {
+            upstreamFailures.increment();
+            log.warn("[GHN MasterData] Không tải được {}: {}", what, e.getMessage());
+            throw new UpstreamUnavailableException("ghn", "master data " + what + " chưa có trong snapshot");
+        }
+    }
+
+    private MasterData tryFetch(Fetch fetch) {
+        try {
+            return fetch.get();
+        } catch (Exception e) {
+            upstreamFailures.increment();
+            log.warn("[GHN MasterData] Refresh lỗi, giữ dữ liệu cũ: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean isSuccess(String json) {
+        try {
+            return json != null && objectMapper.readTree(json).path("code").asInt() == 200;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // ========================================================
+    // SNAPSHOT
+    // ========================================================
+
+    @PostConstruct
+    public void loadSnapshot() {
+        if (!Files.isRegularFile(snapshotFile)) {
+            log.info("[GHN MasterData] Chưa có snapshot {} → nạp dần từ GHN", snapshotFile);
+            return;
+        }
+        try {
+            JsonNode root = objectMapper.readTree(snapshotFile.toFile());
+            LocalDateTime savedAt = root.hasNonNull("savedAt")
+                    ? LocalDateTime.parse(root.get("savedAt").asText())
+                    : LocalDateTime.now();
+            if (root.hasNonNull("provinces")) setProvinces(entry(root.get("provinces").asText(), savedAt));
+            if (root.hasNonNull("pickShifts")) pickShifts = entry(root.get("pickShifts").asText(), savedAt);
+            readMap(root.path("districts"), districtsByProvince, savedAt);
+            districtsByProvince.values().forEach(d -> knownDistrictIds.addAll(idsOf(d, "DistrictID")));
+            readMap(root.path("wards"), wardsByDistrict, savedAt);
+            log.info("[GHN MasterData] Nạp snapshot {}: {} tỉnh có quận, {} quận có phường (lưu lúc {})",
+                    snapshotFile, districtsByProvince.size(), wardsByDistrict.size(), savedAt);
+        } catch (Exception e) {
+            log.warn("[GHN MasterData] Snapshot {} hỏng, bỏ qua: {}", snapshotFile, e.getMessage());
+        }
+    }
+
+    private void readMap(JsonNode node, Map<Integer, MasterData> target, LocalDateTime savedAt) {
+        Iterator<Map.Entry<String, JsonNode>> it = node.fields();
+        while (it.hasNext()) {
+            Map.Entry<String, JsonNode> e = it.next();
+            target.put(Integer.valueOf(e.getKey()), entry(e.getValue().asText(), savedAt));
+        }
+    }
+
+    /** Ghi snapshot nếu có key nạp lười từ lần ghi trước (scheduler gọi định kỳ = debounce). */
+    public boolean saveSnapshotIfDirty() {
+        if (!snapshotDirty.get()) return false;
+        saveSnapshot();
+        return true;
+    }
+
+    /** Ghi snapshot ra file tạm rồi move → không bao giờ để lại file ghi dở. */
+    public synchronized void saveSnapshot() {
+        // Xoá cờ trước khi chụp: key nạp trong lúc đang ghi sẽ đánh dấu lại cho lần sau
+        snapshotDirty.set(false);
+        try {
+            ObjectNode root = objectMapper.createObjectNode();
+            root.put("savedAt", LocalDateTime.now().toString());
+            if (provinces != null) root.put("provinces", provinces.body());
+            if (pickShifts != null) root.put("pickShifts", pickShifts.body());
+            ObjectNode districts = root.putObject("districts");
+            districtsByProvince.forEach((k, v) -> districts.put(String.valueOf(k), v.body()));
+            ObjectNode wards = root.putObject("wards");
+            wardsByDistrict.forEach((k, v) -> wards.put(String.valueOf(k), v.body()));
+
+            Path dir = snapshotFile.toAbsolutePath().getParent();
+            if (dir != null) Files.createDirectories(dir);
+            Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+            objectMapper.writeValue(tmp.toFile(), root);
+            Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            snapshotDirty.set(true);
+            log.warn("[GHN MasterData] Không ghi được snapshot {}: {}", snapshotFile, e.getMessage());
+        }
+    }
+
+    // ========================================================
+    // ID HỢP LỆ
+    // ========================================================
+
+    private void setProvinces(MasterData d) {
+        provinceIds = Set.copyOf(idsOf(d, "ProvinceID"));
+        provinces = d;
+    }
+
+    /** Các giá trị field id trong mảng data của response GHN; body hỏng → rỗng. */
+    private Set<Integer> idsOf(MasterData d, String field) {
+        Set<Integer> ids = new HashSet<>();
+        try {
+            for (JsonNode item : objectMapper.readTree(d.body()).path("data")) {
+                if (item.hasNonNull(field)) ids.add(item.get(field).asInt());
+            }
+        } catch (IOException e) {
+            log.warn("[GHN MasterData] Không đọc được {} từ master data: {}", field, e.getMessage());
+        }
+        return ids;
+    }
+
+    // ========================================================
+    // ETAG
+    // ========================================================
+
+    private static MasterData entry(String body, LocalDateTime fetchedAt) {
+        return new MasterData(body, etagOf(body), fetchedAt);
+    }
+
+    static String etagOf(String body) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(body.getBytes(StandardCharsets.UTF_8));
+            return "\"" + HexFormat.of().formatHex(hash, 0, 16) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,8 +1,7 @@
 package org.example.audio_ecommerce.service.Impl;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import lombok.RequiredArgsConstructor;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.example.audio_ecommerce.entity.*;
 import org.example.audio_ecommerce.entity.Enum.GhnStatus;
@@ -14,22 +13,33 @@ import org.example.audio_ecommerce.repository.CustomerOrderRepository;
 import org.example.audio_ecommerce.repository.GhnOrderRepository;
 import org.example.audio_ecommerce.repository.ReturnShippingFeeRepository;
 import org.example.audio_ecommerce.repository.StoreOrderRepository;
+import org.example.audio_ecommerce.util.TokenBucketRateLimiter;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.client.RestTemplate;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
-import java.util.EnumSet;
-import java.util.List;
-import java.util.Objects;
-
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Đồng bộ trạng thái GHN theo kiểu poll:
+ * - Lấy theo trang các order active đã tới hạn poll (nextSyncAt), updatedAt cũ nhất trước.
+ * - Gọi /detail song song trên pool giới hạn + token bucket để không vượt quota GHN.
+ * - Mỗi order ghi trong transaction ngắn riêng; status không đổi thì không ghi entity.
+ * - Tần suất poll thích ứng theo status: đang giao poll dày, đang luân chuyển / hoàn hàng poll thưa.
+ */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class GhnStatusSyncService {
 
     private final RestTemplate restTemplate;
@@ -39,12 +49,12 @@ public class GhnStatusSyncService {
     private final ObjectMapper objectMapper;
     private final ReturnShippingFeeRepository returnShippingFeeRepo;
     private final SettlementService settlementService;
-
-    @Value("${ghn.token}")
-    private String ghnToken;
-
-    private static final String BASE_URL =
-            "https://online-gateway.ghn.vn/shiip/public-api";
+    private final TransactionTemplate transactionTemplate;
+    private final TokenBucketRateLimiter rateLimiter;
+    private final ExecutorService syncExecutor;
+    private final String baseUrl;
+    private final String ghnToken;
+    private final int pageSize;
 
     // Các status GHN cần sync định kỳ (đang hoạt động)
     private static final EnumSet<GhnStatus> ACTIVE_STATUSES = EnumSet.of(
@@ -65,6 +75,48 @@ public class GhnStatusSyncService {
             // RETURNED / DELIVERED / CANCEL / LOST / DAMAGE… là trạng thái cuối → không cần spam gọi nữa
     );
 
+    // Trang tối đa mỗi lượt, tránh 1 lượt chạy kéo dài sang lượt sau
+    private static final int MAX_PAGES_PER_RUN = 50;
+
+    public GhnStatusSyncService(RestTemplate restTemplate,
+                                GhnOrderRepository ghnOrderRepo,
+                                StoreOrderRepository storeOrderRepo,
+                                CustomerOrderRepository customerOrderRepo,
+                                ObjectMapper objectMapper,
+                                ReturnShippingFeeRepository returnShippingFeeRepo,
+                                SettlementService settlementService,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${ghn.token}") String ghnToken,
+                                @Value("${ghn.base-url:https://online-gateway.ghn.vn/shiip/public-api}") String baseUrl,
+                                @Value("${ghn.sync.concurrency:8}") int concurrency,
+                                @Value("${ghn.sync.rate-per-second:10}") double ratePerSecond,
+                                @Value("${ghn.sync.page-size:200}") int pageSize) {
+        this.restTemplate = restTemplate;
+        this.ghnOrderRepo = ghnOrderRepo;
+        this.storeOrderRepo = storeOrderRepo;
+        this.customerOrderRepo = customerOrderRepo;
+        this.objectMapper = objectMapper;
+        this.returnShippingFeeRepo = returnShippingFeeRepo;
+        this.settlementService = settlementService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.ghnToken = ghnToken;
+        this.baseUrl = baseUrl;
+        this.pageSize = pageSize;
+        this.rateLimiter = new TokenBucketRateLimiter(ratePerSecond, Math.max(1, concurrency));
+
+        AtomicInteger seq = new AtomicInteger();
+        this.syncExecutor = Executors.newFixedThreadPool(concurrency, r -> {
+            Thread t = new Thread(r, "ghn-sync-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        syncExecutor.shutdownNow();
+    }
+
     private HttpHeaders createHeaders() {
         HttpHeaders headers = new HttpHeaders();
         headers.set("Token", ghnToken);
@@ -72,43 +124,94 @@ public class GhnStatusSyncService {
         return headers;
     }
 
+    /** Kết quả poll 1 order: status sau khi poll + có ghi thay đổi hay không. */
+    private record SyncOutcome(UUID ghnOrderId, GhnStatus status, boolean changed) {}
+
     /**
-     * Đồng bộ trạng thái GHN cho toàn bộ đơn đang active.
-     * Cron sẽ gọi method này.
+     * Đồng bộ trạng thái GHN cho các đơn active đã tới hạn poll.
+     * Cron sẽ gọi method này. KHÔNG mở transaction bao ngoài.
      */
-    @Transactional
     public void syncAllActiveOrders() {
-        long total = ghnOrderRepo.count();
-        log.info("👉 Tổng GHN order trong DB = {}", total);
+        int pages = 0;
+        int polled = 0;
+        int changed = 0;
+        long startedAt = System.nanoTime();
+
+        while (pages < MAX_PAGES_PER_RUN) {
+            List<GhnOrder> due = ghnOrderRepo.findDueForSync(
+                    ACTIVE_STATUSES, LocalDateTime.now(), PageRequest.of(0, pageSize));
+            if (due.isEmpty()) break;
+            pages++;
+
+            List<Future<SyncOutcome>> futures = new ArrayList<>(due.size());
+            for (GhnOrder ghnOrder : due) {
+                futures.add(syncExecutor.submit(() -> syncSingleOrder(ghnOrder)));
+            }
 
-        List<GhnOrder> all = ghnOrderRepo.findAll();
-        all.forEach(o -> log.info(" - {} | status={} (enum={})",
-                o.getOrderGhn(), o.getStatus().ordinal(), o.getStatus()));
+            List<SyncOutcome> outcomes = new ArrayList<>(due.size());
+            for (int i = 0; i < futures.size(); i++) {
+                GhnOrder ghnOrder = due.get(i);
+                try {
+                    outcomes.add(futures.get(i).get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    log.error("❌ [GHN Sync] Lỗi khi sync order_ghn={} : {}",
+                            ghnOrder.getOrderGhn(), e.getCause().getMessage(), e.getCause());
+                    outcomes.add(new SyncOutcome(ghnOrder.getId(), ghnOrder.getStatus(), false));
+                }
+            }
 
-        List<GhnOrder> ghnOrders = ghnOrderRepo.findAllByStatusIn(ACTIVE_STATUSES);
-        if (ghnOrders.isEmpty()) {
-            log.info("🔍 [GHN Sync] Không có GHN order active nào cần sync.");
-            return;
-        }
+            // Đẩy lịch poll kế tiếp theo nhóm tần suất (kể cả order lỗi → không poll dồn dập)
+            scheduleNextSync(outcomes);
+            polled += outcomes.size();
+            changed += (int) outcomes.stream().filter(SyncOutcome::changed).count();
 
-        log.info("🔍 [GHN Sync] Bắt đầu sync {} GHN orders", ghnOrders.size());
+            if (due.size() < pageSize) break;
+        }
 
-        for (GhnOrder ghnOrder : ghnOrders) {
-            try {
-                syncSingleOrder(ghnOrder);
-            } catch (Exception e) {
-                log.error("❌ [GHN Sync] Lỗi khi sync order_ghn={} : {}",
-                        ghnOrder.getOrderGhn(), e.getMessage(), e);
-            }
+        if (polled > 0) {
+            log.info("🔍 [GHN Sync] Poll {} orders ({} đổi trạng thái) trong {} ms",
+                    polled, changed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
         }
     }
 
     /**
-     * Đồng bộ 1 GHN order duy nhất
+     * Poll 1 GHN order (chạy trên pool sync). HTTP nằm ngoài transaction;
+     * chỉ khi status đổi mới mở transaction ngắn để ghi.
      */
-    private void syncSingleOrder(GhnOrder ghnOrder) throws JsonProcessingException {
-        String orderCode = ghnOrder.getOrderGhn();
-        log.info("➡ [GHN Sync] Gọi order-detail cho GHN orderCode={}", orderCode);
+    private SyncOutcome syncSingleOrder(GhnOrder snapshot) throws Exception {
+        String orderCode = snapshot.getOrderGhn();
+
+        rateLimiter.acquire();
+        GhnOrderDetail detail = fetchDetail(orderCode);
+        if (detail == null) {
+            return new SyncOutcome(snapshot.getId(), snapshot.getStatus(), false);
+        }
+
+        String ghnStatusRaw = detail.getStatus();
+        GhnStatus newStatus = GhnStatus.fromGhnCode(ghnStatusRaw);
+
+        if (newStatus == null) {
+            log.warn("⚠ [GHN Sync] orderCode={} status={} không map được vào enum GhnStatus",
+                    orderCode, ghnStatusRaw);
+            return new SyncOutcome(snapshot.getId(), snapshot.getStatus(), false);
+        }
+
+        // Không đổi trạng thái → không ghi gì
+        if (newStatus == snapshot.getStatus()) {
+            return new SyncOutcome(snapshot.getId(), newStatus, false);
+        }
+
+        // Thời điểm GHN ghi nhận status (không dùng đồng hồ local) → so thứ tự được với sự kiện webhook
+        LocalDateTime statusAt = statusTime(detail);
+        Boolean applied = transactionTemplate.execute(tx -> applyStatus(snapshot.getId(), detail, newStatus, statusAt));
+        return new SyncOutcome(snapshot.getId(), newStatus, Boolean.TRUE.equals(applied));
+    }
+
+    private GhnOrderDetail fetchDetail(String orderCode) throws Exception {
+        log.debug("➡ [GHN Sync] Gọi order-detail cho GHN orderCode={}", orderCode);
 
         String bodyJson = objectMapper.writeValueAsString(
                 java.util.Map.of("order_code", orderCode)
@@ -117,7 +220,7 @@ public class GhnStatusSyncService {
         HttpEntity<String> entity = new HttpEntity<>(bodyJson, createHeaders());
 
         ResponseEntity<GhnOrderDetailWrapper> response = restTemplate.exchange(
-                BASE_URL + "/v2/shipping-order/detail",
+                baseUrl + "/v2/shipping-order/detail",
                 HttpMethod.POST,
                 entity,
                 GhnOrderDetailWrapper.class
@@ -128,36 +231,113 @@ public class GhnStatusSyncService {
                 || response.getBody().getData() == null) {
             log.warn("⚠ [GHN Sync] orderCode={} trả về lỗi: httpStatus={}, body={}",
                     orderCode, response.getStatusCode(), response.getBody());
-            return;
+            return null;
         }
 
         GhnOrderDetailWrapper wrapper = response.getBody();
         if (wrapper.getCode() != 200) {
             log.warn("⚠ [GHN Sync] orderCode={} code={} message={}",
                     orderCode, wrapper.getCode(), wrapper.getMessage());
-            return;
+            return null;
         }
+        return wrapper.getData();
+    }
 
-        GhnOrderDetail detail = wrapper.getData();
-        String ghnStatusRaw = detail.getStatus();
-        GhnStatus newStatus = GhnStatus.fromGhnCode(ghnStatusRaw);
+    /**
+     * Thời điểm GHN ghi nhận status hiện tại của detail: mục log mới nhất cùng status,
+     * không có log thì updated_date của đơn. Không xác định được → null.
+     */
+    static LocalDateTime statusTime(GhnOrderDetail detail) {
+        LocalDateTime fromLog = null;
+        if (detail.getLog() != null) {
+            for (GhnOrderDetail.StatusLog entry : detail.getLog()) {
+                if (entry == null || entry.getStatus() == null
+                        || !entry.getStatus().equalsIgnoreCase(detail.getStatus())) continue;
+                LocalDateTime at = toLocal(entry.getUpdated_date());
+                if (at != null && (fromLog == null || at.isAfter(fromLog))) fromLog = at;
+            }
+        }
+        return fromLog != null ? fromLog : toLocal(detail.getUpdated_date());
+    }
 
-        if (newStatus == null) {
-            log.warn("⚠ [GHN Sync] orderCode={} status={} không map được vào enum GhnStatus",
-                    orderCode, ghnStatusRaw);
-            return;
+    // Cùng quy ước với webhook: đổi về giờ hệ thống
+    private static LocalDateTime toLocal(String iso) {
+        if (iso == null || iso.isBlank()) return null;
+        try {
+            return OffsetDateTime.parse(iso).atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Áp 1 trạng thái GHN mới lên GhnOrder + StoreOrder + CustomerOrder.
+     * Dùng chung cho poll và webhook. Phải gọi trong transaction. Trả về false nếu bỏ qua.
+     *
+     * @param statusAt thời điểm GHN ghi nhận trạng thái (webhook: Time, poll: log / updated_date);
+     *                 null = GHN không cho thời điểm
+     */
+    boolean applyStatus(UUID ghnOrderId, GhnOrderDetail detail, GhnStatus newStatus, LocalDateTime statusAt) {
+        GhnOrder ghnOrder = ghnOrderRepo.findById(ghnOrderId).orElse(null);
+        return ghnOrder != null && applyStatus(ghnOrder, detail, newStatus, statusAt);
+    }
+
+    boolean applyStatus(GhnOrder ghnOrder, GhnOrderDetail detail, GhnStatus newStatus, LocalDateTime statusAt) {
+        if (ghnOrder.getStatus() == newStatus) {
+            return false;
+        }
+
+        // Sự kiện / kết quả poll cũ hơn trạng thái đang lưu (tới sai thứ tự) → bỏ qua
+        if (statusAt != null && ghnOrder.getLastStatusAt() != null
+                && !statusAt.isAfter(ghnOrder.getLastStatusAt())) {
+            log.info("⏭ [GHN Sync] orderCode={} bỏ qua {} @{} (đã có trạng thái mới hơn @{})",
+                    ghnOrder.getOrderGhn(), newStatus, statusAt, ghnOrder.getLastStatusAt());
+            return false;
+        }
+        // Không có thời điểm mà đã có trạng thái có mốc thời gian → không so được thứ tự, không đè
+        if (statusAt == null && ghnOrder.getLastStatusAt() != null) {
+            log.warn("⏭ [GHN Sync] orderCode={} bỏ qua {} không có thời điểm (trạng thái hiện tại @{})",
+                    ghnOrder.getOrderGhn(), newStatus, ghnOrder.getLastStatusAt());
+            return false;
         }
 
         if (ghnOrder.getStatus() == GhnStatus.PICKED && newStatus != GhnStatus.PICKED) {
             log.info("⛔ [GHN Sync] GHN orderCode={} đang PICKED trong DB → bỏ qua, không update sang {}",
-                    orderCode, newStatus);
-            return;
+                    ghnOrder.getOrderGhn(), newStatus);
+            return false;
         }
         // 1️⃣ Cập nhật GhnOrder
+        // Chỉ lưu mốc thời gian của GHN, không bao giờ ghi đồng hồ local
+        if (statusAt != null) ghnOrder.setLastStatusAt(statusAt);
         updateGhnOrderEntity(ghnOrder, detail, newStatus);
 
         // 2️⃣ Cập nhật StoreOrder + CustomerOrder
         updateStoreAndCustomerOrder(ghnOrder, detail, newStatus);
+        return true;
+    }
+
+    private void scheduleNextSync(List<SyncOutcome> outcomes) {
+        LocalDateTime now = LocalDateTime.now();
+        Map<Duration, List<UUID>> byInterval = new HashMap<>();
+        for (SyncOutcome o : outcomes) {
+            byInterval.computeIfAbsent(pollInterval(o.status()), k -> new ArrayList<>()).add(o.ghnOrderId());
+        }
+        transactionTemplate.executeWithoutResult(tx ->
+                byInterval.forEach((interval, ids) -> ghnOrderRepo.scheduleNextSync(ids, now.plus(interval))));
+    }
+
+    /**
+     * Tần suất poll theo status: sắp tới tay khách (đang lấy / đang giao) poll mỗi phút,
+     * đang luân chuyển trong kho 5 phút, chiều hoàn hàng 15 phút.
+     */
+    static Duration pollInterval(GhnStatus status) {
+        if (status == null) return Duration.ofMinutes(1);
+        return switch (status) {
+            case READY_TO_PICK, PICKING, MONEY_COLLECT_PICKING,
+                 DELIVERING, MONEY_COLLECT_DELIVERING -> Duration.ofMinutes(1);
+            case PICKED, STORING, TRANSPORTING, SORTING -> Duration.ofMinutes(5);
+            default -> Duration.ofMinutes(15);
+        };
     }
 
     private void updateGhnOrderEntity(GhnOrder ghnOrder,
@@ -0,0 +1,355 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.dto.request.GhnWebhookRequest;
+import org.example.audio_ecommerce.entity.Enum.GhnStatus;
+import org.example.audio_ecommerce.entity.Enum.WebhookInboxStatus;
+import org.example.audio_ecommerce.entity.GhnOrder;
+import org.example.audio_ecommerce.entity.GhnWebhookInbox;
+import org.example.audio_ecommerce.integration.ghn.dto.GhnOrderDetail;
+import org.example.audio_ecommerce.repository.GhnOrderRepository;
+import org.example.audio_ecommerce.repository.GhnWebhookInboxRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Nhận webhook trạng thái từ GHN (push) thay cho poll mỗi phút:
+ * - Chỉ nhận callback có token chung ({@code ghn.webhook.token}) hoặc từ IP trong allowlist.
+ * - Ghi sự kiện vào {@link GhnWebhookInbox} (unique theo orderCode|status|time) rồi mới trả 200 →
+ *   restart không mất sự kiện, GHN gửi lại cùng callback thì bị bỏ qua nhờ unique key.
+ * - 1 worker đọc lô PENDING từ DB, gom theo orderCode, áp theo thứ tự thời gian GHN qua
+ *   {@link GhnStatusSyncService#applyStatus} và đóng row DONE trong cùng transaction.
+ * - Order áp lỗi giữ PENDING với lịch thử lại lùi dần; quá {@code max-attempts} → FAILED.
+ * - Order vừa có webhook được lùi lịch poll → poller chỉ còn đối soát các order "im lặng".
+ * - Gauge ghn.webhook.inbox.pending do worker đếm lại tối đa mỗi {@code PENDING_GAUGE_INTERVAL},
+ *   scrape metrics chỉ đọc số đã cache (không COUNT DB mỗi lần scrape).
+ */
+@Slf4j
+@Service
+public class GhnWebhookService {
+
+    private static final Duration BASE_BACKOFF = Duration.ofSeconds(30);
+    private static final Duration MAX_BACKOFF = Duration.ofMinutes(30);
+    private static final long PENDING_GAUGE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(15);
+
+    /** 1 sự kiện trạng thái đã chuẩn hoá, kèm id row inbox. */
+    record GhnStatusEvent(UUID inboxId, String orderCode, GhnStatus status, String rawStatus,
+                          LocalDateTime time, int attempts) {}
+
+    private final GhnOrderRepository ghnOrderRepo;
+    private final GhnWebhookInboxRepository inboxRepo;
+    private final GhnStatusSyncService ghnStatusSyncService;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final long quietMinutes;
+    private final int maxAttempts;
+    private final byte[] sharedToken;
+    private final Set<String> allowedIps;
+    private final Semaphore wakeup = new Semaphore(0);
+    private final AtomicLong pending = new AtomicLong();
+    private long pendingCountedAt;
+    private boolean pendingCounted;
+
+    private final Counter receivedCounter;
+    private final Counter duplicateCounter;
+    private final Counter rejectedCounter;
+    private final Counter unauthorizedCounter;
+    private final Counter appliedCounter;
+    private final Counter skippedCounter;
+    private final Counter failedCounter;
+    private final Timer batchTimer;
+
+    private volatile boolean running;
+    private Thread worker;
+
+    public GhnWebhookService(GhnOrderRepository ghnOrderRepo,
+                             GhnWebhookInboxRepository inboxRepo,
+                             GhnStatusSyncService ghnStatusSyncService,
+                             PlatformTransactionManager transactionManager,
+                             MeterRegistry meterRegistry,
+                             @Value("${ghn.webhook.batch-size:200}") int batchSize,
+                             @Value("${ghn.webhook.quiet-minutes:30}") long quietMinutes,
+                             @Value("${ghn.webhook.max-attempts:8}") int maxAttempts,
+                             @Value("${ghn.webhook.token:}") String sharedToken,
+                             @Value("${ghn.webhook.allowed-ips:}") List<String> allowedIps) {
+        this.ghnOrderRepo = ghnOrderRepo;
+        this.inboxRepo = inboxRepo;
+        this.ghnStatusSyncService = ghnStatusSyncService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+        this.quietMinutes = quietMinutes;
+        this.maxAttempts = maxAttempts;
+        this.sharedToken = sharedToken == null || sharedToken.isBlank()
+                ? null : sharedToken.getBytes(StandardCharsets.UTF_8);
+        this.allowedIps = allowedIps == null ? Set.of() : allowedIps.stream()
+                .map(String::trim).filter(s -> !s.isEmpty()).collect(Collectors.toUnmodifiableSet());
+        if (this.sharedToken == null && this.allowedIps.isEmpty()) {
+            log.warn("⚠ [GHN Webhook] Chưa cấu hình ghn.webhook.token / ghn.webhook.allowed-ips → từ chối mọi callback");
+        }
+
+        this.receivedCounter = meterRegistry.counter("ghn.webhook.events", "result", "received");
+        this.duplicateCounter = meterRegistry.counter("ghn.webhook.events", "result", "duplicate");
+        this.rejectedCounter = meterRegistry.counter("ghn.webhook.events", "result", "rejected");
+        this.unauthorizedCounter = meterRegistry.counter("ghn.webhook.events", "result", "unauthorized");
+        this.appliedCounter = meterRegistry.counter("ghn.webhook.events", "result", "applied");
+        this.skippedCounter = meterRegistry.counter("ghn.webhook.events", "result", "skipped");
+        this.failedCounter = meterRegistry.counter("ghn.webhook.events", "result", "failed");
+        this.batchTimer = meterRegistry.timer("ghn.webhook.batch");
+        meterRegistry.gauge("ghn.webhook.inbox.pending", pending, AtomicLong::get);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        worker = new Thread(this::drainLoop, "ghn-webhook-worker");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (worker != null) worker.interrupt();
+    }
+
+    /**
+     * Callback hợp lệ khi khớp token chung, hoặc đến từ IP trong allowlist.
+     * Chưa cấu hình cả hai → từ chối tất cả (fail closed), vì /api/** đang permitAll.
+     */
+    public boolean isAuthorized(String token, String remoteAddr) {
+        boolean ok = (sharedToken != null && token != null
+                && MessageDigest.isEqual(sharedToken, token.getBytes(StandardCharsets.UTF_8)))
+                || (remoteAddr != null && allowedIps.contains(remoteAddr));
+        if (!ok) {
+            unauthorizedCounter.increment();
+            log.warn("[GHN Webhook] Từ chối callback không xác thực từ {}", remoteAddr);
+        }
+        return ok;
+    }
+
+    /**
+     * Ghi 1 callback vào inbox. Trả false nếu không ghi được (controller trả 503 để GHN gửi lại).
+     */
+    public boolean enqueue(GhnWebhookRequest req) {
+        if (req == null || req.getOrderCode() == null || req.getStatus() == null) {
+            log.warn("[GHN Webhook] Payload thiếu OrderCode/Status: {}", req);
+            return true; // không retry payload hỏng
+        }
+
+        GhnStatus status = GhnStatus.fromGhnCode(req.getStatus());
+        if (status == null) {
+            log.warn("[GHN Webhook] orderCode={} status={} không map được vào enum GhnStatus",
+                    req.getOrderCode(), req.getStatus());
+            return true;
+        }
+
+        receivedCounter.increment();
+        LocalDateTime now = LocalDateTime.now();
+        GhnWebhookInbox row = GhnWebhookInbox.builder()
+                .dedupeKey(req.getOrderCode() + "|" + req.getStatus() + "|" + req.getTime())
+                .orderCode(req.getOrderCode())
+                .rawStatus(req.getStatus())
+                .eventTime(parseTime(req.getTime()))
+                .status(WebhookInboxStatus.PENDING)
+                .attempts(0)
+                .receivedAt(now)
+                .nextAttemptAt(now)
+                .build();
+
+        try {
+            inboxRepo.saveAndFlush(row);
+        } catch (DataIntegrityViolationException dup) {
+            // GHN gửi lại callback đã ghi nhận → đã có trong inbox, chỉ cần ack
+            duplicateCounter.increment();
+            return true;
+        } catch (Exception e) {
+            rejectedCounter.increment();
+            log.warn("[GHN Webhook] Không ghi được inbox orderCode={}: {}", req.getOrderCode(), e.getMessage());
+            return false;
+        }
+
+        wakeup.release();
+        return true;
+    }
+
+    private void drainLoop() {
+        while (running) {
+            try {
+                refreshPendingGauge();
+                List<GhnWebhookInbox> due = inboxRepo.findDue(LocalDateTime.now(), PageRequest.of(0, batchSize));
+                if (due.isEmpty()) {
+                    // Chờ tín hiệu có sự kiện mới; hết giờ thì quét lại các row tới lịch thử lại
+                    wakeup.tryAcquire(1, TimeUnit.SECONDS);
+                    wakeup.drainPermits();
+                    continue;
+                }
+                batchTimer.record(() -> processBatch(due));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("❌ [GHN Webhook] Lỗi đọc/xử lý inbox: {}", e.getMessage(), e);
+                try {
+                    TimeUnit.SECONDS.sleep(1);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Chỉ worker gọi (mỗi vòng lặp); đếm lại khi đã quá PENDING_GAUGE_INTERVAL kể từ lần trước. */
+    void refreshPendingGauge() {
+        long now = System.nanoTime();
+        if (pendingCounted && now - pendingCountedAt < PENDING_GAUGE_INTERVAL_NANOS) return;
+        pendingCounted = true;
+        pendingCountedAt = now;
+        pending.set(inboxRepo.countByStatus(WebhookInboxStatus.PENDING));
+    }
+
+    /**
+     * Áp 1 lô sự kiện trong 1 transaction; lô lỗi thì tách ra áp từng order để 1 đơn hỏng không chặn cả lô.
+     * Order vẫn lỗi → ghi nhận thất bại, row giữ PENDING để thử lại (hoặc FAILED khi quá số lần).
+     */
+    void processBatch(List<GhnWebhookInbox> rows) {
+        List<UUID> unmapped = new ArrayList<>();
+        List<GhnStatusEvent> events = new ArrayList<>(rows.size());
+        for (GhnWebhookInbox row : rows) {
+            GhnStatus status = GhnStatus.fromGhnCode(row.getRawStatus());
+            if (status == null) {
+                unmapped.add(row.getId());
+                continue;
+            }
+            events.add(new GhnStatusEvent(row.getId(), row.getOrderCode(), status, row.getRawStatus(),
+                    row.getEventTime(), row.getAttempts()));
+        }
+        if (!unmapped.isEmpty()) {
+            transactionTemplate.executeWithoutResult(tx -> inboxRepo.markDone(unmapped, LocalDateTime.now()));
+        }
+
+        // Gom theo orderCode, sắp theo thời gian GHN tăng dần
+        Map<String, List<GhnStatusEvent>> byOrder = events.stream()
+                .collect(Collectors.groupingBy(GhnStatusEvent::orderCode, LinkedHashMap::new, Collectors.toList()));
+        byOrder.values().forEach(group -> group.sort(
+                Comparator.comparing(GhnStatusEvent::time, Comparator.nullsLast(Comparator.naturalOrder()))));
+
+        try {
+            transactionTemplate.executeWithoutResult(tx -> applyAndClose(byOrder));
+        } catch (Exception batchError) {
+            log.warn("[GHN Webhook] Lô {} order lỗi ({}), áp lại từng order", byOrder.size(), batchError.getMessage());
+            for (Map.Entry<String, List<GhnStatusEvent>> entry : byOrder.entrySet()) {
+                try {
+                    transactionTemplate.executeWithoutResult(tx -> applyAndClose(Map.of(entry.getKey(), entry.getValue())));
+                } catch (Exception e) {
+                    log.error("❌ [GHN Webhook] Không áp được orderCode={}: {}", entry.getKey(), e.getMessage(), e);
+                    recordFailure(entry.getValue(), e);
+                }
+            }
+        }
+    }
+
+    private void applyAndClose(Map<String, List<GhnStatusEvent>> byOrder) {
+        applyGroups(byOrder);
+        List<UUID> ids = byOrder.values().stream().flatMap(List::stream).map(GhnStatusEvent::inboxId).toList();
+        inboxRepo.markDone(ids, LocalDateTime.now());
+    }
+
+    private void recordFailure(List<GhnStatusEvent> group, Exception cause) {
+        int attempts = group.stream().mapToInt(GhnStatusEvent::attempts).max().orElse(0) + 1;
+        List<UUID> ids = group.stream().map(GhnStatusEvent::inboxId).toList();
+        String error = String.valueOf(cause.getMessage());
+        if (error.length() > 1000) error = error.substring(0, 1000);
+        LocalDateTime now = LocalDateTime.now();
+        boolean giveUp = attempts >= maxAttempts;
+        String lastError = error;
+        try {
+            transactionTemplate.executeWithoutResult(tx -> inboxRepo.recordFailure(ids,
+                    giveUp ? WebhookInboxStatus.FAILED : WebhookInboxStatus.PENDING,
+                    lastError,
+                    now.plus(backoff(attempts)),
+                    giveUp ? now : null));
+        } catch (Exception e) {
+            // Không ghi được → row vẫn PENDING, worker sẽ thử lại ở vòng sau
+            log.error("❌ [GHN Webhook] Không ghi nhận được lỗi cho orderCode={}: {}",
+                    group.get(0).orderCode(), e.getMessage());
+            return;
+        }
+        if (giveUp) {
+            failedCounter.increment(ids.size());
+            log.error("[GHN Webhook] orderCode={} FAILED sau {} lần thử", group.get(0).orderCode(), attempts);
+        }
+    }
+
+    static Duration backoff(int attempts) {
+        Duration d = BASE_BACKOFF.multipliedBy(1L << Math.min(Math.max(attempts - 1, 0), 16));
+        return d.compareTo(MAX_BACKOFF) > 0 ? MAX_BACKOFF : d;
+    }
+
+    private void applyGroups(Map<String, List<GhnStatusEvent>> byOrder) {
+        Map<String, GhnOrder> orders = ghnOrderRepo.findAllByOrderGhnIn(byOrder.keySet()).stream()
+                .collect(Collectors.toMap(GhnOrder::getOrderGhn, o -> o, (a, b) -> a));
+        LocalDateTime nextPoll = LocalDateTime.now().plusMinutes(quietMinutes);
+
+        for (Map.Entry<String, List<GhnStatusEvent>> entry : byOrder.entrySet()) {
+            GhnOrder ghnOrder = orders.get(entry.getKey());
+            if (ghnOrder == null) {
+                log.debug("[GHN Webhook] Không có GhnOrder cho orderCode={}", entry.getKey());
+                skippedCounter.increment(entry.getValue().size());
+                continue;
+            }
+
+            boolean anyApplied = false;
+            for (GhnStatusEvent event : entry.getValue()) {
+                GhnOrderDetail detail = new GhnOrderDetail();
+                detail.setOrder_code(event.orderCode());
+                detail.setStatus(event.rawStatus());
+                if (event.time() != null && event.status() == GhnStatus.DELIVERED) {
+                    detail.setFinish_date(event.time().atZone(ZoneId.systemDefault()).toOffsetDateTime().toString());
+                }
+
+                if (ghnStatusSyncService.applyStatus(ghnOrder, detail, event.status(), event.time())) {
+                    appliedCounter.increment();
+                    anyApplied = true;
+                } else {
+                    skippedCounter.increment();
+                }
+            }
+
+            // Order đang "sống" qua webhook → poller để yên tới khi im lặng đủ lâu.
+            // Cả nhóm chỉ là sự kiện cũ / trùng → giữ lịch poll, không để sự kiện rác che mất trạng thái thật
+            if (anyApplied) ghnOrder.setNextSyncAt(nextPoll);
+        }
+    }
+
+    private static LocalDateTime parseTime(String iso) {
+        if (iso == null || iso.isBlank()) return null;
+        try {
+            return OffsetDateTime.parse(iso).atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+        } catch (Exception e) {
+            log.warn("⚠ [GHN Webhook] Không parse được Time: {}", iso);
+            return null;
+        }
+    }
+}
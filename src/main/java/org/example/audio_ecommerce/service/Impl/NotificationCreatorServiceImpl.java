@@ -3,18 +3,14 @@ package org.example.audio_ecommerce.service.Impl;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.example.audio_ecommerce.entity.DeviceToken;
 import org.example.audio_ecommerce.entity.Enum.NotificationTarget;
 import org.example.audio_ecommerce.entity.Enum.NotificationType;
 import org.example.audio_ecommerce.entity.Notification;
-import org.example.audio_ecommerce.repository.DeviceTokenRepository;
 import org.example.audio_ecommerce.repository.NotificationRepository;
-import org.example.audio_ecommerce.service.FirebasePushService;
 import org.example.audio_ecommerce.service.NotificationCreatorService;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -24,8 +20,7 @@ import java.util.UUID;
 public class NotificationCreatorServiceImpl implements NotificationCreatorService {
 
     private final NotificationRepository notificationRepo;
-    private final DeviceTokenRepository deviceTokenRepo;
-    private final FirebasePushService firebasePushService;
+    private final NotificationOutbox outbox;
 
     @Override
     @Transactional
@@ -51,14 +46,8 @@ public class NotificationCreatorServiceImpl implements NotificationCreatorServic
 
         Notification saved = notificationRepo.save(notif);
 
-        List<DeviceToken> tokens =
-                deviceTokenRepo.findByTargetAndTargetId(target, targetId);
-
-        List<String> tokenStrings = tokens.stream()
-                .map(DeviceToken::getToken)
-                .toList();
-
-        firebasePushService.sendToTokens(tokenStrings, saved, extraData);
+        // Push đi qua outbox: ghi cùng transaction, relay gửi FCM sau commit (và gộp nếu dồn dập)
+        outbox.enqueuePush(saved, extraData);
 
         return saved;
     }
@@ -0,0 +1,94 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.audio_ecommerce.email.EmailTemplateType;
+import org.example.audio_ecommerce.entity.Enum.NotificationTarget;
+import org.example.audio_ecommerce.entity.Enum.NotificationType;
+import org.example.audio_ecommerce.entity.Enum.OutboxChannel;
+import org.example.audio_ecommerce.entity.Enum.OutboxStatus;
+import org.example.audio_ecommerce.entity.Notification;
+import org.example.audio_ecommerce.entity.OutboxMessage;
+import org.example.audio_ecommerce.repository.OutboxMessageRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Ghi push / email vào outbox trong transaction của nghiệp vụ gọi tới (chỉ 1 INSERT, không I/O ngoài).
+ * Push cùng target trong cửa sổ gộp: dòng đầu gửi ngay, các dòng sau dồn về cuối cửa sổ → relay gửi 1 digest.
+ */
+@Service
+public class NotificationOutbox {
+
+    /** Nội dung push lưu trong outbox. */
+    public record PushPayload(NotificationTarget target, UUID targetId, NotificationType type,
+                              String title, String message, Map<String, String> extra) {}
+
+    /** Nội dung email lưu trong outbox. */
+    public record EmailPayload(EmailTemplateType type, Object data) {}
+
+    private final OutboxMessageRepository outboxRepo;
+    private final ObjectMapper objectMapper;
+    private final Duration coalesceWindow;
+
+    public NotificationOutbox(OutboxMessageRepository outboxRepo,
+                              ObjectMapper objectMapper,
+                              @Value("${outbox.push.coalesce-ms:60000}") long coalesceMs) {
+        this.outboxRepo = outboxRepo;
+        this.objectMapper = objectMapper;
+        this.coalesceWindow = Duration.ofMillis(coalesceMs);
+    }
+
+    public void enqueuePush(Notification n, Map<String, String> extra) {
+        PushPayload payload = new PushPayload(n.getTarget(), n.getTargetId(), n.getType(),
+                n.getTitle(), n.getMessage(), extra != null ? extra : Map.of());
+        String key = "PUSH:" + n.getTarget() + ":" + n.getTargetId();
+        LocalDateTime now = LocalDateTime.now();
+
+        outboxRepo.save(OutboxMessage.builder()
+                .channel(OutboxChannel.PUSH)
+                .status(OutboxStatus.PENDING)
+                .coalesceKey(key)
+                .payload(toJson(payload))
+                .createdAt(now)
+                .availableAt(pushAvailableAt(key, now))
+                .build());
+    }
+
+    public void enqueueEmail(EmailTemplateType type, Object data) {
+        LocalDateTime now = LocalDateTime.now();
+        outboxRepo.save(OutboxMessage.builder()
+                .channel(OutboxChannel.EMAIL)
+                .status(OutboxStatus.PENDING)
+                .payloadType(data.getClass().getName())
+                .payload(toJson(new EmailPayload(type, data)))
+                .createdAt(now)
+                .availableAt(now)
+                .build());
+    }
+
+    /**
+     * Không có push nào cùng key trong cửa sổ → gửi ngay.
+     * Push trước đã tới hạn (đã / đang gửi) → hẹn cuối cửa sổ kế tiếp; đang có digest chờ → nhập vào digest đó.
+     */
+    private LocalDateTime pushAvailableAt(String key, LocalDateTime now) {
+        if (coalesceWindow.isZero() || coalesceWindow.isNegative()) return now;
+        LocalDateTime latest = outboxRepo.findLatestAvailableAt(key, now.minus(coalesceWindow));
+        if (latest == null) return now;
+        if (latest.isAfter(now)) return latest;
+        return latest.plus(coalesceWindow);
+    }
+
+    private String toJson(Object payload) {
+        try {
+            return objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Không serialize được outbox payload: " + e.getMessage(), e);
+        }
+    }
+}
@@ -7,10 +7,12 @@ import org.example.audio_ecommerce.entity.Enum.*;
 import org.example.audio_ecommerce.repository.*;
 import org.example.audio_ecommerce.service.NotificationCreatorService;
 import org.example.audio_ecommerce.service.OrderCancellationService;
+import org.example.audio_ecommerce.service.StockReservationService;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -25,9 +27,9 @@ public class OrderCancellationServiceImpl implements OrderCancellationService {
     private final StoreOrderCancellationRepository cancelRepo;
     private final CustomerOrderCancellationRepository customerCancelRepo;
     private final SettlementService settlementService;
-    private final ProductRepository productRepo;
-    private final ProductVariantRepository productVariantRepo;
     private final NotificationCreatorService notificationCreatorService;
+    private final StockReservationService stockReservationService;
+    private final ProductVariantRepository productVariantRepo;
 
     /**
      * KH hủy toàn bộ nếu CustomerOrder còn PENDING => refund ngay về ví KH, không cần shop duyệt
@@ -61,10 +63,15 @@ public class OrderCancellationServiceImpl implements OrderCancellationService {
         // Refund toàn bộ (nếu là online đã vào Platform pending)
         settlementService.refundEntireOrderToCustomerWallet(order);
 
+        // Đơn ONLINE chưa thanh toán: tồn kho đang nằm trong reservation HELD → trả qua reservation, không cộng lần 2
+        boolean restockedByReservation = stockReservationService.releaseForOrders(List.of(order.getId())).contains(order.getId());
+
         // Set tất cả StoreOrder -> CANCELLED
         var storeOrders = storeOrderRepo.findAllByCustomerOrder_Id(order.getId());
         for (StoreOrder so : storeOrders) {
-            restockProductsForStoreOrder(so);
+            if (!restockedByReservation) {
+                restockProductsForStoreOrder(so);
+            }
             so.setStatus(OrderStatus.CANCELLED);
         }
         storeOrderRepo.saveAll(storeOrders);
@@ -459,6 +466,7 @@ public class OrderCancellationServiceImpl implements OrderCancellationService {
     private void restockProductsForStoreOrder(StoreOrder storeOrder) {
         if (storeOrder == null || storeOrder.getItems() == null) return;
 
+        List<StockReservationService.StockLine> lines = new ArrayList<>();
         for (StoreOrderItem item : storeOrder.getItems()) {
             if (item == null) continue;
 
@@ -470,24 +478,20 @@ public class OrderCancellationServiceImpl implements OrderCancellationService {
             int qty = item.getQuantity();
             if (qty <= 0) continue;
 
-            // 1) Cộng lại stock cho variant nếu có
-            if (item.getVariantId() != null) {
-                productVariantRepo.findById(item.getVariantId()).ifPresent(variant -> {
-                    Integer vs = variant.getVariantStock();
-                    if (vs == null) vs = 0;
-                    variant.setVariantStock(vs + qty);
-                });
+            // refId là productId; item cũ thiếu refId → lấy product từ variant như lúc checkout
+            UUID productId = item.getRefId();
+            if (productId == null && item.getVariantId() != null) {
+                productId = productVariantRepo.findById(item.getVariantId())
+                        .map(v -> v.getProduct().getProductId())
+                        .orElse(null);
             }
+            if (productId == null) continue;
 
-            // 2) Cộng lại stock cho product (refId là productId)
-            if (item.getRefId() != null) {
-                productRepo.findById(item.getRefId()).ifPresent(product -> {
-                    Integer ps = product.getStockQuantity();
-                    if (ps == null) ps = 0;
-                    product.setStockQuantity(ps + qty);
-                });
-            }
+            lines.add(new StockReservationService.StockLine(productId, item.getVariantId(), qty, item.getName()));
         }
+
+        // Cộng bằng UPDATE stock = stock + qty, không đọc-sửa-ghi
+        stockReservationService.restock(lines);
     }
 
     private String buildCustomerCancelMessage(CustomerOrder order,
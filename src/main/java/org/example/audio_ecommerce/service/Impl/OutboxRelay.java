@@ -0,0 +1,299 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.email.AccountData;
+import org.example.audio_ecommerce.email.EmailService;
+import org.example.audio_ecommerce.email.EmailTemplateType;
+import org.example.audio_ecommerce.email.PasswordResetData;
+import org.example.audio_ecommerce.entity.Account;
+import org.example.audio_ecommerce.entity.DeviceToken;
+import org.example.audio_ecommerce.entity.Enum.OutboxChannel;
+import org.example.audio_ecommerce.entity.Notification;
+import org.example.audio_ecommerce.entity.OutboxMessage;
+import org.example.audio_ecommerce.repository.AccountRepository;
+import org.example.audio_ecommerce.repository.DeviceTokenRepository;
+import org.example.audio_ecommerce.repository.OutboxMessageRepository;
+import org.example.audio_ecommerce.service.FirebasePushService;
+import org.example.audio_ecommerce.service.Impl.NotificationOutbox.PushPayload;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Relay outbox: nhặt batch dòng tới hạn (lease theo claim token → an toàn khi chạy nhiều instance),
+ * gửi song song theo kênh với giới hạn riêng (push / email), rồi đóng từng dòng.
+ * - PUSH: các dòng cùng coalesce key trong batch → 1 digest, gửi đồng bộ rồi mới đóng dòng.
+ * - EMAIL reset mật khẩu: dòng chỉ giữ id tài khoản, link được dựng từ token hiện tại lúc gửi.
+ * - Lỗi → backoff luỹ thừa, hết số lần thử → FAILED.
+ */
+@Slf4j
+@Service
+public class OutboxRelay {
+
+    private static final int MAX_ERROR_LENGTH = 1000;
+    private static final String EMAIL_PACKAGE = "org.example.audio_ecommerce.email.";
+
+    private final OutboxMessageRepository outboxRepo;
+    private final DeviceTokenRepository deviceTokenRepo;
+    private final AccountRepository accountRepo;
+    private final FirebasePushService firebasePushService;
+    private final EmailService emailService;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate tx;
+    private final Map<OutboxChannel, ExecutorService> channels = new EnumMap<>(OutboxChannel.class);
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long backoffMs;
+    private final Duration lease;
+    private final String frontendUrl;
+
+    private final Map<OutboxChannel, Counter> sentCounters = new EnumMap<>(OutboxChannel.class);
+    private final Map<OutboxChannel, Counter> errorCounters = new EnumMap<>(OutboxChannel.class);
+    private final Map<OutboxChannel, Timer> lagTimers = new EnumMap<>(OutboxChannel.class);
+    private final Counter coalescedCounter;
+
+    public OutboxRelay(OutboxMessageRepository outboxRepo,
+                       DeviceTokenRepository deviceTokenRepo,
+                       AccountRepository accountRepo,
+                       FirebasePushService firebasePushService,
+                       EmailService emailService,
+                       ObjectMapper objectMapper,
+                       PlatformTransactionManager transactionManager,
+                       MeterRegistry meterRegistry,
+                       @Value("${outbox.relay.batch-size:200}") int batchSize,
+                       @Value("${outbox.relay.max-attempts:6}") int maxAttempts,
+                       @Value("${outbox.relay.backoff-ms:5000}") long backoffMs,
+                       @Value("${outbox.relay.lease-ms:120000}") long leaseMs,
+                       @Value("${outbox.push.concurrency:4}") int pushConcurrency,
+                       @Value("${outbox.email.concurrency:2}") int emailConcurrency,
+                       @Value("${app.frontend.url:http://localhost:3000}") String frontendUrl) {
+        this.outboxRepo = outboxRepo;
+        this.deviceTokenRepo = deviceTokenRepo;
+        this.accountRepo = accountRepo;
+        this.firebasePushService = firebasePushService;
+        this.emailService = emailService;
+        this.objectMapper = objectMapper;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.batchSize = Math.max(1, batchSize);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMs = Math.max(1, backoffMs);
+        this.lease = Duration.ofMillis(leaseMs);
+        this.frontendUrl = frontendUrl;
+
+        channels.put(OutboxChannel.PUSH, pool("outbox-push-", pushConcurrency));
+        channels.put(OutboxChannel.EMAIL, pool("outbox-email-", emailConcurrency));
+
+        for (OutboxChannel c : OutboxChannel.values()) {
+            String tag = c.name().toLowerCase(Locale.ROOT);
+            sentCounters.put(c, meterRegistry.counter("outbox.relay.sent", "channel", tag));
+            errorCounters.put(c, meterRegistry.counter("outbox.relay.errors", "channel", tag));
+            lagTimers.put(c, meterRegistry.timer("outbox.relay.lag", "channel", tag));
+        }
+        this.coalescedCounter = meterRegistry.counter("outbox.relay.coalesced");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Dòng đang giữ lease sẽ được nhặt lại khi lease hết hạn
+        channels.values().forEach(ExecutorService::shutdownNow);
+    }
+
+    // ========================================================
+    // DRAIN (scheduler)
+    // ========================================================
+
+    /** Gửi hết các dòng tới hạn theo từng batch; trả về số dòng đã xử lý. */
+    public int drain() {
+        int total = 0;
+        while (true) {
+            int n = drainBatch();
+            total += n;
+            if (n < batchSize) return total;
+        }
+    }
+
+    private int drainBatch() {
+        LocalDateTime now = LocalDateTime.now();
+        List<UUID> due = outboxRepo.findDueIds(now, PageRequest.of(0, batchSize));
+        if (due.isEmpty()) return 0;
+
+        UUID token = UUID.randomUUID();
+        tx.executeWithoutResult(st -> outboxRepo.claim(due, token, now.plus(lease), now));
+        List<OutboxMessage> claimed = outboxRepo.findByClaimTokenOrderByCreatedAt(token);
+        if (claimed.isEmpty()) return due.size(); // instance khác đã nhặt → đi tiếp batch sau
+
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+
+        // PUSH: gộp theo coalesce key (đã sắp theo createdAt)
+        Map<String, List<OutboxMessage>> pushGroups = new LinkedHashMap<>();
+        for (OutboxMessage m : claimed) {
+            if (m.getChannel() == OutboxChannel.PUSH) {
+                String key = m.getCoalesceKey() != null ? m.getCoalesceKey() : m.getId().toString();
+                pushGroups.computeIfAbsent(key, k -> new ArrayList<>()).add(m);
+            } else {
+                tasks.add(submit(m.getChannel(), List.of(m), () -> deliverEmail(m)));
+            }
+        }
+        pushGroups.values().forEach(group -> tasks.add(submit(OutboxChannel.PUSH, group, () -> deliverPush(group))));
+
+        CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).join();
+        return due.size();
+    }
+
+    private interface Delivery {
+        void run() throws Exception;
+    }
+
+    private CompletableFuture<Void> submit(OutboxChannel channel, List<OutboxMessage> rows, Delivery delivery) {
+        try {
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    delivery.run();
+                    complete(channel, rows);
+                } catch (Exception e) {
+                    fail(channel, rows, e);
+                }
+            }, channels.get(channel));
+        } catch (RejectedExecutionException e) {
+            // Đang shutdown → lease hết hạn sẽ được nhặt lại
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    // ========================================================
+    // KÊNH
+    // ========================================================
+
+    private void deliverPush(List<OutboxMessage> group) throws Exception {
+        List<PushPayload> payloads = new ArrayList<>(group.size());
+        for (OutboxMessage m : group) {
+            payloads.add(objectMapper.readValue(m.getPayload(), PushPayload.class));
+        }
+        PushPayload latest = payloads.get(payloads.size() - 1);
+
+        List<String> tokens = deviceTokenRepo.findByTargetAndTargetId(latest.target(), latest.targetId()).stream()
+                .map(DeviceToken::getToken)
+                .toList();
+        if (tokens.isEmpty()) return;
+
+        Notification n;
+        Map<String, String> extra = new HashMap<>(latest.extra() != null ? latest.extra() : Map.of());
+        if (payloads.size() == 1) {
+            n = Notification.builder().title(latest.title()).message(latest.message()).build();
+        } else {
+            // Digest: 1 push thay cho N cập nhật dồn trong cửa sổ gộp
+            n = Notification.builder()
+                    .title("Bạn có " + payloads.size() + " cập nhật mới")
+                    .message(latest.title() + ": " + latest.message())
+                    .build();
+            extra.put("digestCount", String.valueOf(payloads.size()));
+            coalescedCounter.increment(payloads.size() - 1);
+        }
+        // Gửi đồng bộ: dòng chỉ được đóng SENT khi ít nhất 1 thiết bị nhận được (hoặc mọi token đã chết)
+        FirebasePushService.DeliveryReport report = firebasePushService.deliverNow(tokens, n, extra);
+        if (report.undelivered()) {
+            throw new IllegalStateException("FCM không gửi được tới token nào: " + report);
+        }
+    }
+
+    private void deliverEmail(OutboxMessage m) throws Exception {
+        String type = m.getPayloadType();
+        if (type == null || !type.startsWith(EMAIL_PACKAGE)) {
+            throw new IllegalArgumentException("Email payload type không hợp lệ: " + type);
+        }
+        JsonNode root = objectMapper.readTree(m.getPayload());
+        EmailTemplateType template = EmailTemplateType.valueOf(root.get("type").asText());
+        Object data = objectMapper.treeToValue(root.get("data"), Class.forName(type));
+        if (data instanceof PasswordResetData reset) {
+            data = resetPasswordMail(reset);
+            if (data == null) return;
+        }
+        emailService.deliver(template, data);
+    }
+
+    /** Dựng link từ token hiện tại của tài khoản; token đã dùng / hết hạn → null (không gửi). */
+    private AccountData resetPasswordMail(PasswordResetData reset) {
+        Account account = accountRepo.findById(reset.getAccountId()).orElse(null);
+        if (account == null || account.getResetPasswordToken() == null
+                || account.getResetPasswordTokenExpiry() == null
+                || LocalDateTime.now().isAfter(account.getResetPasswordTokenExpiry())) {
+            log.info("[Outbox] Bỏ email reset mật khẩu account={}: token không còn hiệu lực", reset.getAccountId());
+            return null;
+        }
+        return new AccountData(account.getEmail(), account.getName(), account.getRole().toString(),
+                frontendUrl + "/reset-password?token=" + account.getResetPasswordToken());
+    }
+
+    // ========================================================
+    // ĐÓNG DÒNG
+    // ========================================================
+
+    private void complete(OutboxChannel channel, List<OutboxMessage> rows) {
+        LocalDateTime now = LocalDateTime.now();
+        tx.executeWithoutResult(st -> outboxRepo.markSent(ids(rows), now));
+        sentCounters.get(channel).increment(rows.size());
+        for (OutboxMessage m : rows) {
+            lagTimers.get(channel).record(Duration.between(m.getCreatedAt(), now));
+        }
+    }
+
+    private void fail(OutboxChannel channel, List<OutboxMessage> rows, Exception cause) {
+        errorCounters.get(channel).increment();
+        String error = truncate(String.valueOf(cause.getMessage()));
+        int attempts = rows.stream().mapToInt(OutboxMessage::getAttempts).max().orElse(0) + 1;
+        try {
+            if (attempts >= maxAttempts) {
+                tx.executeWithoutResult(st -> outboxRepo.markFailed(ids(rows), error));
+                log.error("[Outbox] {} FAILED sau {} lần thử ids={}: {}", channel, attempts, ids(rows), error);
+            } else {
+                LocalDateTime retryAt = LocalDateTime.now().plus(Duration.ofMillis(backoff(attempts)));
+                tx.executeWithoutResult(st -> outboxRepo.reschedule(ids(rows), error, retryAt));
+                log.warn("[Outbox] {} lỗi lần {} → thử lại lúc {}: {}", channel, attempts, retryAt, error);
+            }
+        } catch (Exception e) {
+            // Không ghi được → lease hết hạn sẽ được nhặt lại
+            log.warn("[Outbox] Không ghi được lỗi cho ids={}: {}", ids(rows), e.getMessage());
+        }
+    }
+
+    /** backoff * 2^(attempts-1), tối đa 1 giờ. */
+    private long backoff(int attempts) {
+        return Math.min(Duration.ofHours(1).toMillis(), backoffMs << Math.min(attempts - 1, 16));
+    }
+
+    public int purgeSent(Duration retention) {
+        Integer n = tx.execute(st -> outboxRepo.purgeSentBefore(LocalDateTime.now().minus(retention)));
+        return n == null ? 0 : n;
+    }
+
+    private static List<UUID> ids(List<OutboxMessage> rows) {
+        return rows.stream().map(OutboxMessage::getId).toList();
+    }
+
+    private static String truncate(String s) {
+        return s.length() <= MAX_ERROR_LENGTH ? s : s.substring(0, MAX_ERROR_LENGTH);
+    }
+
+    private static ExecutorService pool(String prefix, int size) {
+        AtomicInteger seq = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, size), r -> {
+            Thread t = new Thread(r, prefix + seq.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+}
@@ -1,7 +1,6 @@
 package org.example.audio_ecommerce.service.Impl;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import jakarta.mail.MessagingException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -14,13 +13,17 @@ import org.example.audio_ecommerce.email.OrderItemEmailData;
 import org.example.audio_ecommerce.entity.CustomerOrder;
 import org.example.audio_ecommerce.entity.CustomerOrderItem;
 import org.example.audio_ecommerce.entity.Enum.*;
+import org.example.audio_ecommerce.entity.PaymentBatch;
 import org.example.audio_ecommerce.entity.Wallet;
 import org.example.audio_ecommerce.entity.WalletTransaction;
 import org.example.audio_ecommerce.repository.CustomerOrderRepository;
+import org.example.audio_ecommerce.repository.PaymentBatchRepository;
 import org.example.audio_ecommerce.repository.PlatformTransactionRepository;
+import org.example.audio_ecommerce.repository.StoreOrderRepository;
 import org.example.audio_ecommerce.repository.WalletRepository;
 import org.example.audio_ecommerce.repository.WalletTransactionRepository;
 import org.example.audio_ecommerce.service.PayOSEcomService;
+import org.example.audio_ecommerce.service.StockReservationService;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
@@ -33,6 +36,7 @@ import vn.payos.model.webhooks.WebhookData;
 import java.math.BigDecimal;
 import java.text.NumberFormat;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 
@@ -42,6 +46,8 @@ import java.util.*;
 public class PayOSEcomServiceImpl implements PayOSEcomService {
 
     private static final DateTimeFormatter PAID_AT_FORMATTER = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
+    // Khoá cũ trong platformVoucherDetailJson (trước khi có bảng payment_batch)
+    private static final String LEGACY_BATCH_KEY = "__payos_batch_code";
     private final PayOS payOS;
     private final CustomerOrderRepository customerOrderRepository;
     private final SettlementService settlementService;
@@ -50,6 +56,9 @@ public class PayOSEcomServiceImpl implements PayOSEcomService {
     private final PlatformTransactionRepository platformTransactionRepository;
     private final WalletRepository walletRepository;
     private final WalletTransactionRepository walletTransactionRepository;
+    private final StockReservationService stockReservationService;
+    private final PaymentBatchRepository paymentBatchRepository;
+    private final StoreOrderRepository storeOrderRepository;
 
     private long generateOrderCode() {
         return System.currentTimeMillis() + new Random().nextInt(999);
@@ -80,6 +89,12 @@ public class PayOSEcomServiceImpl implements PayOSEcomService {
                 .setScale(0, java.math.RoundingMode.DOWN);
         long amountVnd = payAmount.longValueExact();
 
+        // Link hết hạn cùng lúc với reservation giữ hàng → không trả tiền được cho đơn đã bị trả hàng
+        LocalDateTime deadline = stockReservationService.paymentDeadline(orderIds);
+        if (!deadline.isAfter(LocalDateTime.now())) {
+            throw new IllegalStateException("Đã hết thời gian giữ hàng cho đơn, vui lòng đặt lại");
+        }
+
         // v2 không giới hạn 20 bytes như v1 → nhưng cứ sanitize cho chắc
         String desc = asciiNoMarks(description != null ? description : "Group orders");
         try {
@@ -95,28 +110,33 @@ public class PayOSEcomServiceImpl implements PayOSEcomService {
                     .description(desc)
                     .returnUrl(returnUrl)
                     .cancelUrl(cancelUrl)
+                    .expiredAt(deadline.atZone(ZoneId.systemDefault()).toEpochSecond())
                     .item(item)                  // mẫu demo dùng .item(...) (không phải .items(...))
                     .build();
 
             CreatePaymentLinkResponse res = payOS.paymentRequests().create(paymentData);
 
-            // GẮN batchCode vào JSON của từng order, KHÔNG đụng externalOrderCode riêng (Eᵢ)
+            // GẮN batchCode → từng order qua bảng payment_batch, KHÔNG đụng externalOrderCode riêng (Eᵢ)
+            LocalDateTime now = LocalDateTime.now();
+            List<PaymentBatch> batchRows = new ArrayList<>(orders.size());
             for (CustomerOrder order : orders) {
                 if (!StringUtils.hasText(order.getExternalOrderCode())) {
                     order.setExternalOrderCode(String.valueOf(generateOrderCode()));
                 }
-                String json = order.getPlatformVoucherDetailJson();
-                ObjectNode node = StringUtils.hasText(json) ? (ObjectNode) mapper.readTree(json) : mapper.createObjectNode();
-                node.put("__payos_batch_code", String.valueOf(batchOrderCode));
-                order.setPlatformVoucherDetailJson(mapper.writeValueAsString(node));
-
                 order.setStatus(OrderStatus.PENDING);
-                order.setCreatedAt(LocalDateTime.now());
+                order.setCreatedAt(now);
                 if (order.getPaymentMethod() != PaymentMethod.ONLINE) {
                     order.setPaymentMethod(PaymentMethod.ONLINE);
                 }
                 customerOrderRepository.save(order);
+
+                batchRows.add(PaymentBatch.builder()
+                        .batchCode(batchOrderCode)
+                        .customerOrderId(order.getId())
+                        .createdAt(now)
+                        .build());
             }
+            paymentBatchRepository.saveAll(batchRows);
 
             CheckoutOnlineResponse out = new CheckoutOnlineResponse();
             out.setCustomerOrderId(orders.get(0).getId());
@@ -145,37 +165,52 @@ public class PayOSEcomServiceImpl implements PayOSEcomService {
             return;
         }
 
-        Long code = verified.getOrderCode();
-        String resultCode = verified.getCode();                 // "00" = success
-        boolean success = "00".equals(resultCode);
         String desc = verified.getDesc() != null ? verified.getDesc() : verified.getDescription();
+        processWebhook(verified.getOrderCode(), verified.getCode(), desc);
+    }
 
-        // ========= 1) Thử xử lý như batch order e-commerce =========
-        List<CustomerOrder> all = customerOrderRepository.findAll();
-        List<CustomerOrder> orders = new ArrayList<>();
-        for (CustomerOrder o : all) {
-            String json = o.getPlatformVoucherDetailJson();
-            if (!StringUtils.hasText(json)) continue;
-            try {
-                var node = mapper.readTree(json);
-                if (node.has("__payos_batch_code")
-                        && String.valueOf(code).equals(node.get("__payos_batch_code").asText())) {
-                    orders.add(o);
-                }
-            } catch (Exception ignored) {}
-        }
+    @Override
+    @Transactional
+    public void processWebhook(Long code, String resultCode, String desc) {
+        boolean success = "00".equals(resultCode);               // "00" = success
 
+        // ========= 1) Thử xử lý như batch order e-commerce (tra index payment_batch) =========
+        List<CustomerOrder> orders = paymentBatchRepository.findOrdersByBatchCode(code);
         if (!orders.isEmpty()) {
             handleEcomOrdersWebhook(orders, code, success, desc);
             return;
         }
 
         // ========= 2) Không tìm thấy batch order => thử xem có phải topup ví =========
-        walletTransactionRepository.findByExternalRef(String.valueOf(code))
-                .ifPresentOrElse(
-                        txn -> handleWalletTopupWebhook(txn, success, desc),
-                        () -> log.error("[PayOS Webhook] No CustomerOrder batch and no WalletTransaction for code={}", code)
-                );
+        var txn = walletTransactionRepository.findByExternalRef(String.valueOf(code));
+        if (txn.isPresent()) {
+            handleWalletTopupWebhook(txn.get(), success, desc);
+            return;
+        }
+
+        // ========= 3) Đơn cũ chỉ gắn batch code trong JSON =========
+        orders = findLegacyBatchOrders(code);
+        if (!orders.isEmpty()) {
+            handleEcomOrdersWebhook(orders, code, success, desc);
+            return;
+        }
+        log.error("[PayOS Webhook] No CustomerOrder batch and no WalletTransaction for code={}", code);
+    }
+
+    // LIKE chỉ để thu hẹp ứng viên ('_' là wildcard) → xác nhận lại bằng cách parse JSON
+    private List<CustomerOrder> findLegacyBatchOrders(Long code) {
+        String expected = String.valueOf(code);
+        List<CustomerOrder> orders = new ArrayList<>();
+        for (CustomerOrder o : customerOrderRepository.findLegacyBatchCandidates(
+                "%\"" + LEGACY_BATCH_KEY + "\":\"" + expected + "\"%")) {
+            try {
+                var node = mapper.readTree(o.getPlatformVoucherDetailJson());
+                if (node.has(LEGACY_BATCH_KEY) && expected.equals(node.get(LEGACY_BATCH_KEY).asText())) {
+                    orders.add(o);
+                }
+            } catch (Exception ignored) {}
+        }
+        return orders;
     }
 
 
@@ -343,20 +378,19 @@ public class PayOSEcomServiceImpl implements PayOSEcomService {
         log.info("[PayOS Webhook][ECOM] batch={} size={} success={} desc={}",
                 batchCode, orders.size(), success, desc);
 
+        List<UUID> orderIds = orders.stream().map(CustomerOrder::getId).toList();
+
         if (desc != null && desc.toLowerCase().contains("hết hạn")) {
-            for (CustomerOrder order : orders) {
-                order.setStatus(OrderStatus.CANCELLED);
-                order.setCreatedAt(LocalDateTime.now());
-                customerOrderRepository.save(order);
-            }
+            stockReservationService.releaseForOrders(orderIds);
+            customerOrderRepository.updateStatusForIds(orderIds, OrderStatus.CANCELLED, LocalDateTime.now());
             return;
         }
 
         if (success) {
+            // Đơn thanh toán trễ mà không còn đủ hàng: vẫn ghi nhận tiền rồi hoàn toàn bộ vào ví, đơn giữ CANCELLED
+            Set<UUID> shortOrders = stockReservationService.commitForOrders(orderIds);
             for (CustomerOrder order : orders) {
-                BigDecimal amount = order.getGrandTotal() != null ? order.getGrandTotal() : order.getTotalAmount();
-                if (amount == null) amount = BigDecimal.ZERO;
-                amount = amount.setScale(0, java.math.RoundingMode.DOWN);
+                BigDecimal amount = paidAmount(order);
 
                 settlementService.recordCustomerQrPayment(order.getCustomer().getId(), order.getId(), amount);
                 boolean existsHolding = !platformTransactionRepository
@@ -366,22 +400,38 @@ public class PayOSEcomServiceImpl implements PayOSEcomService {
                     settlementService.moveToPlatformHold(order.getId(), amount);
                 }
                 settlementService.allocateToStoresPending(order);
+                if (shortOrders.contains(order.getId())) {
+                    settlementService.refundEntireOrderToCustomerWallet(order);
+                    log.error("[PayOS Webhook][ECOM] Late payment for expired order without stock → refunded to wallet. order={} batch={}",
+                            order.getId(), batchCode);
+                }
+            }
 
-                order.setStatus(OrderStatus.PENDING);
-                order.setCreatedAt(LocalDateTime.now());
-                customerOrderRepository.save(order);
+            List<UUID> paidIds = orderIds.stream().filter(id -> !shortOrders.contains(id)).toList();
+            if (!paidIds.isEmpty()) {
+                LocalDateTime now = LocalDateTime.now();
+                customerOrderRepository.updateStatusForIds(paidIds, OrderStatus.PENDING, now);
+                int reopened = storeOrderRepository.reopenCancelled(paidIds, now);
+                if (reopened > 0) {
+                    log.warn("[PayOS Webhook][ECOM] Late payment re-opened {} cancelled store orders. batch={}",
+                            reopened, batchCode);
+                }
+            }
 
-                sendPaymentSuccessEmail(order, amount);
+            for (CustomerOrder order : orders) {
+                if (!shortOrders.contains(order.getId())) sendPaymentSuccessEmail(order, paidAmount(order));
             }
             log.info("[PayOS Webhook][ECOM] SUCCESS processed batch={} orders={}", batchCode, orders.size());
             return;
         }
 
-        for (CustomerOrder order : orders) {
-            order.setStatus(OrderStatus.UNPAID);
-            order.setCreatedAt(LocalDateTime.now());
-            customerOrderRepository.save(order);
-        }
+        customerOrderRepository.updateStatusForIds(orderIds, OrderStatus.UNPAID, LocalDateTime.now());
+    }
+
+    private static BigDecimal paidAmount(CustomerOrder order) {
+        BigDecimal amount = order.getGrandTotal() != null ? order.getGrandTotal() : order.getTotalAmount();
+        if (amount == null) amount = BigDecimal.ZERO;
+        return amount.setScale(0, java.math.RoundingMode.DOWN);
     }
 
     private void handleWalletTopupWebhook(WalletTransaction txn,
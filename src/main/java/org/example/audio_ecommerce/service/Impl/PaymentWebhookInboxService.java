@@ -0,0 +1,212 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.entity.Enum.WebhookInboxStatus;
+import org.example.audio_ecommerce.entity.PaymentWebhookInbox;
+import org.example.audio_ecommerce.repository.PaymentWebhookInboxRepository;
+import org.example.audio_ecommerce.service.PayOSEcomService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import vn.payos.model.webhooks.WebhookData;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+/**
+ * Pipeline webhook PayOS:
+ * - receive(): ghi inbox (unique orderCode + code) rồi trả về ngay → controller ACK 200, callback gửi lại bị bỏ.
+ * - Worker chia theo lane = hash(orderCode): cùng 1 mã đơn luôn chạy tuần tự trên 1 lane,
+ *   các mã khác nhau chạy song song trên các lane khác.
+ * - Claim trước (UPDATE ... WHERE status = PENDING) rồi mới xử lý nghiệp vụ, cùng 1 transaction:
+ *   worker thua claim không chạm nghiệp vụ; nghiệp vụ lỗi → rollback cả claim, webhook về lại PENDING
+ *   → không bao giờ áp dụng 1 webhook 2 lần.
+ * - Scheduler quét lại PENDING cũ (server restart / lỗi tạm) cho tới khi hết số lần thử.
+ */
+@Slf4j
+@Service
+public class PaymentWebhookInboxService {
+
+    private static final int MAX_DESC_LENGTH = 512;
+    private static final int MAX_ERROR_LENGTH = 1000;
+    private static final int SWEEP_BATCH = 500;
+
+    private final PaymentWebhookInboxRepository inboxRepo;
+    private final PayOSEcomService payOSEcomService;
+    private final TransactionTemplate tx;
+    private final ExecutorService[] lanes;
+    private final int maxAttempts;
+    private final Duration staleAfter;
+
+    // Webhook đã đưa vào lane nhưng chưa xử lý xong → tránh sweep nộp trùng, và là độ sâu hàng đợi
+    private final Set<UUID> queued = ConcurrentHashMap.newKeySet();
+
+    private final Counter receivedCounter;
+    private final Counter duplicateCounter;
+    private final Counter doneCounter;
+    private final Counter errorCounter;
+    private final Timer lagTimer;
+
+    public PaymentWebhookInboxService(PaymentWebhookInboxRepository inboxRepo,
+                                      PayOSEcomService payOSEcomService,
+                                      PlatformTransactionManager transactionManager,
+                                      MeterRegistry meterRegistry,
+                                      @Value("${payos.webhook.lanes:4}") int laneCount,
+                                      @Value("${payos.webhook.max-attempts:5}") int maxAttempts,
+                                      @Value("${payos.webhook.stale-after-ms:30000}") long staleAfterMs) {
+        this.inboxRepo = inboxRepo;
+        this.payOSEcomService = payOSEcomService;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.maxAttempts = maxAttempts;
+        this.staleAfter = Duration.ofMillis(staleAfterMs);
+
+        this.lanes = new ExecutorService[Math.max(1, laneCount)];
+        for (int i = 0; i < lanes.length; i++) {
+            String name = "payos-webhook-" + i;
+            lanes[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        this.receivedCounter = meterRegistry.counter("payos.webhook.received");
+        this.duplicateCounter = meterRegistry.counter("payos.webhook.duplicates");
+        this.doneCounter = meterRegistry.counter("payos.webhook.processed", "outcome", "done");
+        this.errorCounter = meterRegistry.counter("payos.webhook.processed", "outcome", "error");
+        this.lagTimer = meterRegistry.timer("payos.webhook.lag");
+        meterRegistry.gauge("payos.webhook.queue.depth", queued, Set::size);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Webhook còn PENDING trong DB sẽ được sweep ở lần khởi động sau
+        for (ExecutorService lane : lanes) {
+            lane.shutdownNow();
+        }
+    }
+
+    // ========================================================
+    // NHẬN
+    // ========================================================
+
+    /** Ghi webhook vào inbox và đưa vào lane; false nếu là callback trùng. */
+    public boolean receive(WebhookData data, String rawBody) {
+        if (data == null || data.getOrderCode() == null) {
+            log.error("[PayOS Inbox] orderCode null. webhook={}", data);
+            return false;
+        }
+        String desc = data.getDesc() != null ? data.getDesc() : data.getDescription();
+        PaymentWebhookInbox row = PaymentWebhookInbox.builder()
+                .orderCode(data.getOrderCode())
+                .resultCode(data.getCode() != null ? data.getCode() : "")
+                .description(truncate(desc, MAX_DESC_LENGTH))
+                .payload(rawBody)
+                .status(WebhookInboxStatus.PENDING)
+                .receivedAt(LocalDateTime.now())
+                .build();
+        try {
+            tx.executeWithoutResult(st -> inboxRepo.saveAndFlush(row));
+        } catch (DataIntegrityViolationException e) {
+            duplicateCounter.increment();
+            log.info("[PayOS Inbox] Duplicate webhook orderCode={} code={} → skip", row.getOrderCode(), row.getResultCode());
+            return false;
+        }
+        receivedCounter.increment();
+        dispatch(row);
+        return true;
+    }
+
+    // ========================================================
+    // SWEEP (scheduler)
+    // ========================================================
+
+    /** Đưa lại vào lane các webhook PENDING đã nhận quá lâu. */
+    public int redispatchStale() {
+        int n = 0;
+        for (PaymentWebhookInbox row : inboxRepo.findStalePending(
+                LocalDateTime.now().minus(staleAfter), PageRequest.of(0, SWEEP_BATCH))) {
+            if (dispatch(row)) n++;
+        }
+        return n;
+    }
+
+    // ========================================================
+    // LANE WORKER
+    // ========================================================
+
+    private boolean dispatch(PaymentWebhookInbox row) {
+        UUID id = row.getId();
+        if (!queued.add(id)) return false;
+
+        LocalDateTime receivedAt = row.getReceivedAt();
+        try {
+            lane(row.getOrderCode()).execute(() -> process(id, receivedAt));
+            return true;
+        } catch (RejectedExecutionException e) {
+            // Đang shutdown → để lại PENDING cho lần khởi động sau
+            queued.remove(id);
+            return false;
+        }
+    }
+
+    private ExecutorService lane(Long orderCode) {
+        return lanes[Math.floorMod(Long.hashCode(orderCode), lanes.length)];
+    }
+
+    private void process(UUID id, LocalDateTime receivedAt) {
+        try {
+            Boolean applied = tx.execute(st -> {
+                PaymentWebhookInbox row = inboxRepo.findById(id).orElse(null);
+                if (row == null || row.getStatus() != WebhookInboxStatus.PENDING) return false;
+
+                // Claim trước: UPDATE giữ khoá dòng tới khi commit → worker/sweep khác chạy song song
+                // sẽ chờ rồi thấy đã DONE (0 dòng) và bỏ qua, không áp dụng nghiệp vụ lần 2
+                if (inboxRepo.close(id, WebhookInboxStatus.DONE, LocalDateTime.now(), null) != 1) return false;
+
+                payOSEcomService.processWebhook(row.getOrderCode(), row.getResultCode(), row.getDescription());
+                return true;
+            });
+            if (Boolean.TRUE.equals(applied)) {
+                doneCounter.increment();
+                lagTimer.record(Duration.between(receivedAt, LocalDateTime.now()));
+            }
+        } catch (Exception e) {
+            errorCounter.increment();
+            log.error("[PayOS Inbox] Xử lý webhook id={} lỗi: {}", id, e.getMessage(), e);
+            recordFailure(id, e);
+        } finally {
+            queued.remove(id);
+        }
+    }
+
+    private void recordFailure(UUID id, Exception cause) {
+        String error = truncate(String.valueOf(cause.getMessage()), MAX_ERROR_LENGTH);
+        try {
+            tx.executeWithoutResult(st -> inboxRepo.findById(id).ifPresent(row -> {
+                if (row.getAttempts() + 1 >= maxAttempts) {
+                    inboxRepo.close(id, WebhookInboxStatus.FAILED, LocalDateTime.now(), error);
+                    log.error("[PayOS Inbox] Webhook orderCode={} FAILED sau {} lần thử", row.getOrderCode(), maxAttempts);
+                } else {
+                    inboxRepo.recordFailure(id, error);
+                }
+            }));
+        } catch (Exception e) {
+            log.warn("[PayOS Inbox] Không ghi được lỗi cho webhook id={}: {}", id, e.getMessage());
+        }
+    }
+
+    private static String truncate(String s, int max) {
+        return s == null || s.length() <= max ? s : s.substring(0, max);
+    }
+}
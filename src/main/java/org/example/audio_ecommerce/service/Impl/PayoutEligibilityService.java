@@ -1,201 +1,224 @@
 package org.example.audio_ecommerce.service.Impl;
 
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.example.audio_ecommerce.entity.Enum.ReturnStatus;
+import org.example.audio_ecommerce.entity.JobWatermark;
 import org.example.audio_ecommerce.entity.ReturnRequest;
-import org.example.audio_ecommerce.entity.StoreOrderItem;
+import org.example.audio_ecommerce.repository.JobWatermarkRepository;
 import org.example.audio_ecommerce.repository.ReturnRequestRepository;
 import org.example.audio_ecommerce.repository.StoreOrderItemRepository;
+import org.example.audio_ecommerce.repository.StoreOrderRepository;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.List;
-import java.util.Optional;
-import java.util.UUID;
-
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Mở khoá payout theo kiểu tăng dần (watermark) + UPDATE theo lô:
+ * - Mỗi lần chạy chỉ xét item có deliveredAt + 7 ngày vừa vượt qua kể từ lần trước,
+ *   cộng với item có ReturnRequest vừa đổi trạng thái.
+ * - ReturnRequest được prefetch 1 query cho cả lô, không findTopBy... từng item.
+ * - Lần chạy đầu (chưa có watermark) quét toàn bộ 1 lần để bắt kịp dữ liệu cũ.
+ * - Mỗi cửa sổ lùi lại 1 khoảng overlap so với watermark: row commit trễ (updatedAt sớm hơn lúc commit)
+ *   hoặc deliveredAt được sync muộn vẫn được quét lại. Quét lại an toàn vì mọi UPDATE đều có điều kiện
+ *   (eligibleForPayout = false, isPayout = false, isReturned = false) → chạy 2 lần cho cùng item không đổi gì.
+ * - Job chạy mỗi 2s: mỗi bước SELECT id ứng viên trước, rỗng thì bỏ qua, có thì UPDATE theo lô id
+ *   (không chạy UPDATE toàn bảng khi không có gì đổi).
+ */
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class PayoutEligibilityService {
 
+    private static final String JOB_DELIVERED_CUTOFF = "payout-eligibility.delivered-cutoff";
+    private static final String JOB_RETURN_CHANGED = "payout-eligibility.return-changed";
+    private static final String JOB_RETURN_REFUNDED = "payout-eligibility.return-refunded";
+    private static final int HOLD_DAYS = 7;
+    private static final int CHUNK_SIZE = 500;
+
+    private static final Set<ReturnStatus> NON_BLOCKING_RETURN_STATUSES =
+            EnumSet.of(ReturnStatus.CANCELED, ReturnStatus.DISPUTE_RESOLVED_SHOP);
+
     private final StoreOrderItemRepository itemRepo;
+    private final StoreOrderRepository storeOrderRepo;
     private final ReturnRequestRepository returnRepo;
+    private final JobWatermarkRepository watermarkRepo;
+    private final MeterRegistry meterRegistry;
+    private final Duration overlap;
+    private final Duration deliveredOverlap;
+
+    public PayoutEligibilityService(StoreOrderItemRepository itemRepo,
+                                    StoreOrderRepository storeOrderRepo,
+                                    ReturnRequestRepository returnRepo,
+                                    JobWatermarkRepository watermarkRepo,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${payout.eligibility.overlap-minutes:5}") long overlapMinutes,
+                                    @Value("${payout.eligibility.delivered-overlap-hours:48}") long deliveredOverlapHours) {
+        this.itemRepo = itemRepo;
+        this.storeOrderRepo = storeOrderRepo;
+        this.returnRepo = returnRepo;
+        this.watermarkRepo = watermarkRepo;
+        this.meterRegistry = meterRegistry;
+        this.overlap = Duration.ofMinutes(overlapMinutes);
+        this.deliveredOverlap = Duration.ofHours(deliveredOverlapHours);
+    }
 
     // ========================================================
-    // CHECK 7-DAY + RETURN STATUS → CHO PHÉP PAYOUT
+    // CHECK 7-DAY + RETURN STATUS → CHO PHÉP PAYOUT
     // ========================================================
     @Transactional
     public void evaluateEligibility() {
-
-        List<StoreOrderItem> items =
-            itemRepo.findByEligibleForPayoutFalseAndIsPayoutFalse();
-
-        for (StoreOrderItem item : items) {
-
-            // 1. Chưa giao hàng
-            if (item.getDeliveredAt() == null) {
-                log.info("[SKIP] Item {} chưa giao hàng", item.getId());
-                continue;
+        timed("evaluate", () -> {
+            LocalDateTime runStartedAt = LocalDateTime.now();
+            LocalDateTime cutoff = runStartedAt.minusDays(HOLD_DAYS);
+            // deliveredAt là thời điểm giao thực tế, có thể được sync muộn → lùi cửa sổ nhiều hơn updatedAt
+            LocalDateTime lastCutoff = minus(readWatermark(JOB_DELIVERED_CUTOFF), deliveredOverlap);
+            LocalDateTime returnSince = minus(readWatermark(JOB_RETURN_CHANGED), overlap);
+
+            // 1. Item vừa đủ 7 ngày kể từ lần chạy trước
+            Set<UUID> candidates = new LinkedHashSet<>(itemRepo.findPayoutCandidateIds(lastCutoff, cutoff));
+
+            // 2. Item đủ 7 ngày nhưng đang bị block, nay ReturnRequest đổi trạng thái
+            if (lastCutoff != null && returnSince != null) {
+                List<UUID> changed = returnRepo.findOrderItemIdsUpdatedSince(returnSince);
+                for (List<UUID> chunk : chunks(changed)) {
+                    candidates.addAll(itemRepo.findBlockedPayoutCandidateIds(chunk, cutoff));
+                }
             }
 
-            // 2. Chưa đủ 7 ngày
-            LocalDateTime delivered = item.getDeliveredAt();
-            if (delivered.plusDays(7).isAfter(LocalDateTime.now())) {
-                log.info("[WAIT] Item {} chưa đủ 7 ngày (giao: {})", item.getId(), delivered);
-                continue;
+            // 3. Prefetch ReturnRequest mới nhất của cả lô
+            List<UUID> candidateIds = new ArrayList<>(candidates);
+            Map<UUID, ReturnRequest> latestReturn = new HashMap<>();
+            for (List<UUID> chunk : chunks(candidateIds)) {
+                for (ReturnRequest rr : returnRepo.findAllByOrderItemIdIn(chunk)) {
+                    latestReturn.merge(rr.getOrderItemId(), rr, PayoutEligibilityService::newer);
+                }
             }
 
-            // 3. Check ReturnRequest
-            Optional<ReturnRequest> rrOpt =
-                    returnRepo.findTopByOrderItemIdOrderByCreatedAtDesc(item.getId());
-
-            if (rrOpt.isPresent()) {
-
-                ReturnRequest rr = rrOpt.get();
-                ReturnStatus status = rr.getStatus();
-
+            List<UUID> eligible = new ArrayList<>();
+            for (UUID itemId : candidateIds) {
+                ReturnRequest rr = latestReturn.get(itemId);
                 // BLOCK trạng thái return không cho payout
-                if (status != ReturnStatus.CANCELED &&
-                    status != ReturnStatus.DISPUTE_RESOLVED_SHOP) {
-
-                    log.info("[BLOCK] Item {} bị block bởi ReturnStatus: {}",
-                              item.getId(), status);
+                if (rr != null && !NON_BLOCKING_RETURN_STATUSES.contains(rr.getStatus())) {
+                    log.debug("[BLOCK] Item {} bị block bởi ReturnStatus: {}", itemId, rr.getStatus());
                     continue;
                 }
-
+                eligible.add(itemId);
             }
 
+            // 4. UNLOCK cho payout theo lô
+            int updated = 0;
+            for (List<UUID> chunk : chunks(eligible)) {
+                updated += itemRepo.markEligibleForPayout(chunk);
+            }
 
-            // 4. UNLOCK cho payout
-            item.setEligibleForPayout(true);
-            itemRepo.save(item);
+            saveWatermark(JOB_DELIVERED_CUTOFF, cutoff);
+            saveWatermark(JOB_RETURN_CHANGED, runStartedAt);
 
-            log.info("[ELIGIBLE] Item {} đã mở khóa payout", item.getId());
-        }
+            if (updated > 0) {
+                log.info("[ELIGIBLE] Mở khoá payout {} items (xét {} ứng viên)", updated, candidateIds.size());
+            }
+            return updated;
+        });
     }
 
-
     // ========================================================
     // ĐÁNH DẤU ITEM ĐÃ RETURN SAU KHI REFUNDED
     // ========================================================
     @Transactional
     public void checkReturnedItems() {
-
-        List<ReturnRequest> requests =
-                returnRepo.findAllByStatus(ReturnStatus.REFUNDED);
-
-        for (ReturnRequest rr : requests) {
-
-            UUID itemId = rr.getOrderItemId();
-            Optional<StoreOrderItem> itemOpt = itemRepo.findById(itemId);
-
-            if (itemOpt.isEmpty()) {
-                log.warn("[WARN] Không tìm thấy StoreOrderItem ID {}", itemId);
-                continue;
+        timed("returned", () -> {
+            LocalDateTime runStartedAt = LocalDateTime.now();
+            List<UUID> ids = itemRepo.findRefundedUnmarkedIds(minus(readWatermark(JOB_RETURN_REFUNDED), overlap));
+            int updated = 0;
+            for (List<UUID> chunk : chunks(ids)) {
+                updated += itemRepo.markReturned(chunk);
             }
+            saveWatermark(JOB_RETURN_REFUNDED, runStartedAt);
 
-            StoreOrderItem item = itemOpt.get();
-
-            if (!item.getIsReturned()) {
-                item.setIsReturned(true);
-                itemRepo.save(item);
-
-                log.info("[RETURNED] Item {} đã set isReturned = true", item.getId());
+            if (updated > 0) {
+                log.info("[RETURNED] {} items đã set isReturned = true", updated);
             }
-        }
+            return updated;
+        });
     }
 
-
     // ========================================================
     // SYNC deliveredAt TỪ STORE_ORDER → ITEM
     // ========================================================
     @Transactional
     public void syncDeliveredAtForItems() {
-
-        List<StoreOrderItem> items =
-            itemRepo.findAllByDeliveredAtIsNullAndStoreOrder_DeliveredAtIsNotNull();
-
-        if (items.isEmpty()) {
-            log.info("🔍 Không có item nào cần sync deliveredAt.");
-            return;
-        }
-
-        log.info("🚚 Sync deliveredAt cho {} items", items.size());
-
-        for (StoreOrderItem item : items) {
-
-            LocalDateTime deliveredAt = item.getStoreOrder().getDeliveredAt();
-            if (deliveredAt == null) continue;
-
-            item.setDeliveredAt(deliveredAt);
-            itemRepo.save(item);
-
-            log.info("✅ deliveredAt={} cập nhật cho item {}", deliveredAt, item.getId());
-        }
-
-        log.info("🎉 Hoàn tất sync deliveredAt.");
+        timed("delivered-sync", () -> {
+            int updated = 0;
+            for (List<UUID> chunk : chunks(itemRepo.findDeliveredAtSyncIds())) {
+                updated += itemRepo.syncDeliveredAtFromStoreOrder(chunk);
+            }
+            if (updated > 0) {
+                log.info("🚚 Sync deliveredAt cho {} items", updated);
+            }
+            return updated;
+        });
     }
 
-  // ========================================================
-// 🧮 TÍNH PHÍ SHIP CHÊNH LỆCH (GHN thực tế - phí dự kiến)
-// ========================================================
-@Transactional
-public void calculateShippingFeeDifference() {
-
-    // Lấy tất cả items có storeOrder chứa phí ship thực tế
-    List<StoreOrderItem> items =
-            itemRepo.findAllByStoreOrder_ShippingFeeRealIsNotNull();
-
-    if (items.isEmpty()) {
-        log.info("⛔ Không có item nào thuộc đơn có phí ship thực tế để tính chênh lệch.");
-        return;
+    // ========================================================
+    // 🧮 TÍNH PHÍ SHIP CHÊNH LỆCH (GHN thực tế - phí dự kiến)
+    // ========================================================
+    @Transactional
+    public void calculateShippingFeeDifference() {
+        timed("shipping-fee-diff", () -> {
+            // diff <= 0 → shop không phải trả (0); diff > 0 → shop trả diff. Chỉ UPDATE đơn có giá trị đổi.
+            int updated = 0;
+            for (List<UUID> chunk : chunks(storeOrderRepo.findShippingFeeForStoreStaleIds())) {
+                updated += storeOrderRepo.recalculateShippingFeeForStore(chunk);
+            }
+            if (updated > 0) {
+                log.info("📦 Cập nhật phí ship chênh lệch cho {} store orders", updated);
+            }
+            return updated;
+        });
     }
 
-    log.info("🚚 Bắt đầu tính chênh lệch phí ship cho {} items", items.size());
+    /* ================= helpers ================= */
 
-    for (StoreOrderItem item : items) {
-
-        var order = item.getStoreOrder();
-
-        BigDecimal estimated =
-                order.getShippingFee() == null ? BigDecimal.ZERO : order.getShippingFee();
-
-        BigDecimal actual =
-                order.getShippingFeeReal() == null ? BigDecimal.ZERO : order.getShippingFeeReal();
-
-        // CHÊNH = thực tế - dự kiến
-        BigDecimal diff = actual.subtract(estimated);
+    private void timed(String step, Supplier<Integer> work) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        int rows = work.get();
+        sample.stop(meterRegistry.timer("payout.eligibility.run", "step", step));
+        meterRegistry.counter("payout.eligibility.rows", "step", step).increment(rows);
+    }
 
-        // =====================================================
-        // Nếu diff <= 0 → shop KHÔNG phải trả phí (set = 0)
-        // =====================================================
-        if (diff.compareTo(BigDecimal.ZERO) <= 0) {
+    private LocalDateTime readWatermark(String job) {
+        return watermarkRepo.findById(job).map(JobWatermark::getWatermark).orElse(null);
+    }
 
-            order.setShippingFeeForStore(BigDecimal.ZERO);
+    private static LocalDateTime minus(LocalDateTime watermark, Duration window) {
+        return watermark == null ? null : watermark.minus(window);
+    }
 
-            itemRepo.save(item);
+    private void saveWatermark(String job, LocalDateTime value) {
+        watermarkRepo.save(JobWatermark.builder()
+                .jobName(job)
+                .watermark(value)
+                .updatedAt(LocalDateTime.now())
+                .build());
+    }
 
-            log.info("⚠️ Order {} | FeeReal={} <= FeeExpected={} → Không tính phí shop (set 0)",
-                    order.getId(), actual, estimated);
+    private static ReturnRequest newer(ReturnRequest a, ReturnRequest b) {
+        if (a.getCreatedAt() == null) return b;
+        if (b.getCreatedAt() == null) return a;
+        return b.getCreatedAt().isAfter(a.getCreatedAt()) ? b : a;
+    }
 
-            continue;
+    private static List<List<UUID>> chunks(List<UUID> ids) {
+        List<List<UUID>> out = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += CHUNK_SIZE) {
+            out.add(ids.subList(i, Math.min(i + CHUNK_SIZE, ids.size())));
         }
-
-        // =====================================================
-        // diff > 0 → shop phải trả
-        // =====================================================
-        order.setShippingFeeForStore(diff);
-
-        itemRepo.save(item);
-
-        log.info("📦 Order {} | Expected={} | Real={} | Diff={} (Shop trả)",
-                order.getId(), estimated, actual, diff);
+        return out;
     }
-
-    log.info("🎉 Hoàn tất tính phí ship chênh lệch.");
-}
-
 }
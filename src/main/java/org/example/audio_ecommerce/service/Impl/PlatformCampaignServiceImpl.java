@@ -11,6 +11,7 @@ import org.example.audio_ecommerce.dto.response.*;
 import org.example.audio_ecommerce.entity.*;
 import org.example.audio_ecommerce.entity.Enum.*;
 import org.example.audio_ecommerce.repository.*;
+import org.example.audio_ecommerce.scheduler.CampaignTransitionTimer;
 import org.example.audio_ecommerce.service.PlatformCampaignService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
@@ -32,6 +33,8 @@ public class PlatformCampaignServiceImpl implements PlatformCampaignService {
     private final ProductRepository productRepository;
     private final StoreRepository storeRepository;
     private final PlatformCampaignStoreRepository campaignStoreRepository;
+    private final CampaignPriceIndex campaignPriceIndex;
+    private final CampaignTransitionTimer campaignTransitionTimer;
 
     // =====================================================
     // 1) TẠO CAMPAIGN HỢP NHẤT
@@ -92,6 +95,7 @@ public class PlatformCampaignServiceImpl implements PlatformCampaignService {
                         .build());
             }
         }
+        campaignTransitionTimer.rescheduleAfterCommit(campaign.getId());
 
         var res = CampaignWithSlotsResponse.builder()
                 .id(campaign.getId())
@@ -269,6 +273,8 @@ public class PlatformCampaignServiceImpl implements PlatformCampaignService {
 
         // 7️⃣ Lưu cập nhật campaign
         campaignRepository.save(campaign);
+        campaignPriceIndex.refreshCampaignAfterCommit(campaignId);
+        campaignTransitionTimer.rescheduleAfterCommit(campaignId);
 
         // 8️⃣ Build response trả về dạng DTO
         CampaignResponse response = CampaignResponse.builder()
@@ -394,6 +400,7 @@ public class PlatformCampaignServiceImpl implements PlatformCampaignService {
         }
 
         campaignProductRepository.saveAll(toSave);
+        campaignTransitionTimer.rescheduleAfterCommit(campaignId);
         return ResponseEntity.ok(new BaseResponse<>(201, "✅ Joined campaign successfully in DRAFT mode", toSave.size()));
     }
 
@@ -687,6 +694,8 @@ public class PlatformCampaignServiceImpl implements PlatformCampaignService {
         });
 
         campaignProductRepository.saveAll(draftProducts);
+        // Sản phẩm APPROVE đã nằm trong khung giờ đang chạy → lên ACTIVE ngay, không chờ mốc kế tiếp
+        campaignTransitionTimer.rescheduleAfterCommit(campaignId);
 
         // ✅ update storeCampaign approve
         draftProducts.forEach(p -> {
@@ -764,6 +773,8 @@ public class PlatformCampaignServiceImpl implements PlatformCampaignService {
         });
 
         campaignProductRepository.saveAll(products);
+        campaignPriceIndex.refreshCampaignAfterCommit(campaignId);
+        campaignTransitionTimer.rescheduleAfterCommit(campaignId);
 
         // ✅ Response
         List<Map<String, Object>> response = products.stream().map(p -> {
@@ -786,117 +797,13 @@ public class PlatformCampaignServiceImpl implements PlatformCampaignService {
         ));
     }
 
+    /**
+     * Lưới an toàn định kỳ: chuyển trạng thái theo thời gian do {@link CampaignTransitionTimer}
+     * bắn đúng mốc start/end/open/close; ở đây chỉ áp bù những gì đã tới hạn và đặt lại timer.
+     */
     @Override
-    @Transactional
     public void tickAllCampaigns() {
-        LocalDateTime now = LocalDateTime.now();
-
-        System.out.println("🕒 [Scheduler] tickAllCampaigns() chạy lúc: " + now);
-
-        // ==========================================================
-        // 1) UPDATE CAMPAIGN STATUS
-        // ==========================================================
-        List<PlatformCampaign> campaigns = campaignRepository.findAll();
-
-        for (PlatformCampaign c : campaigns) {
-            VoucherStatus oldStatus = c.getStatus();
-
-            if (c.getStartTime() != null && now.isBefore(c.getStartTime())) {
-                continue;
-            }
-
-            // ACTIVE only khi trước đó là ONOPEN hoặc APPROVE  // FIXED
-            if (!now.isBefore(c.getStartTime()) && !now.isAfter(c.getEndTime())) {
-                if (oldStatus == VoucherStatus.ONOPEN || oldStatus == VoucherStatus.APPROVE) { // FIXED
-                    c.setStatus(VoucherStatus.ACTIVE);
-                    System.out.printf("📢 Campaign '%s' chuyển từ %s → ACTIVE%n", c.getName(), oldStatus);
-                }
-            }
-
-            // EXPIRED
-            if (c.getEndTime() != null && now.isAfter(c.getEndTime())) {
-                if (c.getStatus() != VoucherStatus.EXPIRED) {
-                    c.setStatus(VoucherStatus.EXPIRED);
-                    System.out.printf("📢 Campaign '%s' chuyển từ %s → EXPIRED%n", c.getName(), oldStatus);
-                }
-            }
-        }
-        campaignRepository.saveAll(campaigns);
-
-
-        // ==========================================================
-        // 2) SLOT UPDATE (FAST SALE)
-        // ==========================================================
-        List<PlatformCampaignFlashSlot> slots = flashSlotRepository.findAll();
-
-        for (PlatformCampaignFlashSlot s : slots) {
-            PlatformCampaign campaign = s.getCampaign();
-            if (campaign == null || campaign.getStatus() != VoucherStatus.ACTIVE) continue;
-
-            SlotStatus oldStatus = s.getStatus();
-
-            if (!now.isBefore(s.getOpenTime()) && !now.isAfter(s.getCloseTime())) {
-                if (s.getStatus() == SlotStatus.PENDING) {
-                    s.setStatus(SlotStatus.ACTIVE);
-                    System.out.printf("🟢 Slot [%s] của Campaign '%s' chuyển từ %s → ACTIVE%n",
-                            s.getId(), campaign.getName(), oldStatus);
-                }
-            } else if (now.isAfter(s.getCloseTime())) {
-                s.setStatus(SlotStatus.CLOSED);
-            } else if (now.isBefore(s.getOpenTime())) {
-                s.setStatus(SlotStatus.PENDING);
-            }
-        }
-        flashSlotRepository.saveAll(slots);
-
-
-        // ==========================================================
-        // 3) PRODUCT IN CAMPAIGN UPDATE
-        // ==========================================================
-        List<PlatformCampaignProduct> products = campaignProductRepository.findAll();
-
-        for (PlatformCampaignProduct p : products) {
-
-            PlatformCampaign campaign = p.getCampaign();
-            PlatformCampaignFlashSlot slot = p.getFlashSlot();
-            if (campaign == null) continue;
-
-            // FAST SALE
-            if (slot != null) {
-
-                // FIXED: APPROVE cũng được chuyển ACTIVE
-                if (campaign.getStatus() == VoucherStatus.ACTIVE &&
-                        !now.isBefore(slot.getOpenTime()) &&
-                        (p.getStatus() == VoucherStatus.ONOPEN || p.getStatus() == VoucherStatus.APPROVE) && // FIXED
-                        !now.isAfter(slot.getCloseTime())) {
-                    p.setStatus(VoucherStatus.ACTIVE);
-                }
-
-                if (now.isAfter(slot.getCloseTime()) ||
-                        campaign.getStatus() == VoucherStatus.EXPIRED ||
-                        (p.getEndTime() != null && now.isAfter(p.getEndTime()))) {
-                    p.setStatus(VoucherStatus.EXPIRED);
-                }
-            }
-            // MEGA_SALE
-            else {
-
-                // FIXED: APPROVE cũng auto ACTIVE nếu đến giờ chạy
-                if (campaign.getStatus() == VoucherStatus.ACTIVE &&
-                        now.isAfter(campaign.getStartTime()) &&
-                        now.isBefore(campaign.getEndTime()) &&
-                        (p.getStatus() == VoucherStatus.ONOPEN || p.getStatus() == VoucherStatus.APPROVE)) { // FIXED
-                    p.setStatus(VoucherStatus.ACTIVE);
-                }
-
-                if (campaign.getStatus() == VoucherStatus.EXPIRED ||
-                        (p.getEndTime() != null && now.isAfter(p.getEndTime()))) {
-                    p.setStatus(VoucherStatus.EXPIRED);
-                }
-            }
-        }
-
-        campaignProductRepository.saveAll(products);
+        campaignTransitionTimer.reconcileAll();
     }
 
 
@@ -1064,6 +971,8 @@ public class PlatformCampaignServiceImpl implements PlatformCampaignService {
         }
 
         campaignRepository.save(campaign);
+        campaignPriceIndex.refreshCampaignAfterCommit(campaignId);
+        campaignTransitionTimer.rescheduleAfterCommit(campaignId);
 
         return ResponseEntity.ok(
                 new BaseResponse<>(200,
@@ -1291,6 +1200,7 @@ public class PlatformCampaignServiceImpl implements PlatformCampaignService {
                     "updatedAt", now
             ));
         }
+        campaignPriceIndex.refreshCampaignAfterCommit(campaignId);
 
         return ResponseEntity.ok(new BaseResponse<>(
                 200,
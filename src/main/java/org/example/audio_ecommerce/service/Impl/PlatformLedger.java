@@ -0,0 +1,234 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.entity.Enum.WalletOwnerType;
+import org.example.audio_ecommerce.entity.PlatformWallet;
+import org.example.audio_ecommerce.entity.PlatformWalletStripe;
+import org.example.audio_ecommerce.repository.PlatformWalletRepository;
+import org.example.audio_ecommerce.repository.PlatformWalletStripeRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sổ cái ví PLATFORM chia stripe:
+ * - apply(): cộng delta vào 1 stripe ngẫu nhiên bằng UPDATE tại chỗ (không đọc dòng ví) → N settlement
+ *   song song chỉ tranh nhau khi rơi cùng stripe, thay vì xếp hàng trên 1 dòng platform_wallet.
+ * - balances(): platform_wallet + SUM(stripe), cache ngắn cho màn hình / API đọc.
+ * - fold(): định kỳ gộp stripe về dòng platform_wallet rồi đưa stripe về 0 (tổng không đổi).
+ */
+@Slf4j
+@Service
+public class PlatformLedger {
+
+    /** Biến động số dư; dùng dạng Delta.ZERO.total(x).pending(x)... */
+    public record Delta(BigDecimal total, BigDecimal pending, BigDecimal done,
+                        BigDecimal received, BigDecimal refunded) {
+
+        public static final Delta ZERO = new Delta(BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO,
+                BigDecimal.ZERO, BigDecimal.ZERO);
+
+        public Delta total(BigDecimal v) { return new Delta(total.add(v), pending, done, received, refunded); }
+        public Delta pending(BigDecimal v) { return new Delta(total, pending.add(v), done, received, refunded); }
+        public Delta done(BigDecimal v) { return new Delta(total, pending, done.add(v), received, refunded); }
+        public Delta received(BigDecimal v) { return new Delta(total, pending, done, received.add(v), refunded); }
+        public Delta refunded(BigDecimal v) { return new Delta(total, pending, done, received, refunded.add(v)); }
+
+        Delta plus(Delta o) {
+            return new Delta(total.add(o.total), pending.add(o.pending), done.add(o.done),
+                    received.add(o.received), refunded.add(o.refunded));
+        }
+
+        boolean isZero() {
+            return total.signum() == 0 && pending.signum() == 0 && done.signum() == 0
+                    && received.signum() == 0 && refunded.signum() == 0;
+        }
+    }
+
+    private record CachedBalances(Delta balances, long loadedAtNanos) {}
+
+    private final PlatformWalletRepository walletRepo;
+    private final PlatformWalletStripeRepository stripeRepo;
+    private final TransactionTemplate requiresNew;
+    private final int stripes;
+    private final long cacheNanos;
+
+    private volatile UUID walletId;
+    private volatile CachedBalances cached;
+
+    public PlatformLedger(PlatformWalletRepository walletRepo,
+                          PlatformWalletStripeRepository stripeRepo,
+                          PlatformTransactionManager transactionManager,
+                          @Value("${platform.ledger.stripes:16}") int stripes,
+                          @Value("${platform.ledger.balance-cache-ms:2000}") long balanceCacheMs) {
+        this.walletRepo = walletRepo;
+        this.stripeRepo = stripeRepo;
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.stripes = Math.max(1, stripes);
+        this.cacheNanos = balanceCacheMs * 1_000_000L;
+    }
+
+    // ========================================================
+    // GHI
+    // ========================================================
+
+    /** Cộng delta vào 1 stripe; chạy trong transaction của nghiệp vụ gọi tới. */
+    public void apply(Delta delta) {
+        if (delta.isZero()) return;
+        UUID id = walletId();
+        int stripe = ThreadLocalRandom.current().nextInt(stripes);
+        if (addDelta(id, stripe, delta) == 0) {
+            // Tăng số stripe khi đang chạy → tạo stripe thiếu rồi ghi lại
+            ensureStripes(id);
+            if (addDelta(id, stripe, delta) == 0) {
+                throw new IllegalStateException("Platform wallet stripe " + stripe + " not found");
+            }
+        }
+    }
+
+    private int addDelta(UUID id, int stripe, Delta d) {
+        return stripeRepo.addDelta(id, stripe, d.total(), d.pending(), d.done(), d.received(), d.refunded(),
+                LocalDateTime.now());
+    }
+
+    /** Reference ví PLATFORM để gắn vào PlatformTransaction (không SELECT, không khoá dòng ví). */
+    public PlatformWallet walletRef() {
+        return walletRepo.getReferenceById(walletId());
+    }
+
+    /**
+     * Phần được phép trừ khỏi pending (giữ quy tắc cũ: pending không xuống dưới 0).
+     * Đọc tổng hiện tại không khoá → chỉ là chặn mềm, không tuần tự hoá như read-modify-save cũ.
+     */
+    public BigDecimal pendingDebit(BigDecimal amount) {
+        BigDecimal pending = current().pending();
+        return amount.min(pending).max(BigDecimal.ZERO);
+    }
+
+    // ========================================================
+    // ĐỌC
+    // ========================================================
+
+    /** Số dư tổng hợp (cache ngắn). */
+    public Delta balances() {
+        CachedBalances c = cached;
+        if (c != null && System.nanoTime() - c.loadedAtNanos() < cacheNanos) {
+            return c.balances();
+        }
+        return current();
+    }
+
+    /** Số dư đúng của 1 ví: ví PLATFORM cộng thêm stripe, ví khác đọc thẳng. */
+    public Delta balancesOf(PlatformWallet wallet) {
+        Delta own = new Delta(nz(wallet.getTotalBalance()), nz(wallet.getPendingBalance()), nz(wallet.getDoneBalance()),
+                nz(wallet.getReceivedTotal()), nz(wallet.getRefundedTotal()));
+        if (!wallet.getId().equals(walletId())) return own;
+        return balances();
+    }
+
+    /** Số dư tổng hợp đọc mới từ DB (dùng cho kiểm tra trước khi trừ tiền). */
+    public Delta current() {
+        PlatformWalletStripeRepository.Totals t = stripeRepo.sumWithWallet(walletId());
+        if (t == null) throw new NoSuchElementException("Platform wallet not found");
+        Delta fresh = new Delta(nz(t.getTotalBalance()), nz(t.getPendingBalance()), nz(t.getDoneBalance()),
+                nz(t.getReceivedTotal()), nz(t.getRefundedTotal()));
+        cached = new CachedBalances(fresh, System.nanoTime());
+        return fresh;
+    }
+
+    // ========================================================
+    // GỘP (scheduler)
+    // ========================================================
+
+    /** Gộp toàn bộ stripe vào platform_wallet; trả về số stripe khác 0 đã gộp. */
+    public int fold() {
+        Integer folded = requiresNew.execute(st -> {
+            UUID id = walletId();
+            List<PlatformWalletStripe> locked = stripeRepo.findAllForUpdate(id);
+            Delta sum = Delta.ZERO;
+            int n = 0;
+            LocalDateTime now = LocalDateTime.now();
+            for (PlatformWalletStripe s : locked) {
+                Delta d = new Delta(s.getTotalBalance(), s.getPendingBalance(), s.getDoneBalance(),
+                        s.getReceivedTotal(), s.getRefundedTotal());
+                if (d.isZero()) continue;
+                sum = sum.plus(d);
+                n++;
+                s.setTotalBalance(BigDecimal.ZERO);
+                s.setPendingBalance(BigDecimal.ZERO);
+                s.setDoneBalance(BigDecimal.ZERO);
+                s.setReceivedTotal(BigDecimal.ZERO);
+                s.setRefundedTotal(BigDecimal.ZERO);
+                s.setUpdatedAt(now);
+            }
+            if (n > 0) {
+                walletRepo.addBalances(id, sum.total(), sum.pending(), sum.done(), sum.received(), sum.refunded(), now);
+            }
+            return n;
+        });
+        return folded == null ? 0 : folded;
+    }
+
+    // ========================================================
+    // KHỞI TẠO
+    // ========================================================
+
+    private UUID walletId() {
+        UUID id = walletId;
+        if (id == null) {
+            synchronized (this) {
+                id = walletId;
+                if (id == null) {
+                    id = walletRepo.findFirstByOwnerType(WalletOwnerType.PLATFORM)
+                            .map(PlatformWallet::getId)
+                            .orElseThrow(() -> new NoSuchElementException("Platform wallet not found"));
+                    ensureStripes(id);
+                    walletId = id;
+                }
+            }
+        }
+        return id;
+    }
+
+    private void ensureStripes(UUID id) {
+        try {
+            requiresNew.executeWithoutResult(st -> {
+                Set<Integer> existing = new HashSet<>();
+                stripeRepo.findAllByWalletId(id).forEach(s -> existing.add(s.getStripeNo()));
+                for (int i = 0; i < stripes; i++) {
+                    if (existing.contains(i)) continue;
+                    stripeRepo.save(PlatformWalletStripe.builder()
+                            .walletId(id)
+                            .stripeNo(i)
+                            .totalBalance(BigDecimal.ZERO)
+                            .pendingBalance(BigDecimal.ZERO)
+                            .doneBalance(BigDecimal.ZERO)
+                            .receivedTotal(BigDecimal.ZERO)
+                            .refundedTotal(BigDecimal.ZERO)
+                            .updatedAt(LocalDateTime.now())
+                            .build());
+                }
+            });
+        } catch (DataIntegrityViolationException e) {
+            // Instance khác vừa tạo cùng lúc → stripe đã có
+            log.debug("[PlatformLedger] Stripes created concurrently: {}", e.getMessage());
+        }
+    }
+
+    private static BigDecimal nz(BigDecimal v) {
+        return v == null ? BigDecimal.ZERO : v;
+    }
+}
@@ -24,18 +24,21 @@ public class PlatformWalletServiceImpl implements PlatformWalletService {
 
     private final PlatformWalletRepository walletRepository;
     private final PlatformTransactionRepository transactionRepository;
+    private final PlatformLedger platformLedger;
 
     // ====== Mapper nội bộ ======
     private PlatformWalletResponse mapToWalletResponse(PlatformWallet wallet, boolean includeTransactions) {
+        // Ví PLATFORM: số dư = dòng ví + các stripe chưa gộp (cache ngắn)
+        PlatformLedger.Delta balances = platformLedger.balancesOf(wallet);
         PlatformWalletResponse.PlatformWalletResponseBuilder builder = PlatformWalletResponse.builder()
                 .id(wallet.getId())
                 .ownerType(wallet.getOwnerType())
                 .ownerId(wallet.getOwnerId())
-                .totalBalance(wallet.getTotalBalance())
-                .pendingBalance(wallet.getPendingBalance())
-                .doneBalance(wallet.getDoneBalance())
-                .receivedTotal(wallet.getReceivedTotal())
-                .refundedTotal(wallet.getRefundedTotal())
+                .totalBalance(balances.total())
+                .pendingBalance(balances.pending())
+                .doneBalance(balances.done())
+                .receivedTotal(balances.received())
+                .refundedTotal(balances.refunded())
                 .currency(wallet.getCurrency())
                 .createdAt(wallet.getCreatedAt());
 
@@ -0,0 +1,128 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.LangChain4J.AiSqlResultCache;
+import org.example.audio_ecommerce.repository.ProductRepository;
+import org.example.audio_ecommerce.util.AfterCommit;
+import org.example.audio_ecommerce.util.CampaignPricing;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Duy trì cột denormalized {@code products.effective_min_price}:
+ * giá thấp nhất đang bán = min(giá variant) hoặc finalPrice/price, sau khi áp campaign tốt nhất đang chạy.
+ * - Sản phẩm tạo/sửa → tính lại sau commit.
+ * - Rule campaign của sản phẩm đổi (CampaignPriceIndex báo) → tính lại đúng những sản phẩm đó.
+ * - Tính lại xong → bỏ kết quả AI search phụ thuộc giá của các sản phẩm đó.
+ * - Khởi động → backfill các dòng chưa có giá trị.
+ */
+@Slf4j
+@Service
+public class ProductEffectivePriceService {
+
+    private static final int CHUNK_SIZE = 500;
+    private static final int MAX_BACKFILL_CHUNKS = 1_000;
+
+    private final ProductRepository productRepository;
+    private final CampaignPriceIndex campaignPriceIndex;
+    private final AiSqlResultCache aiSqlResultCache;
+    private final TransactionTemplate writeTx;
+
+    public ProductEffectivePriceService(ProductRepository productRepository,
+                                        CampaignPriceIndex campaignPriceIndex,
+                                        AiSqlResultCache aiSqlResultCache,
+                                        PlatformTransactionManager transactionManager) {
+        this.productRepository = productRepository;
+        this.campaignPriceIndex = campaignPriceIndex;
+        this.aiSqlResultCache = aiSqlResultCache;
+        this.writeTx = new TransactionTemplate(transactionManager);
+        // Có thể được gọi trong afterCommit của transaction khác → luôn mở transaction mới
+        this.writeTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    @PostConstruct
+    public void registerListener() {
+        campaignPriceIndex.addProductChangeListener(this::recompute);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillMissing() {
+        int total = 0;
+        try {
+            for (int i = 0; i < MAX_BACKFILL_CHUNKS; i++) {
+                List<UUID> ids = productRepository.findIdsMissingEffectivePrice(PageRequest.of(0, CHUNK_SIZE));
+                if (ids.isEmpty()) break;
+                total += recompute(ids);
+            }
+        } catch (Exception e) {
+            log.warn("[ProductEffectivePrice] Backfill stopped: {}", e.getMessage());
+        }
+        if (total > 0) {
+            log.info("[ProductEffectivePrice] Backfilled effective_min_price for {} products", total);
+        }
+    }
+
+    public void recomputeAfterCommit(UUID productId) {
+        if (productId == null) return;
+        AfterCommit.run(() -> {
+            try {
+                recompute(List.of(productId));
+            } catch (Exception e) {
+                log.warn("[ProductEffectivePrice] Recompute {} failed: {}", productId, e.getMessage());
+            }
+        });
+    }
+
+    /** Tính lại và ghi effective_min_price cho các sản phẩm (theo lô). */
+    public int recompute(Collection<UUID> productIds) {
+        if (productIds == null || productIds.isEmpty()) return 0;
+
+        List<UUID> ids = new ArrayList<>(productIds);
+        int updated = 0;
+        for (int from = 0; from < ids.size(); from += CHUNK_SIZE) {
+            List<UUID> chunk = ids.subList(from, Math.min(from + CHUNK_SIZE, ids.size()));
+            Integer n = writeTx.execute(st -> recomputeChunk(chunk));
+            updated += n == null ? 0 : n;
+        }
+        // writeTx là REQUIRES_NEW → giá mới đã commit; có thể đang chạy trong afterCommit của transaction khác
+        // nên bỏ cache ngay thay vì đăng ký thêm AfterCommit (sẽ không được gọi)
+        if (updated > 0) aiSqlResultCache.invalidatePrices(ids);
+        return updated;
+    }
+
+    private int recomputeChunk(List<UUID> ids) {
+        LocalDateTime now = LocalDateTime.now();
+        int updated = 0;
+        for (Object[] row : productRepository.findPriceBasis(ids)) {
+            UUID productId = (UUID) row[0];
+            BigDecimal price = effectiveMinPrice(
+                    (BigDecimal) row[1], (BigDecimal) row[2], (BigDecimal) row[3], productId, now);
+            updated += productRepository.updateEffectiveMinPrice(productId, price);
+        }
+        return updated;
+    }
+
+    private BigDecimal effectiveMinPrice(BigDecimal price, BigDecimal finalPrice, BigDecimal minVariantPrice,
+                                         UUID productId, LocalDateTime now) {
+        BigDecimal base = basePrice(price, finalPrice, minVariantPrice);
+        if (base == null) return null;
+        // Giảm % / cố định / trần đều đơn điệu theo giá gốc → áp lên giá thấp nhất là đủ
+        return CampaignPricing.bestPrice(base, campaignPriceIndex.findPricedCampaigns(productId, now));
+    }
+
+    /** Cùng quy tắc với feed cũ: có variant → giá variant thấp nhất, không thì finalPrice (hoặc price). */
+    static BigDecimal basePrice(BigDecimal price, BigDecimal finalPrice, BigDecimal minVariantPrice) {
+        if (minVariantPrice != null) return minVariantPrice;
+        return finalPrice != null ? finalPrice : price;
+    }
+}
@@ -0,0 +1,488 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.entity.Category;
+import org.example.audio_ecommerce.entity.Enum.ProductStatus;
+import org.example.audio_ecommerce.entity.Product;
+import org.example.audio_ecommerce.entity.ProductAttributeValue;
+import org.example.audio_ecommerce.repository.ProductRepository;
+import org.example.audio_ecommerce.util.AfterCommit;
+import org.example.audio_ecommerce.util.VietnameseText;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Chỉ mục tìm kiếm sản phẩm trong bộ nhớ (inverted index):
+ * - Đánh chỉ mục name, brandName, model, mô tả, tên danh mục và giá trị thuộc tính, đã bỏ dấu tiếng Việt
+ *   ("loa bluetooth" khớp "Loa Bluetooth", "tai nghe" khớp "Tai Nghe").
+ * - Mỗi từ khoá khớp chính xác, theo tiền tố, hoặc gần đúng theo trigram (gõ sai 1-2 ký tự).
+ * - Xếp hạng theo trọng số trường × idf; mọi từ khoá đều phải khớp (AND).
+ * - Đếm facet theo thương hiệu / danh mục trên tập kết quả.
+ * - Cập nhật từng sản phẩm sau khi tạo/sửa/duyệt commit; build toàn bộ lúc khởi động và định kỳ.
+ */
+@Slf4j
+@Component
+public class ProductSearchIndex {
+
+    public record Hit(UUID productId, double score) {}
+
+    public record CategoryFacet(UUID categoryId, String name, long count) {}
+
+    public record SearchResult(List<Hit> hits, int total,
+                               Map<String, Long> brands, List<CategoryFacet> categories) {}
+
+    /** Dữ liệu đã trích từ entity (trong transaction) để đánh chỉ mục ngoài transaction. */
+    private record Source(UUID productId, ProductStatus status, String brandName,
+                          List<CategoryFacet> categories, Map<String, Double> terms) {}
+
+    private record Doc(UUID productId, ProductStatus status, String brandName, String brandKey,
+                       List<CategoryFacet> categories, Map<String, Double> terms) {}
+
+    /** Toàn bộ dữ liệu chỉ mục; thay nguyên khối khi rebuild, sửa tại chỗ khi cập nhật từng sản phẩm. */
+    private static final class Segment {
+        final Map<UUID, Doc> docs = new HashMap<>();
+        final NavigableMap<String, Map<UUID, Double>> postings = new TreeMap<>();
+        final Map<String, Set<String>> termsByTrigram = new HashMap<>();
+    }
+
+    // Trọng số theo trường: khớp tên quan trọng hơn khớp mô tả
+    private static final double W_NAME = 3.0;
+    private static final double W_BRAND = 2.5;
+    private static final double W_MODEL = 2.0;
+    private static final double W_CATEGORY = 1.5;
+    private static final double W_ATTRIBUTE = 1.0;
+    private static final double W_SHORT_DESC = 0.5;
+    private static final double W_DESC = 0.3;
+
+    private static final double PREFIX_FACTOR = 0.8;
+    private static final double FUZZY_FACTOR = 0.6;
+    private static final double MIN_FUZZY_SIMILARITY = 0.5;
+    private static final int MAX_QUERY_TOKENS = 8;
+    private static final int MAX_PREFIX_EXPANSIONS = 50;
+    private static final int MAX_FUZZY_EXPANSIONS = 10;
+    private static final int MAX_DESCRIPTION_CHARS = 2_000;
+    private static final int BUILD_BATCH_SIZE = 500;
+
+    private final ProductRepository productRepository;
+    private final TransactionTemplate readTx;
+    private final TransactionTemplate writeTx;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object rebuildMonitor = new Object();
+
+    private final Timer queryTimer;
+    private final Timer rebuildTimer;
+
+    // null = chưa build xong → service dùng LIKE như cũ
+    private Segment segment;
+
+    // != null khi đang rebuild: các id được reindex trong lúc rebuild đọc DB (guard bởi lock)
+    private Set<UUID> touchedDuringRebuild;
+
+    public ProductSearchIndex(ProductRepository productRepository,
+                              PlatformTransactionManager transactionManager,
+                              MeterRegistry meterRegistry) {
+        this.productRepository = productRepository;
+        this.readTx = new TransactionTemplate(transactionManager);
+        this.readTx.setReadOnly(true);
+        this.readTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.writeTx = new TransactionTemplate(transactionManager);
+        this.writeTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        this.queryTimer = meterRegistry.timer("product.search.query");
+        this.rebuildTimer = meterRegistry.timer("product.search.rebuild");
+        meterRegistry.gauge("product.search.index.docs", this, ProductSearchIndex::size);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        try {
+            backfillSearchText();
+        } catch (Exception e) {
+            log.warn("[ProductSearchIndex] search_text backfill stopped: {}", e.getMessage());
+        }
+        try {
+            rebuildAll();
+        } catch (Exception e) {
+            log.error("[ProductSearchIndex] Initial build failed, search falls back to LIKE", e);
+        }
+    }
+
+    public boolean isReady() {
+        lock.readLock().lock();
+        try {
+            return segment != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return segment == null ? 0 : segment.docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // =====================================================
+    // QUERY
+    // =====================================================
+
+    /**
+     * Tìm theo từ khoá, lọc status/danh mục/thương hiệu, trả về 1 trang kết quả đã xếp hạng + facet.
+     * Facet thương hiệu bỏ qua bộ lọc thương hiệu (và ngược lại) để FE hiển thị được các lựa chọn khác.
+     *
+     * @return empty nếu chỉ mục chưa sẵn sàng
+     */
+    public Optional<SearchResult> search(String query, ProductStatus status, UUID categoryId, String brand,
+                                         int offset, int limit) {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            if (segment == null) return Optional.empty();
+
+            Map<UUID, Double> scores = match(segment, query);
+            String brandKey = brand == null || brand.isBlank() ? null : VietnameseText.fold(brand.trim());
+
+            List<Hit> hits = new ArrayList<>();
+            Map<String, Long> brandFacets = new TreeMap<>();
+            Map<UUID, CategoryFacet> categoryFacets = new HashMap<>();
+
+            for (var e : scores.entrySet()) {
+                Doc doc = segment.docs.get(e.getKey());
+                if (status != null && doc.status() != status) continue;
+
+                boolean categoryOk = categoryId == null
+                        || doc.categories().stream().anyMatch(c -> c.categoryId().equals(categoryId));
+                boolean brandOk = brandKey == null || brandKey.equals(doc.brandKey());
+
+                if (categoryOk && doc.brandName() != null) {
+                    brandFacets.merge(doc.brandName(), 1L, Long::sum);
+                }
+                if (brandOk) {
+                    for (CategoryFacet c : doc.categories()) {
+                        categoryFacets.merge(c.categoryId(), c,
+                                (a, b) -> new CategoryFacet(a.categoryId(), a.name(), a.count() + 1));
+                    }
+                }
+                if (categoryOk && brandOk) {
+                    hits.add(new Hit(doc.productId(), e.getValue()));
+                }
+            }
+
+            hits.sort(Comparator.comparingDouble(Hit::score).reversed().thenComparing(Hit::productId));
+            int from = Math.min(Math.max(offset, 0), hits.size());
+            int to = Math.min(from + Math.max(limit, 0), hits.size());
+
+            List<CategoryFacet> categories = new ArrayList<>(categoryFacets.values());
+            categories.sort(Comparator.comparingLong(CategoryFacet::count).reversed()
+                    .thenComparing(CategoryFacet::name, Comparator.nullsLast(Comparator.naturalOrder())));
+
+            return Optional.of(new SearchResult(List.copyOf(hits.subList(from, to)), hits.size(),
+                    brandFacets, categories));
+        } finally {
+            lock.readLock().unlock();
+            queryTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Tập productId khớp từ khoá (dùng thay LIKE cho feed thumbnail).
+     *
+     * @return empty nếu chỉ mục chưa sẵn sàng hoặc số kết quả vượt {@code maxIds} (để caller giữ LIKE)
+     */
+    public Optional<Set<UUID>> matchIds(String query, int maxIds) {
+        lock.readLock().lock();
+        try {
+            if (segment == null) return Optional.empty();
+            Map<UUID, Double> scores = match(segment, query);
+            if (scores.size() > maxIds) return Optional.empty();
+            return Optional.of(new HashSet<>(scores.keySet()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** productId → điểm; mọi token của câu truy vấn đều phải khớp. */
+    private static Map<UUID, Double> match(Segment seg, String query) {
+        List<String> tokens = VietnameseText.tokenize(query).stream().distinct().limit(MAX_QUERY_TOKENS).toList();
+        if (tokens.isEmpty()) return Map.of();
+
+        int totalDocs = Math.max(seg.docs.size(), 1);
+        Map<UUID, Double> result = null;
+
+        for (String token : tokens) {
+            Map<UUID, Double> tokenScores = new HashMap<>();
+            for (var exp : expand(seg, token).entrySet()) {
+                Map<UUID, Double> postings = seg.postings.get(exp.getKey());
+                double idf = Math.log(1.0 + (double) totalDocs / postings.size());
+                for (var p : postings.entrySet()) {
+                    double w = p.getValue();
+                    // Bão hoà kiểu BM25: lặp lại nhiều lần không kéo điểm lên vô hạn
+                    double s = exp.getValue() * idf * (w * 2.2 / (w + 1.2));
+                    tokenScores.merge(p.getKey(), s, Math::max);
+                }
+            }
+            if (tokenScores.isEmpty()) return Map.of();
+
+            if (result == null) {
+                result = tokenScores;
+            } else {
+                Map<UUID, Double> next = new HashMap<>();
+                for (var e : result.entrySet()) {
+                    Double s = tokenScores.get(e.getKey());
+                    if (s != null) next.put(e.getKey(), e.getValue() + s);
+                }
+                if (next.isEmpty()) return Map.of();
+                result = next;
+            }
+        }
+        return result;
+    }
+
+    /** term trong chỉ mục → hệ số khớp (1.0 chính xác, thấp hơn cho tiền tố / gần đúng). */
+    private static Map<String, Double> expand(Segment seg, String token) {
+        Map<String, Double> terms = new HashMap<>();
+        if (seg.postings.containsKey(token)) {
+            terms.put(token, 1.0);
+        }
+
+        if (token.length() >= 2) {
+            int n = 0;
+            for (String term : seg.postings.subMap(token, false, token + Character.MAX_VALUE, false).keySet()) {
+                if (n++ >= MAX_PREFIX_EXPANSIONS) break;
+                terms.putIfAbsent(term, PREFIX_FACTOR);
+            }
+        }
+
+        if (terms.isEmpty() && token.length() >= 3) {
+            Set<String> grams = VietnameseText.trigrams(token);
+            Map<String, Integer> shared = new HashMap<>();
+            for (String g : grams) {
+                for (String term : seg.termsByTrigram.getOrDefault(g, Set.of())) {
+                    shared.merge(term, 1, Integer::sum);
+                }
+            }
+            shared.entrySet().stream()
+                    // Dice trên trigram; term độ dài L có L trigram (đã đệm biên)
+                    .map(e -> Map.entry(e.getKey(), 2.0 * e.getValue() / (grams.size() + e.getKey().length())))
+                    .filter(e -> e.getValue() >= MIN_FUZZY_SIMILARITY)
+                    .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+                    .limit(MAX_FUZZY_EXPANSIONS)
+                    .forEach(e -> terms.put(e.getKey(), FUZZY_FACTOR * e.getValue()));
+        }
+        return terms;
+    }
+
+    // =====================================================
+    // UPDATE
+    // =====================================================
+
+    /** Đánh lại chỉ mục 1 sản phẩm sau khi transaction hiện tại commit (ngoài transaction → ngay). */
+    public void reindexAfterCommit(UUID productId) {
+        if (productId == null) return;
+        AfterCommit.run(() -> {
+            try {
+                reindex(List.of(productId));
+            } catch (Exception e) {
+                // Không làm hỏng request vừa commit; rebuild định kỳ sẽ đồng bộ lại
+                log.warn("[ProductSearchIndex] Reindex {} failed: {}", productId, e.getMessage());
+            }
+        });
+    }
+
+    public void reindex(Collection<UUID> productIds) {
+        if (productIds == null || productIds.isEmpty()) return;
+        if (!isReady()) {
+            rebuildAll();
+            return;
+        }
+        List<Source> sources = readTx.execute(st ->
+                productRepository.findAllById(productIds).stream().map(ProductSearchIndex::toSource).toList());
+
+        Map<UUID, Source> byId = new HashMap<>();
+        for (Source s : sources == null ? List.<Source>of() : sources) byId.put(s.productId(), s);
+
+        lock.writeLock().lock();
+        try {
+            for (UUID id : productIds) {
+                remove(segment, id);
+                Source s = byId.get(id);
+                if (s != null) add(segment, s);
+            }
+            if (touchedDuringRebuild != null) touchedDuringRebuild.addAll(productIds);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Build lại toàn bộ (khởi động + lưới an toàn định kỳ), duyệt bảng products theo keyset productId.
+     * Sản phẩm được reindex trong lúc đọc DB giữ bản trong segment đang chạy (mới hơn batch đã đọc),
+     * nên rebuild không ghi đè cập nhật đồng thời.
+     */
+    public void rebuildAll() {
+        synchronized (rebuildMonitor) {
+            lock.writeLock().lock();
+            try {
+                touchedDuringRebuild = new HashSet<>();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            try {
+                rebuildLocked();
+            } finally {
+                lock.writeLock().lock();
+                try {
+                    touchedDuringRebuild = null;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    private void rebuildLocked() {
+        long start = System.nanoTime();
+        Segment fresh = new Segment();
+        UUID after = null;
+        while (true) {
+            UUID cursor = after;
+            List<Source> batch = readTx.execute(st -> productRepository
+                    .findSearchIndexBatch(cursor, PageRequest.of(0, BUILD_BATCH_SIZE))
+                    .stream().map(ProductSearchIndex::toSource).toList());
+            if (batch == null || batch.isEmpty()) break;
+            for (Source s : batch) add(fresh, s);
+            after = batch.get(batch.size() - 1).productId();
+            if (batch.size() < BUILD_BATCH_SIZE) break;
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (segment != null) {
+                for (UUID id : touchedDuringRebuild) {
+                    remove(fresh, id);
+                    Doc live = segment.docs.get(id);
+                    if (live != null) {
+                        add(fresh, new Source(live.productId(), live.status(), live.brandName(),
+                                live.categories(), live.terms()));
+                    }
+                }
+            }
+            segment = fresh;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        long elapsed = System.nanoTime() - start;
+        rebuildTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        log.info("[ProductSearchIndex] Indexed {} products ({} terms) in {} ms",
+                fresh.docs.size(), fresh.postings.size(), elapsed / 1_000_000);
+    }
+
+    /** Điền products.search_text (bỏ dấu) cho dòng tạo trước khi có cột, để LIKE fallback cũng bỏ dấu. */
+    public int backfillSearchText() {
+        int total = 0;
+        while (true) {
+            Integer n = writeTx.execute(st -> {
+                List<Product> batch = productRepository.findMissingSearchText(PageRequest.of(0, BUILD_BATCH_SIZE));
+                // Không sửa entity (tránh @PreUpdate đổi updatedAt) → ghi bằng bulk update
+                for (Product p : batch) {
+                    productRepository.updateSearchText(p.getProductId(), p.computeSearchText());
+                }
+                return batch.size();
+            });
+            if (n == null || n == 0) break;
+            total += n;
+            if (n < BUILD_BATCH_SIZE) break;
+        }
+        if (total > 0) {
+            log.info("[ProductSearchIndex] Backfilled search_text for {} products", total);
+        }
+        return total;
+    }
+
+    private static void add(Segment seg, Source s) {
+        seg.docs.put(s.productId(), new Doc(s.productId(), s.status(), s.brandName(),
+                s.brandName() == null ? null : VietnameseText.fold(s.brandName().trim()),
+                s.categories(), s.terms()));
+        for (var t : s.terms().entrySet()) {
+            Map<UUID, Double> postings = seg.postings.get(t.getKey());
+            if (postings == null) {
+                postings = new HashMap<>();
+                seg.postings.put(t.getKey(), postings);
+                for (String g : VietnameseText.trigrams(t.getKey())) {
+                    seg.termsByTrigram.computeIfAbsent(g, k -> new HashSet<>()).add(t.getKey());
+                }
+            }
+            postings.put(s.productId(), t.getValue());
+        }
+    }
+
+    private static void remove(Segment seg, UUID productId) {
+        Doc old = seg.docs.remove(productId);
+        if (old == null) return;
+        for (String term : old.terms().keySet()) {
+            Map<UUID, Double> postings = seg.postings.get(term);
+            if (postings == null) continue;
+            postings.remove(productId);
+            if (postings.isEmpty()) {
+                seg.postings.remove(term);
+                for (String g : VietnameseText.trigrams(term)) {
+                    Set<String> terms = seg.termsByTrigram.get(g);
+                    if (terms != null && terms.remove(term) && terms.isEmpty()) {
+                        seg.termsByTrigram.remove(g);
+                    }
+                }
+            }
+        }
+    }
+
+    private static Source toSource(Product p) {
+        Map<String, Double> terms = new HashMap<>();
+        addField(terms, p.getName(), W_NAME);
+        addField(terms, p.getBrandName(), W_BRAND);
+        addField(terms, p.getModel(), W_MODEL);
+        addField(terms, plainText(p.getShortDescription()), W_SHORT_DESC);
+        addField(terms, plainText(p.getDescription()), W_DESC);
+
+        List<CategoryFacet> categories = new ArrayList<>();
+        if (p.getCategories() != null) {
+            for (Category c : p.getCategories()) {
+                categories.add(new CategoryFacet(c.getCategoryId(), c.getName(), 1));
+                addField(terms, c.getName(), W_CATEGORY);
+            }
+        }
+        if (p.getAttributeValues() != null) {
+            for (ProductAttributeValue v : p.getAttributeValues()) {
+                addField(terms, v.getValue(), W_ATTRIBUTE);
+            }
+        }
+        return new Source(p.getProductId(), p.getStatus(), p.getBrandName(), List.copyOf(categories), terms);
+    }
+
+    private static void addField(Map<String, Double> terms, String text, double weight) {
+        if (text == null || text.isBlank()) return;
+        for (String token : VietnameseText.tokenize(text)) {
+            terms.merge(token, weight, Double::sum);
+        }
+    }
+
+    // Mô tả có thể là HTML dài → bỏ thẻ, cắt bớt
+    private static String plainText(String html) {
+        if (html == null) return null;
+        String text = html.length() > MAX_DESCRIPTION_CHARS ? html.substring(0, MAX_DESCRIPTION_CHARS) : html;
+        return text.replaceAll("<[^>]*>", " ");
+    }
+}
@@ -4,6 +4,7 @@
 package org.example.audio_ecommerce.service.Impl;
 
 import lombok.RequiredArgsConstructor;
+import org.example.audio_ecommerce.LangChain4J.AiSqlResultCache;
 import org.example.audio_ecommerce.dto.request.*;
 import org.example.audio_ecommerce.dto.response.BaseResponse;
 import org.example.audio_ecommerce.dto.response.ProductResponse;
@@ -35,6 +36,9 @@ public class ProductServiceImpl implements ProductService {
     private final ProductVariantRepository productVariantRepository;
     private final PlatformCampaignProductRepository platformCampaignProductRepository;
     private final StoreOrderItemRepository storeOrderItemRepository;
+    private final ProductEffectivePriceService productEffectivePriceService;
+    private final ProductSearchIndex productSearchIndex;
+    private final AiSqlResultCache aiSqlResultCache;
 
     // ================================================
     // SLUG HELPER
@@ -176,6 +180,9 @@ public class ProductServiceImpl implements ProductService {
                 p.setStockQuantity(calculateVariantStockTotal(p.getProductId()));
                 productRepository.save(p);
             }
+            productEffectivePriceService.recomputeAfterCommit(p.getProductId());
+            productSearchIndex.reindexAfterCommit(p.getProductId());
+            aiSqlResultCache.invalidateAllAfterCommit();
 
             return ResponseEntity.ok(
                     new BaseResponse<>(201, "✅ Product created successfully", p.getProductId())
@@ -390,6 +397,9 @@ public class ProductServiceImpl implements ProductService {
             }
 
             productRepository.save(p);
+            productEffectivePriceService.recomputeAfterCommit(id);
+            productSearchIndex.reindexAfterCommit(id);
+            aiSqlResultCache.invalidateAllAfterCommit();
 
             return ResponseEntity.ok(
                     new BaseResponse<>(200, "✏️ Product updated successfully", id)
@@ -611,6 +621,7 @@ public class ProductServiceImpl implements ProductService {
 
             product.setUpdatedAt(LocalDateTime.now());
             productRepository.save(product);
+            productSearchIndex.reindexAfterCommit(productId);
 
             return ResponseEntity.ok(
                     new BaseResponse<>(200, "🚫 Product status updated", toResponse(product))
@@ -675,6 +686,7 @@ public class ProductServiceImpl implements ProductService {
             }
 
             productRepository.save(product);
+            productSearchIndex.reindexAfterCommit(productId);
 
             return ResponseEntity.ok(
                     BaseResponse.success("✔ Product review updated", Map.of(
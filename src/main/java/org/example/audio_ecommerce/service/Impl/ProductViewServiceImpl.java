@@ -10,12 +10,18 @@ import org.example.audio_ecommerce.repository.PlatformCampaignProductRepository;
 import org.example.audio_ecommerce.repository.ProductRepository;
 import org.example.audio_ecommerce.repository.ShopVoucherProductRepository;
 import org.example.audio_ecommerce.service.ProductViewService;
+import org.springframework.data.domain.KeysetScrollPosition;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -27,6 +33,11 @@ public class ProductViewServiceImpl implements ProductViewService {
     private final ProductRepository productRepo;
     private final ShopVoucherProductRepository shopVoucherProductRepo;
     private final PlatformCampaignProductRepository platformCampaignProductRepo;
+    private final CampaignPriceIndex campaignPriceIndex;
+    private final ProductSearchIndex productSearchIndex;
+
+    // Keyword khớp quá nhiều sản phẩm → IN (...) không còn lợi, giữ LIKE
+    private static final int MAX_KEYWORD_IDS = 2_000;
 
     // =========================================================
     // 1) LIST THUMBNAIL VIEW + FILTER
@@ -45,7 +56,9 @@ public ResponseEntity<BaseResponse> getThumbnailView(
         BigDecimal minRating,
         Pageable pageable,
         String sortBy,
-        String sortDir
+        String sortDir,
+        boolean scroll,
+        String cursor
 ) {
 
     // ==========================================
@@ -61,95 +74,147 @@ public ResponseEntity<BaseResponse> getThumbnailView(
         }
     }
 
-    // ==========================================
-    // ✔ GỌI REPOSITORY ĐÚNG — ĐIỂM BỊ THIẾU
-    // ==========================================
-    Page<Product> products = productRepo.findAllWithAdvancedFilters(
+    // ======================================================
+    // 🔥 SORT: giá dùng cột effective_min_price, productId làm tie-breaker (ổn định cho cả offset & keyset)
+    // ======================================================
+    String sortProperty = "price".equalsIgnoreCase(sortBy) ? "effectiveMinPrice" : "name";
+    Sort.Direction direction = "desc".equalsIgnoreCase(sortDir) ? Sort.Direction.DESC : Sort.Direction.ASC;
+    Sort sort = Sort.by(direction, sortProperty).and(Sort.by(direction, "productId"));
+
+    // Keyset theo giá không đi qua được dòng NULL → feed cuộn chỉ gồm sản phẩm đã có giá
+    BigDecimal effectiveMinPrice = minPrice;
+    if (scroll && "effectiveMinPrice".equals(sortProperty) && effectiveMinPrice == null) {
+        effectiveMinPrice = BigDecimal.ZERO;
+    }
+
+    // 🔍 Keyword: tra chỉ mục tìm kiếm (bỏ dấu, gần đúng); chưa sẵn sàng / quá nhiều kết quả → LIKE trên search_text (đã bỏ dấu)
+    String likeKeyword = keyword;
+    Collection<UUID> keywordIds = null;
+    if (keyword != null && !keyword.isBlank()) {
+        Optional<Set<UUID>> ids = productSearchIndex.matchIds(keyword, MAX_KEYWORD_IDS);
+        if (ids.isPresent()) {
+            keywordIds = ids.get();
+            likeKeyword = null;
+        }
+    }
+
+    ProductRepository.ThumbnailFilter filter = new ProductRepository.ThumbnailFilter(
             statusEnum,
             categoryId,
             storeId,
-            keyword,
+            likeKeyword,
             provinceCode,
             districtCode,
             wardCode,
-            pageable
+            effectiveMinPrice,
+            maxPrice,
+            minRating,
+            keywordIds
     );
 
     LocalDateTime now = LocalDateTime.now();
+    Map<String, Object> result = new LinkedHashMap<>();
 
     // ======================================================
-    // 🔥 FILTER PRICE (PRODUCT + VARIANT)
+    // KEYSET (infinite scroll)
     // ======================================================
-    List<Product> filtered = products.getContent().stream()
-            .filter(p -> {
-                BigDecimal basePrice = p.getFinalPrice() != null ? p.getFinalPrice() : p.getPrice();
-
-                BigDecimal lowestPrice = basePrice;
-                if (p.getVariants() != null && !p.getVariants().isEmpty()) {
-                    lowestPrice = p.getVariants().stream()
-                            .map(ProductVariantEntity::getVariantPrice)
-                            .filter(Objects::nonNull)
-                            .min(BigDecimal::compareTo)
-                            .orElse(basePrice);
-                }
-
-                if (minPrice != null && lowestPrice.compareTo(minPrice) < 0) return false;
-                if (maxPrice != null && lowestPrice.compareTo(maxPrice) > 0) return false;
-
-                return true;
-            })
-
-            // ======================================================
-            // 🔥 FILTER RATING
-            // ======================================================
-            .filter(p ->
-                    minRating == null
-                            || (p.getRatingAverage() != null
-                            && p.getRatingAverage().compareTo(minRating) >= 0)
-            )
-
-            // ======================================================
-            // 🔥 FUZZY SEARCH (Name + Brand + Desc)
-            // ======================================================
-            .filter(p -> {
-                if (keyword == null || keyword.isBlank()) return true;
-                return fuzzyMatch(p.getName(), keyword)
-                        || fuzzyMatch(p.getBrandName(), keyword)
-                        || fuzzyMatch(p.getDescription(), keyword);
-            })
-
-            .toList();
+    if (scroll) {
+        ScrollPosition position;
+        try {
+            position = decodeCursor(cursor, sortProperty);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(BaseResponse.error("❌ Invalid cursor"));
+        }
+
+        Window<Product> window = productRepo.scrollThumbnails(filter, sort, position, pageable.getPageSize());
+        result.put("data", window.getContent().stream().map(product -> toThumbnail(product, now)).toList());
+
+        Map<String, Object> page = new LinkedHashMap<>();
+        page.put("pageSize", pageable.getPageSize());
+        page.put("hasNext", window.hasNext());
+        page.put("nextCursor", window.hasNext() && !window.isEmpty()
+                ? encodeCursor(window.positionAt(window.size() - 1), sortProperty)
+                : null);
+        result.put("page", page);
+
+        return ResponseEntity.ok(BaseResponse.success("✅ Lấy danh sách thumbnail thành công", result));
+    }
 
     // ======================================================
-    // 🔥 SORTING
+    // OFFSET PAGINATION (lọc + sort + count đều trong SQL)
     // ======================================================
-    Comparator<Product> comparator;
-
-    switch (sortBy.toLowerCase()) {
-        case "price" -> {
-            comparator = Comparator.comparing(p -> {
-                BigDecimal basePrice = p.getFinalPrice() != null ? p.getFinalPrice() : p.getPrice();
-                if (p.getVariants() != null && !p.getVariants().isEmpty()) {
-                    return p.getVariants().stream()
-                            .map(ProductVariantEntity::getVariantPrice)
-                            .filter(Objects::nonNull)
-                            .min(BigDecimal::compareTo)
-                            .orElse(basePrice);
-                }
-                return basePrice;
-            });
+    Page<Product> products = productRepo.searchThumbnails(
+            filter,
+            PageRequest.of(pageable.getPageNumber(), pageable.getPageSize(), sort)
+    );
+
+    result.put("data", products.getContent().stream().map(product -> toThumbnail(product, now)).toList());
+    result.put("page", Map.of(
+            "pageNumber", pageable.getPageNumber(),
+            "pageSize", pageable.getPageSize(),
+            "totalPages", products.getTotalPages(),
+            "totalElements", products.getTotalElements()
+    ));
+
+    return ResponseEntity.ok(BaseResponse.success("✅ Lấy danh sách thumbnail thành công", result));
+}
+
+    // =========================================================
+    // 1b) FULL-TEXT SEARCH (xếp hạng + facet)
+    // =========================================================
+    @Override
+    public ResponseEntity<BaseResponse> searchProducts(String keyword, UUID categoryId, String brand, int page, int size) {
+        if (keyword == null || keyword.isBlank()) {
+            return ResponseEntity.badRequest().body(BaseResponse.error("❌ Keyword is required"));
         }
-        default -> comparator = Comparator.comparing(Product::getName, String.CASE_INSENSITIVE_ORDER);
-    }
+        int pageSize = Math.max(1, Math.min(size, 100));
+        int pageNumber = Math.max(page, 0);
+
+        Optional<ProductSearchIndex.SearchResult> found = productSearchIndex.search(
+                keyword, ProductStatus.ACTIVE, categoryId, brand, pageNumber * pageSize, pageSize);
+
+        // Chỉ mục chưa build xong → feed thumbnail với LIKE (không có facet)
+        if (found.isEmpty()) {
+            return getThumbnailView(ProductStatus.ACTIVE.name(), categoryId, null, keyword,
+                    null, null, null, null, null, null,
+                    PageRequest.of(pageNumber, pageSize), "name", "asc", false, null);
+        }
+        ProductSearchIndex.SearchResult sr = found.get();
 
-    if ("desc".equalsIgnoreCase(sortDir)) comparator = comparator.reversed();
+        List<UUID> ids = sr.hits().stream().map(ProductSearchIndex.Hit::productId).toList();
+        Map<UUID, Product> byId = productRepo.findAllById(ids).stream()
+                .collect(Collectors.toMap(Product::getProductId, p -> p));
 
-    filtered = filtered.stream().sorted(comparator).toList();
+        LocalDateTime now = LocalDateTime.now();
+        List<Map<String, Object>> data = new ArrayList<>();
+        for (ProductSearchIndex.Hit hit : sr.hits()) {
+            Product product = byId.get(hit.productId());
+            if (product == null) continue; // vừa bị xoá, chỉ mục chưa kịp cập nhật
+            Map<String, Object> thumb = toThumbnail(product, now);
+            thumb.put("score", hit.score());
+            data.add(thumb);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("data", data);
+        result.put("facets", Map.of(
+                "brands", sr.brands(),
+                "categories", sr.categories()
+        ));
+        result.put("page", Map.of(
+                "pageNumber", pageNumber,
+                "pageSize", pageSize,
+                "totalPages", (sr.total() + pageSize - 1) / pageSize,
+                "totalElements", sr.total()
+        ));
+
+        return ResponseEntity.ok(BaseResponse.success("✅ Tìm kiếm sản phẩm thành công", result));
+    }
 
     // ======================================================
-    // 🔥 BUILD RESPONSE
+    // 🔥 BUILD THUMBNAIL
     // ======================================================
-    List<Map<String, Object>> data = filtered.stream().map(product -> {
+    private Map<String, Object> toThumbnail(Product product, LocalDateTime now) {
 
         Map<String, Object> p = new LinkedHashMap<>();
         p.put("productId", product.getProductId());
@@ -158,6 +223,7 @@ public ResponseEntity<BaseResponse> getThumbnailView(
         p.put("price", product.getPrice());
         p.put("discountPrice", product.getDiscountPrice());
         p.put("finalPrice", product.getFinalPrice());
+        p.put("effectiveMinPrice", product.getEffectiveMinPrice());
         p.put("ratingAverage", product.getRatingAverage());
         p.put("reviewCount", product.getReviewCount());
 
@@ -227,7 +293,7 @@ public ResponseEntity<BaseResponse> getThumbnailView(
 
         // PLATFORM
         List<PlatformCampaignProduct> activeMappings =
-                platformCampaignProductRepo.findAllActiveOnlyStatus(product.getProductId());
+                campaignPriceIndex.findActiveCampaigns(product.getProductId());
 
         if (!activeMappings.isEmpty()) {
             Map<UUID, List<PlatformCampaignProduct>> grouped =
@@ -271,25 +337,32 @@ public ResponseEntity<BaseResponse> getThumbnailView(
         if (!voucherMap.isEmpty()) p.put("vouchers", voucherMap);
 
         return p;
-    }).toList();
+    }
 
     // ======================================================
-    // PAGINATION
+    // KEYSET CURSOR: base64url("productId|giá trị sort")
     // ======================================================
-    int totalElements = filtered.size();
-    int totalPages = (int) Math.ceil((double) totalElements / pageable.getPageSize());
+    private String encodeCursor(ScrollPosition position, String sortProperty) {
+        if (!(position instanceof KeysetScrollPosition keyset)) return null;
+        Object value = keyset.getKeys().get(sortProperty);
+        Object id = keyset.getKeys().get("productId");
+        String raw = id + "|" + (value instanceof BigDecimal bd ? bd.toPlainString() : String.valueOf(value));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
 
-    Map<String, Object> result = new LinkedHashMap<>();
-    result.put("data", data);
-    result.put("page", Map.of(
-            "pageNumber", pageable.getPageNumber(),
-            "pageSize", pageable.getPageSize(),
-            "totalPages", totalPages,
-            "totalElements", totalElements
-    ));
+    private ScrollPosition decodeCursor(String cursor, String sortProperty) {
+        if (cursor == null || cursor.isBlank()) return ScrollPosition.keyset();
 
-    return ResponseEntity.ok(BaseResponse.success("✅ Lấy danh sách thumbnail thành công", result));
-}
+        String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        int sep = raw.indexOf('|');
+        UUID productId = UUID.fromString(raw.substring(0, sep));
+        String value = raw.substring(sep + 1);
+
+        Map<String, Object> keys = new LinkedHashMap<>();
+        keys.put(sortProperty, "effectiveMinPrice".equals(sortProperty) ? new BigDecimal(value) : value);
+        keys.put("productId", productId);
+        return ScrollPosition.forward(keys);
+    }
 
 
     // =========================================================
@@ -360,7 +433,7 @@ public ResponseEntity<BaseResponse> getThumbnailView(
         if ("ALL".equalsIgnoreCase(type) || "PLATFORM".equalsIgnoreCase(type)) {
 
             List<PlatformCampaignProduct> mappings =
-                    platformCampaignProductRepo.findAllByProduct_ProductIdAndStatus(productId, VoucherStatus.ACTIVE);
+                    campaignPriceIndex.findActiveCampaigns(productId);
 
             if (campaignType != null && !campaignType.isBlank()) {
                 mappings = mappings.stream()
@@ -422,12 +495,4 @@ public ResponseEntity<BaseResponse> getThumbnailView(
                 "imageUrl", v.getVariantUrl()
         )).toList();
     }
-
-    // =========================================================
-    // FUZZY SEARCH
-    // =========================================================
-    private boolean fuzzyMatch(String text, String keyword) {
-        if (text == null || keyword == null) return false;
-        return text.toLowerCase().contains(keyword.toLowerCase().trim());
-    }
 }
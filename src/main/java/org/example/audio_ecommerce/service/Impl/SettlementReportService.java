@@ -6,254 +6,222 @@ import org.example.audio_ecommerce.dto.response.SettlementReportResponse;
 import org.example.audio_ecommerce.dto.response.StoreOrderReportEntry;
 import org.example.audio_ecommerce.entity.Enum.PaymentMethod;
 import org.example.audio_ecommerce.entity.Enum.SettlementReportType;
-import org.example.audio_ecommerce.entity.StoreOrder;
-import org.example.audio_ecommerce.entity.StoreOrderItem;
-import org.example.audio_ecommerce.repository.StoreOrderRepository;
+import org.example.audio_ecommerce.repository.StoreOrderItemRepository;
+import org.example.audio_ecommerce.repository.StoreOrderItemRepository.SettlementItemRow;
+import org.example.audio_ecommerce.util.StreamingSheetWriter;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 
+/**
+ * Báo cáo settlement: lọc theo loại / ngày / store hoàn toàn trong SQL, đọc item bằng cursor
+ * (đã sắp theo storeOrder) và gom từng đơn ngay khi đọc → bộ nhớ chỉ giữ 1 đơn tại 1 thời điểm
+ * (trừ getReport, vốn phải trả toàn bộ entries trong JSON).
+ */
 @Service
 @RequiredArgsConstructor
 public class SettlementReportService {
 
-    private final StoreOrderRepository storeOrderRepository;
+    private static final Object[] EXPORT_HEADER = {
+            "orderCode", "storeOrderId", "storeId", "paymentMethod", "createdAt", "deliveredAt",
+            "itemId", "productName", "quantity", "lineTotal",
+            "shippingFeeEstimated", "shippingFeeActual", "shippingExtraForStore",
+            "platformFeePercentage", "platformFeeAmount", "netPayoutItem"
+    };
 
-    // Helper: compute item-level platform fee and net payout (per your rule)
-    // platform fee per item = (item.lineTotal - itemShippingShare) * pct/100
-    // We'll apportion customer shipping fee to items proportionally by lineTotal/totalProducts
-   private ItemContribution buildItemContribution(StoreOrder so, StoreOrderItem item) {
-
-    BigDecimal lineTotal = Optional.ofNullable(item.getLineTotal()).orElse(BigDecimal.ZERO);
-    BigDecimal platformPct = Optional.ofNullable(so.getPlatformFeePercentage()).orElse(BigDecimal.ZERO);
-    BigDecimal shippingExtraForStore = Optional.ofNullable(item.getShippingExtraForStore()).orElse(BigDecimal.ZERO);
+    // Vị trí cột tổng trên dòng TOTAL: cùng cột với giá trị mà loại báo cáo cộng dồn
+    private static final int COL_LINE_TOTAL = 9;
+    private static final int COL_PLATFORM_FEE_AMOUNT = 14;
+    private static final int COL_NET_PAYOUT_ITEM = 15;
 
-    // PLATFORM FEE = lineTotal * pct / 100
-    BigDecimal platformFeeAmount = lineTotal
-            .multiply(platformPct)
-            .divide(BigDecimal.valueOf(100), 2, RoundingMode.HALF_UP);
+    // Flush định kỳ để client nhận dữ liệu dần, không dồn buffer
+    private static final int EXPORT_FLUSH_EVERY = 500;
 
-    // NET = lineTotal - platformFee - shippingExtra
-    BigDecimal netPayoutItem = lineTotal
-            .subtract(platformFeeAmount)
-            .subtract(shippingExtraForStore);
+    private final StoreOrderItemRepository storeOrderItemRepository;
 
-    return ItemContribution.builder()
-            .itemId(item.getId())
-            .storeOrderId(so.getId())
-            .productName(item.getName())
-            .quantity(item.getQuantity())
-            .lineTotal(lineTotal)
-            .shippingFeeEstimated(item.getShippingFeeEstimated())
-            .shippingFeeActual(item.getShippingFeeActual())
-            .shippingExtraForStore(shippingExtraForStore)
-            .platformFeePercentage(platformPct)
-            .platformFeeAmount(platformFeeAmount)
-            .netPayoutItem(netPayoutItem)
-            .build();
-}
+    // Helper: compute item-level platform fee and net payout (per your rule)
+    // PLATFORM FEE = lineTotal * pct / 100 ; NET = lineTotal - platformFee - shippingExtra
+    private ItemContribution buildItemContribution(SettlementItemRow row) {
+
+        BigDecimal lineTotal = Optional.ofNullable(row.getLineTotal()).orElse(BigDecimal.ZERO);
+        BigDecimal platformPct = Optional.ofNullable(row.getPlatformFeePercentage()).orElse(BigDecimal.ZERO);
+        BigDecimal shippingExtraForStore = Optional.ofNullable(row.getShippingExtraForStore()).orElse(BigDecimal.ZERO);
+
+        BigDecimal platformFeeAmount = lineTotal
+                .multiply(platformPct)
+                .divide(BigDecimal.valueOf(100), 2, RoundingMode.HALF_UP);
+
+        BigDecimal netPayoutItem = lineTotal
+                .subtract(platformFeeAmount)
+                .subtract(shippingExtraForStore);
+
+        return ItemContribution.builder()
+                .itemId(row.getItemId())
+                .storeOrderId(row.getStoreOrderId())
+                .productName(row.getProductName())
+                .quantity(row.getQuantity() == null ? 0 : row.getQuantity())
+                .lineTotal(lineTotal)
+                .shippingFeeEstimated(row.getShippingFeeEstimated())
+                .shippingFeeActual(row.getShippingFeeActual())
+                .shippingExtraForStore(shippingExtraForStore)
+                .platformFeePercentage(platformPct)
+                .platformFeeAmount(platformFeeAmount)
+                .netPayoutItem(netPayoutItem)
+                .build();
+    }
 
+    @Transactional(readOnly = true)
     public SettlementReportResponse getReport(SettlementReportType type, LocalDate date, UUID storeId) {
-        List<StoreOrder> storeOrders = new ArrayList<>();
-        LocalDateTime from = null, to = null;
-        if (date != null) {
-            from = date.atStartOfDay();
-            to = date.plusDays(1).atStartOfDay();
-        }
+        List<StoreOrderReportEntry> entries = new ArrayList<>();
+        BigDecimal total = aggregate(type, date, storeId, entries::add);
 
-        switch (type) {
-            case UNDELI_COD:
-                storeOrders = storeOrderRepository.findUnDeliveredByPaymentMethodFetchItems(PaymentMethod.COD);
-                break;
-            case UNDELI_ONLINE:
-                storeOrders = storeOrderRepository.findUnDeliveredByPaymentMethodFetchItems(PaymentMethod.ONLINE);
-                break;
-            case DELI_COD:
-            case DELI_ONLINE:
-                if (from == null) {
-                    // date null -> lấy tất cả delivered (không filter theo ngày). Nếu cần filter theo storeId, thực hiện sau.
-                    storeOrders = storeOrderRepository.findAllWithItemsFetch().stream()
-                            .filter(so -> so.getDeliveredAt() != null) // chỉ lấy delivered
-                            .collect(Collectors.toList());
-                } else {
-                    storeOrders = (storeId == null)
-                            ? storeOrderRepository.findDeliveredBetweenFetchItems(from, to)
-                            : storeOrderRepository.findDeliveredBetweenByStoreFetchItems(storeId, from, to);
-                }
-                break;
-            case PLATFORM_FEE_TO_COLLECT:
-            case TOTAL_COLLECTED:
-                if (from == null) {
-                    // date null -> lấy tất cả delivered (tính platform fee hoặc total collected sao cho phù hợp)
-                    storeOrders = storeOrderRepository.findAllWithItemsFetch().stream()
-                            .filter(so -> so.getDeliveredAt() != null)
-                            .collect(Collectors.toList());
-                } else {
-                    storeOrders = (storeId == null)
-                            ? storeOrderRepository.findDeliveredBetweenFetchItems(from, to)
-                            : storeOrderRepository.findDeliveredBetweenByStoreFetchItems(storeId, from, to);
+        return SettlementReportResponse.builder()
+                .reportType(type)
+                .date(date)
+                .entries(entries)
+                .totalAmount(total)
+                .build();
+    }
+
+    /**
+     * Xuất báo cáo ra CSV/XLSX: 1 dòng / item + dòng TOTAL cuối cùng (tổng nằm dưới cột tương ứng).
+     * Gọi trong transaction để giữ cursor mở suốt quá trình ghi.
+     */
+    @Transactional(readOnly = true)
+    public void exportReport(SettlementReportType type, LocalDate date, UUID storeId,
+                             StreamingSheetWriter.Format format, OutputStream out) throws IOException {
+        try (StreamingSheetWriter writer = StreamingSheetWriter.open(format, out)) {
+            writer.row(EXPORT_HEADER);
+            int[] rows = {0};
+            BigDecimal total = aggregate(type, date, storeId, entry -> {
+                try {
+                    for (ItemContribution c : entry.getItems()) {
+                        writer.row(entry.getOrderCode(), entry.getStoreOrderId(), entry.getStoreId(),
+                                entry.getPaymentMethod(), entry.getCreatedAt(), entry.getDeliveredAt(),
+                                c.getItemId(), c.getProductName(), c.getQuantity(), c.getLineTotal(),
+                                c.getShippingFeeEstimated(), c.getShippingFeeActual(), c.getShippingExtraForStore(),
+                                c.getPlatformFeePercentage(), c.getPlatformFeeAmount(), c.getNetPayoutItem());
+                        if (++rows[0] % EXPORT_FLUSH_EVERY == 0) writer.flush();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
-                break;
-            default:
-                storeOrders = storeOrderRepository.findAllWithItemsFetch();
+            });
+            writer.row(totalRow(type, date, storeId, total));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
+    }
 
-        // Nếu caller truyền storeId nhưng repo trả toàn bộ, lọc theo storeId ở đây
-        if (storeId != null) {
-            storeOrders = storeOrders.stream()
-                    .filter(so -> so.getStore() != null && storeId.equals(so.getStore().getStoreId()))
-                    .collect(Collectors.toList());
-        }
+    /** Dòng TOTAL thẳng cột với header: nhãn ở orderCode, storeId/ngày ở đúng cột, tổng ở cột được cộng dồn. */
+    static Object[] totalRow(SettlementReportType type, LocalDate date, UUID storeId, BigDecimal total) {
+        Object[] row = new Object[EXPORT_HEADER.length];
+        row[0] = "TOTAL " + type.name();
+        row[2] = storeId;
+        row[5] = date;
+        int totalColumn = switch (type) {
+            case UNDELI_COD, UNDELI_ONLINE -> COL_LINE_TOTAL;
+            case PLATFORM_FEE_TO_COLLECT -> COL_PLATFORM_FEE_AMOUNT;
+            case DELI_COD, DELI_ONLINE, TOTAL_COLLECTED -> COL_NET_PAYOUT_ITEM;
+        };
+        row[totalColumn] = total;
+        return row;
+    }
 
-        List<StoreOrderReportEntry> entries = new ArrayList<>();
+    /**
+     * Đọc item theo cursor, gom các dòng liên tiếp cùng storeOrder thành 1 entry rồi đẩy cho consumer.
+     * Trả về tổng theo ý nghĩa của từng loại báo cáo.
+     */
+    private BigDecimal aggregate(SettlementReportType type, LocalDate date, UUID storeId,
+                                 Consumer<StoreOrderReportEntry> sink) {
         BigDecimal totalAcross = BigDecimal.ZERO;
 
-        final LocalDateTime finalFrom = from;
-        final LocalDateTime finalTo = to;
-        final LocalDate finalDate = date;
-
-        for (StoreOrder so : storeOrders) {
-            // derive expected payment method for the DELI/UNDELI branches as FINAL variables
-            final PaymentMethod finalExpectedPmForUndel;
-            final PaymentMethod finalExpectedPmForDeli;
-            if (type == SettlementReportType.UNDELI_COD) finalExpectedPmForUndel = PaymentMethod.COD;
-            else if (type == SettlementReportType.UNDELI_ONLINE) finalExpectedPmForUndel = PaymentMethod.ONLINE;
-            else finalExpectedPmForUndel = null;
-
-            if (type == SettlementReportType.DELI_COD) finalExpectedPmForDeli = PaymentMethod.COD;
-            else if (type == SettlementReportType.DELI_ONLINE) finalExpectedPmForDeli = PaymentMethod.ONLINE;
-            else finalExpectedPmForDeli = null;
+        try (Stream<SettlementItemRow> rows = openStream(type, date, storeId)) {
+            Iterator<SettlementItemRow> it = rows.iterator();
+            SettlementItemRow head = null;
+            List<ItemContribution> contribs = new ArrayList<>();
 
-            // guard null items
-            if (so.getItems() == null || so.getItems().isEmpty()) continue;
-
-            // filter items according to report typer
-            List<StoreOrderItem> relevantItems = so.getItems().stream()
-                    .filter(Objects::nonNull)
-                    .filter(item -> {
-                        switch (type) {
-                            case UNDELI_COD:
-                            case UNDELI_ONLINE:
-                                return !Boolean.TRUE.equals(item.getEligibleForPayout())
-                                        && !Boolean.TRUE.equals(item.getPayoutProcessed())
-                                        && so.getDeliveredAt() == null
-                                        && finalExpectedPmForUndel != null
-                                        && so.getPaymentMethod() == finalExpectedPmForUndel;
-                            case DELI_COD:
-                            case DELI_ONLINE:
-                                if (so.getDeliveredAt() == null) return false;
-                                if (finalExpectedPmForDeli != null && so.getPaymentMethod() != finalExpectedPmForDeli) return false;
-                                if (finalFrom == null || finalTo == null) {
-                                    // date null -> accept all delivered items that are eligible & not processed
-                                    return Boolean.TRUE.equals(item.getEligibleForPayout())
-                                            && !Boolean.TRUE.equals(item.getPayoutProcessed());
-                                } else {
-                                    return Boolean.TRUE.equals(item.getEligibleForPayout())
-                                            && !Boolean.TRUE.equals(item.getPayoutProcessed())
-                                            && !so.getDeliveredAt().isBefore(finalFrom)
-                                            && so.getDeliveredAt().isBefore(finalTo);
-                                }
-                            case PLATFORM_FEE_TO_COLLECT:
-                                if (so.getDeliveredAt() == null) return false;
-                                if (finalFrom == null || finalTo == null) {
-                                    return Boolean.TRUE.equals(item.getEligibleForPayout())
-                                            && !Boolean.TRUE.equals(item.getPayoutProcessed());
-                                }
-                                return Boolean.TRUE.equals(item.getEligibleForPayout())
-                                        && !Boolean.TRUE.equals(item.getPayoutProcessed())
-                                        && !so.getDeliveredAt().isBefore(finalFrom)
-                                        && so.getDeliveredAt().isBefore(finalTo);
-                            case TOTAL_COLLECTED:
-                                if (so.getDeliveredAt() == null) return false;
-                                if (finalFrom == null || finalTo == null) {
-                                    return Boolean.TRUE.equals(item.getEligibleForPayout())
-                                            && Boolean.TRUE.equals(item.getPayoutProcessed());
-                                }
-                                return Boolean.TRUE.equals(item.getEligibleForPayout())
-                                        && Boolean.TRUE.equals(item.getPayoutProcessed())
-                                        && !so.getDeliveredAt().isBefore(finalFrom)
-                                        && so.getDeliveredAt().isBefore(finalTo);
-                            default:
-                                return false;
-                        }
-                    })
-                    .collect(Collectors.toList());
-
-            if (relevantItems.isEmpty()) continue;
-
-            // aggregate numbers (unchanged)
-            BigDecimal productsTotal = relevantItems.stream()
-                    .map(i -> Optional.ofNullable(i.getLineTotal()).orElse(BigDecimal.ZERO))
-                    .reduce(BigDecimal.ZERO, BigDecimal::add);
-
-            BigDecimal customerShipFee = Optional.ofNullable(so.getShippingFee()).orElse(BigDecimal.ZERO);
-            BigDecimal actualShipFee = Optional.ofNullable(so.getActualShippingFee()).orElse(BigDecimal.ZERO);
-            BigDecimal shippingExtra = Optional.ofNullable(so.getShippingExtraForStore()).orElse(BigDecimal.ZERO);
-            BigDecimal platformPct = Optional.ofNullable(so.getPlatformFeePercentage()).orElse(BigDecimal.ZERO);
-
-            // compute per-item contributions and sum platformFee
-            List<ItemContribution> itemContribs = relevantItems.stream()
-                    .map(i -> buildItemContribution(so, i))
-                    .collect(Collectors.toList());
-
-            BigDecimal platformFeeTotal = itemContribs.stream()
-                    .map(ItemContribution::getPlatformFeeAmount)
-                    .reduce(BigDecimal.ZERO, BigDecimal::add);
-
-            BigDecimal netPayoutTotal = itemContribs.stream()
-                    .map(ItemContribution::getNetPayoutItem)
-                    .reduce(BigDecimal.ZERO, BigDecimal::add);
-
-            StoreOrderReportEntry entry = StoreOrderReportEntry.builder()
-                    .storeOrderId(so.getId())
-                    .orderCode(so.getOrderCode())
-                    .storeId(so.getStore() != null ? so.getStore().getStoreId() : null)
-                    .paymentMethod(so.getPaymentMethod())
-                    .createdAt(so.getCreatedAt())
-                    .deliveredAt(so.getDeliveredAt())
-                    .productsTotal(productsTotal)
-                    .customerShippingFee(customerShipFee)
-                    .actualShippingFee(actualShipFee)
-                    .shippingExtraForStore(shippingExtra)
-                    .platformFeePercentage(platformPct)
-                    .platformFeeAmount(platformFeeTotal)
-                    .netPayoutToStore(netPayoutTotal)
-                    .items(itemContribs)
-                    .build();
-
-            entries.add(entry);
-
-            // totalAcross meaning depends on report type:
-            switch (type) {
-                case UNDELI_COD:
-                case UNDELI_ONLINE:
-                    totalAcross = totalAcross.add(productsTotal);
-                    break;
-                case DELI_COD:
-                case DELI_ONLINE:
-                    totalAcross = totalAcross.add(netPayoutTotal);
-                    break;
-                case PLATFORM_FEE_TO_COLLECT:
-                    totalAcross = totalAcross.add(platformFeeTotal);
-                    break;
-                case TOTAL_COLLECTED:
-                    totalAcross = totalAcross.add(netPayoutTotal);
-                    break;
+            while (it.hasNext()) {
+                SettlementItemRow row = it.next();
+                if (head != null && !head.getStoreOrderId().equals(row.getStoreOrderId())) {
+                    totalAcross = totalAcross.add(emit(type, head, contribs, sink));
+                    contribs = new ArrayList<>();
+                }
+                if (contribs.isEmpty()) head = row;
+                contribs.add(buildItemContribution(row));
+            }
+            if (head != null) {
+                totalAcross = totalAcross.add(emit(type, head, contribs, sink));
             }
         }
+        return totalAcross;
+    }
 
-        return SettlementReportResponse.builder()
-                .reportType(type)
-                .date(finalDate)
-                .entries(entries)
-                .totalAmount(totalAcross)
-                .build();
+    private Stream<SettlementItemRow> openStream(SettlementReportType type, LocalDate date, UUID storeId) {
+        // UNDELI_* không lọc ngày (chưa có deliveredAt); các loại còn lại lọc theo ngày giao nếu có
+        LocalDateTime from = date == null ? null : date.atStartOfDay();
+        LocalDateTime to = date == null ? null : date.plusDays(1).atStartOfDay();
+
+        return switch (type) {
+            case UNDELI_COD -> storeOrderItemRepository.streamSettlementItems(
+                    storeId, PaymentMethod.COD, false, false, false, null, null);
+            case UNDELI_ONLINE -> storeOrderItemRepository.streamSettlementItems(
+                    storeId, PaymentMethod.ONLINE, false, false, false, null, null);
+            case DELI_COD -> storeOrderItemRepository.streamSettlementItems(
+                    storeId, PaymentMethod.COD, true, true, false, from, to);
+            case DELI_ONLINE -> storeOrderItemRepository.streamSettlementItems(
+                    storeId, PaymentMethod.ONLINE, true, true, false, from, to);
+            case PLATFORM_FEE_TO_COLLECT -> storeOrderItemRepository.streamSettlementItems(
+                    storeId, null, true, true, false, from, to);
+            case TOTAL_COLLECTED -> storeOrderItemRepository.streamSettlementItems(
+                    storeId, null, true, true, true, from, to);
+        };
     }
 
+    private BigDecimal emit(SettlementReportType type, SettlementItemRow so,
+                            List<ItemContribution> itemContribs, Consumer<StoreOrderReportEntry> sink) {
+        BigDecimal productsTotal = BigDecimal.ZERO;
+        BigDecimal platformFeeTotal = BigDecimal.ZERO;
+        BigDecimal netPayoutTotal = BigDecimal.ZERO;
+        for (ItemContribution c : itemContribs) {
+            productsTotal = productsTotal.add(c.getLineTotal());
+            platformFeeTotal = platformFeeTotal.add(c.getPlatformFeeAmount());
+            netPayoutTotal = netPayoutTotal.add(c.getNetPayoutItem());
+        }
+
+        sink.accept(StoreOrderReportEntry.builder()
+                .storeOrderId(so.getStoreOrderId())
+                .orderCode(so.getOrderCode())
+                .storeId(so.getStoreId())
+                .paymentMethod(so.getPaymentMethod())
+                .createdAt(so.getCreatedAt())
+                .deliveredAt(so.getDeliveredAt())
+                .productsTotal(productsTotal)
+                .customerShippingFee(Optional.ofNullable(so.getShippingFee()).orElse(BigDecimal.ZERO))
+                .actualShippingFee(Optional.ofNullable(so.getActualShippingFee()).orElse(BigDecimal.ZERO))
+                .shippingExtraForStore(Optional.ofNullable(so.getOrderShippingExtraForStore()).orElse(BigDecimal.ZERO))
+                .platformFeePercentage(Optional.ofNullable(so.getPlatformFeePercentage()).orElse(BigDecimal.ZERO))
+                .platformFeeAmount(platformFeeTotal)
+                .netPayoutToStore(netPayoutTotal)
+                .items(itemContribs)
+                .build());
+
+        // totalAcross meaning depends on report type
+        return switch (type) {
+            case UNDELI_COD, UNDELI_ONLINE -> productsTotal;
+            case PLATFORM_FEE_TO_COLLECT -> platformFeeTotal;
+            case DELI_COD, DELI_ONLINE, TOTAL_COLLECTED -> netPayoutTotal;
+        };
+    }
 }
@@ -23,7 +23,6 @@ import java.util.stream.Collectors;
 public class SettlementService {
 
     private static final Logger log = LoggerFactory.getLogger(SettlementService.class);
-    private final PlatformWalletRepository platformWalletRepo;
     private final PlatformTransactionRepository platformTxRepo;
     private final WalletRepository walletRepo;
     private final WalletTransactionRepository walletTxRepo;
@@ -35,6 +34,7 @@ public class SettlementService {
     private final RevenueService revenueService;
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final StoreOrderItemRepository storeOrderItemRepo;
+    private final PlatformLedger platformLedger;
 
     @Transactional
     public void recordCustomerQrPayment(UUID customerId, UUID orderId, BigDecimal amount) {
@@ -59,17 +59,11 @@ public class SettlementService {
 
     @Transactional
     public void moveToPlatformHold(UUID orderId, BigDecimal amount) {
-        PlatformWallet plat = platformWalletRepo.findFirstByOwnerType(WalletOwnerType.PLATFORM)
-                .orElseThrow(() -> new NoSuchElementException("Platform wallet not found"));
-
-        plat.setTotalBalance(plat.getTotalBalance().add(amount));
-        plat.setPendingBalance(plat.getPendingBalance().add(amount));
-        plat.setReceivedTotal(plat.getReceivedTotal().add(amount));
-        plat.setUpdatedAt(java.time.LocalDateTime.now());
-        platformWalletRepo.save(plat);
+        // Ví PLATFORM ghi qua ledger chia stripe → không khoá chung 1 dòng ví
+        platformLedger.apply(PlatformLedger.Delta.ZERO.total(amount).pending(amount).received(amount));
 
         PlatformTransaction ptx = PlatformTransaction.builder()
-                .wallet(plat)
+                .wallet(platformLedger.walletRef())
                 .orderId(orderId)
                 .amount(amount)
                 .type(TransactionType.HOLD)
@@ -122,8 +116,7 @@ public class SettlementService {
             throw new IllegalStateException("No StoreOrders for CustomerOrder " + order.getId());
         }
 
-        PlatformWallet plat = platformWalletRepo.findFirstByOwnerType(WalletOwnerType.PLATFORM)
-                .orElseThrow(() -> new NoSuchElementException("Platform wallet not found"));
+        PlatformWallet plat = platformLedger.walletRef();
 
         LocalDateTime now = LocalDateTime.now();
 
@@ -292,13 +285,9 @@ public class SettlementService {
         }
 
         // ===== 4) Cập nhật PlatformWallet cho phần đã payout trong lần này =====
-        BigDecimal oldPendingPlat = Optional.ofNullable(plat.getPendingBalance()).orElse(BigDecimal.ZERO);
-        BigDecimal oldDonePlat = Optional.ofNullable(plat.getDoneBalance()).orElse(BigDecimal.ZERO);
-
-        plat.setPendingBalance(oldPendingPlat.subtract(totalProductsAllStores).max(BigDecimal.ZERO));
-        plat.setDoneBalance(oldDonePlat.add(totalProductsAllStores));
-        plat.setUpdatedAt(now);
-        platformWalletRepo.save(plat);
+        platformLedger.apply(PlatformLedger.Delta.ZERO
+                .pending(platformLedger.pendingDebit(totalProductsAllStores).negate())
+                .done(totalProductsAllStores));
 
         // ===== 5) Finalize HOLD tx nếu không còn item pending payout =====
         boolean hasRemainingItemToPayout = allItems.stream()
@@ -359,23 +348,15 @@ public class SettlementService {
         }
 
         // 1) Platform (refund từ platform → customer)
-        PlatformWallet plat = platformWalletRepo.findFirstByOwnerType(WalletOwnerType.PLATFORM)
-                .orElseThrow(() -> new NoSuchElementException("Platform wallet not found"));
-
         // Giả định: HOLD chỉ chứa tiền hàng (productsTotal)
         // → hạ pending theo productsTotal, nhưng totalBalance/refundedTotal theo refundAmount (grand total)
-        BigDecimal oldPending = plat.getPendingBalance();
-        BigDecimal oldTotal = plat.getTotalBalance();
-        BigDecimal oldRefunded = plat.getRefundedTotal();
-
-        plat.setPendingBalance(oldPending.subtract(productsTotal).max(java.math.BigDecimal.ZERO));
-        plat.setTotalBalance(oldTotal.subtract(refundAmount));
-        plat.setRefundedTotal(oldRefunded.add(refundAmount));
-        plat.setUpdatedAt(java.time.LocalDateTime.now());
-        platformWalletRepo.save(plat);
+        platformLedger.apply(PlatformLedger.Delta.ZERO
+                .pending(platformLedger.pendingDebit(productsTotal).negate())
+                .total(refundAmount.negate())
+                .refunded(refundAmount));
 
         PlatformTransaction ptx = PlatformTransaction.builder()
-                .wallet(plat)
+                .wallet(platformLedger.walletRef())
                 .orderId(order.getId())
                 .amount(refundAmount) // ✅ ghi nhận refund đúng số KH được hoàn (grand total)
                 .type(TransactionType.REFUND)
@@ -481,22 +462,14 @@ public class SettlementService {
         }
 
         // 1) Trả từ Platform → Customer
-        PlatformWallet plat = platformWalletRepo.findFirstByOwnerType(WalletOwnerType.PLATFORM)
-                .orElseThrow(() -> new NoSuchElementException("Platform wallet not found"));
-
-        BigDecimal oldPending = plat.getPendingBalance();
-        BigDecimal oldTotal = plat.getTotalBalance();
-        BigDecimal oldRefunded = plat.getRefundedTotal();
-
         // Giả định HOLD chỉ giữ productsTotal
-        plat.setPendingBalance(oldPending.subtract(productsTotal).max(BigDecimal.ZERO));
-        plat.setTotalBalance(oldTotal.subtract(refundAmount));
-        plat.setRefundedTotal(oldRefunded.add(refundAmount));
-        plat.setUpdatedAt(LocalDateTime.now());
-        platformWalletRepo.save(plat);
+        platformLedger.apply(PlatformLedger.Delta.ZERO
+                .pending(platformLedger.pendingDebit(productsTotal).negate())
+                .total(refundAmount.negate())
+                .refunded(refundAmount));
 
         PlatformTransaction ptx = PlatformTransaction.builder()
-                .wallet(plat)
+                .wallet(platformLedger.walletRef())
                 .orderId(order.getId())
                 .amount(refundAmount) // ✅ đúng số tiền hoàn lại cho KH
                 .type(TransactionType.REFUND)
@@ -582,17 +555,10 @@ public class SettlementService {
         LocalDateTime now = LocalDateTime.now();
 
         // ===== 2) Đẩy tiền vào ví PLATFORM (pending) + log HOLD =====
-        PlatformWallet plat = platformWalletRepo.findFirstByOwnerType(WalletOwnerType.PLATFORM)
-                .orElseThrow(() -> new NoSuchElementException("Platform wallet not found"));
-
-        plat.setTotalBalance(plat.getTotalBalance().add(productsTotal));
-        plat.setPendingBalance(plat.getPendingBalance().add(productsTotal));
-        plat.setReceivedTotal(plat.getReceivedTotal().add(productsTotal));
-        plat.setUpdatedAt(now);
-        platformWalletRepo.save(plat);
+        platformLedger.apply(PlatformLedger.Delta.ZERO.total(productsTotal).pending(productsTotal).received(productsTotal));
 
         PlatformTransaction holdTx = PlatformTransaction.builder()
-                .wallet(plat)
+                .wallet(platformLedger.walletRef())
                 .orderId(order.getId())
                 .amount(productsTotal)
                 .type(TransactionType.HOLD)
@@ -6,13 +6,14 @@ import org.example.audio_ecommerce.entity.ReturnRequest;
 import org.example.audio_ecommerce.entity.ReturnShippingFee;
 import org.example.audio_ecommerce.entity.StoreOrder;
 import org.example.audio_ecommerce.entity.StoreOrderItem;
-import org.example.audio_ecommerce.entity.Enum.ReturnStatus;
+import org.example.audio_ecommerce.repository.StoreDailyProductStatsRepository;
+import org.example.audio_ecommerce.repository.StoreDailyStatsRepository;
 import org.example.audio_ecommerce.repository.StoreStatsRepository;
 import org.example.audio_ecommerce.service.ShopStatsService;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.*;
@@ -23,6 +24,9 @@ import java.util.stream.Collectors;
 public class ShopStatsServiceImpl implements ShopStatsService {
 
     private final StoreStatsRepository repo;
+    private final StoreDailyStatsRepository dailyRepo;
+    private final StoreDailyProductStatsRepository dailyProductRepo;
+    private final StoreDailyStatsService dailyStatsService;
 
     // ============================================================
     // 1) LIFETIME
@@ -30,6 +34,11 @@ public class ShopStatsServiceImpl implements ShopStatsService {
     @Override
     public LifetimeStatsResponse getLifetimeStats(UUID storeId) {
 
+        // 📊 Rollup theo ngày: cộng vài trăm dòng thay vì nạp mọi đơn/item
+        if (dailyStatsService.isReady()) {
+            return buildStatsFromRollup(storeId, null, null);
+        }
+
         List<StoreOrder> deliveredOrders = repo.findAllDeliveredOrders(storeId);
         List<ReturnRequest> returns = repo.findAllReturnRequests(storeId);
 
@@ -56,6 +65,10 @@ public class ShopStatsServiceImpl implements ShopStatsService {
     @Override
     public LifetimeStatsResponse getLifetimeStatsByRange(UUID storeId, LocalDate from, LocalDate to) {
 
+        if (dailyStatsService.isReady()) {
+            return buildStatsFromRollup(storeId, from, to);
+        }
+
         LocalDateTime start = from.atStartOfDay();
         LocalDateTime end = to.plusDays(1).atStartOfDay();
 
@@ -74,6 +87,10 @@ public class ShopStatsServiceImpl implements ShopStatsService {
     @Override
     public List<MonthlyGrowthPoint> getYearGrowth(UUID storeId, int year) {
 
+        if (dailyStatsService.isReady()) {
+            return yearGrowthFromRollup(storeId, year);
+        }
+
         List<MonthlyGrowthPoint> result = new ArrayList<>();
 
         for (int m = 1; m <= 12; m++) {
@@ -123,6 +140,157 @@ public class ShopStatsServiceImpl implements ShopStatsService {
         return result;
     }
 
+    // ============================================================
+    // ROLLUP (store_daily_stats) — O(số ngày), không phụ thuộc số đơn
+    // ============================================================
+    private LifetimeStatsResponse buildStatsFromRollup(UUID storeId, LocalDate from, LocalDate to) {
+
+        StoreDailyStatsRepository.Totals t = dailyRepo.sumBetween(storeId, from, to);
+
+        long totalDelivered = t.getDeliveredOrders();
+        BigDecimal itemRevenue = t.getItemRevenue();
+        BigDecimal platformFee = t.getPlatformFee();
+
+        Map<UUID, TopProductLifetime> products = new LinkedHashMap<>();
+        for (StoreDailyProductStatsRepository.ProductTotals p
+                : dailyProductRepo.findTopSelling(storeId, from, to, PageRequest.of(0, 10))) {
+            products.put(p.getProductId(), topProduct(p.getProductId(), p.getProductName(),
+                    p.getSoldQuantity(), p.getRevenue()));
+        }
+
+        // Lifetime cũ đếm đơn theo trạng thái: đơn đã giao nhưng thiếu deliveredAt (dữ liệu cũ)
+        // không thuộc ngày nào trong rollup → cộng trực tiếp để số liệu trọn đời giữ nguyên
+        if (from == null && to == null) {
+            List<StoreOrder> undated = repo.findDeliveredOrdersWithoutDate(storeId);
+            if (!undated.isEmpty()) {
+                List<StoreOrderItem> items = repo.findItemsByOrderIds(
+                        undated.stream().map(StoreOrder::getId).toList());
+                totalDelivered += undated.size();
+                itemRevenue = itemRevenue.add(sum(items, StoreOrderItem::getFinalLineTotal));
+                platformFee = platformFee.add(items.stream()
+                        .map(i -> calcPlatformFee(i.getFinalLineTotal(), i.getPlatformFeePercentage()))
+                        .reduce(BigDecimal.ZERO, BigDecimal::add));
+                mergeUndatedProducts(storeId, products, items);
+            }
+        }
+
+        long returnSuccess = t.getReturnSuccess();
+        double returnRate = totalDelivered == 0
+                ? 0
+                : returnSuccess * 100.0 / totalDelivered;
+
+        List<TopProductLifetime> top10 = products.values().stream()
+                .sorted(Comparator.comparingLong(TopProductLifetime::getTotalSoldQuantity).reversed()
+                        .thenComparing(TopProductLifetime::getProductId))
+                .limit(10)
+                .toList();
+
+        TopReturnProduct topReturn = dailyProductRepo
+                .findTopReturned(storeId, from, to, PageRequest.of(0, 1))
+                .stream()
+                .findFirst()
+                .map(p -> TopReturnProduct.builder()
+                        .productId(p.getProductId())
+                        .productName(Optional.ofNullable(p.getProductName()).orElse("Unknown"))
+                        .returnCount(p.getReturnSuccess())
+                        .build())
+                .orElse(null);
+
+        return LifetimeStatsResponse.builder()
+                .totalDeliveredOrders(totalDelivered)
+                .totalRevenue(itemRevenue)
+                .totalPlatformFee(platformFee)
+                .totalNetRevenue(itemRevenue.subtract(platformFee))
+                .totalReturnRequests(returnSuccess)
+                .returnRate(round2(returnRate))
+                .top10Products(top10)
+                .topReturnProduct(topReturn)
+                .totalShippingDifferenceFee(t.getShippingDifference())
+                .totalReturnShippingFee(t.getReturnShippingFee())
+                .build();
+    }
+
+    /**
+     * Gộp item của đơn thiếu deliveredAt vào top sản phẩm: tổng đúng = rollup + phần thiếu ngày.
+     * Sản phẩm không có trong phần thiếu ngày giữ nguyên tổng rollup → top 10 rollup đã đủ ứng viên.
+     */
+    private void mergeUndatedProducts(UUID storeId, Map<UUID, TopProductLifetime> products,
+                                      List<StoreOrderItem> items) {
+        Map<UUID, List<StoreOrderItem>> byProduct = items.stream()
+                .filter(i -> i.getRefId() != null)
+                .collect(Collectors.groupingBy(StoreOrderItem::getRefId));
+        if (byProduct.isEmpty()) return;
+
+        Map<UUID, StoreDailyProductStatsRepository.ProductTotals> rolled = new HashMap<>();
+        for (StoreDailyProductStatsRepository.ProductTotals p
+                : dailyProductRepo.findLifetimeTotals(storeId, byProduct.keySet())) {
+            rolled.put(p.getProductId(), p);
+        }
+
+        for (Map.Entry<UUID, List<StoreOrderItem>> e : byProduct.entrySet()) {
+            StoreDailyProductStatsRepository.ProductTotals base = rolled.get(e.getKey());
+            long qty = e.getValue().stream().mapToLong(StoreOrderItem::getQuantity).sum();
+            BigDecimal rev = sum(e.getValue(), StoreOrderItem::getFinalLineTotal);
+            String name = base != null && base.getProductName() != null
+                    ? base.getProductName() : e.getValue().get(0).getName();
+            if (base != null) {
+                qty += base.getSoldQuantity() == null ? 0 : base.getSoldQuantity();
+                rev = rev.add(base.getRevenue() == null ? BigDecimal.ZERO : base.getRevenue());
+            }
+            products.put(e.getKey(), topProduct(e.getKey(), name, qty, rev));
+        }
+    }
+
+    private static TopProductLifetime topProduct(UUID productId, String name, Long qty, BigDecimal revenue) {
+        return TopProductLifetime.builder()
+                .productId(productId)
+                .name(Optional.ofNullable(name).orElse("Unknown"))
+                .totalSoldQuantity(qty == null ? 0 : qty)
+                .totalRevenue(revenue)
+                .build();
+    }
+
+    private List<MonthlyGrowthPoint> yearGrowthFromRollup(UUID storeId, int year) {
+
+        Map<Integer, StoreDailyStatsRepository.MonthTotals> byMonth = new HashMap<>();
+        for (StoreDailyStatsRepository.MonthTotals m : dailyRepo.sumByMonth(
+                storeId, LocalDate.of(year, 1, 1), LocalDate.of(year, 12, 31))) {
+            byMonth.put(m.getMonth(), m);
+        }
+
+        List<MonthlyGrowthPoint> result = new ArrayList<>();
+        for (int m = 1; m <= 12; m++) {
+            StoreDailyStatsRepository.MonthTotals t = byMonth.get(m);
+            if (t == null) {
+                result.add(MonthlyGrowthPoint.builder()
+                        .month(m)
+                        .revenue(BigDecimal.ZERO)
+                        .shippingDifference(BigDecimal.ZERO)
+                        .returnShippingFee(BigDecimal.ZERO)
+                        .shippingCollected(BigDecimal.ZERO)
+                        .build());
+                continue;
+            }
+
+            long orders = t.getDeliveredOrders();
+            double returnRate = orders == 0
+                    ? 0
+                    : (t.getReturnSuccess() * 100.0) / orders;
+
+            result.add(MonthlyGrowthPoint.builder()
+                    .month(m)
+                    .orders(orders)
+                    .revenue(t.getOrderGrandTotal())
+                    .returnSuccess(t.getReturnSuccess())
+                    .returnRate(round2(returnRate))
+                    .shippingDifference(t.getShippingDifference())
+                    .returnShippingFee(t.getReturnShippingFee())
+                    .shippingCollected(t.getShippingCollected())
+                    .build());
+        }
+        return result;
+    }
+
     // ============================================================
     // CORE BUILD
     // ============================================================
@@ -193,16 +361,11 @@ public class ShopStatsServiceImpl implements ShopStatsService {
     }
 
     private BigDecimal calcPlatformFee(BigDecimal total, BigDecimal percent) {
-        if (total == null || percent == null) return BigDecimal.ZERO;
-
-        return total.multiply(percent)
-                .divide(BigDecimal.valueOf(100), 2, RoundingMode.HALF_UP);
+        return StoreDailyStatsService.platformFee(total, percent);
     }
 
     private boolean isReturnCompleted(ReturnRequest r) {
-        return r.getStatus() == ReturnStatus.RETURN_DONE ||
-                r.getStatus() == ReturnStatus.DISPUTE_RESOLVED_CUSTOMER ||
-                r.getStatus() == ReturnStatus.REFUNDED;
+        return StoreDailyStatsService.isReturnCompleted(r.getStatus());
     }
 
     private double round2(double v) {
@@ -0,0 +1,260 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.LangChain4J.AiSqlResultCache;
+import org.example.audio_ecommerce.entity.Enum.StockReservationStatus;
+import org.example.audio_ecommerce.entity.StockReservation;
+import org.example.audio_ecommerce.repository.*;
+import org.example.audio_ecommerce.service.StockReservationService;
+import org.example.audio_ecommerce.util.SkuLockStripes;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Trừ tồn kho bằng UPDATE có điều kiện (stock >= qty) thay vì đọc → trừ trong Java → dirty checking.
+ * - Gom qty theo SKU, duyệt SKU theo thứ tự UUID cố định → mọi transaction khoá row cùng thứ tự, không deadlock.
+ * - Khoá stripe trong JVM để các checkout cùng SKU xếp hàng tại app thay vì dồn lên row lock DB.
+ * - Đơn ONLINE được ghi reservation HELD có TTL, hết hạn mà chưa thanh toán thì trả lại tồn kho.
+ */
+@Slf4j
+@Service
+public class StockReservationServiceImpl implements StockReservationService {
+
+    private static final int EXPIRED_BATCH_SIZE = 200;
+
+    private final ProductRepository productRepo;
+    private final ProductVariantRepository productVariantRepo;
+    private final StockReservationRepository stockReservationRepo;
+    private final CustomerOrderRepository customerOrderRepository;
+    private final StoreOrderRepository storeOrderRepository;
+    private final SkuLockStripes lockStripes;
+    private final AiSqlResultCache aiSqlResultCache;
+    private final long reservationTtlMinutes;
+
+    public StockReservationServiceImpl(ProductRepository productRepo,
+                                       ProductVariantRepository productVariantRepo,
+                                       StockReservationRepository stockReservationRepo,
+                                       CustomerOrderRepository customerOrderRepository,
+                                       StoreOrderRepository storeOrderRepository,
+                                       AiSqlResultCache aiSqlResultCache,
+                                       @Value("${stock.reservation.lock-stripes:256}") int lockStripes,
+                                       @Value("${stock.reservation.ttl-minutes:15}") long reservationTtlMinutes) {
+        this.productRepo = productRepo;
+        this.productVariantRepo = productVariantRepo;
+        this.stockReservationRepo = stockReservationRepo;
+        this.customerOrderRepository = customerOrderRepository;
+        this.storeOrderRepository = storeOrderRepository;
+        this.lockStripes = new SkuLockStripes(lockStripes);
+        this.aiSqlResultCache = aiSqlResultCache;
+        this.reservationTtlMinutes = reservationTtlMinutes;
+    }
+
+    @Override
+    @Transactional
+    public void deduct(List<StockLine> lines) {
+        if (lines == null || lines.isEmpty()) return;
+
+        // TreeMap → thứ tự UUID cố định giữa các transaction
+        Map<UUID, Integer> variantQty = new TreeMap<>();
+        Map<UUID, Integer> productQty = new TreeMap<>();
+        Map<UUID, String> labels = new HashMap<>();
+        aggregate(lines, variantQty, productQty, labels);
+        if (variantQty.isEmpty() && productQty.isEmpty()) return;
+
+        Set<UUID> skus = new HashSet<>(variantQty.keySet());
+        skus.addAll(productQty.keySet());
+
+        // Giữ stripe tới khi transaction checkout kết thúc → checkout sau cùng SKU chỉ UPDATE khi đơn trước đã commit
+        lockStripes.lockUntilCompletion(skus);
+
+        // 1) variant.stock
+        for (Map.Entry<UUID, Integer> e : variantQty.entrySet()) {
+            if (productVariantRepo.decrementStockIfAvailable(e.getKey(), e.getValue()) == 0) {
+                // RuntimeException → rollback toàn bộ các UPDATE đã chạy trước đó
+                throw new IllegalStateException(
+                        "Variant out of stock when checkout: " + labels.getOrDefault(e.getKey(), e.getKey().toString())
+                );
+            }
+        }
+        // 2) product.stockQuantity
+        for (Map.Entry<UUID, Integer> e : productQty.entrySet()) {
+            if (productRepo.decrementStockIfAvailable(e.getKey(), e.getValue()) == 0) {
+                throw new IllegalStateException(
+                        "Product out of stock when checkout: " + labels.getOrDefault(e.getKey(), e.getKey().toString())
+                );
+            }
+        }
+        aiSqlResultCache.invalidateProductsAfterCommit(productQty.keySet());
+    }
+
+    @Override
+    @Transactional
+    public void restock(List<StockLine> lines) {
+        if (lines == null || lines.isEmpty()) return;
+
+        Map<UUID, Integer> variantQty = new TreeMap<>();
+        Map<UUID, Integer> productQty = new TreeMap<>();
+        aggregate(lines, variantQty, productQty, new HashMap<>());
+
+        variantQty.forEach(productVariantRepo::incrementStock);
+        productQty.forEach(productRepo::incrementStock);
+        aiSqlResultCache.invalidateProductsAfterCommit(productQty.keySet());
+    }
+
+    @Override
+    @Transactional
+    public void holdForOrder(UUID customerOrderId, List<StockLine> lines) {
+        if (customerOrderId == null || lines == null || lines.isEmpty()) return;
+
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime expiresAt = now.plusMinutes(reservationTtlMinutes);
+
+        List<StockReservation> reservations = new ArrayList<>();
+        for (StockLine line : lines) {
+            if (line.productId() == null || line.quantity() <= 0) continue;
+            reservations.add(StockReservation.builder()
+                    .customerOrderId(customerOrderId)
+                    .productId(line.productId())
+                    .variantId(line.variantId())
+                    .quantity(line.quantity())
+                    .status(StockReservationStatus.HELD)
+                    .expiresAt(expiresAt)
+                    .createdAt(now)
+                    .updatedAt(now)
+                    .build());
+        }
+        stockReservationRepo.saveAll(reservations);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public LocalDateTime paymentDeadline(Collection<UUID> customerOrderIds) {
+        return stockReservationRepo
+                .findAllByCustomerOrderIdInAndStatus(customerOrderIds, StockReservationStatus.HELD).stream()
+                .map(StockReservation::getExpiresAt)
+                .min(Comparator.naturalOrder())
+                .orElseGet(() -> LocalDateTime.now().plusMinutes(reservationTtlMinutes));
+    }
+
+    @Override
+    @Transactional
+    public Set<UUID> commitForOrders(Collection<UUID> customerOrderIds) {
+        if (customerOrderIds == null || customerOrderIds.isEmpty()) return Set.of();
+
+        LocalDateTime now = LocalDateTime.now();
+        for (StockReservation r : stockReservationRepo
+                .findAllByCustomerOrderIdInAndStatus(customerOrderIds, StockReservationStatus.HELD)) {
+            stockReservationRepo.transition(r.getId(), StockReservationStatus.HELD, StockReservationStatus.COMMITTED, now);
+        }
+
+        // Webhook thanh toán tới sau khi reservation đã bị trả → trừ lại hàng theo từng đơn (đủ cả đơn hoặc không gì cả)
+        Map<UUID, List<StockReservation>> releasedByOrder = new LinkedHashMap<>();
+        for (StockReservation r : stockReservationRepo
+                .findAllByCustomerOrderIdInAndStatus(customerOrderIds, StockReservationStatus.RELEASED)) {
+            releasedByOrder.computeIfAbsent(r.getCustomerOrderId(), k -> new ArrayList<>()).add(r);
+        }
+        if (releasedByOrder.isEmpty()) return Set.of();
+
+        Set<UUID> skus = new HashSet<>();
+        releasedByOrder.values().forEach(rs -> rs.forEach(r -> {
+            skus.add(r.getProductId());
+            if (r.getVariantId() != null) skus.add(r.getVariantId());
+        }));
+        lockStripes.lockUntilCompletion(skus);
+
+        Set<UUID> shortOrders = new LinkedHashSet<>();
+        Set<UUID> reacquired = new HashSet<>();
+        for (Map.Entry<UUID, List<StockReservation>> e : releasedByOrder.entrySet()) {
+            if (!reacquire(e.getValue())) {
+                shortOrders.add(e.getKey());
+                log.error("[STOCK] Paid after reservation expired but stock is short → order must be refunded. order={}",
+                        e.getKey());
+                continue;
+            }
+            for (StockReservation r : e.getValue()) {
+                stockReservationRepo.transition(r.getId(), StockReservationStatus.RELEASED, StockReservationStatus.COMMITTED, now);
+                reacquired.add(r.getProductId());
+            }
+        }
+        aiSqlResultCache.invalidateProductsAfterCommit(reacquired);
+        return shortOrders;
+    }
+
+    /** Trừ lại toàn bộ dòng của 1 đơn; thiếu 1 dòng → cộng trả các dòng đã trừ, trả về false. */
+    private boolean reacquire(List<StockReservation> reservations) {
+        List<StockLine> taken = new ArrayList<>();
+        for (StockReservation r : reservations) {
+            if (r.getVariantId() != null
+                    && productVariantRepo.decrementStockIfAvailable(r.getVariantId(), r.getQuantity()) == 0) {
+                restock(taken);
+                return false;
+            }
+            if (productRepo.decrementStockIfAvailable(r.getProductId(), r.getQuantity()) == 0) {
+                if (r.getVariantId() != null) productVariantRepo.incrementStock(r.getVariantId(), r.getQuantity());
+                restock(taken);
+                return false;
+            }
+            taken.add(new StockLine(r.getProductId(), r.getVariantId(), r.getQuantity(), null));
+        }
+        return true;
+    }
+
+    @Override
+    @Transactional
+    public Set<UUID> releaseForOrders(Collection<UUID> customerOrderIds) {
+        if (customerOrderIds == null || customerOrderIds.isEmpty()) return Set.of();
+
+        LocalDateTime now = LocalDateTime.now();
+        List<StockLine> toRestock = new ArrayList<>();
+        Set<UUID> releasedOrders = new LinkedHashSet<>();
+        for (StockReservation r : stockReservationRepo
+                .findAllByCustomerOrderIdInAndStatus(customerOrderIds, StockReservationStatus.HELD)) {
+            // Chỉ luồng chuyển HELD → RELEASED thành công mới được cộng trả, tránh cộng 2 lần
+            if (stockReservationRepo.transition(r.getId(), StockReservationStatus.HELD,
+                    StockReservationStatus.RELEASED, now) > 0) {
+                toRestock.add(new StockLine(r.getProductId(), r.getVariantId(), r.getQuantity(), null));
+                releasedOrders.add(r.getCustomerOrderId());
+            }
+        }
+        restock(toRestock);
+        return releasedOrders;
+    }
+
+    @Override
+    @Transactional
+    public int releaseExpiredReservations() {
+        List<UUID> orderIds = stockReservationRepo.findExpiredHeldOrderIds(
+                LocalDateTime.now(), PageRequest.of(0, EXPIRED_BATCH_SIZE));
+        if (orderIds.isEmpty()) return 0;
+
+        // Webhook thanh toán chạy song song có thể đã COMMITTED reservation → chỉ huỷ đơn mà job này thực sự trả hàng,
+        // và UPDATE có điều kiện trạng thái → không đè đơn vừa được chuyển PAID
+        Set<UUID> released = releaseForOrders(orderIds);
+        if (released.isEmpty()) return 0;
+
+        int cancelled = customerOrderRepository.cancelIfUnpaid(released);
+        storeOrderRepository.cancelForCancelledOrders(released, LocalDateTime.now());
+        log.info("[STOCK] Payment timeout → cancelled {} of {} released orders: {}", cancelled, released.size(), released);
+        return released.size();
+    }
+
+    private static void aggregate(List<StockLine> lines,
+                                  Map<UUID, Integer> variantQty,
+                                  Map<UUID, Integer> productQty,
+                                  Map<UUID, String> labels) {
+        for (StockLine line : lines) {
+            if (line == null || line.productId() == null || line.quantity() <= 0) continue;
+            productQty.merge(line.productId(), line.quantity(), Integer::sum);
+            if (line.label() != null) labels.putIfAbsent(line.productId(), line.label());
+            if (line.variantId() != null) {
+                variantQty.merge(line.variantId(), line.quantity(), Integer::sum);
+                if (line.label() != null) labels.putIfAbsent(line.variantId(), line.label());
+            }
+        }
+    }
+}
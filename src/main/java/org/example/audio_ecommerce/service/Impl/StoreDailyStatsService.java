@@ -0,0 +1,267 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.entity.Enum.ReturnStatus;
+import org.example.audio_ecommerce.entity.JobWatermark;
+import org.example.audio_ecommerce.entity.ReturnRequest;
+import org.example.audio_ecommerce.entity.StoreDailyProductStats;
+import org.example.audio_ecommerce.entity.StoreDailyStats;
+import org.example.audio_ecommerce.entity.StoreOrder;
+import org.example.audio_ecommerce.entity.StoreOrderItem;
+import org.example.audio_ecommerce.repository.JobWatermarkRepository;
+import org.example.audio_ecommerce.repository.StoreDailyProductStatsRepository;
+import org.example.audio_ecommerce.repository.StoreDailyStatsRepository;
+import org.example.audio_ecommerce.repository.StoreStatsRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Duy trì bảng rollup {@code store_daily_stats} / {@code store_daily_product_stats}.
+ * Đơn được gom theo ngày deliveredAt (giống thống kê theo khoảng cũ); đơn đã giao nhưng thiếu deliveredAt
+ * không thuộc ngày nào → thống kê trọn đời cộng riêng phần này (ShopStatsServiceImpl).
+ * - Tăng dần: mỗi lượt lấy các (store, ngày) có đơn / return / phí ship return thay đổi sau watermark
+ *   (cột updated_at) rồi tính lại đúng những ngày đó từ dữ liệu gốc. Mọi luồng chuyển trạng thái
+ *   (giao hàng, GHN sync/webhook, payout cập nhật phí ship, return) đều được bắt mà không phải gắn hook từng nơi.
+ * - Sửa chữa hằng đêm: tính lại N ngày gần nhất, xoá dòng không còn số liệu.
+ * Tính lại 1 ngày là idempotent → chồng lấn watermark hay chạy lại đều an toàn.
+ */
+@Slf4j
+@Service
+public class StoreDailyStatsService {
+
+    static final String JOB_NAME = "store-daily-stats";
+
+    // Transaction đang chạy có thể commit với updated_at < thời điểm quét → lùi watermark 1 khoảng an toàn
+    private static final Duration WATERMARK_OVERLAP = Duration.ofMinutes(5);
+
+    private static final Set<ReturnStatus> COMPLETED_RETURN_STATUSES = EnumSet.of(
+            ReturnStatus.RETURN_DONE, ReturnStatus.DISPUTE_RESOLVED_CUSTOMER, ReturnStatus.REFUNDED);
+
+    private record StoreDay(UUID storeId, LocalDate date) {}
+
+    private final StoreStatsRepository sourceRepo;
+    private final StoreDailyStatsRepository dailyRepo;
+    private final StoreDailyProductStatsRepository productRepo;
+    private final JobWatermarkRepository watermarkRepo;
+    private final TransactionTemplate tx;
+    private final Timer refreshTimer;
+    private final Timer repairTimer;
+    private final int repairDays;
+
+    public StoreDailyStatsService(StoreStatsRepository sourceRepo,
+                                  StoreDailyStatsRepository dailyRepo,
+                                  StoreDailyProductStatsRepository productRepo,
+                                  JobWatermarkRepository watermarkRepo,
+                                  PlatformTransactionManager transactionManager,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${store.stats.repair-days:7}") int repairDays) {
+        this.sourceRepo = sourceRepo;
+        this.dailyRepo = dailyRepo;
+        this.productRepo = productRepo;
+        this.watermarkRepo = watermarkRepo;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.refreshTimer = meterRegistry.timer("store.stats.rollup", "mode", "incremental");
+        this.repairTimer = meterRegistry.timer("store.stats.rollup", "mode", "repair");
+        this.repairDays = repairDays;
+    }
+
+    // Backfill chỉ chạy 1 lần → khi đã sẵn sàng thì không cần hỏi lại DB
+    private volatile boolean ready;
+
+    /** Đã backfill xong ít nhất 1 lần → dashboard đọc rollup được. */
+    public boolean isReady() {
+        if (!ready) {
+            ready = watermarkRepo.existsById(JOB_NAME);
+        }
+        return ready;
+    }
+
+    // ========================================================
+    // INCREMENTAL — watermark chỉ tiến khi mọi ngày đều tính lại thành công
+    // ========================================================
+    public int refreshChanged() {
+        return refreshTimer.record(() -> {
+            LocalDateTime runStartedAt = LocalDateTime.now();
+            LocalDateTime since = watermarkRepo.findById(JOB_NAME).map(JobWatermark::getWatermark).orElse(null);
+            LocalDateTime overlapped = since == null ? null : since.minus(WATERMARK_OVERLAP);
+
+            Set<StoreDay> days = new LinkedHashSet<>();
+            collect(days, sourceRepo.findDeliveredDaysChangedSince(overlapped));
+            collect(days, sourceRepo.findReturnDaysChangedSince(overlapped));
+            collect(days, sourceRepo.findReturnFeeDaysChangedSince(overlapped));
+
+            List<StoreDay> failed = new ArrayList<>();
+            int n = recomputeAll(days, failed);
+
+            // Còn ngày lỗi → giữ watermark để lượt sau quét lại (tính lại idempotent, ngày đã đúng không sao)
+            if (!failed.isEmpty()) {
+                log.warn("[StoreDailyStats] {} ngày tính lỗi, giữ watermark {}", failed.size(), since);
+                return n;
+            }
+
+            watermarkRepo.save(JobWatermark.builder()
+                    .jobName(JOB_NAME)
+                    .watermark(runStartedAt)
+                    .updatedAt(LocalDateTime.now())
+                    .build());
+            if (since == null) {
+                log.info("📊 [StoreDailyStats] Backfill xong {} ngày", n);
+            } else if (n > 0) {
+                log.debug("[StoreDailyStats] Tính lại {} ngày", n);
+            }
+            return n;
+        });
+    }
+
+    // ========================================================
+    // NIGHTLY REPAIR
+    // ========================================================
+    public int repairRecent() {
+        return repairTimer.record(() -> {
+            LocalDate fromDate = LocalDate.now().minusDays(repairDays);
+            LocalDateTime from = fromDate.atStartOfDay();
+
+            Set<StoreDay> days = new LinkedHashSet<>();
+            collect(days, sourceRepo.findDeliveredDaysFrom(from));
+            collect(days, sourceRepo.findReturnDaysChangedSince(from));
+            collect(days, sourceRepo.findReturnFeeDaysChangedSince(from));
+            // Dòng rollup cũ (vd: deliveredAt bị sửa sang ngày khác) → tính lại sẽ xoá nếu không còn số liệu
+            collect(days, dailyRepo.findDaysSince(fromDate));
+
+            List<StoreDay> failed = new ArrayList<>();
+            int n = recomputeAll(days, failed);
+            if (!failed.isEmpty()) {
+                log.warn("[StoreDailyStats] Repair: {} ngày tính lỗi", failed.size());
+            }
+            log.info("🛠 [StoreDailyStats] Repair {} ngày kể từ {}", n, fromDate);
+            return n;
+        });
+    }
+
+    private int recomputeAll(Set<StoreDay> days, List<StoreDay> failed) {
+        int n = 0;
+        for (StoreDay d : days) {
+            try {
+                tx.executeWithoutResult(st -> recomputeDay(d.storeId(), d.date()));
+                n++;
+            } catch (Exception e) {
+                failed.add(d);
+                log.warn("[StoreDailyStats] Recompute store={} date={} failed: {}", d.storeId(), d.date(), e.getMessage());
+            }
+        }
+        return n;
+    }
+
+    private static void collect(Set<StoreDay> out, List<Object[]> rows) {
+        for (Object[] row : rows) {
+            if (row[0] != null && row[1] != null) {
+                out.add(new StoreDay((UUID) row[0], (LocalDate) row[1]));
+            }
+        }
+    }
+
+    // ========================================================
+    // TÍNH LẠI 1 NGÀY (cùng quy tắc với thống kê tính trực tiếp)
+    // ========================================================
+    void recomputeDay(UUID storeId, LocalDate date) {
+        LocalDateTime start = date.atStartOfDay();
+        LocalDateTime end = date.plusDays(1).atStartOfDay();
+
+        List<StoreOrder> delivered = sourceRepo.findDeliveredOrdersBetween(storeId, start, end);
+        List<StoreOrderItem> items = delivered.isEmpty()
+                ? List.of()
+                : sourceRepo.findItemsByOrderIds(delivered.stream().map(StoreOrder::getId).toList());
+        List<ReturnRequest> returns = sourceRepo.findReturnRequestsBetween(storeId, start, end);
+
+        BigDecimal grandTotal = BigDecimal.ZERO;
+        for (StoreOrder o : delivered) {
+            if (o.getGrandTotal() != null) grandTotal = grandTotal.add(o.getGrandTotal());
+        }
+
+        BigDecimal itemRevenue = BigDecimal.ZERO;
+        BigDecimal platformFee = BigDecimal.ZERO;
+        Map<UUID, StoreDailyProductStats> byProduct = new LinkedHashMap<>();
+        for (StoreOrderItem i : items) {
+            if (i.getFinalLineTotal() != null) itemRevenue = itemRevenue.add(i.getFinalLineTotal());
+            platformFee = platformFee.add(platformFee(i.getFinalLineTotal(), i.getPlatformFeePercentage()));
+            if (i.getRefId() == null) continue;
+
+            StoreDailyProductStats p = byProduct.computeIfAbsent(i.getRefId(),
+                    id -> productRow(storeId, date, id, i.getName()));
+            p.setSoldQuantity(p.getSoldQuantity() + i.getQuantity());
+            if (i.getFinalLineTotal() != null) p.setRevenue(p.getRevenue().add(i.getFinalLineTotal()));
+        }
+
+        long returnSuccess = 0;
+        for (ReturnRequest r : returns) {
+            if (!isReturnCompleted(r.getStatus())) continue;
+            returnSuccess++;
+            if (r.getProductId() == null) continue;
+            StoreDailyProductStats p = byProduct.computeIfAbsent(r.getProductId(),
+                    id -> productRow(storeId, date, id, r.getProductName()));
+            p.setReturnSuccess(p.getReturnSuccess() + 1);
+        }
+
+        BigDecimal shippingDifference = sourceRepo.sumShippingDifferenceBetween(storeId, start, end);
+        BigDecimal shippingCollected = sourceRepo.sumActualShippingFeeBetween(storeId, start, end);
+        BigDecimal returnShippingFee = sourceRepo.sumReturnShippingFeeBetween(storeId, start, end);
+
+        productRepo.deleteDay(storeId, date);
+
+        boolean empty = delivered.isEmpty() && returnSuccess == 0
+                && isZero(shippingDifference) && isZero(shippingCollected) && isZero(returnShippingFee);
+        if (empty) {
+            dailyRepo.deleteDay(storeId, date);
+            return;
+        }
+
+        StoreDailyStats row = dailyRepo.findByStoreIdAndStatDate(storeId, date)
+                .orElseGet(() -> StoreDailyStats.builder().storeId(storeId).statDate(date).build());
+        row.setDeliveredOrders(delivered.size());
+        row.setOrderGrandTotal(grandTotal);
+        row.setItemRevenue(itemRevenue);
+        row.setPlatformFee(platformFee);
+        row.setReturnSuccess(returnSuccess);
+        row.setShippingDifference(shippingDifference);
+        row.setShippingCollected(shippingCollected);
+        row.setReturnShippingFee(returnShippingFee);
+        row.setUpdatedAt(LocalDateTime.now());
+        dailyRepo.save(row);
+
+        productRepo.saveAll(byProduct.values());
+    }
+
+    private static StoreDailyProductStats productRow(UUID storeId, LocalDate date, UUID productId, String name) {
+        return StoreDailyProductStats.builder()
+                .storeId(storeId)
+                .statDate(date)
+                .productId(productId)
+                .productName(name)
+                .revenue(BigDecimal.ZERO)
+                .build();
+    }
+
+    private static boolean isZero(BigDecimal v) {
+        return v == null || v.signum() == 0;
+    }
+
+    static BigDecimal platformFee(BigDecimal total, BigDecimal percent) {
+        if (total == null || percent == null) return BigDecimal.ZERO;
+        return total.multiply(percent).divide(BigDecimal.valueOf(100), 2, RoundingMode.HALF_UP);
+    }
+
+    static boolean isReturnCompleted(ReturnStatus status) {
+        return COMPLETED_RETURN_STATUSES.contains(status);
+    }
+}
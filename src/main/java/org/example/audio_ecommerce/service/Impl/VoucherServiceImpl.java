@@ -17,6 +17,10 @@ import org.example.audio_ecommerce.repository.PlatformCampaignProductUsageReposi
 import org.example.audio_ecommerce.repository.ShopVoucherRepository;
 import org.example.audio_ecommerce.repository.ShopVoucherUsageRepository;
 import org.example.audio_ecommerce.service.VoucherService;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
@@ -29,6 +33,8 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 @Transactional
 public class VoucherServiceImpl implements VoucherService {
+    private static final int MAX_USAGE_PAGE_SIZE = 200;
+
     private final ShopVoucherRepository voucherRepo;
     private final PlatformCampaignProductRepository campaignProductRepo;
     private final ShopVoucherUsageRepository shopVoucherUsageRepo;
@@ -562,39 +568,11 @@ public class VoucherServiceImpl implements VoucherService {
             int page,
             int size
     ) {
-        List<ShopVoucherUsage> all = shopVoucherUsageRepo.findAll();
-
-        List<ShopVoucherUsage> filtered = all.stream()
-                .filter(u -> storeId == null
-                        || (u.getVoucher() != null
-                        && u.getVoucher().getShop() != null
-                        && storeId.equals(u.getVoucher().getShop().getStoreId())))
-                .filter(u -> voucherId == null
-                        || (u.getVoucher() != null
-                        && voucherId.equals(u.getVoucher().getId())))
-                .filter(u -> customerId == null
-                        || (u.getCustomer() != null
-                        && customerId.equals(u.getCustomer().getId())))
-                .filter(u -> {
-                    if (from == null && to == null) return true;
-                    LocalDateTime t = u.getLastUsedAt() != null ? u.getLastUsedAt() : u.getFirstUsedAt();
-                    if (t == null) return false;
-                    if (from != null && t.isBefore(from)) return false;
-                    if (to != null && t.isAfter(to)) return false;
-                    return true;
-                })
-                .sorted(Comparator.comparing(
-                        (ShopVoucherUsage u) ->
-                                u.getLastUsedAt() != null ? u.getLastUsedAt() : u.getFirstUsedAt()
-                ).reversed())
-                .toList();
+        Pageable pageable = usagePage(page, size);
+        Page<ShopVoucherUsage> result = shopVoucherUsageRepo.searchUsage(
+                storeId, voucherId, customerId, from, to, pageable);
 
-        int total = filtered.size();
-        int fromIdx = Math.min(page * size, total);
-        int toIdx = Math.min(fromIdx + size, total);
-        List<ShopVoucherUsage> pageList = filtered.subList(fromIdx, toIdx);
-
-        List<ShopVoucherUsageResponse> content = pageList.stream()
+        List<ShopVoucherUsageResponse> content = result.getContent().stream()
                 .map(u -> {
                     ShopVoucher v = u.getVoucher();
                     Store store = v != null ? v.getShop() : null;
@@ -617,10 +595,11 @@ public class VoucherServiceImpl implements VoucherService {
                 })
                 .toList();
 
+        // page/size thực dùng (size đã clamp về MAX_USAGE_PAGE_SIZE)
         Map<String, Object> data = Map.of(
-                "page", page,
-                "size", size,
-                "totalElements", total,
+                "page", pageable.getPageNumber(),
+                "size", pageable.getPageSize(),
+                "totalElements", result.getTotalElements(),
                 "content", content
         );
 
@@ -638,43 +617,11 @@ public class VoucherServiceImpl implements VoucherService {
             int page,
             int size
     ) {
-        List<PlatformCampaignProductUsage> all = platformUsageRepo.findAll();
-
-        List<PlatformCampaignProductUsage> filtered = all.stream()
-                .filter(u -> campaignId == null
-                        || (u.getCampaignProduct() != null
-                        && u.getCampaignProduct().getCampaign() != null
-                        && campaignId.equals(u.getCampaignProduct().getCampaign().getId())))
-                .filter(u -> campaignProductId == null
-                        || (u.getCampaignProduct() != null
-                        && campaignProductId.equals(u.getCampaignProduct().getId())))
-                .filter(u -> storeId == null
-                        || (u.getCampaignProduct() != null
-                        && u.getCampaignProduct().getStore() != null
-                        && storeId.equals(u.getCampaignProduct().getStore().getStoreId())))
-                .filter(u -> customerId == null
-                        || (u.getCustomer() != null
-                        && customerId.equals(u.getCustomer().getId())))
-                .filter(u -> {
-                    if (from == null && to == null) return true;
-                    LocalDateTime t = u.getLastUsedAt() != null ? u.getLastUsedAt() : u.getFirstUsedAt();
-                    if (t == null) return false;
-                    if (from != null && t.isBefore(from)) return false;
-                    if (to != null && t.isAfter(to)) return false;
-                    return true;
-                })
-                .sorted(Comparator.comparing(
-                        (PlatformCampaignProductUsage u) ->
-                                u.getLastUsedAt() != null ? u.getLastUsedAt() : u.getFirstUsedAt()
-                ).reversed())
-                .toList();
-
-        int total = filtered.size();
-        int fromIdx = Math.min(page * size, total);
-        int toIdx = Math.min(fromIdx + size, total);
-        List<PlatformCampaignProductUsage> pageList = filtered.subList(fromIdx, toIdx);
+        Pageable pageable = usagePage(page, size);
+        Page<PlatformCampaignProductUsage> result = platformUsageRepo.searchUsage(
+                campaignId, campaignProductId, storeId, customerId, from, to, pageable);
 
-        List<PlatformVoucherUsageResponse> content = pageList.stream()
+        List<PlatformVoucherUsageResponse> content = result.getContent().stream()
                 .map(u -> {
                     PlatformCampaignProduct cp = u.getCampaignProduct();
                     PlatformCampaign cpn = cp != null ? cp.getCampaign() : null;
@@ -705,14 +652,21 @@ public class VoucherServiceImpl implements VoucherService {
                 })
                 .toList();
 
+        // page/size thực dùng (size đã clamp về MAX_USAGE_PAGE_SIZE)
         Map<String, Object> data = Map.of(
-                "page", page,
-                "size", size,
-                "totalElements", total,
+                "page", pageable.getPageNumber(),
+                "size", pageable.getPageSize(),
+                "totalElements", result.getTotalElements(),
                 "content", content
         );
 
         return BaseResponse.success("✅ Danh sách lịch sử sử dụng platform voucher", data);
     }
 
+    // Mới dùng gần nhất trước; id làm tie-break để trang ổn định
+    private static Pageable usagePage(int page, int size) {
+        return PageRequest.of(Math.max(page, 0), Math.min(Math.max(size, 1), MAX_USAGE_PAGE_SIZE),
+                Sort.by(Sort.Order.desc("lastUsedAt"), Sort.Order.desc("id")));
+    }
+
 }
@@ -34,7 +34,7 @@ public class WalletServiceImpl implements WalletService {
     private final StoreWalletRepository storeWalletRepo;
     private final StoreWalletTransactionRepository storeWalletTxnRepo;
     private final CustomerOrderItemRepository customerOrderItemRepo;
-    private final PlatformWalletRepository platformWalletRepo;
+    private final PlatformLedger platformLedger;
     private final PlatformTransactionRepository platformTxnRepo;
 
 
@@ -104,34 +104,20 @@ public class WalletServiceImpl implements WalletService {
         Wallet customerWallet = walletRepo.findByCustomerId(r.getCustomerId())
                 .orElseThrow(() -> new NoSuchElementException("Customer wallet not found"));
 
-        // ===== Lấy ví PLATFORM (trung gian) =====
-        // Giả định ví nền tảng là 1 record có ownerType = PLATFORM và ownerId = null
-        PlatformWallet platformWallet = platformWalletRepo
-                .findByOwnerTypeAndOwnerId(WalletOwnerType.PLATFORM, null)
-                .orElseThrow(() -> new NoSuchElementException("Platform wallet not found"));
-
-        // ===== PLATFORM: trừ pendingBalance + totalBalance, tăng refundedTotal =====
-        BigDecimal pfPendingBefore = platformWallet.getPendingBalance();
-        BigDecimal pfPendingAfter = pfPendingBefore.subtract(amount);
-        ensureNonNegative(pfPendingAfter, "Platform pending balance cannot be negative");
-
-        BigDecimal pfTotalBefore = platformWallet.getTotalBalance();
-        BigDecimal pfTotalAfter = pfTotalBefore.subtract(amount);
-        ensureNonNegative(pfTotalAfter, "Platform totalBalance cannot be negative");
-
-        platformWallet.setPendingBalance(pfPendingAfter);
-        platformWallet.setTotalBalance(pfTotalAfter);
-        platformWallet.setRefundedTotal(
-                platformWallet.getRefundedTotal() == null
-                        ? amount
-                        : platformWallet.getRefundedTotal().add(amount)
-        );
-        platformWallet.setUpdatedAt(LocalDateTime.now());
-        platformWalletRepo.save(platformWallet);
+        // ===== PLATFORM (trung gian): trừ pendingBalance + totalBalance, tăng refundedTotal =====
+        // Kiểm tra trên số dư tổng hợp hiện tại (không khoá), rồi ghi delta qua ledger chia stripe
+        PlatformLedger.Delta pf = platformLedger.current();
+        ensureNonNegative(pf.pending().subtract(amount), "Platform pending balance cannot be negative");
+        ensureNonNegative(pf.total().subtract(amount), "Platform totalBalance cannot be negative");
+
+        platformLedger.apply(PlatformLedger.Delta.ZERO
+                .pending(amount.negate())
+                .total(amount.negate())
+                .refunded(amount));
 
         // 🔹 Log PlatformTransaction: nền tảng trả tiền lại cho customer
         PlatformTransaction pfTxn = PlatformTransaction.builder()
-                .wallet(platformWallet)
+                .wallet(platformLedger.walletRef())
                 .orderId(orderId)
                 .storeId(r.getShopId())              // nếu muốn link shop liên quan
                 .customerId(r.getCustomerId())
@@ -12,6 +12,7 @@ import org.example.audio_ecommerce.entity.Enum.WarrantyLogStatus;
 import org.example.audio_ecommerce.entity.Enum.WarrantyStatus;
 import org.example.audio_ecommerce.repository.*;
 import org.example.audio_ecommerce.service.WarrantyService;
+import org.example.audio_ecommerce.util.ContactNormalizer;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -35,6 +36,7 @@ public class WarrantyServiceImpl implements WarrantyService {
     private final WarrantyReviewRepository warrantyReviewRepo;
     private final CustomerRepository customerRepo;
     private final StoreRepository storeRepo;
+    private final StoreOrderItemRepository storeOrderItemRepo;
 
     @Override
     @Transactional
@@ -151,7 +153,7 @@ public class WarrantyServiceImpl implements WarrantyService {
         if (req == null) return List.of();
 
         if (req.getSerial() != null && !req.getSerial().isBlank()) {
-            return warrantyRepo.findBySerialNumber(req.getSerial())
+            return warrantyRepo.findDetailedBySerialNumber(req.getSerial())
                     .map(w -> List.of(toWarrantyResponse(w)))
                     .orElse(List.of());
         }
@@ -159,23 +161,30 @@ public class WarrantyServiceImpl implements WarrantyService {
         if (req.getOrderId() != null) {
             CustomerOrder co = customerOrderRepo.findById(req.getOrderId())
                     .orElseThrow(() -> new NoSuchElementException("CustomerOrder not found"));
+            // storeOrderItemId của warranty trỏ tới StoreOrderItem; giữ cả id CustomerOrderItem như trước
             Set<UUID> itemIds = co.getItems().stream()
                     .map(CustomerOrderItem::getId).collect(Collectors.toSet());
+            itemIds.addAll(storeOrderItemRepo.findIdsByCustomerOrderId(co.getId()));
+            if (itemIds.isEmpty()) return List.of();
 
-            return warrantyRepo.findAll().stream()
-                    .filter(w -> w.getStoreOrderItemId() != null && itemIds.contains(w.getStoreOrderItemId()))
+            return warrantyRepo.findDetailedByStoreOrderItemIdIn(itemIds).stream()
                     .map(this::toWarrantyResponse)
                     .toList();
         }
 
-        if (req.getPhoneOrEmail() != null) {
-            String s = req.getPhoneOrEmail().trim().toLowerCase();
-            List<Customer> candidates = customerRepo.findAll().stream()
-                    .filter(c -> (c.getPhoneNumber()!=null && c.getPhoneNumber().equalsIgnoreCase(s))
-                            || (c.getEmail()!=null && c.getEmail().toLowerCase().equals(s)))
-                    .toList();
-            return candidates.stream()
-                    .flatMap(c -> warrantyRepo.findByCustomer(c).stream())
+        if (req.getPhoneOrEmail() != null && !req.getPhoneOrEmail().isBlank()) {
+            String s = req.getPhoneOrEmail();
+            // Như bản cũ: mọi customer khớp liên hệ (dữ liệu cũ có thể trùng sau chuẩn hoá)
+            List<UUID> customerIds;
+            if (ContactNormalizer.looksLikeEmail(s)) {
+                customerIds = customerRepo.findIdsByEmailNormalized(ContactNormalizer.email(s));
+            } else {
+                String phone = ContactNormalizer.phone(s);
+                customerIds = phone == null ? List.of() : customerRepo.findIdsByPhoneNormalized(phone);
+            }
+            if (customerIds.isEmpty()) return List.of();
+
+            return warrantyRepo.findDetailedByCustomerIdIn(customerIds).stream()
                     .map(this::toWarrantyResponse)
                     .toList();
         }
@@ -318,49 +327,9 @@ public class WarrantyServiceImpl implements WarrantyService {
             return List.of();
         }
 
-        UUID warrantyId = req.getWarrantyId();
-
-        // 1) Lấy log theo warrantyId (+ status nếu có)
-        List<LogWarranty> logs;
-        if (req.getStatus() != null) {
-            logs = logWarrantyRepo.findByWarrantyIdAndStatus(warrantyId, req.getStatus());
-        } else {
-            logs = logWarrantyRepo.findByWarrantyId(warrantyId);
-        }
-
-        if (logs.isEmpty()) {
-            return List.of();
-        }
-
-        // 2) Filter theo customerId / storeId (nếu truyền vào)
-        UUID filterCustomerId = req.getCustomerId();
-        UUID filterStoreId = req.getStoreId();
-
-        return logs.stream()
-                .filter(log -> {
-                    Warranty w = log.getWarranty();
-                    if (w == null) return false;
-
-                    // filter theo customer
-                    if (filterCustomerId != null) {
-                        if (w.getCustomer() == null
-                                || w.getCustomer().getId() == null
-                                || !w.getCustomer().getId().equals(filterCustomerId)) {
-                            return false;
-                        }
-                    }
-
-                    // filter theo store
-                    if (filterStoreId != null) {
-                        if (w.getStore() == null
-                                || w.getStore().getStoreId() == null
-                                || !w.getStore().getStoreId().equals(filterStoreId)) {
-                            return false;
-                        }
-                    }
-
-                    return true;
-                })
+        // Lọc status / customer / store ngay trong SQL, warranty nạp cùng query
+        return logWarrantyRepo.searchByWarranty(req.getWarrantyId(), req.getStatus(),
+                        req.getCustomerId(), req.getStoreId()).stream()
                 .map(this::toLogResponse)
                 .toList();
     }
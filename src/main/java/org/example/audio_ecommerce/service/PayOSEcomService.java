@@ -25,4 +25,7 @@ public interface PayOSEcomService {
             String cancelUrl
     );
     void confirmWebhook(WebhookData webhookData);
+
+    // Xử lý 1 webhook đã lưu trong inbox (orderCode PayOS, code "00" = thành công)
+    void processWebhook(Long orderCode, String resultCode, String desc);
 }
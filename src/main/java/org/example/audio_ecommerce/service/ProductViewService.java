@@ -28,9 +28,13 @@ public interface ProductViewService {
             BigDecimal minRating,
             Pageable pageable,
             String sortBy,
-            String sortDir
+            String sortDir,
+            boolean scroll,
+            String cursor
     );
 
+    ResponseEntity<BaseResponse> searchProducts(String keyword, UUID categoryId, String brand, int page, int size);
+
     ResponseEntity<BaseResponse> getActiveVouchersOfProduct(UUID productId, String type, String campaignType);
 
 
@@ -0,0 +1,43 @@
+package org.example.audio_ecommerce.service;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+public interface StockReservationService {
+
+    /**
+     * 1 dòng trừ/cộng tồn kho. variantId = null nếu sản phẩm không có biến thể.
+     * label chỉ dùng cho message lỗi.
+     */
+    record StockLine(UUID productId, UUID variantId, int quantity, String label) {}
+
+    /** Trừ tồn kho nguyên tử; ném IllegalStateException nếu 1 SKU bất kỳ không đủ hàng. */
+    void deduct(List<StockLine> lines);
+
+    /** Cộng trả tồn kho (huỷ đơn, hết hạn thanh toán). */
+    void restock(List<StockLine> lines);
+
+    /** Ghi nhận giữ chỗ có TTL cho đơn ONLINE (tồn kho đã bị trừ bởi deduct). */
+    void holdForOrder(UUID customerOrderId, List<StockLine> lines);
+
+    /** Hạn thanh toán của nhóm đơn = reservation HELD hết hạn sớm nhất (chưa có reservation → now + TTL). */
+    LocalDateTime paymentDeadline(Collection<UUID> customerOrderIds);
+
+    /**
+     * Thanh toán thành công → giữ luôn tồn kho đã trừ.
+     * Đơn đã bị trả hàng (thanh toán trễ) được trừ lại; trả về các đơn không còn đủ hàng (cần hoàn tiền).
+     */
+    Set<UUID> commitForOrders(Collection<UUID> customerOrderIds);
+
+    /**
+     * Thanh toán hết hạn / bị huỷ → cộng trả tồn kho các reservation còn HELD.
+     * Trả về id các đơn mà lời gọi này thực sự chuyển được reservation sang RELEASED.
+     */
+    Set<UUID> releaseForOrders(Collection<UUID> customerOrderIds);
+
+    /** Quét reservation HELD đã quá hạn, trả tồn kho và huỷ đơn chưa thanh toán. */
+    int releaseExpiredReservations();
+}
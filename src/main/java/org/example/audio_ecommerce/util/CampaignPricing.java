@@ -0,0 +1,57 @@
+package org.example.audio_ecommerce.util;
+
+import org.example.audio_ecommerce.entity.PlatformCampaignProduct;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Collection;
+
+/**
+ * Công thức giảm giá campaign dùng chung cho giỏ hàng và giá hiệu lực (effective_min_price) của sản phẩm.
+ */
+public final class CampaignPricing {
+
+    private CampaignPricing() {
+    }
+
+    public static BigDecimal applyDiscount(BigDecimal basePrice, PlatformCampaignProduct cp) {
+        if (basePrice == null) return BigDecimal.ZERO;
+        BigDecimal discountAmount = BigDecimal.ZERO;
+
+        // Giảm theo %
+        if (cp.getDiscountPercent() != null && cp.getDiscountPercent() > 0) {
+            discountAmount = basePrice
+                    .multiply(BigDecimal.valueOf(cp.getDiscountPercent()))
+                    .divide(BigDecimal.valueOf(100), 2, RoundingMode.DOWN);
+        }
+
+        // Nếu không có % mà có giá cố định
+        if ((cp.getDiscountPercent() == null || cp.getDiscountPercent() == 0)
+                && cp.getDiscountValue() != null
+                && cp.getDiscountValue().compareTo(BigDecimal.ZERO) > 0) {
+            discountAmount = cp.getDiscountValue();
+        }
+
+        // Giới hạn maxDiscountValue nếu có
+        if (cp.getMaxDiscountValue() != null
+                && discountAmount.compareTo(cp.getMaxDiscountValue()) > 0) {
+            discountAmount = cp.getMaxDiscountValue();
+        }
+
+        BigDecimal result = basePrice.subtract(discountAmount);
+        if (result.compareTo(BigDecimal.ZERO) < 0) result = BigDecimal.ZERO;
+        return result;
+    }
+
+    /** Giá thấp nhất sau khi áp lần lượt từng campaign (không xét usage_per_user). */
+    public static BigDecimal bestPrice(BigDecimal basePrice, Collection<PlatformCampaignProduct> campaigns) {
+        if (basePrice == null) return null;
+        BigDecimal best = basePrice;
+        if (campaigns == null) return best;
+        for (PlatformCampaignProduct cp : campaigns) {
+            BigDecimal discounted = applyDiscount(basePrice, cp);
+            if (discounted.compareTo(best) < 0) best = discounted;
+        }
+        return best;
+    }
+}
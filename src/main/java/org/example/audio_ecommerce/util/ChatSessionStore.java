@@ -0,0 +1,220 @@
+package org.example.audio_ecommerce.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bộ nhớ hội thoại theo session, có giới hạn:
+ * - Tối đa maxSessions session (LRU), session idle quá idleTimeoutMs bị dọn.
+ * - Mỗi session có ngân sách token (ước lượng); vượt ngân sách → các lượt cũ được gộp thành tóm tắt ngắn,
+ *   giữ nguyên văn tối đa keepRecentTurns lượt gần nhất. Tóm tắt cũng bị cắt ở summaryMaxChars.
+ * - Tổng (tóm tắt + lượt nguyên văn) luôn nằm trong ngân sách: các lượt gần nhất vẫn vượt thì tiếp tục gộp
+ *   vào tóm tắt, rồi bỏ dòng tóm tắt cũ, cuối cùng cắt ngắn lượt mới nhất.
+ * Metrics: chat.sessions.live, chat.sessions.retained_bytes, chat.sessions.evicted{reason}, chat.sessions.compactions.
+ */
+public class ChatSessionStore {
+
+    public record Turn(String role, String text) {}
+
+    private static final int SUMMARY_LINE_CHARS = 120;
+
+    private static final class Session {
+        final Deque<Turn> turns = new ArrayDeque<>();
+        final StringBuilder summary = new StringBuilder();
+        int tokens;
+        int chars;
+        volatile long lastActive = System.currentTimeMillis();
+    }
+
+    private final int maxSessions;
+    private final long idleTimeoutMs;
+    private final int tokenBudget;
+    private final int keepRecentTurns;
+    private final int summaryMaxChars;
+    private final Map<String, Session> sessions;
+
+    private final Counter evictedIdle;
+    private final Counter evictedSize;
+    private final Counter compactions;
+
+    public ChatSessionStore(String name, int maxSessions, long idleTimeoutMs, int tokenBudget,
+                            int keepRecentTurns, int summaryMaxChars, MeterRegistry meterRegistry) {
+        this.maxSessions = Math.max(1, maxSessions);
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.tokenBudget = tokenBudget;
+        this.keepRecentTurns = Math.max(1, keepRecentTurns);
+        this.summaryMaxChars = summaryMaxChars;
+
+        this.evictedIdle = meterRegistry.counter("chat.sessions.evicted", "store", name, "reason", "idle");
+        this.evictedSize = meterRegistry.counter("chat.sessions.evicted", "store", name, "reason", "size");
+        this.compactions = meterRegistry.counter("chat.sessions.compactions", "store", name);
+        // accessOrder=true → LRU; truy cập luôn trong synchronized(sessions)
+        this.sessions = new LinkedHashMap<>(Math.min(this.maxSessions, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+                if (size() <= ChatSessionStore.this.maxSessions) return false;
+                evictedSize.increment();
+                return true;
+            }
+        };
+        meterRegistry.gauge("chat.sessions.live", Tags.of("store", name),
+                this, ChatSessionStore::size);
+        meterRegistry.gauge("chat.sessions.retained_bytes", Tags.of("store", name),
+                this, ChatSessionStore::retainedBytes);
+    }
+
+    /** Thêm 1 lượt (User / AI) vào session; vượt ngân sách token thì gộp lượt cũ vào tóm tắt. */
+    public void append(String sessionId, String role, String text) {
+        // 1 lượt dài hơn cả ngân sách → chỉ giữ phần đầu
+        text = truncate(text, tokenBudget);
+
+        Session s = session(sessionId);
+        synchronized (s) {
+            s.turns.addLast(new Turn(role, text));
+            s.tokens += estimateTokens(text);
+            s.chars += text.length();
+            s.lastActive = System.currentTimeMillis();
+            if (total(s) > tokenBudget) compact(s);
+        }
+    }
+
+    /** Lịch sử để đưa vào prompt: tóm tắt (nếu có) + các lượt gần nhất nguyên văn. */
+    public String history(String sessionId) {
+        Session s = session(sessionId);
+        synchronized (s) {
+            s.lastActive = System.currentTimeMillis();
+            StringBuilder sb = new StringBuilder();
+            if (!s.summary.isEmpty()) {
+                sb.append("Tóm tắt các lượt trước:\n").append(s.summary).append("\n");
+            }
+            for (Turn t : s.turns) {
+                sb.append(t.role()).append(": ").append(t.text()).append("\n");
+            }
+            return sb.toString();
+        }
+    }
+
+    /** Số token ước lượng đang giữ (tóm tắt + các lượt nguyên văn). */
+    public int tokens(String sessionId) {
+        Session s;
+        synchronized (sessions) {
+            s = sessions.get(sessionId);
+        }
+        if (s == null) return 0;
+        synchronized (s) {
+            return total(s);
+        }
+    }
+
+    private Session session(String sessionId) {
+        synchronized (sessions) {
+            return sessions.computeIfAbsent(sessionId, k -> new Session());
+        }
+    }
+
+    private void compact(Session s) {
+        // 1. Lượt cũ hơn keepRecentTurns → tóm tắt
+        while (total(s) > tokenBudget && s.turns.size() > keepRecentTurns) {
+            summarizeOldest(s);
+        }
+        // 2. Các lượt gần nhất vẫn vượt ngân sách → gộp tiếp, chỉ chừa lượt mới nhất
+        while (total(s) > tokenBudget && s.turns.size() > 1) {
+            summarizeOldest(s);
+        }
+        // 3. Tóm tắt quá dài / chiếm phần ngân sách còn lại → bỏ các dòng cũ nhất
+        while (!s.summary.isEmpty() && (s.summary.length() > summaryMaxChars || total(s) > tokenBudget)) {
+            int nl = s.summary.indexOf("\n");
+            s.summary.delete(0, nl < 0 ? s.summary.length() : nl + 1);
+        }
+        // 4. Riêng lượt mới nhất đã vượt → cắt ngắn
+        if (s.tokens > tokenBudget) {
+            Turn last = s.turns.removeLast();
+            s.tokens -= estimateTokens(last.text());
+            s.chars -= last.text().length();
+            Turn cut = new Turn(last.role(), truncate(last.text(), tokenBudget));
+            s.turns.addLast(cut);
+            s.tokens += estimateTokens(cut.text());
+            s.chars += cut.text().length();
+        }
+        compactions.increment();
+    }
+
+    private static void summarizeOldest(Session s) {
+        Turn old = s.turns.removeFirst();
+        s.tokens -= estimateTokens(old.text());
+        s.chars -= old.text().length();
+        s.summary.append("- ").append(old.role()).append(": ").append(abbreviate(old.text())).append("\n");
+    }
+
+    private static int total(Session s) {
+        return s.tokens + estimateTokens(s.summary);
+    }
+
+    // Giữ phần đầu sao cho (kể cả dấu "…") không quá maxTokens
+    private static String truncate(String text, int maxTokens) {
+        if (estimateTokens(text) <= maxTokens) return text;
+        return text.substring(0, Math.max(0, maxTokens * 4 - 4)) + "…";
+    }
+
+    private static String abbreviate(String text) {
+        String oneLine = text.replaceAll("\\s+", " ").trim();
+        return oneLine.length() <= SUMMARY_LINE_CHARS ? oneLine : oneLine.substring(0, SUMMARY_LINE_CHARS) + "…";
+    }
+
+    /** Ước lượng thô ~4 ký tự / token (đủ để giới hạn prompt, không cần tokenizer thật). */
+    public static int estimateTokens(CharSequence text) {
+        return text == null ? 0 : (text.length() + 3) / 4;
+    }
+
+    /** Dọn session idle; trả về số session đã bỏ. */
+    public int evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleTimeoutMs;
+        synchronized (sessions) {
+            int before = sessions.size();
+            sessions.values().removeIf(s -> s.lastActive < cutoff);
+            int removed = before - sessions.size();
+            if (removed > 0) evictedIdle.increment(removed);
+            return removed;
+        }
+    }
+
+    public void remove(String sessionId) {
+        synchronized (sessions) {
+            sessions.remove(sessionId);
+        }
+    }
+
+    public void clear() {
+        synchronized (sessions) {
+            sessions.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (sessions) {
+            return sessions.size();
+        }
+    }
+
+    /** Ước lượng bộ nhớ giữ nội dung hội thoại (UTF-16 → 2 byte / ký tự). */
+    public long retainedBytes() {
+        List<Session> snapshot;
+        synchronized (sessions) {
+            snapshot = List.copyOf(sessions.values());
+        }
+        long chars = 0;
+        for (Session s : snapshot) {
+            synchronized (s) {
+                chars += s.chars + s.summary.length();
+            }
+        }
+        return chars * 2;
+    }
+}
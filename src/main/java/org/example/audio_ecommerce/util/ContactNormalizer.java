@@ -0,0 +1,32 @@
+package org.example.audio_ecommerce.util;
+
+/**
+ * Chuẩn hoá email / số điện thoại về 1 dạng duy nhất để so khớp bằng index:
+ * - Email: trim + chữ thường.
+ * - SĐT: chỉ giữ chữ số, đầu số quốc tế 84 → 0 (+84 912 345 678 ≡ 0912345678).
+ */
+public final class ContactNormalizer {
+
+    private ContactNormalizer() {}
+
+    public static String email(String raw) {
+        if (raw == null) return null;
+        String s = raw.trim().toLowerCase();
+        return s.isEmpty() ? null : s;
+    }
+
+    public static String phone(String raw) {
+        if (raw == null) return null;
+        String digits = raw.replaceAll("\\D+", "");
+        if (digits.isEmpty()) return null;
+        if (digits.startsWith("84") && digits.length() >= 11) {
+            digits = "0" + digits.substring(2);
+        }
+        return digits;
+    }
+
+    /** Chuỗi người dùng nhập là email hay SĐT (email luôn có '@'). */
+    public static boolean looksLikeEmail(String raw) {
+        return raw != null && raw.indexOf('@') >= 0;
+    }
+}
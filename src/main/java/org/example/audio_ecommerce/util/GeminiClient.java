@@ -1,6 +1,11 @@
 package org.example.audio_ecommerce.util;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.exception.UpstreamUnavailableException;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
@@ -10,10 +15,10 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.time.Instant;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.time.Duration;
+import java.util.concurrent.Flow;
 
+@Slf4j
 @Component
 public class GeminiClient {
 
@@ -23,20 +28,49 @@ public class GeminiClient {
     @Value("${gemini.model:gemini-2.0-flash-lite}")
     private String MODEL;
 
-    private static final String BASE_URL = "https://generativelanguage.googleapis.com/v1beta";
-    private final HttpClient http = HttpClient.newHttpClient();
+    @Value("${gemini.api.base-url:https://generativelanguage.googleapis.com/v1beta}")
+    private String BASE_URL;
+
+    // Client riêng cho Gemini (kết nối keep-alive tái dùng) + guard "gemini": timeout, bulkhead, circuit breaker
+    private final UpstreamGuard guard;
+    private final HttpClient http;
+    private final Duration requestTimeout;
+
+    public GeminiClient(UpstreamGuards guards,
+                        MeterRegistry meterRegistry,
+                        @Value("${gemini.sessions.max-sessions:10000}") int maxSessions,
+                        @Value("${gemini.sessions.idle-timeout-ms:600000}") long idleTimeoutMs,
+                        @Value("${gemini.sessions.token-budget:1500}") int tokenBudget,
+                        @Value("${gemini.sessions.keep-recent-turns:6}") int keepRecentTurns,
+                        @Value("${gemini.sessions.summary-max-chars:1200}") int summaryMaxChars) {
+        this.guard = guards.get("gemini");
+        this.userConversations = new ChatSessionStore("gemini", maxSessions, idleTimeoutMs, tokenBudget,
+                keepRecentTurns, summaryMaxChars, meterRegistry);
+        this.chatPromptTokens = DistributionSummary.builder("gemini.prompt.tokens")
+                .tag("type", "chat").register(meterRegistry);
+        this.sqlPromptTokens = DistributionSummary.builder("gemini.prompt.tokens")
+                .tag("type", "sql").register(meterRegistry);
+        this.http = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(guard.settings().connectTimeoutMs()))
+                .build();
+        this.requestTimeout = Duration.ofMillis(guard.settings().readTimeoutMs());
+    }
 
-    // ============================================================
-    // 🧠 Bộ nhớ per-user (chat) & schema toàn cục
-    // ============================================================
-    private static class SessionData {
-        StringBuilder history = new StringBuilder();
-        long lastActive = Instant.now().toEpochMilli();
+    private HttpResponse<String> send(HttpRequest.Builder request) throws Exception {
+        HttpRequest req = request.timeout(requestTimeout).build();
+        return guard.call(() -> http.send(req, HttpResponse.BodyHandlers.ofString()), HttpResponse::statusCode);
     }
 
-    private final Map<String, SessionData> userConversations = new ConcurrentHashMap<>();
+    // ============================================================
+    // 🧠 Bộ nhớ per-user (chat, có giới hạn số session + token) & schema toàn cục
+    // ============================================================
+    private final ChatSessionStore userConversations;
     private volatile String globalSchemaSession;
 
+    // Token ước lượng mỗi prompt gửi Gemini (mean = trung bình)
+    private final DistributionSummary chatPromptTokens;
+    private final DistributionSummary sqlPromptTokens;
+
     // ============================================================
     // 🚀 ADMIN KHỞI TẠO SCHEMA TOÀN CỤC (1 lần)
     // ============================================================
@@ -66,20 +100,19 @@ public class GeminiClient {
         }
         """.formatted(schema.replace("\"", "\\\""));
 
-        HttpRequest req = HttpRequest.newBuilder()
+        HttpRequest.Builder req = HttpRequest.newBuilder()
                 .uri(URI.create(BASE_URL + "/models/" + MODEL + ":generateContent?key=" + API_KEY))
                 .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(body))
-                .build();
+                .POST(HttpRequest.BodyPublishers.ofString(body));
 
-        HttpResponse<String> resp = http.send(req, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> resp = send(req);
         if (resp.statusCode() != 200) {
             throw new RuntimeException("Gemini Error (init): " + resp.body());
         }
     }
 
    // ============================================================
-// 💬 CHAT TỰ DO — GIỚI HẠN CHỦ ĐỀ ÂM THANH (KHÔNG GIỚI HẠN BỘ NHỚ)
+// 💬 CHAT TỰ DO — GIỚI HẠN CHỦ ĐỀ ÂM THANH (BỘ NHỚ CÓ NGÂN SÁCH TOKEN)
 // ============================================================
 public String chat(String userId, String message) {
     if (message == null || message.isBlank()) {
@@ -87,54 +120,23 @@ public String chat(String userId, String message) {
     }
     if (userId == null || userId.isBlank()) userId = "guest";
 
-    // 🔥 Mỗi user có 1 session riêng
-    userConversations.putIfAbsent(userId, new SessionData());
-    SessionData session = userConversations.get(userId);
-
-    // 🔥 Cập nhật thời gian hoạt động
-    session.lastActive = Instant.now().toEpochMilli();
-
-    // ❌ KHÔNG CẮT BỘ NHỚ NỮA — GIỮ TOÀN BỘ LỊCH SỬ CHAT
-    // (XÓA hoàn toàn đoạn if (session.history.length() > 4000) ... )
-
-    // 🔥 Append hội thoại mới vào bộ nhớ
-    session.history.append("User: ").append(message).append("\n");
+    // 🔥 Lịch sử: tóm tắt lượt cũ + vài lượt gần nhất (không gửi lại toàn bộ hội thoại)
+    String history = userConversations.history(userId);
 
     // 🔥 Prompt chuyên gia âm thanh
-    String topicPrompt = """
-        Bạn là chuyên gia trong lĩnh vực Âm thanh, Thiết bị Audio và Điện tử âm thanh.
-
-        Quy tắc:
-        - Chỉ trả lời các câu hỏi liên quan đến loa, tai nghe, ampli, DAC, mixer, micro, nhạc số, kỹ thuật nghe nhạc, phòng nghe, thiết bị thu âm,...
-        - Nếu câu hỏi không liên quan đến âm thanh hoặc thiết bị audio, hãy trả lời:
-          "Xin lỗi, tôi chỉ hỗ trợ các chủ đề liên quan đến âm thanh và thiết bị audio."
-        - Trả lời bằng tiếng Việt, thân thiện, chính xác và ngắn gọn.
-
-        Lịch sử hội thoại trước đó:
-        %s
-
-        Câu hỏi mới:
-        %s
-    """.formatted(session.history.toString(), message);
+    String topicPrompt = chatPrompt(history, message);
+    chatPromptTokens.record(ChatSessionStore.estimateTokens(topicPrompt));
 
     try {
         // 🔥 Tạo body JSON gửi vào Gemini
-        String body = """
-        {
-          "contents": [{
-            "role": "user",
-            "parts": [{ "text": "%s" }]
-          }]
-        }
-        """.formatted(topicPrompt.replace("\"", "\\\""));
+        String body = contentsBody(topicPrompt);
 
-        HttpRequest request = HttpRequest.newBuilder()
+        HttpRequest.Builder request = HttpRequest.newBuilder()
                 .uri(URI.create(BASE_URL + "/models/" + MODEL + ":generateContent?key=" + API_KEY))
                 .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(body))
-                .build();
+                .POST(HttpRequest.BodyPublishers.ofString(body));
 
-        HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = send(request);
         if (response.statusCode() != 200)
             throw new RuntimeException("Gemini Error (chat): " + response.body());
 
@@ -152,18 +154,179 @@ public String chat(String userId, String message) {
         // 🔥 Kết quả Gemini
         String result = parts.getJSONObject(0).optString("text", "").trim();
 
-        // 🔥 Lưu vào lịch sử hội thoại user
-        session.history.append("AI: ").append(result).append("\n");
+        // 🔥 Lưu cả lượt hỏi + trả lời vào lịch sử (chỉ khi gọi thành công)
+        userConversations.append(userId, "User", message);
+        userConversations.append(userId, "AI", result);
 
         System.out.printf("🎧 [Chat User %s] Gemini trả lời: %s%n", userId, result);
 
         return result;
 
+    } catch (UpstreamUnavailableException e) {
+        throw e;
     } catch (Exception e) {
         throw new RuntimeException("Gemini API Error (chat): " + e.getMessage(), e);
     }
 }
 
+    // ============================================================
+    // 📡 CHAT STREAM — đẩy từng đoạn text về sink ngay khi Gemini sinh ra (streamGenerateContent, SSE)
+    // ============================================================
+    public void chatStream(String userId, String message, TokenSink sink) {
+        if (message == null || message.isBlank()) {
+            throw new IllegalArgumentException("❌ Câu hỏi không hợp lệ hoặc trống.");
+        }
+        String uid = (userId == null || userId.isBlank()) ? "guest" : userId;
+
+        String topicPrompt = chatPrompt(userConversations.history(uid), message);
+        chatPromptTokens.record(ChatSessionStore.estimateTokens(topicPrompt));
+
+        HttpRequest req = HttpRequest.newBuilder()
+                .uri(URI.create(BASE_URL + "/models/" + MODEL + ":streamGenerateContent?alt=sse&key=" + API_KEY))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(contentsBody(topicPrompt)))
+                .timeout(requestTimeout)
+                .build();
+
+        // Slot bulkhead "gemini" giữ suốt stream, trả khi stream kết thúc hoặc sink đóng (client ngắt / timeout)
+        UpstreamGuard.Lease lease;
+        try {
+            lease = guard.lease();
+        } catch (UpstreamUnavailableException e) {
+            sink.onError(e);
+            return;
+        }
+        sink.onClose(lease::cancel);
+
+        // Body đọc bất đồng bộ trên executor của HttpClient → không giữ worker ai-stream trong lúc Gemini sinh
+        LineSubscriber lines = new LineSubscriber(sink);
+        try {
+            http.sendAsync(req, HttpResponse.BodyHandlers.fromLineSubscriber(lines))
+                    .whenComplete((response, error) -> {
+                        if (sink.isCancelled()) {
+                            lease.cancel();
+                            return;
+                        }
+                        if (error != null) {
+                            lease.fail();
+                            sink.onError(error);
+                            return;
+                        }
+                        lease.complete(response.statusCode());
+                        if (response.statusCode() != 200) {
+                            log.warn("[Gemini] Chat stream HTTP {}", response.statusCode());
+                            sink.onError(new RuntimeException("Gemini Error (chat stream): HTTP " + response.statusCode()));
+                            return;
+                        }
+                        String result = lines.text().trim();
+                        userConversations.append(uid, "User", message);
+                        userConversations.append(uid, "AI", result);
+                        sink.onComplete(result);
+                    });
+        } catch (RuntimeException e) {
+            lease.cancel();
+            sink.onError(e);
+        }
+    }
+
+    /**
+     * Nhận từng dòng SSE "data: {...}" (lần lượt, theo nhịp request(1)) và đẩy text về sink.
+     * Sink đóng → huỷ subscription, HttpClient đóng kết nối, không đọc tiếp.
+     */
+    static final class LineSubscriber implements Flow.Subscriber<String> {
+
+        private final TokenSink sink;
+        private final StringBuilder answer = new StringBuilder();
+        private volatile Flow.Subscription subscription;
+
+        LineSubscriber(TokenSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            sink.onClose(subscription::cancel);
+            if (!sink.isCancelled()) subscription.request(1);
+        }
+
+        @Override
+        public void onNext(String line) {
+            if (sink.isCancelled()) return;
+            if (line.startsWith("data:")) {
+                String text;
+                try {
+                    text = chunkText(new JSONObject(line.substring(5).trim()));
+                } catch (JSONException e) {
+                    // Subscriber không được ném lỗi; chunk hỏng thì bỏ qua, đọc tiếp
+                    log.warn("[Gemini] Skipped malformed stream chunk: {}", e.getMessage());
+                    text = "";
+                }
+                if (!text.isEmpty()) {
+                    answer.append(text);
+                    sink.onToken(text);
+                }
+            }
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            // Kết quả lỗi đi qua future của sendAsync
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        String text() {
+            return answer.toString();
+        }
+    }
+
+    private static String chatPrompt(String history, String message) {
+        return """
+            Bạn là chuyên gia trong lĩnh vực Âm thanh, Thiết bị Audio và Điện tử âm thanh.
+
+            Quy tắc:
+            - Chỉ trả lời các câu hỏi liên quan đến loa, tai nghe, ampli, DAC, mixer, micro, nhạc số, kỹ thuật nghe nhạc, phòng nghe, thiết bị thu âm,...
+            - Nếu câu hỏi không liên quan đến âm thanh hoặc thiết bị audio, hãy trả lời:
+              "Xin lỗi, tôi chỉ hỗ trợ các chủ đề liên quan đến âm thanh và thiết bị audio."
+            - Trả lời bằng tiếng Việt, thân thiện, chính xác và ngắn gọn.
+
+            Lịch sử hội thoại trước đó:
+            %s
+
+            Câu hỏi mới:
+            %s
+        """.formatted(history, message);
+    }
+
+    private static String contentsBody(String prompt) {
+        return """
+        {
+          "contents": [{
+            "role": "user",
+            "parts": [{ "text": "%s" }]
+          }]
+        }
+        """.formatted(prompt.replace("\"", "\\\""));
+    }
+
+    /** Text của 1 chunk stream (có thể rỗng, vd chunk chỉ chứa finishReason). */
+    static String chunkText(JSONObject chunk) {
+        JSONArray candidates = chunk.optJSONArray("candidates");
+        if (candidates == null || candidates.isEmpty()) return "";
+        JSONObject content = candidates.getJSONObject(0).optJSONObject("content");
+        JSONArray parts = (content != null) ? content.optJSONArray("parts") : null;
+        if (parts == null) return "";
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < parts.length(); i++) {
+            text.append(parts.getJSONObject(i).optString("text", ""));
+        }
+        return text.toString();
+    }
+
     // ============================================================
     // 🧠 GENERATE SQL — DÙNG SCHEMA TOÀN CỤC, KHÔNG NHỚ CHAT
     // ============================================================
@@ -178,6 +341,7 @@ public String chat(String userId, String message) {
             ---
             %s
         """.formatted(prompt);
+        sqlPromptTokens.record(ChatSessionStore.estimateTokens(finalPrompt));
 
         try {
             String body = """
@@ -189,13 +353,12 @@ public String chat(String userId, String message) {
             }
             """.formatted(finalPrompt.replace("\"", "\\\""));
 
-            HttpRequest request = HttpRequest.newBuilder()
+            HttpRequest.Builder request = HttpRequest.newBuilder()
                     .uri(URI.create(BASE_URL + "/models/" + MODEL + ":generateContent?key=" + API_KEY))
                     .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(body))
-                    .build();
+                    .POST(HttpRequest.BodyPublishers.ofString(body));
 
-            HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = send(request);
             if (response.statusCode() != 200)
                 throw new RuntimeException("Gemini Error (SQL): " + response.body());
 
@@ -214,25 +377,21 @@ public String chat(String userId, String message) {
             System.out.printf("🤖 [Gemini SQL] Sinh câu lệnh: %s%n", result);
             return result;
 
+        } catch (UpstreamUnavailableException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException("Gemini API Error (generateSql): " + e.getMessage(), e);
         }
     }
 
     // ============================================================
-    // 🧹 DỌN SESSION IDLE > 10 PHÚT (chỉ chat)
+    // 🧹 DỌN SESSION IDLE (chỉ chat)
     // ============================================================
-    @Scheduled(fixedRate = 300000) // 5 phút
+    @Scheduled(fixedRateString = "${gemini.sessions.cleanup-ms:60000}")
     public void cleanupInactiveSessions() {
-        long now = Instant.now().toEpochMilli();
-        long timeout = 10 * 60 * 1000; // 10 phút
-        int before = userConversations.size();
-
-        userConversations.entrySet().removeIf(entry -> now - entry.getValue().lastActive > timeout);
-
-        int after = userConversations.size();
-        if (before != after) {
-            System.out.printf("🧹 Dọn session cũ: %d → %d%n", before, after);
+        int removed = userConversations.evictIdle();
+        if (removed > 0) {
+            log.info("[Gemini] Evicted {} idle chat sessions, {} left", removed, userConversations.size());
         }
     }
 
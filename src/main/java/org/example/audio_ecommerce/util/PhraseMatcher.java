@@ -0,0 +1,119 @@
+package org.example.audio_ecommerce.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Automaton Aho-Corasick tìm nhiều cụm từ cùng lúc trong 1 lần quét văn bản (O(độ dài + số kết quả)).
+ * Cụm từ và văn bản đều được chuẩn hoá bằng VietnameseText (bỏ dấu, chữ thường, token cách nhau 1 dấu cách);
+ * chỉ khớp trọn từ: "loa" không khớp trong "loai".
+ * Bảng chuyển trạng thái dựng sẵn (a-z, 0-9, dấu cách) → dùng chung được giữa các luồng.
+ */
+public final class PhraseMatcher<T> {
+
+    public record Match<T>(String phrase, T value) {}
+
+    private static final int ALPHABET = 37; // a-z, 0-9, ' '
+
+    private final int[][] next;
+    private final List<List<Integer>> outputs;
+    private final List<String> phrases;
+    private final List<T> values;
+
+    public PhraseMatcher(Map<String, T> phraseValues) {
+        this.phrases = new ArrayList<>();
+        this.values = new ArrayList<>();
+
+        List<int[]> trie = new ArrayList<>();
+        List<List<Integer>> out = new ArrayList<>();
+        trie.add(emptyRow());
+        out.add(new ArrayList<>());
+
+        for (Map.Entry<String, T> e : phraseValues.entrySet()) {
+            String key = normalize(e.getKey());
+            if (key.isBlank()) continue;
+            // Đệm dấu cách 2 đầu → chỉ khớp ở ranh giới từ
+            String padded = " " + key + " ";
+            int node = 0;
+            for (int i = 0; i < padded.length(); i++) {
+                int c = index(padded.charAt(i));
+                if (trie.get(node)[c] < 0) {
+                    trie.get(node)[c] = trie.size();
+                    trie.add(emptyRow());
+                    out.add(new ArrayList<>());
+                }
+                node = trie.get(node)[c];
+            }
+            out.get(node).add(phrases.size());
+            phrases.add(key);
+            values.add(e.getValue());
+        }
+
+        // BFS dựng fail link, gộp output theo fail link, và biến trie thành bảng chuyển đầy đủ
+        int[] fail = new int[trie.size()];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < ALPHABET; c++) {
+            int child = trie.get(0)[c];
+            if (child < 0) {
+                trie.get(0)[c] = 0;
+            } else {
+                fail[child] = 0;
+                queue.add(child);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            out.get(node).addAll(out.get(fail[node]));
+            for (int c = 0; c < ALPHABET; c++) {
+                int child = trie.get(node)[c];
+                if (child < 0) {
+                    trie.get(node)[c] = trie.get(fail[node])[c];
+                } else {
+                    fail[child] = trie.get(fail[node])[c];
+                    queue.add(child);
+                }
+            }
+        }
+
+        this.next = trie.toArray(new int[0][]);
+        this.outputs = out;
+    }
+
+    /** Mọi cụm từ xuất hiện trong text (có lặp nếu xuất hiện nhiều lần). */
+    public List<Match<T>> findAll(String text) {
+        List<Match<T>> matches = new ArrayList<>();
+        String padded = " " + normalize(text) + " ";
+        int node = 0;
+        for (int i = 0; i < padded.length(); i++) {
+            node = next[node][index(padded.charAt(i))];
+            for (int p : outputs.get(node)) {
+                matches.add(new Match<>(phrases.get(p), values.get(p)));
+            }
+        }
+        return matches;
+    }
+
+    public int size() {
+        return phrases.size();
+    }
+
+    private static String normalize(String text) {
+        return String.join(" ", VietnameseText.tokenize(text));
+    }
+
+    private static int index(char ch) {
+        if (ch >= 'a' && ch <= 'z') return ch - 'a';
+        if (ch >= '0' && ch <= '9') return 26 + (ch - '0');
+        return 36;
+    }
+
+    private static int[] emptyRow() {
+        int[] row = new int[ALPHABET];
+        Arrays.fill(row, -1);
+        return row;
+    }
+}
@@ -8,6 +8,7 @@ import org.example.audio_ecommerce.entity.Enum.RoleEnum;
 import org.example.audio_ecommerce.repository.AccountRepository;
 import org.example.audio_ecommerce.repository.CustomerRepository;
 import org.example.audio_ecommerce.repository.StoreRepository;
+import org.example.audio_ecommerce.security.AccountPrincipal;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
@@ -51,16 +52,25 @@ public class SecurityUtils {
                 .orElseThrow(() -> new RuntimeException("Account not found"));
     }
 
-    /** 🔹 Lấy customerId */
+    /** 🔹 Lấy customerId (có sẵn trong claim của token → không query) */
     public UUID getCurrentCustomerId() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null && auth.getPrincipal() instanceof AccountPrincipal p && p.getCustomerId() != null) {
+            return p.getCustomerId();
+        }
         Account acc = getCurrentAccount();
         Customer customer = customerRepo.findByAccount(acc)
                 .orElseThrow(() -> new RuntimeException("Customer not found"));
         return customer.getId();
     }
 
-    /** 🔹 Lấy storeId */
+    /** 🔹 Lấy storeId (chủ shop: có sẵn trong claim của token → không query) */
     public UUID getCurrentStoreId() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null && auth.getPrincipal() instanceof AccountPrincipal p
+                && RoleEnum.STOREOWNER.name().equals(p.getRole()) && p.getStoreId() != null) {
+            return p.getStoreId();
+        }
         Account acc = getCurrentAccount();
         Store store = storeRepo.findByAccount(acc)
                 .orElseThrow(() -> new RuntimeException("Store not found"));
@@ -0,0 +1,143 @@
+package org.example.audio_ecommerce.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Cache in-memory có TTL + giới hạn kích thước (LRU) + single-flight:
+ * nhiều luồng cùng hỏi 1 key chưa có trong cache → chỉ 1 luồng gọi loader, các luồng khác chờ chung kết quả.
+ * Kết quả lỗi (exception hoặc không qua cacheable) không được lưu.
+ * Metrics: cache.requests{cache, result=hit|miss|coalesced}, cache.size{cache}.
+ */
+public class SingleFlightCache<K, V> {
+
+    private record Entry<V>(V value, long expiresAtNanos) {}
+
+    private final long ttlNanos;
+    private final Predicate<V> cacheable;
+    private final Map<K, Entry<V>> entries;
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter coalesced;
+
+    public SingleFlightCache(String name, long ttlMs, int maxSize, Predicate<V> cacheable, MeterRegistry meterRegistry) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        this.cacheable = cacheable;
+        int bound = Math.max(1, maxSize);
+        // accessOrder=true → LRU; truy cập luôn trong synchronized(entries)
+        this.entries = new LinkedHashMap<>(Math.min(bound, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > bound;
+            }
+        };
+
+        this.hits = meterRegistry.counter("cache.requests", "cache", name, "result", "hit");
+        this.misses = meterRegistry.counter("cache.requests", "cache", name, "result", "miss");
+        this.coalesced = meterRegistry.counter("cache.requests", "cache", name, "result", "coalesced");
+        meterRegistry.gauge("cache.size", Tags.of("cache", name), this, SingleFlightCache::size);
+    }
+
+    public V get(K key, Function<K, V> loader) {
+        V cached = lookup(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> leader = inFlight.putIfAbsent(key, mine);
+        if (leader != null) {
+            coalesced.increment();
+            return await(leader);
+        }
+
+        try {
+            // Leader trước vừa ghi cache rồi rời inFlight giữa lookup() và putIfAbsent() → đọc lại, không nạp lần 2
+            V loaded = lookup(key);
+            if (loaded != null) {
+                hits.increment();
+            } else {
+                misses.increment();
+                loaded = loader.apply(key);
+                // Ghi cache TRƯỚC khi rời inFlight (finally) → luồng đến sau luôn thấy 1 trong 2
+                if (loaded != null && cacheable.test(loaded)) {
+                    synchronized (entries) {
+                        entries.put(key, new Entry<>(loaded, System.nanoTime() + ttlNanos));
+                    }
+                }
+            }
+            mine.complete(loaded);
+            return loaded;
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private V lookup(K key) {
+        synchronized (entries) {
+            Entry<V> e = entries.get(key);
+            if (e == null) return null;
+            if (System.nanoTime() - e.expiresAtNanos() >= 0) {
+                entries.remove(key);
+                return null;
+            }
+            return e.value();
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            // Ném lại đúng exception của luồng leader
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            if (e.getCause() instanceof Error err) throw err;
+            throw e;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /** Bỏ 1 key (vd: dữ liệu gốc vừa đổi); lần get sau nạp lại. */
+    public void invalidate(K key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    /** Bỏ mọi entry thoả điều kiện; trả về số entry đã bỏ. */
+    public int invalidateIf(BiPredicate<K, V> predicate) {
+        synchronized (entries) {
+            int before = entries.size();
+            entries.entrySet().removeIf(e -> predicate.test(e.getKey(), e.getValue().value()));
+            return before - entries.size();
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+}
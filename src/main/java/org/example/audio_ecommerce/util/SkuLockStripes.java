@@ -0,0 +1,93 @@
+package org.example.audio_ecommerce.util;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Khoá phân dải (striped lock) theo SKU trong 1 JVM.
+ * Các luồng checkout cùng 1 SKU sẽ xếp hàng ở đây thay vì cùng đè lên 1 row lock DB.
+ * Luôn khoá theo thứ tự chỉ số stripe tăng dần để tránh deadlock khi 1 đơn có nhiều SKU.
+ * Tính đúng (không bán vượt) do UPDATE có điều kiện đảm bảo; khoá chỉ để giảm tranh chấp row lock.
+ */
+public class SkuLockStripes {
+
+    private final ReentrantLock[] stripes;
+
+    public SkuLockStripes(int stripeCount) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("stripeCount must be > 0");
+        }
+        this.stripes = new ReentrantLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    public int stripeOf(UUID sku) {
+        return Math.floorMod(sku.hashCode(), stripes.length);
+    }
+
+    /**
+     * Chạy action khi đang giữ tất cả stripe của các SKU truyền vào.
+     */
+    public <T> T withLocks(Collection<UUID> skus, java.util.function.Supplier<T> action) {
+        int locked = 0;
+        Integer[] ordered = orderedStripes(skus);
+        try {
+            for (Integer idx : ordered) {
+                stripes[idx].lock();
+                locked++;
+            }
+            return action.get();
+        } finally {
+            unlock(ordered, locked);
+        }
+    }
+
+    /**
+     * Khoá stripe của các SKU tới khi transaction hiện tại kết thúc (commit hoặc rollback).
+     * Checkout sau chỉ chạy UPDATE khi checkout trước đã commit → không xếp hàng lần 2 trên row lock DB.
+     * Mở khoá trong afterCompletion, cùng luồng đã khoá.
+     */
+    public void lockUntilCompletion(Collection<UUID> skus) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("lockUntilCompletion requires an active transaction");
+        }
+        Integer[] ordered = orderedStripes(skus);
+        int locked = 0;
+        try {
+            for (Integer idx : ordered) {
+                stripes[idx].lock();
+                locked++;
+            }
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    unlock(ordered, ordered.length);
+                }
+            });
+        } catch (RuntimeException e) {
+            unlock(ordered, locked);
+            throw e;
+        }
+    }
+
+    private Integer[] orderedStripes(Collection<UUID> skus) {
+        TreeSet<Integer> indexes = new TreeSet<>();
+        for (UUID sku : skus) {
+            if (sku != null) indexes.add(stripeOf(sku));
+        }
+        return indexes.toArray(new Integer[0]);
+    }
+
+    private void unlock(Integer[] ordered, int locked) {
+        for (int i = locked - 1; i >= 0; i--) {
+            stripes[ordered[i]].unlock();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package org.example.audio_ecommerce.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.exception.UpstreamUnavailableException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Chạy endpoint AI dạng Server-Sent Events mà không giữ thread Tomcat:
+ * controller trả SseEmitter ngay, phần chặn (gọi DB, sinh SQL) chạy trên pool worker riêng có giới hạn,
+ * token LLM đẩy về client từ callback của streaming model.
+ * - Tối đa max-concurrent stream mở cùng lúc, pool worker / hàng đợi có giới hạn → quá tải thì
+ *   trả event "error" (busy) ngay thay vì xếp hàng vô hạn.
+ * - Client ngắt kết nối / hết timeout → stream bị đóng, slot được trả lại, close hook (onClose) dừng nguồn đang đọc.
+ * Event: "token" (từng đoạn text), "done" ({text}), "error" ({message}), và event riêng của từng endpoint.
+ * "error" chỉ mang câu thông báo cố định (bận / lỗi chung), chi tiết exception chỉ ghi log.
+ * Metrics: ai.stream.active, ai.stream.rejected{reason=busy|queue_full}.
+ */
+@Slf4j
+@Component
+public class SseStreams {
+
+    static final String BUSY_MESSAGE = "Hệ thống AI đang bận, vui lòng thử lại sau.";
+    static final String ERROR_MESSAGE = "Không thể xử lý yêu cầu AI lúc này, vui lòng thử lại sau.";
+
+    private final ThreadPoolExecutor workers;
+    private final Semaphore slots;
+    private final long timeoutMs;
+    private final AtomicInteger active = new AtomicInteger();
+    private final Counter rejectedBusy;
+    private final Counter rejectedQueueFull;
+
+    public SseStreams(MeterRegistry meterRegistry,
+                      @Value("${ai.stream.workers:8}") int workers,
+                      @Value("${ai.stream.queue-capacity:200}") int queueCapacity,
+                      @Value("${ai.stream.max-concurrent:200}") int maxConcurrent,
+                      @Value("${ai.stream.timeout-ms:120000}") long timeoutMs) {
+        int n = Math.max(1, workers);
+        this.workers = new ThreadPoolExecutor(n, n, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), daemon("ai-stream-"));
+        this.slots = new Semaphore(Math.max(1, maxConcurrent));
+        this.timeoutMs = timeoutMs;
+
+        this.rejectedBusy = meterRegistry.counter("ai.stream.rejected", "reason", "busy");
+        this.rejectedQueueFull = meterRegistry.counter("ai.stream.rejected", "reason", "queue_full");
+        meterRegistry.gauge("ai.stream.active", active, AtomicInteger::get);
+    }
+
+    /** Mở SSE và chạy task trên worker; task tự kết thúc stream qua Session (hoặc qua sink()). */
+    public SseEmitter start(Consumer<Session> task) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        if (!slots.tryAcquire()) {
+            rejectedBusy.increment();
+            failImmediately(emitter, BUSY_MESSAGE);
+            return emitter;
+        }
+
+        Session session = new Session(emitter);
+        try {
+            workers.execute(() -> {
+                // Client ngắt / hết timeout khi còn nằm trong hàng đợi → không chạy task (không gọi DB, LLM vô ích)
+                if (!session.isOpen()) return;
+                try {
+                    task.accept(session);
+                } catch (Exception e) {
+                    session.fail(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedQueueFull.increment();
+            session.fail(new UpstreamUnavailableException("ai-stream", "queue_full"));
+        }
+        return emitter;
+    }
+
+    /** Câu gửi cho client: chỉ lỗi bận (bulkhead / circuit breaker) được báo riêng, còn lại là câu chung. */
+    static String userMessage(Throwable error) {
+        return error instanceof UpstreamUnavailableException ? BUSY_MESSAGE : ERROR_MESSAGE;
+    }
+
+    private static void failImmediately(SseEmitter emitter, String message) {
+        try {
+            emitter.send(SseEmitter.event().name("error").data(Map.of("message", message)));
+        } catch (IOException ignored) {
+            // client đã đóng
+        }
+        emitter.complete();
+    }
+
+    /** 1 stream SSE đang mở; đóng đúng 1 lần (complete / fail / client ngắt / timeout). */
+    public final class Session {
+
+        private final SseEmitter emitter;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final List<Runnable> closeHooks = new CopyOnWriteArrayList<>();
+
+        private Session(SseEmitter emitter) {
+            this.emitter = emitter;
+            active.incrementAndGet();
+            emitter.onCompletion(this::release);
+            emitter.onTimeout(this::release);
+            emitter.onError(e -> release());
+        }
+
+        /** Gửi 1 event; client đã ngắt → false (bỏ qua phần còn lại). */
+        public boolean send(String event, Object data) {
+            if (closed.get()) return false;
+            try {
+                emitter.send(SseEmitter.event().name(event).data(data));
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                release();
+                return false;
+            }
+        }
+
+        public boolean isOpen() {
+            return !closed.get();
+        }
+
+        /** Chạy đúng 1 lần khi stream đóng vì bất kỳ lý do gì; đã đóng thì chạy ngay. */
+        public void onClose(Runnable hook) {
+            closeHooks.add(hook);
+            if (closed.get()) runCloseHooks();
+        }
+
+        public void complete() {
+            if (release()) emitter.complete();
+        }
+
+        public void fail(Throwable error) {
+            if (error instanceof UpstreamUnavailableException) {
+                log.warn("[SSE] Stream rejected: {}", error.getMessage());
+            } else {
+                log.error("[SSE] Stream failed", error);
+            }
+            send("error", Map.of("message", userMessage(error)));
+            complete();
+        }
+
+        /** Sink đẩy token về client; xong thì gửi "done" và đóng stream. */
+        public TokenSink sink() {
+            return new TokenSink() {
+                @Override
+                public void onToken(String token) {
+                    send("token", token);
+                }
+
+                @Override
+                public void onComplete(String fullText) {
+                    send("done", Map.of("text", fullText == null ? "" : fullText));
+                    complete();
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    fail(error);
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return !isOpen();
+                }
+
+                @Override
+                public void onClose(Runnable hook) {
+                    Session.this.onClose(hook);
+                }
+            };
+        }
+
+        private boolean release() {
+            if (!closed.compareAndSet(false, true)) return false;
+            active.decrementAndGet();
+            slots.release();
+            runCloseHooks();
+            return true;
+        }
+
+        private void runCloseHooks() {
+            for (Runnable hook : closeHooks) {
+                if (!closeHooks.remove(hook)) continue; // luồng khác đã chạy
+                try {
+                    hook.run();
+                } catch (RuntimeException e) {
+                    log.warn("[SSE] Close hook failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private static ThreadFactory daemon(String prefix) {
+        AtomicInteger seq = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + seq.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,242 @@
+package org.example.audio_ecommerce.util;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Ghi bảng ra CSV hoặc XLSX từng dòng một, không giữ dữ liệu trong bộ nhớ.
+ * XLSX tối giản (1 sheet, chuỗi inline, không style) → mở được bằng Excel / LibreOffice / Google Sheets.
+ * Đóng writer KHÔNG đóng OutputStream gốc (để servlet container tự xử lý).
+ */
+public abstract class StreamingSheetWriter implements Closeable {
+
+    public enum Format {
+        CSV("text/csv; charset=UTF-8", "csv"),
+        XLSX("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", "xlsx");
+
+        public final String contentType;
+        public final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        /** "csv" / "xlsx" (không phân biệt hoa thường), sai → IllegalArgumentException. */
+        public static Format parse(String value) {
+            if (value == null || value.isBlank()) return CSV;
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Định dạng không hỗ trợ: " + value + " (csv | xlsx)");
+            }
+        }
+    }
+
+    public static StreamingSheetWriter open(Format format, OutputStream out) throws IOException {
+        return format == Format.XLSX ? new Xlsx(out) : new Csv(out);
+    }
+
+    /** Ghi 1 dòng; BigDecimal/Number ghi dạng số, null → ô trống, còn lại toString(). */
+    public abstract void row(Object... cells) throws IOException;
+
+    /** Đẩy phần đã ghi (kể cả buffer nội bộ) xuống OutputStream gốc để client nhận dần. */
+    public abstract void flush() throws IOException;
+
+    // ========================================================
+    // CSV (RFC 4180, có BOM để Excel nhận UTF-8 tiếng Việt)
+    // ========================================================
+    private static final class Csv extends StreamingSheetWriter {
+        private final Writer w;
+
+        Csv(OutputStream out) throws IOException {
+            this.w = new BufferedWriter(new OutputStreamWriter(nonClosing(out), StandardCharsets.UTF_8));
+            w.write('\uFEFF');
+        }
+
+        @Override
+        public void row(Object... cells) throws IOException {
+            for (int i = 0; i < cells.length; i++) {
+                if (i > 0) w.write(',');
+                w.write(escape(cells[i]));
+            }
+            w.write("\r\n");
+        }
+
+        private static String escape(Object cell) {
+            if (cell == null) return "";
+            String s = cell instanceof BigDecimal bd ? bd.toPlainString() : cell.toString();
+            // Chống CSV/formula injection: chuỗi bắt đầu bằng = + - @ (hoặc tab/CR) bị Excel hiểu là công thức
+            if (!(cell instanceof Number) && !s.isEmpty() && "=+-@\t\r".indexOf(s.charAt(0)) >= 0) {
+                s = "'" + s;
+            }
+            if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+                return s;
+            }
+            return '"' + s.replace("\"", "\"\"") + '"';
+        }
+
+        @Override
+        public void flush() throws IOException {
+            w.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            w.close();
+        }
+    }
+
+    // ========================================================
+    // XLSX: zip các part cố định + sheet1.xml ghi dần từng <row>
+    // ========================================================
+    private static final class Xlsx extends StreamingSheetWriter {
+
+        private static final String CONTENT_TYPES = """
+                <?xml version="1.0" encoding="UTF-8" standalone="yes"?>
+                <Types xmlns="http://schemas.openxmlformats.org/package/2006/content-types">\
+                <Default Extension="rels" ContentType="application/vnd.openxmlformats-package.relationships+xml"/>\
+                <Default Extension="xml" ContentType="application/xml"/>\
+                <Override PartName="/xl/workbook.xml" ContentType="application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml"/>\
+                <Override PartName="/xl/worksheets/sheet1.xml" ContentType="application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml"/>\
+                </Types>""";
+
+        private static final String ROOT_RELS = """
+                <?xml version="1.0" encoding="UTF-8" standalone="yes"?>
+                <Relationships xmlns="http://schemas.openxmlformats.org/package/2006/relationships">\
+                <Relationship Id="rId1" Type="http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument" Target="xl/workbook.xml"/>\
+                </Relationships>""";
+
+        private static final String WORKBOOK = """
+                <?xml version="1.0" encoding="UTF-8" standalone="yes"?>
+                <workbook xmlns="http://schemas.openxmlformats.org/spreadsheetml/2006/main" \
+                xmlns:r="http://schemas.openxmlformats.org/officeDocument/2006/relationships">\
+                <sheets><sheet name="Report" sheetId="1" r:id="rId1"/></sheets>\
+                </workbook>""";
+
+        private static final String WORKBOOK_RELS = """
+                <?xml version="1.0" encoding="UTF-8" standalone="yes"?>
+                <Relationships xmlns="http://schemas.openxmlformats.org/package/2006/relationships">\
+                <Relationship Id="rId1" Type="http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet" Target="worksheets/sheet1.xml"/>\
+                </Relationships>""";
+
+        private final ZipOutputStream zip;
+        private final Writer w;
+
+        Xlsx(OutputStream out) throws IOException {
+            this.zip = new SyncFlushZip(nonClosing(out));
+            this.w = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8));
+            part("[Content_Types].xml", CONTENT_TYPES);
+            part("_rels/.rels", ROOT_RELS);
+            part("xl/workbook.xml", WORKBOOK);
+            part("xl/_rels/workbook.xml.rels", WORKBOOK_RELS);
+
+            zip.putNextEntry(new ZipEntry("xl/worksheets/sheet1.xml"));
+            w.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+                    + "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>");
+        }
+
+        private void part(String name, String xml) throws IOException {
+            zip.putNextEntry(new ZipEntry(name));
+            w.write(xml);
+            w.flush();
+            zip.closeEntry();
+        }
+
+        @Override
+        public void row(Object... cells) throws IOException {
+            w.write("<row>");
+            for (Object cell : cells) {
+                if (cell == null) {
+                    w.write("<c/>");
+                } else if (cell instanceof BigDecimal bd) {
+                    w.write("<c><v>" + bd.toPlainString() + "</v></c>");
+                } else if (cell instanceof Number n) {
+                    w.write("<c><v>" + n + "</v></c>");
+                } else {
+                    w.write("<c t=\"inlineStr\"><is><t xml:space=\"preserve\">");
+                    w.write(escapeXml(cell.toString()));
+                    w.write("</t></is></c>");
+                }
+            }
+            w.write("</row>");
+        }
+
+        private static String escapeXml(String s) {
+            StringBuilder sb = new StringBuilder(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '&' -> sb.append("&amp;");
+                    case '<' -> sb.append("&lt;");
+                    case '>' -> sb.append("&gt;");
+                    case '"' -> sb.append("&quot;");
+                    default -> {
+                        // Ký tự điều khiển không hợp lệ trong XML 1.0 → bỏ
+                        if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') sb.append(c);
+                    }
+                }
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            w.flush();
+            zip.flush();
+        }
+
+        /**
+         * ZipOutputStream.flush() mặc định không ép Deflater nhả dữ liệu (NO_FLUSH) → client không nhận gì
+         * cho tới khi đóng entry. SYNC_FLUSH đẩy phần đã nén của entry đang mở ra ngay; chỉ gọi khi
+         * sheet1.xml đang mở (giữa constructor và close).
+         */
+        private static final class SyncFlushZip extends ZipOutputStream {
+            SyncFlushZip(OutputStream out) {
+                super(out, StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                int len;
+                while ((len = def.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH)) > 0) {
+                    out.write(buf, 0, len);
+                }
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            w.write("</sheetData></worksheet>");
+            w.flush();
+            zip.closeEntry();
+            zip.finish();
+            w.close();
+        }
+    }
+
+    private static OutputStream nonClosing(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.flush();
+            }
+        };
+    }
+}
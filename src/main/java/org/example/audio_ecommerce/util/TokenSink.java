@@ -0,0 +1,25 @@
+package org.example.audio_ecommerce.util;
+
+/**
+ * Nhận kết quả LLM dạng stream: từng token, rồi đúng 1 lần onComplete (toàn văn) hoặc onError.
+ */
+public interface TokenSink {
+
+    void onToken(String token);
+
+    void onComplete(String fullText);
+
+    void onError(Throwable error);
+
+    /** Phía nhận đã ngắt (client đóng kết nối) → nguồn nên dừng đọc tiếp. */
+    default boolean isCancelled() {
+        return false;
+    }
+
+    /**
+     * Đăng ký việc dọn dẹp (vd đóng body HTTP đang đọc) chạy đúng 1 lần khi phía nhận đóng stream:
+     * xong, lỗi, client ngắt hoặc hết timeout. Đã đóng rồi thì chạy ngay. Sink không hỗ trợ → bỏ qua.
+     */
+    default void onClose(Runnable hook) {
+    }
+}
@@ -0,0 +1,261 @@
+package org.example.audio_ecommerce.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.example.audio_ecommerce.exception.UpstreamUnavailableException;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Bảo vệ 1 upstream (GHN, Gemini, FCM...):
+ * - Bulkhead: tối đa maxConcurrent request đồng thời, chờ slot tối đa acquireTimeoutMs rồi từ chối
+ *   → upstream chậm chỉ giữ được vài luồng, không kéo hết thread Tomcat.
+ * - Circuit breaker: failureThreshold lỗi liên tiếp (5xx / timeout / lỗi mạng) → mở mạch openMs,
+ *   hết hạn cho 1 request thử (half-open), thành công thì đóng lại.
+ * - Metrics: http.client.upstream (histogram theo outcome), .inflight, .rejected, .circuit.
+ * Dùng làm interceptor cho RestTemplate, bọc lời gọi bằng call(), hoặc lease() cho lời gọi bất đồng bộ / stream.
+ */
+@Slf4j
+public class UpstreamGuard implements ClientHttpRequestInterceptor {
+
+    /** Cấu hình 1 upstream (đọc từ http.upstream.&lt;name&gt;.*). */
+    public record Settings(int maxConcurrent, long acquireTimeoutMs, int failureThreshold, long openMs,
+                           long connectTimeoutMs, long readTimeoutMs, int maxPerRoute, int maxTotal) {}
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final Settings settings;
+    private final Semaphore bulkhead;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final long openNanos;
+    private final LongSupplier nanoClock; // đồng hồ cho breaker (test thay được, không phải sleep)
+
+    // Trạng thái breaker, đọc/ghi trong synchronized
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtNanos;
+    private boolean trialInFlight;
+
+    private final Timer successTimer;
+    private final Timer clientErrorTimer;
+    private final Timer serverErrorTimer;
+    private final Timer ioErrorTimer;
+    private final Counter rejectedBulkhead;
+    private final Counter rejectedOpen;
+
+    public UpstreamGuard(String name, Settings settings, MeterRegistry meterRegistry) {
+        this(name, settings, meterRegistry, System::nanoTime);
+    }
+
+    UpstreamGuard(String name, Settings settings, MeterRegistry meterRegistry, LongSupplier nanoClock) {
+        this.name = name;
+        this.nanoClock = nanoClock;
+        this.settings = settings;
+        this.bulkhead = new Semaphore(Math.max(1, settings.maxConcurrent()));
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(settings.openMs());
+
+        this.successTimer = timer(meterRegistry, "success");
+        this.clientErrorTimer = timer(meterRegistry, "client_error");
+        this.serverErrorTimer = timer(meterRegistry, "server_error");
+        this.ioErrorTimer = timer(meterRegistry, "io_error");
+        this.rejectedBulkhead = meterRegistry.counter("http.client.upstream.rejected", "upstream", name, "reason", "bulkhead");
+        this.rejectedOpen = meterRegistry.counter("http.client.upstream.rejected", "upstream", name, "reason", "circuit_open");
+        meterRegistry.gauge("http.client.upstream.inflight", Tags.of("upstream", name),
+                inFlight, AtomicInteger::get);
+        meterRegistry.gauge("http.client.upstream.circuit", Tags.of("upstream", name),
+                this, UpstreamGuard::stateOrdinal);
+    }
+
+    private Timer timer(MeterRegistry registry, String outcome) {
+        return Timer.builder("http.client.upstream")
+                .tag("upstream", name)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public Settings settings() {
+        return settings;
+    }
+
+    // ========================================================
+    // GỌI QUA GUARD
+    // ========================================================
+
+    /**
+     * Chạy action trong bulkhead + breaker; statusOf lấy HTTP status từ kết quả để phân loại.
+     * Bị từ chối → UpstreamUnavailableException (không gọi ra ngoài).
+     */
+    public <T> T call(Callable<T> action, ToIntFunction<T> statusOf) throws Exception {
+        Lease lease = lease();
+        try {
+            T result = action.call();
+            lease.complete(statusOf.applyAsInt(result));
+            return result;
+        } catch (Exception e) {
+            lease.fail();
+            throw e;
+        }
+    }
+
+    /**
+     * Giữ 1 slot bulkhead cho lời gọi bất đồng bộ / stream dài: slot chỉ trả khi lease kết thúc
+     * (complete / fail / cancel, lần đầu có hiệu lực), không phụ thuộc thread nào đang chờ.
+     * Bị từ chối → UpstreamUnavailableException.
+     */
+    public Lease lease() {
+        acquire();
+        if (!tryPass()) {
+            bulkhead.release();
+            rejectedOpen.increment();
+            throw new UpstreamUnavailableException(name, "circuit open");
+        }
+        inFlight.incrementAndGet();
+        return new Lease(System.nanoTime());
+    }
+
+    /** 1 lời gọi đang giữ slot; kết thúc đúng 1 lần. */
+    public final class Lease {
+
+        private final long start;
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        private Lease(long start) {
+            this.start = start;
+        }
+
+        /** Upstream trả về status (5xx tính là lỗi, 4xx không). */
+        public void complete(int status) {
+            if (!finish()) return;
+            if (status >= 500) {
+                onFailure();
+                serverErrorTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            } else {
+                // 4xx: upstream vẫn sống → không tính vào breaker
+                onSuccess();
+                (status >= 400 ? clientErrorTimer : successTimer).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /** Timeout / lỗi mạng. */
+        public void fail() {
+            if (!finish()) return;
+            onFailure();
+            ioErrorTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+
+        /** Phía mình huỷ (client ngắt): trả slot, không tính thành công hay lỗi cho breaker. */
+        public void cancel() {
+            if (!finish()) return;
+            onCancel();
+        }
+
+        private boolean finish() {
+            if (!finished.compareAndSet(false, true)) return false;
+            inFlight.decrementAndGet();
+            bulkhead.release();
+            return true;
+        }
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        try {
+            return call(() -> execution.execute(request, body), resp -> {
+                try {
+                    return resp.getStatusCode().value();
+                } catch (IOException e) {
+                    return 500;
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void acquire() {
+        boolean acquired;
+        try {
+            acquired = bulkhead.tryAcquire(settings.acquireTimeoutMs(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            rejectedBulkhead.increment();
+            throw new UpstreamUnavailableException(name, "too many concurrent requests");
+        }
+    }
+
+    // ========================================================
+    // CIRCUIT BREAKER
+    // ========================================================
+
+    private synchronized boolean tryPass() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (nanoClock.getAsLong() - openedAtNanos < openNanos) return false;
+                state = State.HALF_OPEN;
+                trialInFlight = true;
+                return true;
+            default: // HALF_OPEN: chỉ 1 request thử tại 1 thời điểm
+                if (trialInFlight) return false;
+                trialInFlight = true;
+                return true;
+        }
+    }
+
+    private synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        if (state == State.HALF_OPEN) {
+            state = State.CLOSED;
+            trialInFlight = false;
+            log.info("[Upstream {}] Circuit closed", name);
+        }
+    }
+
+    private synchronized void onFailure() {
+        if (state == State.HALF_OPEN || ++consecutiveFailures >= settings.failureThreshold()) {
+            if (state != State.OPEN) {
+                log.warn("[Upstream {}] Circuit OPEN trong {}ms", name, settings.openMs());
+            }
+            state = State.OPEN;
+            openedAtNanos = nanoClock.getAsLong();
+            trialInFlight = false;
+            consecutiveFailures = 0;
+        }
+    }
+
+    // Request thử (half-open) bị huỷ giữa chừng → cho request khác thử, giữ nguyên trạng thái
+    private synchronized void onCancel() {
+        if (state == State.HALF_OPEN) trialInFlight = false;
+    }
+
+    private synchronized int stateOrdinal() {
+        return state.ordinal();
+    }
+}
@@ -0,0 +1,51 @@
+package org.example.audio_ecommerce.util;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Mỗi upstream 1 UpstreamGuard dùng chung toàn app, cấu hình qua http.upstream.&lt;name&gt;.*
+ * (thiếu key → dùng mặc định http.upstream.default.*, rồi tới giá trị cứng bên dưới).
+ */
+@Component
+public class UpstreamGuards {
+
+    private final Environment env;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, UpstreamGuard> guards = new ConcurrentHashMap<>();
+
+    public UpstreamGuards(Environment env, MeterRegistry meterRegistry) {
+        this.env = env;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public UpstreamGuard get(String name) {
+        return guards.computeIfAbsent(name, n -> new UpstreamGuard(n, settings(n), meterRegistry));
+    }
+
+    private UpstreamGuard.Settings settings(String name) {
+        return new UpstreamGuard.Settings(
+                intProp(name, "max-concurrent", 20),
+                longProp(name, "acquire-timeout-ms", 200),
+                intProp(name, "failure-threshold", 5),
+                longProp(name, "open-ms", 30_000),
+                longProp(name, "connect-timeout-ms", 3_000),
+                longProp(name, "read-timeout-ms", 10_000),
+                intProp(name, "max-per-route", 20),
+                intProp(name, "max-total", 50));
+    }
+
+    private int intProp(String name, String key, int fallback) {
+        Integer def = env.getProperty("http.upstream.default." + key, Integer.class, fallback);
+        return env.getProperty("http.upstream." + name + "." + key, Integer.class, def);
+    }
+
+    private long longProp(String name, String key, long fallback) {
+        Long def = env.getProperty("http.upstream.default." + key, Long.class, fallback);
+        return env.getProperty("http.upstream." + name + "." + key, Long.class, def);
+    }
+}
@@ -0,0 +1,66 @@
+package org.example.audio_ecommerce.util;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Chuẩn hoá chuỗi tiếng Việt cho tìm kiếm: bỏ dấu, hạ chữ thường, tách token.
+ * "Loa Bluetooth Đa Năng" → [loa, bluetooth, da, nang]
+ */
+public final class VietnameseText {
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_ALNUM = Pattern.compile("[^a-z0-9]+");
+    private static final Pattern HTML_TAG = Pattern.compile("<[^>]*>");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private VietnameseText() {
+    }
+
+    /** Bỏ dấu + chữ thường (đ/Đ → d). */
+    public static String fold(String text) {
+        if (text == null || text.isEmpty()) return "";
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return COMBINING_MARKS.matcher(decomposed).replaceAll("")
+                .replace('đ', 'd')
+                .replace('Đ', 'D')
+                .toLowerCase();
+    }
+
+    /** Ghép các trường (bỏ thẻ HTML, bỏ dấu, gộp khoảng trắng) thành 1 chuỗi để LIKE, cắt tối đa {@code maxLength}. */
+    public static String searchable(int maxLength, String... parts) {
+        StringBuilder sb = new StringBuilder();
+        for (String part : parts) {
+            if (part == null || part.isBlank()) continue;
+            String text = WHITESPACE.matcher(fold(HTML_TAG.matcher(part).replaceAll(" "))).replaceAll(" ").trim();
+            if (text.isEmpty()) continue;
+            if (!sb.isEmpty()) sb.append(' ');
+            sb.append(text);
+            if (sb.length() >= maxLength) break;
+        }
+        return sb.length() > maxLength ? sb.substring(0, maxLength) : sb.toString();
+    }
+
+    /** Token đã bỏ dấu, giữ thứ tự xuất hiện (có lặp). */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        for (String t : NON_ALNUM.split(fold(text))) {
+            if (!t.isEmpty()) tokens.add(t);
+        }
+        return tokens;
+    }
+
+    /** Trigram có đệm biên ("loa" → $lo, loa, oa$) dùng cho so khớp gần đúng. */
+    public static Set<String> trigrams(String token) {
+        Set<String> grams = new LinkedHashSet<>();
+        String padded = "$" + token + "$";
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + 3));
+        }
+        return grams;
+    }
+}
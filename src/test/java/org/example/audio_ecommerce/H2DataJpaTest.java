@@ -0,0 +1,22 @@
+package org.example.audio_ecommerce;
+
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Test repository / query chạy thật trên H2 nhúng: schema tạo từ entity, dialect H2
+ * (cấu hình trong application-test.properties).
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@DataJpaTest
+@ActiveProfiles("test")
+public @interface H2DataJpaTest {
+}
@@ -0,0 +1,96 @@
+package org.example.audio_ecommerce.LangChain4J;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AiSqlResultCacheTest {
+
+    private final AiSqlResultCache cache = new AiSqlResultCache(new SimpleMeterRegistry(), 60_000, 100);
+
+    @Test
+    @DisplayName("Khác hoa thường / dấu / dấu câu → cùng 1 entry, chỉ sinh SQL 1 lần")
+    void normalizedQuestionsShareEntry() {
+        AtomicInteger generated = new AtomicInteger();
+        UUID id = UUID.randomUUID();
+
+        for (String q : List.of("Loa bluetooth dưới 2 triệu", "loa Bluetooth duoi 2 trieu?", "  LOA   BLUETOOTH DƯỚI 2 TRIỆU!! ")) {
+            cache.get("product-search", q, () -> {
+                generated.incrementAndGet();
+                return new AiSqlResultCache.CachedSql("SELECT p.product_id FROM products p", List.of(id));
+            });
+        }
+
+        assertEquals(1, generated.get());
+        assertEquals("loa bluetooth duoi 2 trieu", AiSqlResultCache.normalize("Loa bluetooth dưới 2 triệu"));
+        assertEquals("dan dong", AiSqlResultCache.normalize("Đàn đông"));
+    }
+
+    @Test
+    @DisplayName("Câu hỏi nối tiếp hội thoại không được coi là tự đủ nghĩa")
+    void followUpsAreNotContextFree() {
+        assertTrue(AiSqlResultCache.isContextFree("tai nghe chống ồn Sony"));
+        assertFalse(AiSqlResultCache.isContextFree("cái thứ 2 còn màu đen không"));
+        assertFalse(AiSqlResultCache.isContextFree("có mẫu nào rẻ hơn cái đó"));
+    }
+
+    @Test
+    @DisplayName("Tồn kho đổi → chỉ bỏ entry chứa sản phẩm đó; giá đổi → bỏ hết")
+    void invalidation() {
+        UUID a = UUID.randomUUID();
+        UUID b = UUID.randomUUID();
+        cache.get("s", "loa", () -> new AiSqlResultCache.CachedSql("SELECT p.product_id FROM products p", List.of(a)));
+        cache.get("s", "micro", () -> new AiSqlResultCache.CachedSql("SELECT p.product_id FROM products p", List.of(b)));
+
+        cache.invalidateProductsAfterCommit(List.of(a));
+        assertEquals(1, cache.size());
+
+        cache.invalidateAllAfterCommit();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    @DisplayName("Tồn kho đổi: bỏ entry dùng cột tồn kho, không bỏ entry chỉ lọc theo status")
+    void stockInvalidationMatchesStockColumns() {
+        UUID other = UUID.randomUUID();
+        cache.get("s", "con hang", () -> new AiSqlResultCache.CachedSql(
+                "SELECT p.product_id FROM products p WHERE p.stock_quantity > 0", List.of(other)));
+        cache.get("s", "bien the", () -> new AiSqlResultCache.CachedSql(
+                "SELECT pv.product_id FROM product_variants pv WHERE pv.VARIANT_STOCK > 0", List.of(other)));
+        cache.get("s", "dang ban", () -> new AiSqlResultCache.CachedSql(
+                "SELECT p.product_id FROM products p WHERE p.status = 'ACTIVE'", List.of(other)));
+
+        cache.invalidateProductsAfterCommit(List.of(UUID.randomUUID()));
+
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    @DisplayName("Giá hiệu lực đổi (campaign): bỏ entry chứa sản phẩm hoặc dùng cột giá, giữ entry khác")
+    void priceInvalidation() {
+        UUID changed = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+        cache.get("s", "loa sony", () -> new AiSqlResultCache.CachedSql(
+                "SELECT p.product_id FROM products p WHERE p.brand_name = 'Sony'", List.of(changed)));
+        cache.get("s", "loa re", () -> new AiSqlResultCache.CachedSql(
+                "SELECT p.product_id FROM products p ORDER BY p.final_price", List.of(other)));
+        cache.get("s", "micro", () -> new AiSqlResultCache.CachedSql(
+                "SELECT p.product_id FROM products p WHERE p.name LIKE '%micro%'", List.of(other)));
+
+        cache.invalidatePrices(List.of(changed));
+
+        assertEquals(1, cache.size());
+        AtomicInteger generated = new AtomicInteger();
+        cache.get("s", "micro", () -> {
+            generated.incrementAndGet();
+            return new AiSqlResultCache.CachedSql("SELECT 1", List.of());
+        });
+        assertEquals(0, generated.get(), "entry không liên quan giá vẫn còn");
+    }
+}
@@ -0,0 +1,118 @@
+package org.example.audio_ecommerce.LangChain4J;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Đánh giá offline bộ phân loại intent local so với nhãn LLM, trên bộ câu tổng hợp cố định (seed)
+ * → kết quả tất định, kiểm tra được bằng assert thay vì đọc log.
+ */
+class IntentEvaluatorTest {
+
+    private static final double LLM_LATENCY_MS = 900;
+
+    @Test
+    @DisplayName("Chia train / holdout đúng tỉ lệ, ma trận nhầm lẫn phủ đủ holdout, cùng seed → cùng kết quả")
+    void reportIsConsistentAndDeterministic() {
+        List<IntentLinearModel.Example> examples = synthetic(false);
+
+        IntentEvaluator.Report report = IntentEvaluator.evaluate(examples, 0.2, 0.85, LLM_LATENCY_MS, 7);
+        IntentEvaluator.Report again = IntentEvaluator.evaluate(examples, 0.2, 0.85, LLM_LATENCY_MS, 7);
+
+        assertEquals(600, report.testSize());
+        assertEquals(2_400, report.trainSize());
+        assertEquals(report.testSize(), count(report.confusion(), null));
+        assertEquals(report.coverage(), (double) answered(report.confusion()) / report.testSize(), 1e-9);
+        assertEquals(report.coverage() * LLM_LATENCY_MS, report.savedMsPerRequest(), 1e-9);
+        assertEquals(report.confusion(), again.confusion());
+        assertEquals(report.accuracy(), again.accuracy());
+    }
+
+    @Test
+    @DisplayName("Nhãn rõ ràng → trả lời tại chỗ gần hết holdout và khớp nhãn LLM")
+    void cleanLabelsAreAnsweredLocally() {
+        IntentEvaluator.Report report = IntentEvaluator.evaluate(synthetic(false), 0.2, 0.85, LLM_LATENCY_MS, 7);
+
+        assertTrue(report.coverage() >= 0.95, report.toString());
+        assertTrue(report.accuracy() >= 0.95, report.toString());
+        report.confusion().forEach((llm, row) -> row.forEach((local, n) ->
+                assertTrue(local.equals(llm) || local.equals("LLM"), "nhầm " + llm + " → " + local)));
+    }
+
+    @Test
+    @DisplayName("Câu mơ hồ (cùng câu, nhãn LLM khác nhau) → nhường LLM thay vì đoán, độ chính xác không giảm")
+    void ambiguousQuestionsFallBackToLlm() {
+        IntentEvaluator.Report clean = IntentEvaluator.evaluate(synthetic(false), 0.2, 0.85, LLM_LATENCY_MS, 7);
+        IntentEvaluator.Report mixed = IntentEvaluator.evaluate(synthetic(true), 0.2, 0.85, LLM_LATENCY_MS, 7);
+
+        assertTrue(mixed.coverage() < clean.coverage(), mixed.toString());
+        assertTrue(mixed.coverage() > 0.5, mixed.toString());
+        assertTrue(mixed.accuracy() >= 0.95, mixed.toString());
+        assertTrue(count(mixed.confusion(), "LLM") > 0);
+    }
+
+    @Test
+    @DisplayName("Ngưỡng tin cậy > 1 → mô hình không bao giờ tự trả lời, chỉ còn đường từ khoá")
+    void unreachableConfidenceLeavesKeywordsOnly() {
+        IntentEvaluator.Report report = IntentEvaluator.evaluate(synthetic(false), 0.2, 1.01, LLM_LATENCY_MS, 7);
+        IntentEvaluator.Report normal = IntentEvaluator.evaluate(synthetic(false), 0.2, 0.85, LLM_LATENCY_MS, 7);
+
+        assertEquals(1.0, report.keywordShare(), 1e-9);
+        assertTrue(report.coverage() < normal.coverage());
+    }
+
+    @Test
+    @DisplayName("Không có dữ liệu → báo cáo rỗng, không lỗi chia cho 0")
+    void emptyDataset() {
+        IntentEvaluator.Report report = IntentEvaluator.evaluate(List.of(), 0.2, 0.85, LLM_LATENCY_MS, 7);
+
+        assertEquals(0, report.testSize());
+        assertEquals(0.0, report.coverage());
+        assertEquals(0.0, report.accuracy());
+        assertEquals(0, report.p99Nanos());
+    }
+
+    // column = null → đếm mọi ô
+    private static int count(Map<String, Map<String, Integer>> confusion, String column) {
+        int n = 0;
+        for (Map<String, Integer> row : confusion.values()) {
+            for (Map.Entry<String, Integer> cell : row.entrySet()) {
+                if (column == null || column.equals(cell.getKey())) n += cell.getValue();
+            }
+        }
+        return n;
+    }
+
+    private static int answered(Map<String, Map<String, Integer>> confusion) {
+        return count(confusion, null) - count(confusion, "LLM");
+    }
+
+    /** ambiguous = true → thêm câu "X tốt không" lúc gắn SEARCH lúc ADVICE (như nhãn LLM thật không nhất quán). */
+    private static List<IntentLinearModel.Example> synthetic(boolean ambiguous) {
+        String[] products = {"loa", "amply", "dac", "tai nghe", "micro", "sub", "soundbar"};
+        String[] brands = {"sony", "jbl", "marantz", "denon", "yamaha", "fiio"};
+        Random random = new Random(1);
+        List<IntentLinearModel.Example> examples = new ArrayList<>();
+        for (int i = 0; i < 3_000; i++) {
+            String p = products[random.nextInt(products.length)];
+            String b = brands[random.nextInt(brands.length)];
+            int budget = 1 + random.nextInt(30);
+            switch (i % (ambiguous ? 6 : 5)) {
+                case 0 -> examples.add(new IntentLinearModel.Example("tìm " + p + " " + b + " dưới " + budget + " triệu", "SEARCH"));
+                case 1 -> examples.add(new IntentLinearModel.Example("shop còn " + p + " " + b + " không", "SEARCH"));
+                case 2 -> examples.add(new IntentLinearModel.Example("ghép " + p + " " + b + " với phòng " + budget + "m2 được không", "ADVICE"));
+                case 3 -> examples.add(new IntentLinearModel.Example(p + " " + b + " kêu rè khi mở to", "ADVICE"));
+                case 4 -> examples.add(new IntentLinearModel.Example("phí ship về hà nội mất mấy ngày", "NONE"));
+                default -> examples.add(new IntentLinearModel.Example(p + " " + b + " tốt không", i % 12 == 5 ? "SEARCH" : "ADVICE"));
+            }
+        }
+        return examples;
+    }
+}
@@ -0,0 +1,61 @@
+package org.example.audio_ecommerce.LangChain4J;
+
+import org.example.audio_ecommerce.util.PhraseMatcher;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalIntentClassifierTest {
+
+    @Test
+    @DisplayName("Aho-Corasick: khớp nhiều cụm cùng lúc, không dấu / có dấu như nhau, chỉ khớp trọn từ")
+    void phraseMatcherMatchesWholeWords() {
+        PhraseMatcher<String> matcher = new PhraseMatcher<>(Map.of("tìm loa", "A", "loa", "B", "setup phòng", "C"));
+
+        List<String> hits = matcher.findAll("Tim LOA de setup phong khach").stream().map(PhraseMatcher.Match::value).toList();
+        assertTrue(hits.containsAll(List.of("A", "B", "C")));
+        assertTrue(matcher.findAll("loại nào tốt").isEmpty(), "'loa' không được khớp trong 'loai'");
+    }
+
+    @Test
+    @DisplayName("Câu rõ ràng trả ngay bằng từ khoá; câu lẫn nhiều intent → nhường LLM")
+    void keywordFastPath() {
+        LocalIntentClassifier c = LocalIntentClassifier.keywordOnly();
+
+        assertEquals("SEARCH", c.classify("Tìm loa bluetooth dưới 2 triệu").orElseThrow().intent());
+        assertEquals("ADVICE", c.classify("setup phòng nghe 20m2 thế nào").orElseThrow().intent());
+        assertEquals("NONE", c.classify("bitcoin hôm nay bao nhiêu").orElseThrow().intent());
+        assertTrue(c.classify("tìm loa cho phòng nghe 20m2, setup sao cho hay").isEmpty());
+        assertTrue(c.classify("loa kêu rè").isEmpty());
+    }
+
+    @Test
+    @DisplayName("Mô hình học từ nhãn LLM trả lời được câu không có từ khoá")
+    void modelCoversQuestionsWithoutKeywords() {
+        List<IntentLinearModel.Example> examples = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            examples.add(new IntentLinearModel.Example("loa kêu rè khi mở to số " + i, "ADVICE"));
+            examples.add(new IntentLinearModel.Example("shop còn loa jbl charge " + i + " không", "SEARCH"));
+            examples.add(new IntentLinearModel.Example("hôm nay ăn gì ngon " + i, "NONE"));
+        }
+        LocalIntentClassifier c = LocalIntentClassifier.train(examples, 0.8, 42);
+
+        LocalIntentClassifier.Prediction p = c.classify("loa kêu rè quá").orElseThrow();
+        assertEquals("ADVICE", p.intent());
+        assertEquals("model", p.source());
+        assertEquals(120, c.trainedOn());
+    }
+
+    @Test
+    @DisplayName("Output LLM lộn xộn vẫn về đúng 1 nhãn")
+    void llmOutputIsNormalized() {
+        assertEquals("SEARCH", ProductQueryIntentDetector.toLabel(" search.\n"));
+        assertEquals("ADVICE", ProductQueryIntentDetector.toLabel("Label: ADVICE"));
+        assertEquals("NONE", ProductQueryIntentDetector.toLabel("không rõ"));
+    }
+}
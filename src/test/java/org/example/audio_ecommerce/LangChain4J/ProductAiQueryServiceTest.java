@@ -0,0 +1,56 @@
+package org.example.audio_ecommerce.LangChain4J;
+
+import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.audio_ecommerce.repository.ProductRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ProductAiQueryServiceTest {
+
+    private static final String BAD_SQL = "SELECT email, password FROM accounts";
+
+    private ProductQueryAgent agent;
+    private SqlExecutorTool sqlExecutor;
+    private AiSqlResultCache resultCache;
+    private ProductAiQueryService service;
+
+    @BeforeEach
+    void setUp() {
+        agent = mock(ProductQueryAgent.class);
+        sqlExecutor = mock(SqlExecutorTool.class);
+        SchemaLoader schemaLoader = mock(SchemaLoader.class);
+        AiChatMemoryService memory = mock(AiChatMemoryService.class);
+        when(schemaLoader.loadSchema()).thenReturn("TABLE: products");
+        when(memory.loadMemory(anyString())).thenReturn(List.of());
+        resultCache = new AiSqlResultCache(new SimpleMeterRegistry(), 60_000, 100);
+        service = new ProductAiQueryService(agent, sqlExecutor, schemaLoader, mock(ProductRepository.class),
+                memory, resultCache, mock(OpenAiStreamingChatModel.class));
+    }
+
+    @Test
+    @DisplayName("SQL bị guard chặn: không trả SQL / lý do chặn cho client, không cache lỗi")
+    void rejectedSqlIsNotEchoed() {
+        when(agent.generateSql(anyString())).thenReturn(BAD_SQL);
+        when(sqlExecutor.selectProductIds(BAD_SQL))
+                .thenThrow(new IllegalArgumentException("Bảng không được phép: accounts"));
+
+        Map<String, Object> result = service.searchProduct("u1", "loa bluetooth dưới 2 triệu");
+
+        assertEquals(0, result.get("count"));
+        assertFalse(result.containsKey("sql"));
+        assertFalse(result.toString().contains("accounts"), result.toString());
+        assertEquals(0, resultCache.size());
+
+        service.searchProduct("u1", "loa bluetooth dưới 2 triệu");
+        verify(agent, times(2)).generateSql(anyString());
+    }
+}
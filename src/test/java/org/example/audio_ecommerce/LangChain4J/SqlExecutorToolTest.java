@@ -0,0 +1,96 @@
+package org.example.audio_ecommerce.LangChain4J;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SqlExecutorToolTest {
+
+    private static final String URL = "jdbc:h2:mem:ai_sql;DB_CLOSE_DELAY=-1";
+
+    private SqlExecutorTool tool;
+
+    @BeforeEach
+    void setUp() {
+        JdbcTemplate admin = new JdbcTemplate(new DriverManagerDataSource(URL, "sa", ""));
+        admin.execute("DROP TABLE IF EXISTS products");
+        admin.execute("CREATE TABLE products (product_id VARCHAR(36) PRIMARY KEY, name VARCHAR(255))");
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < 200; i++) rows.add(new Object[]{UUID.randomUUID().toString(), "Loa " + i});
+        admin.batchUpdate("INSERT INTO products (product_id, name) VALUES (?, ?)", rows);
+
+        tool = new SqlExecutorTool(new ObjectMapper(), new SimpleMeterRegistry(), URL, "sa", "", 1, 3, 50, 0,
+                "products, categories");
+    }
+
+    @AfterEach
+    void tearDown() {
+        tool.close();
+    }
+
+    @Test
+    @DisplayName("Thiếu LIMIT hoặc LIMIT quá lớn → ép về max-rows")
+    void enforcesLimit() {
+        assertEquals(50, tool.selectProductIds("SELECT product_id FROM products").size());
+        assertEquals(50, tool.selectProductIds("SELECT product_id FROM products LIMIT 1000;").size());
+        assertEquals(20, tool.selectProductIds("SELECT DISTINCT p.product_id FROM products p LIMIT 20").size());
+        assertEquals("SELECT product_id FROM products LIMIT 10, 50",
+                tool.guard("SELECT product_id FROM products LIMIT 10, 500"));
+    }
+
+    @Test
+    @DisplayName("Chặn câu không phải SELECT, nhiều câu lệnh, comment, từ khoá ghi")
+    void rejectsUnsafeSql() {
+        assertThrows(IllegalArgumentException.class, () -> tool.runSelect("DELETE FROM products"));
+        assertThrows(IllegalArgumentException.class,
+                () -> tool.runSelect("SELECT product_id FROM products; DROP TABLE products"));
+        assertThrows(IllegalArgumentException.class,
+                () -> tool.runSelect("SELECT product_id FROM products -- bỏ LIMIT"));
+        assertThrows(IllegalArgumentException.class,
+                () -> tool.runSelect("SELECT product_id FROM products WHERE SLEEP(10) = 0"));
+        assertThrows(IllegalArgumentException.class,
+                () -> tool.runSelect("SELECT product_id FROM products FOR UPDATE"));
+
+        // Tên cột chứa từ khoá (updated_at) không bị chặn nhầm
+        assertDoesNotThrow(() -> tool.guard("SELECT product_id, updated_at FROM products"));
+    }
+
+    @Test
+    @DisplayName("Chỉ cho đọc bảng trong whitelist, kể cả trong subquery / FROM a, b / bảng dẫn xuất")
+    void rejectsTablesOutsideWhitelist() {
+        assertDoesNotThrow(() -> tool.guard(
+                "SELECT p.product_id FROM products p JOIN categories AS c ON c.name = p.name WHERE p.name LIKE 'from accounts'"));
+        assertDoesNotThrow(() -> tool.guard("SELECT EXTRACT(YEAR FROM CURRENT_DATE), product_id FROM `Products`"));
+
+        for (String sql : List.of(
+                "SELECT email FROM accounts",
+                "SELECT product_id FROM products p, accounts a",
+                "SELECT product_id FROM (SELECT product_id FROM products) x, accounts",
+                "SELECT product_id, (SELECT password FROM accounts LIMIT 1) FROM products",
+                "SELECT product_id FROM products WHERE product_id IN (SELECT id FROM customers)",
+                "SELECT product_id FROM products UNION SELECT email FROM accounts",
+                "SELECT table_name FROM information_schema.tables")) {
+            assertThrows(IllegalArgumentException.class, () -> tool.guard(sql), sql);
+        }
+    }
+
+    @Test
+    @DisplayName("Tách đúng tên bảng, bỏ qua alias và FROM trong hàm")
+    void referencedTables() {
+        assertEquals(List.of("products", "product_variants"), SqlExecutorTool.referencedTables(
+                "SELECT p.product_id FROM products p LEFT JOIN product_variants pv USING (product_id) ORDER BY p.price, pv.id"));
+        assertEquals(List.of("products", "categories"), SqlExecutorTool.referencedTables(
+                "SELECT TRIM(LEADING 'x' FROM p.name) FROM products AS p, categories c WHERE c.category_id = 1"));
+    }
+}
@@ -0,0 +1,71 @@
+package org.example.audio_ecommerce.LangChain4J;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.output.Response;
+import org.example.audio_ecommerce.util.TokenSink;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Consumer;
+
+import static org.mockito.Mockito.*;
+
+class TokenSinkHandlerTest {
+
+    @Test
+    @DisplayName("Token chuyển thẳng vào sink; xong thì lưu câu trả lời trước rồi mới báo hoàn tất")
+    @SuppressWarnings("unchecked")
+    void forwardsTokensThenSavesReplyBeforeComplete() {
+        TokenSink sink = mock(TokenSink.class);
+        Consumer<String> onReply = mock(Consumer.class);
+        TokenSinkHandler handler = new TokenSinkHandler(sink, onReply);
+
+        handler.onNext("Loa ");
+        handler.onNext("Klipsch");
+        handler.onComplete(Response.from(AiMessage.from("Loa Klipsch")));
+
+        var order = inOrder(sink, onReply);
+        order.verify(sink).onToken("Loa ");
+        order.verify(sink).onToken("Klipsch");
+        order.verify(onReply).accept("Loa Klipsch");
+        order.verify(sink).onComplete("Loa Klipsch");
+        verify(sink, never()).onError(any());
+    }
+
+    @Test
+    @DisplayName("Client đã ngắt → bỏ token, không đẩy vào sink")
+    void dropsTokensAfterCancel() {
+        TokenSink sink = mock(TokenSink.class);
+        when(sink.isCancelled()).thenReturn(true);
+        TokenSinkHandler handler = new TokenSinkHandler(sink, reply -> { });
+
+        handler.onNext("Loa ");
+
+        verify(sink, never()).onToken(anyString());
+    }
+
+    @Test
+    @DisplayName("Lưu câu trả lời lỗi → sink nhận onError, không onComplete")
+    void replyFailureBecomesError() {
+        TokenSink sink = mock(TokenSink.class);
+        IllegalStateException failure = new IllegalStateException("DB down");
+        TokenSinkHandler handler = new TokenSinkHandler(sink, reply -> { throw failure; });
+
+        handler.onComplete(Response.from(AiMessage.from("Loa Klipsch")));
+
+        verify(sink).onError(failure);
+        verify(sink, never()).onComplete(anyString());
+    }
+
+    @Test
+    @DisplayName("Model lỗi giữa chừng → chuyển lỗi cho sink")
+    void forwardsModelError() {
+        TokenSink sink = mock(TokenSink.class);
+        RuntimeException failure = new RuntimeException("timeout");
+        TokenSinkHandler handler = new TokenSinkHandler(sink, reply -> { });
+
+        handler.onError(failure);
+
+        verify(sink).onError(failure);
+    }
+}
@@ -0,0 +1,77 @@
+package org.example.audio_ecommerce.config;
+
+import org.example.audio_ecommerce.repository.CustomerRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class CustomerContactBackfillTest {
+
+    private CustomerRepository repo;
+    private CustomerContactBackfill backfill;
+
+    @BeforeEach
+    void setUp() {
+        repo = mock(CustomerRepository.class);
+        backfill = new CustomerContactBackfill(repo, mock(PlatformTransactionManager.class));
+        when(repo.setPhoneNormalized(any(), any())).thenReturn(1);
+    }
+
+    @Test
+    @DisplayName("Customer cũ trùng SĐT sau chuẩn hoá vẫn được điền cả hai, không bỏ sót")
+    void collidingPhonesAreAllFilled() {
+        UUID a = UUID.fromString("00000000-0000-0000-0000-00000000000a");
+        UUID b = UUID.fromString("00000000-0000-0000-0000-00000000000b");
+        UUID c = UUID.fromString("00000000-0000-0000-0000-00000000000c");
+        when(repo.findPhonesToNormalize(isNull(), any()))
+                .thenReturn(List.of(row(a, "0912 345 678"), row(b, "+84 912 345 678"), row(c, "n/a")));
+        when(repo.findPhonesToNormalize(eq(c), any())).thenReturn(List.of());
+
+        backfill.backfill();
+
+        verify(repo).backfillEmailNormalized();
+        verify(repo).setPhoneNormalized(a, "0912345678");
+        verify(repo).setPhoneNormalized(b, "0912345678");
+        verify(repo, never()).setPhoneNormalized(eq(c), any());
+    }
+
+    @Test
+    @DisplayName("Phân trang keyset: batch sau bắt đầu sau id cuối của batch trước")
+    void pagesByLastId() {
+        UUID a = UUID.fromString("00000000-0000-0000-0000-00000000000a");
+        UUID b = UUID.fromString("00000000-0000-0000-0000-00000000000b");
+        when(repo.findPhonesToNormalize(isNull(), any())).thenReturn(List.of(row(a, "0901000001")));
+        when(repo.findPhonesToNormalize(eq(a), any())).thenReturn(List.of(row(b, "0901000002")));
+        when(repo.findPhonesToNormalize(eq(b), any())).thenReturn(List.of());
+
+        backfill.backfill();
+
+        verify(repo).setPhoneNormalized(a, "0901000001");
+        verify(repo).setPhoneNormalized(b, "0901000002");
+        verify(repo, times(3)).findPhonesToNormalize(any(), any());
+    }
+
+    @Test
+    @DisplayName("Lỗi backfill chỉ log, không làm hỏng khởi động")
+    void failureDoesNotPropagate() {
+        when(repo.backfillEmailNormalized()).thenThrow(new IllegalStateException("db down"));
+
+        assertDoesNotThrow(backfill::backfill);
+        verify(repo, never()).setPhoneNormalized(any(), any());
+    }
+
+    private static CustomerRepository.PhoneRow row(UUID id, String phone) {
+        return new CustomerRepository.PhoneRow() {
+            @Override public UUID getId() { return id; }
+            @Override public String getPhoneNumber() { return phone; }
+        };
+    }
+}
@@ -0,0 +1,102 @@
+package org.example.audio_ecommerce.config;
+
+import org.example.audio_ecommerce.H2DataJpaTest;
+import org.example.audio_ecommerce.repository.PlatformCampaignProductUsageRepository;
+import org.example.audio_ecommerce.repository.ShopVoucherUsageRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@H2DataJpaTest
+class VoucherUsageBackfillTest {
+
+    private static final LocalDateTime FIRST = LocalDateTime.of(2024, 3, 1, 10, 0);
+    private static final LocalDateTime LAST = LocalDateTime.of(2024, 6, 1, 10, 0);
+
+    @Autowired
+    private ShopVoucherUsageRepository shopVoucherUsageRepo;
+
+    @Autowired
+    private PlatformCampaignProductUsageRepository platformUsageRepo;
+
+    @Autowired
+    private PlatformTransactionManager txManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private VoucherUsageBackfill backfill;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.execute("SET REFERENTIAL_INTEGRITY FALSE");
+        backfill = new VoucherUsageBackfill(shopVoucherUsageRepo, platformUsageRepo, txManager);
+    }
+
+    @Test
+    @DisplayName("Dòng cũ thiếu lastUsedAt được điền bằng firstUsedAt, dòng đã có giữ nguyên")
+    void fillsOnlyMissingLastUsedAt() {
+        String legacyShop = shopUsage(FIRST, null);
+        String recentShop = shopUsage(FIRST, LAST);
+        String legacyPlatform = platformUsage(FIRST, null);
+        String recentPlatform = platformUsage(FIRST, LAST);
+
+        backfill.backfill();
+
+        assertEquals(FIRST, lastUsedAt("shop_voucher_usages", legacyShop));
+        assertEquals(LAST, lastUsedAt("shop_voucher_usages", recentShop));
+        assertEquals(FIRST, lastUsedAt("platform_campaign_product_usages", legacyPlatform));
+        assertEquals(LAST, lastUsedAt("platform_campaign_product_usages", recentPlatform));
+    }
+
+    @Test
+    @DisplayName("Không có firstUsedAt thì để nguyên; chạy lại không đổi gì (idempotent)")
+    void idempotentAndSkipsUndated() {
+        String undated = shopUsage(null, null);
+        shopUsage(FIRST, null);
+
+        backfill.backfill();
+
+        assertNull(lastUsedAt("shop_voucher_usages", undated));
+        assertEquals(0, shopVoucherUsageRepo.backfillLastUsedAt());
+        assertEquals(0, platformUsageRepo.backfillLastUsedAt());
+    }
+
+    private String shopUsage(LocalDateTime first, LocalDateTime last) {
+        String id = UUID.randomUUID().toString();
+        jdbcTemplate.update("""
+                INSERT INTO shop_voucher_usages (id, voucher_id, customer_id, used_count, first_used_at, last_used_at)
+                VALUES (?, ?, ?, 1, ?, ?)
+                """, id, UUID.randomUUID().toString(), UUID.randomUUID().toString(), ts(first), ts(last));
+        return id;
+    }
+
+    private String platformUsage(LocalDateTime first, LocalDateTime last) {
+        String id = UUID.randomUUID().toString();
+        jdbcTemplate.update("""
+                INSERT INTO platform_campaign_product_usages (id, campaign_product_id, customer_id, used_count,
+                                                              first_used_at, last_used_at)
+                VALUES (?, ?, ?, 1, ?, ?)
+                """, id, UUID.randomUUID().toString(), UUID.randomUUID().toString(), ts(first), ts(last));
+        return id;
+    }
+
+    private LocalDateTime lastUsedAt(String table, String id) {
+        Timestamp ts = jdbcTemplate.queryForObject(
+                "SELECT last_used_at FROM " + table + " WHERE id = ?", Timestamp.class, id);
+        return ts == null ? null : ts.toLocalDateTime();
+    }
+
+    private static Timestamp ts(LocalDateTime t) {
+        return t == null ? null : Timestamp.valueOf(t);
+    }
+}
@@ -0,0 +1,75 @@
+package org.example.audio_ecommerce.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.audio_ecommerce.service.GhnFeeService;
+import org.example.audio_ecommerce.service.Impl.GhnMasterDataStore;
+import org.example.audio_ecommerce.service.Impl.GhnMasterDataStore.MasterData;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+class GHNControllerTest {
+
+    private static final String BODY = "{\"code\":200,\"message\":\"Success\",\"data\":[{\"DistrictID\":1454}]}";
+    private static final MasterData DISTRICTS = new MasterData(BODY, "\"abc123\"", LocalDateTime.now());
+
+    private GhnMasterDataStore masterData;
+    private GHNController controller;
+
+    @BeforeEach
+    void setUp() {
+        masterData = mock(GhnMasterDataStore.class);
+        when(masterData.districts(anyInt())).thenReturn(DISTRICTS);
+        controller = new GHNController(mock(RestTemplate.class), masterData, mock(GhnFeeService.class), new ObjectMapper());
+    }
+
+    @Test
+    @DisplayName("If-None-Match khớp ETag → 304, không gửi lại body")
+    void matchingEtagIsNotModified() {
+        ResponseEntity<String> resp = controller.getDistrictsByProvince(202, "\"abc123\"");
+
+        assertEquals(HttpStatus.NOT_MODIFIED, resp.getStatusCode());
+        assertNull(resp.getBody());
+        assertEquals("\"abc123\"", resp.getHeaders().getETag());
+    }
+
+    @Test
+    @DisplayName("Không có / lệch ETag → 200 kèm body và ETag mới")
+    void staleEtagGetsBody() {
+        for (String ifNoneMatch : new String[]{null, "\"old\""}) {
+            ResponseEntity<String> resp = controller.getDistrictsByProvince(202, ifNoneMatch);
+
+            assertEquals(HttpStatus.OK, resp.getStatusCode());
+            assertEquals(BODY, resp.getBody());
+            assertEquals("\"abc123\"", resp.getHeaders().getETag());
+        }
+    }
+
+    @Test
+    @DisplayName("POST /districts đọc đúng field province_id, không gộp chữ số của field khác")
+    void postBodyIdIsParsedFromJson() {
+        controller.getDistricts("{\"province_id\": 202, \"shop_id\": 885}", null);
+        controller.getDistricts("{\"province_id\": \"203\"}", null);
+
+        verify(masterData).districts(202);
+        verify(masterData).districts(203);
+    }
+
+    @Test
+    @DisplayName("Thiếu / sai kiểu province_id → 400, không gọi master data")
+    void missingIdIsBadRequest() {
+        for (String body : new String[]{"{}", "{\"province_id\": \"abc\"}", "{\"province_id\": 2.5}", "province_id=202", ""}) {
+            assertEquals(HttpStatus.BAD_REQUEST, controller.getDistricts(body, null).getStatusCode(), body);
+        }
+        verify(masterData, never()).districts(anyInt());
+    }
+}
@@ -0,0 +1,136 @@
+package org.example.audio_ecommerce.repository;
+
+import org.example.audio_ecommerce.H2DataJpaTest;
+import org.example.audio_ecommerce.entity.CustomerOrder;
+import org.example.audio_ecommerce.entity.Enum.OrderStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Webhook PayOS tra nhóm đơn qua payment_batch phải trả đúng tập đơn của batch,
+ * UPDATE cả nhóm chỉ chạm các đơn đó, và đường legacy (JSON) không khớp nhầm mã là tiền tố của mã khác.
+ */
+@H2DataJpaTest
+class PaymentBatchRepositoryTest {
+
+    private static final int BATCHES = 20;
+
+    @Autowired
+    private PaymentBatchRepository paymentBatchRepository;
+
+    @Autowired
+    private CustomerOrderRepository customerOrderRepository;
+
+    @Autowired
+    private TestEntityManager em;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // batch_code → id các đơn trong nhóm
+    private final Map<Long, Set<UUID>> batches = new LinkedHashMap<>();
+    private final String customerId = UUID.randomUUID().toString();
+    private final LocalDateTime now = LocalDateTime.now().withNano(0);
+
+    @BeforeEach
+    void seed() {
+        jdbcTemplate.execute("SET REFERENTIAL_INTEGRITY FALSE");
+
+        // Nhóm i có (i % 3) + 1 đơn → kích thước nhóm khác nhau
+        long code = 1_700_000_000_000L;
+        for (int i = 0; i < BATCHES; i++) {
+            Set<UUID> ids = new HashSet<>();
+            for (int j = 0; j <= i % 3; j++) {
+                UUID orderId = insertOrder("ONLINE", null);
+                insertBatch(code + i, orderId);
+                ids.add(orderId);
+            }
+            batches.put(code + i, ids);
+        }
+    }
+
+    private UUID insertOrder(String paymentMethod, String platformJson) {
+        UUID id = UUID.randomUUID();
+        jdbcTemplate.update("""
+                INSERT INTO customer_order (id, customer_id, created_at, status, payment_method, platform_voucher_detail_json)
+                VALUES (?, ?, ?, ?, ?, ?)
+                """, id.toString(), customerId, now, OrderStatus.PENDING.name(), paymentMethod, platformJson);
+        return id;
+    }
+
+    private void insertBatch(long code, UUID orderId) {
+        jdbcTemplate.update(
+                "INSERT INTO payment_batch (id, batch_code, customer_order_id, created_at) VALUES (?, ?, ?, ?)",
+                UUID.randomUUID().toString(), code, orderId.toString(), now);
+    }
+
+    private static Set<UUID> ids(List<CustomerOrder> orders) {
+        return orders.stream().map(CustomerOrder::getId).collect(Collectors.toSet());
+    }
+
+    @Test
+    @DisplayName("findOrdersByBatchCode: trả đúng và đủ các đơn của từng batch, mã lạ → rỗng")
+    void lookupReturnsExactGroup() {
+        batches.forEach((code, expected) ->
+                assertEquals(expected, ids(paymentBatchRepository.findOrdersByBatchCode(code)), "batch " + code));
+
+        assertTrue(paymentBatchRepository.findOrdersByBatchCode(42L).isEmpty());
+    }
+
+    @Test
+    @DisplayName("findOrdersByBatchCode: 1 đơn thanh toán lại bằng link mới nằm ở cả 2 batch")
+    void orderInSeveralBatches() {
+        Iterator<Map.Entry<Long, Set<UUID>>> it = batches.entrySet().iterator();
+        Map.Entry<Long, Set<UUID>> first = it.next();
+        long retryCode = it.next().getKey();
+        UUID moved = first.getValue().iterator().next();
+        insertBatch(retryCode, moved);
+
+        assertTrue(ids(paymentBatchRepository.findOrdersByBatchCode(retryCode)).contains(moved));
+        assertTrue(ids(paymentBatchRepository.findOrdersByBatchCode(first.getKey())).contains(moved));
+    }
+
+    @Test
+    @DisplayName("updateStatusForIds: chỉ đổi trạng thái đơn trong nhóm, các đơn khác giữ nguyên")
+    void groupUpdateTouchesOnlyGroup() {
+        long code = batches.keySet().stream().skip(2).findFirst().orElseThrow();
+        Set<UUID> group = batches.get(code);
+        LocalDateTime later = now.plusMinutes(5);
+
+        int updated = customerOrderRepository.updateStatusForIds(
+                ids(paymentBatchRepository.findOrdersByBatchCode(code)), OrderStatus.UNPAID, later);
+        em.clear();
+
+        assertEquals(group.size(), updated);
+        for (CustomerOrder o : customerOrderRepository.findAll()) {
+            if (group.contains(o.getId())) {
+                assertEquals(OrderStatus.UNPAID, o.getStatus());
+                assertEquals(later, o.getCreatedAt());
+            } else {
+                assertEquals(OrderStatus.PENDING, o.getStatus(), "đơn ngoài nhóm bị đổi: " + o.getId());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Legacy: LIKE theo JSON chỉ lấy đơn ONLINE đúng mã, không khớp mã có cùng tiền tố")
+    void legacyCandidatesMatchExactCode() {
+        UUID legacy = insertOrder("ONLINE", "{\"__payos_batch_code\":\"17\"}");
+        insertOrder("ONLINE", "{\"__payos_batch_code\":\"170\"}");
+        insertOrder("COD", "{\"__payos_batch_code\":\"17\"}");
+
+        List<CustomerOrder> found = customerOrderRepository.findLegacyBatchCandidates("%\"__payos_batch_code\":\"17\"%");
+
+        assertEquals(Set.of(legacy), ids(found));
+    }
+}
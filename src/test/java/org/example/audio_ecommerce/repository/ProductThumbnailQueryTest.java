@@ -0,0 +1,213 @@
+package org.example.audio_ecommerce.repository;
+
+import org.example.audio_ecommerce.H2DataJpaTest;
+import org.example.audio_ecommerce.entity.Enum.ProductStatus;
+import org.example.audio_ecommerce.entity.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Feed thumbnail đẩy filter/sort xuống SQL phải trả đúng tập và thứ tự như đường cũ
+ * (JOIN + DISTINCT theo name/brand, rồi lọc giá thấp nhất/rating và sort trong Java).
+ */
+@H2DataJpaTest
+// product_attribute_values.value là từ khoá của H2 → quote để bảng được tạo
+@TestPropertySource(properties = "spring.jpa.properties.hibernate.auto_quote_keyword=true")
+class ProductThumbnailQueryTest {
+
+    private static final int PRODUCTS = 600;
+    private static final int STORES = 12;
+    private static final int PAGE_SIZE = 20;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final ProductRepository.ThumbnailFilter filter = new ProductRepository.ThumbnailFilter(
+            ProductStatus.ACTIVE, null, null, "sony", null, null, null,
+            new BigDecimal("150000"), new BigDecimal("500000"), new BigDecimal("2"), null);
+
+    private final Sort sort = Sort.by("effectiveMinPrice").ascending().and(Sort.by("productId"));
+
+    private List<String> storeIds;
+
+    @BeforeEach
+    void seed() {
+        jdbcTemplate.execute("SET REFERENTIAL_INTEGRITY FALSE");
+
+        storeIds = new ArrayList<>();
+        List<Object[]> stores = new ArrayList<>();
+        for (int i = 0; i < STORES; i++) {
+            String id = UUID.randomUUID().toString();
+            storeIds.add(id);
+            stores.add(new Object[]{id, UUID.randomUUID().toString(), "Store " + i});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO stores (store_id, account_id, store_name) VALUES (?, ?, ?)", stores);
+
+        String[] brands = {"Sony", "JBL", "Yamaha", "Sennheiser", "Marshall"};
+        Random random = new Random(42);
+        List<Object[]> products = new ArrayList<>(PRODUCTS);
+        for (int i = 0; i < PRODUCTS; i++) {
+            // Giá khác nhau từng sản phẩm → thứ tự theo giá của đường cũ là xác định
+            BigDecimal price = BigDecimal.valueOf(100_000L + i * 1_000L);
+            String brand = brands[i % brands.length];
+            products.add(new Object[]{
+                    UUID.randomUUID().toString(),
+                    storeIds.get(i % STORES),
+                    brand,
+                    brand + " Model " + i,
+                    "Loa " + brand,
+                    i % 10 == 0 ? ProductStatus.INACTIVE.name() : ProductStatus.ACTIVE.name(),
+                    price, price, price,
+                    BigDecimal.valueOf(random.nextInt(50), 1)
+            });
+        }
+        insertProducts(products);
+    }
+
+    @Test
+    @DisplayName("Offset pushdown trả đúng tập, thứ tự và total như feed cũ")
+    void offsetMatchesLegacyFeed() {
+        List<UUID> legacy = legacyFeed().stream().map(Product::getProductId).toList();
+        assertFalse(legacy.isEmpty());
+
+        Page<Product> first = productRepository.searchThumbnails(filter, PageRequest.of(0, PAGE_SIZE, sort));
+        assertEquals(legacy.size(), first.getTotalElements());
+        assertEquals(legacy.subList(0, Math.min(PAGE_SIZE, legacy.size())), ids(first.getContent()));
+
+        List<UUID> all = new ArrayList<>();
+        for (int page = 0; page < first.getTotalPages(); page++) {
+            all.addAll(ids(productRepository.searchThumbnails(filter, PageRequest.of(page, PAGE_SIZE, sort)).getContent()));
+        }
+        assertEquals(legacy, all);
+    }
+
+    @Test
+    @DisplayName("Keyset đi hết feed cho đúng chuỗi như offset, không trùng/không sót")
+    void keysetMatchesOffset() {
+        List<UUID> offset = ids(productRepository.searchThumbnails(filter, PageRequest.of(0, PRODUCTS, sort)).getContent());
+
+        List<UUID> keyset = new ArrayList<>();
+        ScrollPosition position = ScrollPosition.keyset();
+        while (true) {
+            Window<Product> window = productRepository.scrollThumbnails(filter, sort, position, PAGE_SIZE);
+            keyset.addAll(ids(window.getContent()));
+            if (!window.hasNext() || window.isEmpty()) break;
+            position = window.positionAt(window.size() - 1);
+        }
+
+        assertEquals(offset, keyset);
+    }
+
+    @Test
+    @DisplayName("Keyword fallback LIKE vẫn khớp theo mô tả sản phẩm")
+    void keywordMatchesDescription() {
+        String id = UUID.randomUUID().toString();
+        BigDecimal price = new BigDecimal("200500");
+        List<Object[]> extra = new ArrayList<>();
+        extra.add(new Object[]{id, storeIds.get(0), "JBL", "JBL Link", "Ghép đôi tốt với tai nghe Sony",
+                ProductStatus.ACTIVE.name(), price, price, price, new BigDecimal("4.5")});
+        insertProducts(extra);
+
+        List<UUID> found = ids(productRepository.searchThumbnails(filter, PageRequest.of(0, PRODUCTS, sort)).getContent());
+
+        assertTrue(found.contains(UUID.fromString(id)));
+    }
+
+    @Test
+    @DisplayName("Keyword fallback LIKE không phân biệt dấu nhờ search_text")
+    void keywordFallbackFoldsAccents() {
+        Product probe = new Product();
+        probe.setName("Tai Nghe Đen Chống Ồn");
+        probe.setBrandName("Sony");
+        String id = UUID.randomUUID().toString();
+        BigDecimal price = new BigDecimal("300500");
+        jdbcTemplate.update("""
+                INSERT INTO products (product_id, store_id, brand_name, name, status,
+                                      price, final_price, effective_min_price, rating_average, search_text)
+                VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+                """, id, storeIds.get(0), probe.getBrandName(), probe.getName(), ProductStatus.ACTIVE.name(),
+                price, price, price, new BigDecimal("4.5"), probe.computeSearchText());
+
+        ProductRepository.ThumbnailFilter unaccented = new ProductRepository.ThumbnailFilter(
+                ProductStatus.ACTIVE, null, null, "tai nghe den chong on", null, null, null, null, null, null, null);
+        List<UUID> found = ids(productRepository.searchThumbnails(unaccented, PageRequest.of(0, PAGE_SIZE, sort)).getContent());
+
+        assertEquals(List.of(UUID.fromString(id)), found);
+    }
+
+    @Test
+    @DisplayName("Keyword fallback LIKE khớp cả tên danh mục và giá trị thuộc tính như chỉ mục, mọi từ đều phải khớp")
+    void keywordFallbackMatchesCategoryAndAttributes() {
+        String id = UUID.randomUUID().toString();
+        BigDecimal price = new BigDecimal("400500");
+        List<Object[]> extra = new ArrayList<>();
+        extra.add(new Object[]{id, storeIds.get(0), "JBL", "JBL Bar 300", null,
+                ProductStatus.ACTIVE.name(), price, price, price, new BigDecimal("4.5")});
+        insertProducts(extra);
+        String categoryId = UUID.randomUUID().toString();
+        jdbcTemplate.update("INSERT INTO categories (category_id, name) VALUES (?, ?)", categoryId, "Soundbar");
+        jdbcTemplate.update("INSERT INTO product_categories (product_id, category_id) VALUES (?, ?)", id, categoryId);
+        jdbcTemplate.update("INSERT INTO product_attribute_values (id, product_id, attribute_id, \"value\") VALUES (?, ?, ?, ?)",
+                UUID.randomUUID().toString(), id, UUID.randomUUID().toString(), "Dolby Atmos");
+
+        assertEquals(List.of(UUID.fromString(id)), keywordSearch("soundbar atmos"));
+        assertEquals(List.of(UUID.fromString(id)), keywordSearch("JBL Soundbar"));
+        assertTrue(keywordSearch("soundbar yamaha").isEmpty());
+    }
+
+    private List<UUID> keywordSearch(String keyword) {
+        ProductRepository.ThumbnailFilter byKeyword = new ProductRepository.ThumbnailFilter(
+                ProductStatus.ACTIVE, null, null, keyword, null, null, null, null, null, null, null);
+        return ids(productRepository.searchThumbnails(byKeyword, PageRequest.of(0, PAGE_SIZE, sort)).getContent());
+    }
+
+    /** Tái hiện đường cũ: lấy toàn bộ theo filter SQL rồi lọc giá thấp nhất/rating + sort trong Java. */
+    private List<Product> legacyFeed() {
+        List<Product> all = productRepository.findAllWithAdvancedFilters(
+                filter.status(), null, null, filter.keyword(), null, null, null, Pageable.unpaged()).getContent();
+        return all.stream()
+                .filter(p -> {
+                    BigDecimal lowest = lowestPrice(p);
+                    return lowest.compareTo(filter.minPrice()) >= 0 && lowest.compareTo(filter.maxPrice()) <= 0;
+                })
+                .filter(p -> p.getRatingAverage() != null && p.getRatingAverage().compareTo(filter.minRating()) >= 0)
+                .sorted(Comparator.comparing(ProductThumbnailQueryTest::lowestPrice))
+                .toList();
+    }
+
+    // Giá thấp nhất như code cũ: min giá biến thể, không có thì finalPrice, rồi price
+    private static BigDecimal lowestPrice(Product p) {
+        BigDecimal base = p.getFinalPrice() != null ? p.getFinalPrice() : p.getPrice();
+        if (p.getVariants() == null || p.getVariants().isEmpty()) return base;
+        return p.getVariants().stream()
+                .map(v -> v.getVariantPrice())
+                .filter(Objects::nonNull)
+                .min(BigDecimal::compareTo)
+                .orElse(base);
+    }
+
+    private void insertProducts(List<Object[]> rows) {
+        jdbcTemplate.batchUpdate("""
+                INSERT INTO products (product_id, store_id, brand_name, name, description, status,
+                                      price, final_price, effective_min_price, rating_average)
+                VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+                """, rows);
+    }
+
+    private static List<UUID> ids(List<Product> products) {
+        return products.stream().map(Product::getProductId).toList();
+    }
+}
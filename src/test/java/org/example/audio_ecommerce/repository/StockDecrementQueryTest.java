@@ -0,0 +1,124 @@
+package org.example.audio_ecommerce.repository;
+
+import org.example.audio_ecommerce.H2DataJpaTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * UPDATE ... WHERE stock >= qty chạy thật trên H2: trừ đủ hàng thì 1 dòng, thiếu thì 0 dòng,
+ * nhiều transaction đồng thời không làm tồn kho âm / bán vượt.
+ */
+@H2DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class StockDecrementQueryTest {
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private ProductVariantRepository productVariantRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final UUID productId = UUID.randomUUID();
+    private final UUID variantId = UUID.randomUUID();
+
+    @BeforeEach
+    void seed() {
+        jdbcTemplate.execute("SET REFERENTIAL_INTEGRITY FALSE");
+        jdbcTemplate.update("INSERT INTO products (product_id, store_id, brand_name, stock_quantity) VALUES (?, ?, ?, ?)",
+                productId.toString(), UUID.randomUUID().toString(), "JBL", 100);
+        jdbcTemplate.update("""
+                INSERT INTO product_variants (id, option_name, option_value, variant_price, variant_stock, variant_url, product_id)
+                VALUES (?, ?, ?, ?, ?, ?, ?)
+                """, variantId, "Color", "Black", BigDecimal.TEN, 5, "", productId.toString());
+    }
+
+    @AfterEach
+    void cleanup() {
+        jdbcTemplate.update("DELETE FROM product_variants");
+        jdbcTemplate.update("DELETE FROM products");
+    }
+
+    @Test
+    @DisplayName("Đủ hàng → trừ 1 dòng; thiếu hàng → 0 dòng và tồn kho giữ nguyên")
+    void decrementOnlyWhenAvailable() {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+
+        assertEquals(1, tx.execute(s -> productVariantRepository.decrementStockIfAvailable(variantId, 3)));
+        assertEquals(0, tx.execute(s -> productVariantRepository.decrementStockIfAvailable(variantId, 3)));
+        assertEquals(1, tx.execute(s -> productVariantRepository.decrementStockIfAvailable(variantId, 2)));
+        assertEquals(0, variantStock());
+
+        assertEquals(0, tx.execute(s -> productRepository.decrementStockIfAvailable(productId, 101)));
+        assertEquals(100, productStock());
+        assertEquals(1, tx.execute(s -> productRepository.incrementStock(productId, 5)));
+        assertEquals(105, productStock());
+    }
+
+    @Test
+    @DisplayName("Variant có tồn kho NULL (dữ liệu cũ) → cộng trả thành đúng số lượng, không giữ NULL")
+    void incrementTreatsNullVariantStockAsZero() {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        jdbcTemplate.execute("ALTER TABLE product_variants ALTER COLUMN variant_stock SET NULL");
+        jdbcTemplate.update("UPDATE product_variants SET variant_stock = NULL WHERE id = ?", variantId);
+
+        assertEquals(1, tx.execute(s -> productVariantRepository.incrementStock(variantId, 4)));
+        assertEquals(4, variantStock());
+    }
+
+    @Test
+    @DisplayName("Nhiều transaction đồng thời trừ cùng 1 sản phẩm không bán vượt tồn kho")
+    void concurrentDecrementsNeverOversell() throws Exception {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        AtomicInteger sold = new AtomicInteger();
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                futures.add(pool.submit(() -> {
+                    Integer updated = tx.execute(s -> productRepository.decrementStockIfAvailable(productId, 1));
+                    if (updated != null && updated == 1) sold.incrementAndGet();
+                }));
+            }
+            for (Future<?> f : futures) f.get(30, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(100, sold.get());
+        assertEquals(0, productStock());
+    }
+
+    private int productStock() {
+        return jdbcTemplate.queryForObject("SELECT stock_quantity FROM products WHERE product_id = ?",
+                Integer.class, productId.toString());
+    }
+
+    private int variantStock() {
+        return jdbcTemplate.queryForObject("SELECT variant_stock FROM product_variants WHERE id = ?",
+                Integer.class, variantId);
+    }
+}
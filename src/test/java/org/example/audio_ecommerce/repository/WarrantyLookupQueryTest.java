@@ -0,0 +1,126 @@
+package org.example.audio_ecommerce.repository;
+
+import org.example.audio_ecommerce.H2DataJpaTest;
+import org.example.audio_ecommerce.entity.Warranty;
+import org.example.audio_ecommerce.util.ContactNormalizer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Các query tra cứu bảo hành công khai (theo đơn / theo SĐT-email) trả đúng tập warranty,
+ * kể cả khi nhiều customer cũ trùng liên hệ sau chuẩn hoá (index *_normalized không unique).
+ */
+@H2DataJpaTest
+class WarrantyLookupQueryTest {
+
+    private static final String STORE = UUID.randomUUID().toString();
+    private static final String PRODUCT = UUID.randomUUID().toString();
+
+    @Autowired
+    private WarrantyRepository warrantyRepository;
+
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private UUID an;
+    private UUID anLegacy;
+    private UUID binh;
+
+    @BeforeEach
+    void seed() {
+        jdbcTemplate.execute("SET REFERENTIAL_INTEGRITY FALSE");
+        jdbcTemplate.update("INSERT INTO stores (store_id, account_id, store_name) VALUES (?, ?, ?)",
+                STORE, UUID.randomUUID().toString(), "Store");
+        jdbcTemplate.update("INSERT INTO products (product_id, store_id, brand_name, name) VALUES (?, ?, ?, ?)",
+                PRODUCT, STORE, "Sony", "WH-1000XM5");
+
+        // 2 tài khoản cũ cùng 1 SĐT viết khác nhau → trùng phone_normalized
+        an = customer("An@Example.com", "0912 345 678");
+        anLegacy = customer("an.old@example.com", "+84 912 345 678");
+        binh = customer("binh@example.com", "0987654321");
+    }
+
+    @Test
+    @DisplayName("Customer trùng SĐT sau chuẩn hoá: cùng tồn tại và đều tra ra được")
+    void collidingPhonesAreAllFound() {
+        warranty(an, UUID.randomUUID(), "SN-AN");
+        warranty(anLegacy, UUID.randomUUID(), "SN-AN-OLD");
+        warranty(binh, UUID.randomUUID(), "SN-BINH");
+
+        List<UUID> ids = customerRepository.findIdsByPhoneNormalized(ContactNormalizer.phone("84912345678"));
+
+        assertEquals(Set.of(an, anLegacy), new HashSet<>(ids));
+        assertEquals(Set.of("SN-AN", "SN-AN-OLD"), serials(warrantyRepository.findDetailedByCustomerIdIn(ids)));
+    }
+
+    @Test
+    @DisplayName("Email tra theo bản chuẩn hoá, không phân biệt hoa thường")
+    void emailLookupIsNormalized() {
+        warranty(an, UUID.randomUUID(), "SN-AN");
+
+        List<UUID> ids = customerRepository.findIdsByEmailNormalized(ContactNormalizer.email(" AN@example.COM"));
+
+        assertEquals(List.of(an), ids);
+        assertTrue(customerRepository.findIdsByEmailNormalized("khong-ton-tai@example.com").isEmpty());
+    }
+
+    @Test
+    @DisplayName("Theo đơn: chỉ warranty của các item được hỏi, nạp sẵn product/store/customer")
+    void orderLookupReturnsOnlyRequestedItems() {
+        UUID item1 = UUID.randomUUID();
+        UUID item2 = UUID.randomUUID();
+        warranty(an, item1, "SN-1");
+        warranty(an, item1, "SN-2");
+        warranty(binh, item2, "SN-3");
+        warranty(binh, UUID.randomUUID(), "SN-OTHER");
+
+        List<Warranty> found = warrantyRepository.findDetailedByStoreOrderItemIdIn(List.of(item1, item2));
+
+        assertEquals(Set.of("SN-1", "SN-2", "SN-3"), serials(found));
+        found.forEach(w -> {
+            assertEquals("WH-1000XM5", w.getProduct().getName());
+            assertEquals("Store", w.getStore().getStoreName());
+            assertNotNull(w.getCustomer().getFullName());
+        });
+    }
+
+    private UUID customer(String email, String phone) {
+        UUID id = UUID.randomUUID();
+        jdbcTemplate.update("""
+                INSERT INTO customers (id, is_active, full_name, username, email, email_normalized,
+                                       phone_number, phone_normalized, password_hash, status, two_factor_enabled,
+                                       kyc_status, address_count, loyalty_points, voucher_count, order_count,
+                                       cancel_count, return_count, unpaid_order_count, account_id)
+                VALUES (?, TRUE, ?, ?, ?, ?, ?, ?, ?, 'ACTIVE', FALSE, 'NONE', 0, 0, 0, 0, 0, 0, 0, ?)
+                """, id.toString(), "Customer " + email, email, email, ContactNormalizer.email(email),
+                phone, ContactNormalizer.phone(phone), "x".repeat(60), UUID.randomUUID().toString());
+        return id;
+    }
+
+    private void warranty(UUID customerId, UUID itemId, String serial) {
+        LocalDate purchase = LocalDate.now().minusMonths(3);
+        jdbcTemplate.update("""
+                INSERT INTO warranty (id, customer_id, store_id, product_id, store_order_item_id, serial_number,
+                                      duration_months, purchase_date, start_date, covered, status)
+                VALUES (?, ?, ?, ?, ?, ?, 12, ?, ?, TRUE, 'ACTIVE')
+                """, UUID.randomUUID(), customerId.toString(), STORE, PRODUCT, itemId.toString(), serial,
+                purchase, purchase);
+    }
+
+    private static Set<String> serials(List<Warranty> warranties) {
+        Set<String> out = new HashSet<>();
+        warranties.forEach(w -> out.add(w.getSerialNumber()));
+        return out;
+    }
+}
@@ -0,0 +1,111 @@
+package org.example.audio_ecommerce.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.audio_ecommerce.entity.Enum.RoleEnum;
+import org.example.audio_ecommerce.repository.AccountRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetailsService;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class JwtFilterTest {
+
+    private final UUID accountId = UUID.randomUUID();
+    private final UUID storeId = UUID.randomUUID();
+
+    private AccountRepository accountRepository;
+    private UserDetailsService uds;
+    private AccountStatusCache statusCache;
+    private JwtTokenProvider provider;
+    private JwtFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        accountRepository = mock(AccountRepository.class);
+        uds = mock(UserDetailsService.class);
+        when(accountRepository.findAuthViewById(accountId))
+                .thenReturn(Optional.of(JwtTokenProviderTest.authView("shop@b.com", RoleEnum.STOREOWNER)));
+        statusCache = new AccountStatusCache(accountRepository, new SimpleMeterRegistry(), 60_000, 1_000);
+        provider = new JwtTokenProvider(JwtTokenProviderTest.SECRET, 3_600_000,
+                JwtTokenProviderTest.REFRESH_SECRET, 3_600_000, uds, statusCache);
+        filter = new JwtFilter(provider);
+    }
+
+    @AfterEach
+    void clearContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    @DisplayName("Nhiều request cùng token: principal từ claim (kèm storeId), chỉ 1 query Account, không gọi UserDetailsService")
+    void repeatedRequestsHitAccountOnce() throws Exception {
+        String token = provider.generateToken(accountId, null, storeId, "shop@b.com", "STOREOWNER");
+
+        for (int i = 0; i < 20; i++) {
+            Authentication auth = runFilter(token, "/api/products");
+            AccountPrincipal p = (AccountPrincipal) auth.getPrincipal();
+            assertEquals(accountId, p.getAccountId());
+            assertEquals(storeId, p.getStoreId());
+            assertEquals("shop@b.com:STOREOWNER", auth.getName());
+        }
+
+        verify(accountRepository, times(1)).findAuthViewById(accountId);
+        verify(accountRepository, never()).findByEmailAndRole(any(), any());
+        verifyNoInteractions(uds);
+    }
+
+    @Test
+    @DisplayName("Sau khi đặt lại mật khẩu: token cũ đi tiếp như chưa đăng nhập")
+    void passwordResetRevokesOldToken() throws Exception {
+        String token = provider.generateToken(accountId, null, storeId, "shop@b.com", "STOREOWNER");
+        assertNotNull(runFilter(token, "/api/products"));
+
+        when(accountRepository.findAuthViewById(accountId)).thenReturn(Optional.of(
+                JwtTokenProviderTest.authView("shop@b.com", RoleEnum.STOREOWNER, LocalDateTime.now().plusSeconds(2))));
+        statusCache.invalidate(accountId);
+
+        assertNull(runFilter(token, "/api/products"));
+    }
+
+    @Test
+    @DisplayName("Token hỏng / sai chữ ký / path bỏ qua JWT → không xác thực, không query Account")
+    void invalidOrExcludedRequestsSkipLookup() throws Exception {
+        String token = provider.generateToken(accountId, null, storeId, "shop@b.com", "STOREOWNER");
+
+        assertNull(runFilter("not-a-jwt", "/api/products"));
+        assertNull(runFilter(token + "x", "/api/products"));
+        assertNull(runFilter(token, "/api/payos/webhook"));
+
+        verifyNoInteractions(accountRepository, uds);
+    }
+
+    // Chạy filter, trả về Authentication mà chain phía sau nhìn thấy
+    private Authentication runFilter(String token, String path) throws Exception {
+        MockHttpServletRequest req = new MockHttpServletRequest("GET", path);
+        req.addHeader("Authorization", "Bearer " + token);
+        Authentication[] seen = new Authentication[1];
+        MockFilterChain chain = new MockFilterChain() {
+            @Override
+            public void doFilter(jakarta.servlet.ServletRequest request, jakarta.servlet.ServletResponse response) {
+                seen[0] = SecurityContextHolder.getContext().getAuthentication();
+            }
+        };
+        filter.doFilter(req, new MockHttpServletResponse(), chain);
+        SecurityContextHolder.clearContext();
+        return seen[0];
+    }
+}
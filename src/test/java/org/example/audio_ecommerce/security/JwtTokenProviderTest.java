@@ -0,0 +1,141 @@
+package org.example.audio_ecommerce.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.audio_ecommerce.entity.Enum.RoleEnum;
+import org.example.audio_ecommerce.repository.AccountRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetailsService;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class JwtTokenProviderTest {
+
+    static final String SECRET = Base64.getEncoder().encodeToString("0123456789abcdef0123456789abcdef".getBytes());
+    static final String REFRESH_SECRET = Base64.getEncoder().encodeToString("fedcba9876543210fedcba9876543210".getBytes());
+
+    private final UUID accountId = UUID.randomUUID();
+    private final UUID customerId = UUID.randomUUID();
+
+    private AccountRepository accountRepository;
+    private UserDetailsService uds;
+    private AccountStatusCache statusCache;
+    private JwtTokenProvider provider;
+
+    @BeforeEach
+    void setUp() {
+        accountRepository = mock(AccountRepository.class);
+        uds = mock(UserDetailsService.class);
+        when(accountRepository.findAuthViewById(accountId))
+                .thenReturn(Optional.of(authView("a@b.com", RoleEnum.CUSTOMER)));
+        statusCache = new AccountStatusCache(accountRepository, new SimpleMeterRegistry(), 60_000, 1_000);
+        provider = new JwtTokenProvider(SECRET, 3_600_000, REFRESH_SECRET, 3_600_000, uds, statusCache);
+    }
+
+    @Test
+    @DisplayName("Principal dựng từ claim; request lặp lại không query Account, không gọi UserDetailsService")
+    void principalFromClaims() {
+        String token = provider.generateToken(accountId, customerId, "a@b.com", "CUSTOMER");
+
+        for (int i = 0; i < 5; i++) {
+            Authentication auth = provider.getAuthentication(provider.parseAccessToken(token));
+            assertEquals("a@b.com:CUSTOMER", auth.getName());
+            AccountPrincipal p = (AccountPrincipal) auth.getPrincipal();
+            assertEquals(accountId, p.getAccountId());
+            assertEquals(customerId, p.getCustomerId());
+            assertTrue(auth.getAuthorities().stream().anyMatch(a -> a.getAuthority().equals("ROLE_CUSTOMER")));
+        }
+
+        verify(accountRepository, times(1)).findAuthViewById(accountId);
+        verifyNoInteractions(uds);
+    }
+
+    @Test
+    @DisplayName("Role trong DB đổi → sau invalidate, token cũ không còn xác thực được")
+    void invalidateReloadsStatus() {
+        String token = provider.generateToken(accountId, customerId, "a@b.com", "CUSTOMER");
+        assertNotNull(provider.getAuthentication(provider.parseAccessToken(token)));
+
+        when(accountRepository.findAuthViewById(accountId))
+                .thenReturn(Optional.of(authView("a@b.com", RoleEnum.STOREOWNER)));
+        assertNotNull(provider.getAuthentication(provider.parseAccessToken(token)), "còn trong TTL → dùng bản cache");
+
+        statusCache.invalidate(accountId);
+        assertNull(provider.getAuthentication(provider.parseAccessToken(token)));
+    }
+
+    @Test
+    @DisplayName("Token sai chữ ký / hỏng → null, không ném lỗi")
+    void rejectsForeignTokens() {
+        JwtTokenProvider other = new JwtTokenProvider(REFRESH_SECRET, 3_600_000, SECRET, 3_600_000, uds, statusCache);
+        String foreign = other.generateToken(accountId, customerId, "a@b.com", "CUSTOMER");
+
+        assertNull(provider.parseAccessToken(foreign));
+        assertNull(provider.parseAccessToken("not-a-jwt"));
+        assertFalse(provider.validateToken(foreign));
+    }
+
+    @Test
+    @DisplayName("Đặt lại mật khẩu → access / refresh token phát hành trước đó bị từ chối, token mới vẫn dùng được")
+    void tokensIssuedBeforePasswordChangeAreRejected() {
+        String oldToken = provider.generateToken(accountId, customerId, "a@b.com", "CUSTOMER");
+        String oldRefresh = provider.generateRefreshToken(accountId, customerId, "a@b.com", "CUSTOMER");
+
+        when(accountRepository.findAuthViewById(accountId))
+                .thenReturn(Optional.of(authView("a@b.com", RoleEnum.CUSTOMER, LocalDateTime.now().plusSeconds(2))));
+        statusCache.invalidate(accountId);
+
+        assertNull(provider.getAuthentication(provider.parseAccessToken(oldToken)));
+        assertTrue(statusCache.get(accountId)
+                .issuedBeforePasswordChange(provider.getIssuedAtFromRefreshToken(oldRefresh)));
+
+        Date afterChange = Date.from(Instant.now().plusSeconds(3));
+        assertFalse(statusCache.get(accountId).issuedBeforePasswordChange(afterChange));
+    }
+
+    @Test
+    @DisplayName("Token cùng giây với lần đổi mật khẩu vẫn hợp lệ (iat tính theo giây); chưa từng đổi → không chặn")
+    void sameSecondAndNeverChanged() {
+        Instant changedAt = Instant.parse("2026-01-01T10:00:00.700Z");
+        var status = new AccountStatusCache.AccountStatus(true, "a@b.com", RoleEnum.CUSTOMER, changedAt);
+
+        assertFalse(status.issuedBeforePasswordChange(Date.from(Instant.parse("2026-01-01T10:00:00Z"))));
+        assertTrue(status.issuedBeforePasswordChange(Date.from(Instant.parse("2026-01-01T09:59:59Z"))));
+        assertTrue(status.issuedBeforePasswordChange(null));
+        assertFalse(new AccountStatusCache.AccountStatus(true, "a@b.com", RoleEnum.CUSTOMER, null)
+                .issuedBeforePasswordChange(null));
+    }
+
+    static AccountRepository.AuthView authView(String email, RoleEnum role) {
+        return authView(email, role, null);
+    }
+
+    static AccountRepository.AuthView authView(String email, RoleEnum role, LocalDateTime passwordChangedAt) {
+        return new AccountRepository.AuthView() {
+            @Override
+            public String getEmail() {
+                return email;
+            }
+
+            @Override
+            public RoleEnum getRole() {
+                return role;
+            }
+
+            @Override
+            public LocalDateTime getPasswordChangedAt() {
+                return passwordChangedAt;
+            }
+        };
+    }
+}
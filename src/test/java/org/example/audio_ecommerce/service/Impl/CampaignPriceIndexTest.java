@@ -0,0 +1,111 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.audio_ecommerce.entity.Enum.VoucherStatus;
+import org.example.audio_ecommerce.entity.PlatformCampaign;
+import org.example.audio_ecommerce.entity.PlatformCampaignProduct;
+import org.example.audio_ecommerce.entity.Product;
+import org.example.audio_ecommerce.repository.PlatformCampaignProductRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class CampaignPriceIndexTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2025, 11, 11, 12, 0);
+
+    private PlatformCampaignProductRepository repo;
+    private CampaignPriceIndex index;
+    private final UUID productId = UUID.randomUUID();
+
+    @BeforeEach
+    void setUp() {
+        repo = mock(PlatformCampaignProductRepository.class);
+        index = new CampaignPriceIndex(repo, mock(PlatformTransactionManager.class), new SimpleMeterRegistry());
+    }
+
+    @Test
+    @DisplayName("Chưa build → rơi về query DB như cũ")
+    void fallsBackToRepositoryBeforeBuild() {
+        when(repo.findAllActiveByProductLegacy(productId, NOW)).thenReturn(List.of());
+
+        index.findPricedCampaigns(productId, NOW);
+
+        verify(repo).findAllActiveByProductLegacy(productId, NOW);
+    }
+
+    @Test
+    @DisplayName("Chỉ trả rule đã duyệt, campaign ACTIVE và đang trong khung giờ")
+    void pricedLookupMatchesLegacySemantics() {
+        PlatformCampaign active = campaign(VoucherStatus.ACTIVE, NOW.minusDays(1), NOW.plusDays(1));
+        PlatformCampaign onOpen = campaign(VoucherStatus.ONOPEN, NOW.minusDays(1), NOW.plusDays(1));
+
+        PlatformCampaignProduct running = cp(active, true, NOW.minusHours(1), NOW.plusHours(1));
+        PlatformCampaignProduct notApproved = cp(active, false, NOW.minusHours(1), NOW.plusHours(1));
+        PlatformCampaignProduct future = cp(active, true, NOW.plusHours(2), NOW.plusHours(3));
+        PlatformCampaignProduct ended = cp(active, true, NOW.minusHours(3), NOW.minusHours(2));
+        PlatformCampaignProduct campaignNotActive = cp(onOpen, true, NOW.minusHours(1), NOW.plusHours(1));
+
+        when(repo.findAllActiveForPriceIndex())
+                .thenReturn(List.of(future, running, notApproved, ended, campaignNotActive));
+        index.rebuildAll();
+
+        assertEquals(List.of(running), index.findPricedCampaigns(productId, NOW));
+        assertEquals(5, index.findActiveCampaigns(productId).size());
+        assertTrue(index.findPricedCampaigns(UUID.randomUUID(), NOW).isEmpty());
+        verify(repo, never()).findAllActiveByProductLegacy(any(), any());
+    }
+
+    @Test
+    @DisplayName("Làm mới 1 campaign chỉ thay rule của campaign đó")
+    void refreshReplacesOnlyTouchedCampaign() {
+        PlatformCampaign a = campaign(VoucherStatus.ACTIVE, NOW.minusDays(1), NOW.plusDays(1));
+        PlatformCampaign b = campaign(VoucherStatus.ACTIVE, NOW.minusDays(1), NOW.plusDays(1));
+        PlatformCampaignProduct cpA = cp(a, true, NOW.minusHours(1), NOW.plusHours(1));
+        PlatformCampaignProduct cpB = cp(b, true, NOW.minusHours(1), NOW.plusHours(1));
+
+        when(repo.findAllActiveForPriceIndex()).thenReturn(List.of(cpA, cpB));
+        index.rebuildAll();
+        assertEquals(2, index.findPricedCampaigns(productId, NOW).size());
+
+        // Campaign A bị DISABLED → không còn mapping ACTIVE nào
+        when(repo.findActiveForPriceIndexByCampaignIds(Set.of(a.getId()))).thenReturn(List.of());
+        index.refreshCampaigns(Set.of(a.getId()));
+
+        assertEquals(List.of(cpB), index.findPricedCampaigns(productId, NOW));
+    }
+
+    private PlatformCampaign campaign(VoucherStatus status, LocalDateTime start, LocalDateTime end) {
+        PlatformCampaign c = new PlatformCampaign();
+        c.setId(UUID.randomUUID());
+        c.setStatus(status);
+        c.setStartTime(start);
+        c.setEndTime(end);
+        return c;
+    }
+
+    private PlatformCampaignProduct cp(PlatformCampaign c, boolean approved,
+                                       LocalDateTime start, LocalDateTime end) {
+        Product product = new Product();
+        product.setProductId(productId);
+        return PlatformCampaignProduct.builder()
+                .id(UUID.randomUUID())
+                .campaign(c)
+                .product(product)
+                .approved(approved)
+                .status(VoucherStatus.ACTIVE)
+                .startTime(start)
+                .endTime(end)
+                .build();
+    }
+}
@@ -0,0 +1,194 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.audio_ecommerce.entity.Notification;
+import org.example.audio_ecommerce.repository.DeviceTokenRepository;
+import org.example.audio_ecommerce.service.FirebasePushService;
+import org.example.audio_ecommerce.service.Impl.FirebasePushServiceImpl.Outcome;
+import org.example.audio_ecommerce.util.UpstreamGuards;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.net.http.HttpHeaders;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class FirebasePushServiceImplTest {
+
+    private static final String TOKEN = "fcm-token-0123456789";
+    private static final String UNREGISTERED = """
+            {"error":{"code":404,"status":"NOT_FOUND","details":[{"errorCode":"UNREGISTERED"}]}}""";
+    private static final String NOT_FOUND = """
+            {"error":{"code":404,"message":"Requested entity was not found.","status":"NOT_FOUND"}}""";
+
+    private DeviceTokenRepository deviceTokenRepo;
+    private SimpleMeterRegistry registry;
+    private FirebasePushServiceImpl push;
+
+    // Phản hồi FCM giả theo thứ tự gọi; hết kịch bản → 200
+    private final Queue<HttpResponse<String>> script = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        deviceTokenRepo = mock(DeviceTokenRepository.class);
+        registry = new SimpleMeterRegistry();
+        HttpResponse<String> ok = response(200, "{\"name\":\"projects/x/messages/1\"}");
+        push = new FirebasePushServiceImpl(deviceTokenRepo, new ObjectMapper(), mock(PlatformTransactionManager.class),
+                registry, new UpstreamGuards(new MockEnvironment(), registry),
+                "{}", "demo-project", 1, 100, 3, 1) {
+            @Override
+            HttpResponse<String> post(String body, boolean forceRefresh) {
+                calls.incrementAndGet();
+                HttpResponse<String> next = script.poll();
+                return next != null ? next : ok;
+            }
+        };
+    }
+
+    @AfterEach
+    void tearDown() {
+        push.shutdown();
+    }
+
+    // ===== Phân loại phản hồi =====
+
+    @Test
+    @DisplayName("200 → gửi thành công")
+    void okIsSent() {
+        assertEquals(Outcome.SENT, FirebasePushServiceImpl.classify(200, "{\"name\":\"projects/x/messages/1\"}"));
+    }
+
+    @Test
+    @DisplayName("Token UNREGISTERED hoặc sai định dạng → xoá device token")
+    void deadTokenIsPruned() {
+        String invalid = """
+                {"error":{"code":400,"message":"The registration token is not a valid FCM registration token","status":"INVALID_ARGUMENT"}}""";
+        String badField = """
+                {"error":{"code":400,"status":"INVALID_ARGUMENT","details":[{"errorCode":"INVALID_ARGUMENT"},
+                {"fieldViolations":[{"field":"message.token","description":"Invalid registration token"}]}]}}""";
+
+        assertEquals(Outcome.PRUNE, FirebasePushServiceImpl.classify(404, UNREGISTERED));
+        assertEquals(Outcome.PRUNE, FirebasePushServiceImpl.classify(400, invalid));
+        assertEquals(Outcome.PRUNE, FirebasePushServiceImpl.classify(400, badField));
+    }
+
+    @Test
+    @DisplayName("404 không kèm UNREGISTERED là lỗi tạm → thử lại, không xoá token")
+    void plainNotFoundIsTransient() {
+        assertEquals(Outcome.RETRY, FirebasePushServiceImpl.classify(404, NOT_FOUND));
+        assertEquals(Outcome.RETRY, FirebasePushServiceImpl.classify(404, "<html>Not Found</html>"));
+        // Chữ UNREGISTERED trong message (không phải errorCode) không đủ để xoá token
+        assertEquals(Outcome.FAILED, FirebasePushServiceImpl.classify(400,
+                "{\"error\":{\"status\":\"INVALID_ARGUMENT\",\"message\":\"data key UNREGISTERED is reserved\"}}"));
+    }
+
+    @Test
+    @DisplayName("429 / 5xx → thử lại, lỗi payload → không thử lại")
+    void transientErrorsAreRetried() {
+        assertEquals(Outcome.RETRY, FirebasePushServiceImpl.classify(429, "{}"));
+        assertEquals(Outcome.RETRY, FirebasePushServiceImpl.classify(503, "{}"));
+        assertEquals(Outcome.FAILED, FirebasePushServiceImpl.classify(400, "{\"error\":{\"status\":\"INVALID_ARGUMENT\"}}"));
+        assertEquals(Outcome.FAILED, FirebasePushServiceImpl.classify(403, "{\"error\":{\"status\":\"SENDER_ID_MISMATCH\"}}"));
+    }
+
+    // ===== Luồng gửi nền =====
+
+    @Test
+    @DisplayName("503 rồi 200 → thử lại 1 lần và tính là đã gửi")
+    void transientFailureIsRetriedThenSent() throws Exception {
+        script.add(response(503, "{}"));
+
+        push.sendToToken(TOKEN, notification(), Map.of());
+
+        awaitCount("push.fcm.sent", "sent", 1);
+        assertEquals(2, calls.get());
+        assertEquals(1.0, registry.counter("push.fcm.retries").count());
+        verify(deviceTokenRepo, never()).deleteByToken(anyString());
+    }
+
+    @Test
+    @DisplayName("UNREGISTERED → xoá device token, không thử lại")
+    void unregisteredTokenIsPruned() throws Exception {
+        script.add(response(404, UNREGISTERED));
+
+        push.sendToToken(TOKEN, notification(), Map.of());
+
+        verify(deviceTokenRepo, timeout(2_000)).deleteByToken(TOKEN);
+        awaitCount("push.fcm.sent", "pruned", 1);
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    @DisplayName("404 thường lặp lại → hết lượt thử thì FAILED, token vẫn giữ")
+    void repeatedNotFoundFailsWithoutPruning() throws Exception {
+        for (int i = 0; i < 3; i++) script.add(response(404, NOT_FOUND));
+
+        push.sendToToken(TOKEN, notification(), Map.of());
+
+        awaitCount("push.fcm.sent", "failed", 1);
+        assertEquals(3, calls.get());
+        verify(deviceTokenRepo, never()).deleteByToken(anyString());
+    }
+
+    @Test
+    @DisplayName("Token trùng / rỗng trong danh sách chỉ gửi 1 lần")
+    void duplicateTokensAreSentOnce() throws Exception {
+        push.sendToTokens(Arrays.asList(TOKEN, TOKEN, "", null), notification(), Map.of());
+
+        awaitCount("push.fcm.sent", "sent", 1);
+        Thread.sleep(50);
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    @DisplayName("deliverNow: gửi đồng bộ, trả kết quả từng token và vẫn xoá token chết")
+    void deliverNowReportsPerToken() throws Exception {
+        script.add(response(200, "{}"));
+        script.add(response(404, UNREGISTERED));
+        script.add(response(503, "{}"));
+
+        FirebasePushService.DeliveryReport report =
+                push.deliverNow(List.of("token-a", "token-b", "token-c"), notification(), Map.of());
+
+        assertEquals(new FirebasePushService.DeliveryReport(1, 1, 1, 0), report);
+        assertFalse(report.undelivered());
+        verify(deviceTokenRepo).deleteByToken("token-b");
+        assertEquals(0.0, registry.counter("push.fcm.retries").count(), "deliverNow không tự thử lại");
+    }
+
+    private void awaitCount(String name, String outcome, double expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2_000;
+        while (registry.counter(name, "outcome", outcome).count() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, registry.counter(name, "outcome", outcome).count(), outcome);
+    }
+
+    private static Notification notification() {
+        return Notification.builder().title("Đơn hàng").message("Đơn A1 đã giao").build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HttpResponse<String> response(int status, String body) {
+        HttpResponse<String> resp = mock(HttpResponse.class);
+        when(resp.statusCode()).thenReturn(status);
+        when(resp.body()).thenReturn(body);
+        when(resp.headers()).thenReturn(HttpHeaders.of(Map.of(), (k, v) -> true));
+        return resp;
+    }
+}
@@ -0,0 +1,156 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.audio_ecommerce.dto.request.GhnFeeRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Chạy với 1 stub GHN cục bộ (JDK HttpServer) để đếm số lần thực sự gọi /v2/shipping-order/fee.
+ */
+class GhnFeeServiceImplTest {
+
+    private HttpServer stub;
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+    private volatile long stubDelayMs;
+    private volatile int stubCode = 200;
+
+    private SimpleMeterRegistry registry;
+    private GhnFeeServiceImpl service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.setExecutor(Executors.newCachedThreadPool());
+        stub.createContext("/v2/shipping-order/fee", exchange -> {
+            upstreamCalls.incrementAndGet();
+            try {
+                Thread.sleep(stubDelayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            String body = stubCode == 200
+                    ? "{\"code\":200,\"message\":\"Success\",\"data\":{\"total\":36300,\"service_fee\":36300}}"
+                    : "{\"code\":400,\"message\":\"ward not found\",\"data\":null}";
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        });
+        stub.start();
+
+        registry = new SimpleMeterRegistry();
+        service = new GhnFeeServiceImpl(new RestTemplate(), new ObjectMapper(), registry,
+                "token", "shop", "http://127.0.0.1:" + stub.getAddress().getPort(),
+                60_000, 100, 50);
+    }
+
+    @AfterEach
+    void tearDown() {
+        stub.stop(0);
+    }
+
+    @Test
+    @DisplayName("Request giống hệt (khác tên item, cân nặng cùng bucket) chỉ gọi GHN 1 lần")
+    void identicalQuotesHitCache() {
+        assertEquals(new BigDecimal("36300"), service.quoteTotalFee(request("13010", 1210, "Loa A")));
+        assertEquals(new BigDecimal("36300"), service.quoteTotalFee(request("13010", 1240, "Loa B")));
+        assertTrue(service.calculateFeeRaw(request("13010", 1250, "Loa C")).contains("36300"));
+
+        assertEquals(1, upstreamCalls.get());
+        assertEquals(2.0, count("hit"));
+        assertEquals(1.0, count("miss"));
+    }
+
+    @Test
+    @DisplayName("Khác phường nhận hoặc khác bucket cân nặng → báo giá riêng")
+    void differentTuplesMiss() {
+        service.quoteTotalFee(request("13010", 1210, "Loa"));
+        service.quoteTotalFee(request("13011", 1210, "Loa"));
+        service.quoteTotalFee(request("13010", 1260, "Loa"));
+
+        assertEquals(3, upstreamCalls.get());
+    }
+
+    @Test
+    @DisplayName("Nhiều request đồng thời giống nhau dùng chung 1 lần gọi GHN")
+    void concurrentRequestsAreCoalesced() throws Exception {
+        stubDelayMs = 300;
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<BigDecimal>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(pool.submit(() -> {
+                start.await();
+                return service.quoteTotalFee(request("13010", 1210, "Loa"));
+            }));
+        }
+        start.countDown();
+        for (Future<BigDecimal> f : results) {
+            assertEquals(new BigDecimal("36300"), f.get(10, TimeUnit.SECONDS));
+        }
+        pool.shutdown();
+
+        assertEquals(1, upstreamCalls.get());
+        assertEquals(threads - 1.0, count("hit") + count("coalesced"));
+    }
+
+    @Test
+    @DisplayName("Báo giá lỗi không được cache")
+    void failedQuotesAreNotCached() {
+        stubCode = 400;
+        assertEquals(BigDecimal.ZERO, service.quoteTotalFee(request("99999", 1210, "Loa")));
+        stubCode = 200;
+        assertEquals(new BigDecimal("36300"), service.quoteTotalFee(request("99999", 1210, "Loa")));
+
+        assertEquals(2, upstreamCalls.get());
+    }
+
+    private double count(String result) {
+        return registry.counter("cache.requests", "cache", "ghn.fee", "result", result).count();
+    }
+
+    private static GhnFeeRequest request(String toWard, int weightGrams, String itemName) {
+        GhnFeeRequest r = new GhnFeeRequest();
+        r.setService_type_id(2);
+        r.setFrom_district_id(1454);
+        r.setFrom_ward_code("21211");
+        r.setTo_district_id(1452);
+        r.setTo_ward_code(toWard);
+        r.setLength(30);
+        r.setWidth(20);
+        r.setHeight(15);
+        r.setWeight(weightGrams);
+        r.setInsurance_value(0);
+
+        GhnFeeRequest.FeeItem item = new GhnFeeRequest.FeeItem();
+        item.setName(itemName);
+        item.setQuantity(1);
+        item.setLength(30);
+        item.setWidth(20);
+        item.setHeight(15);
+        item.setWeight(1200);
+        r.setItems(List.of(item));
+        return r;
+    }
+}
@@ -0,0 +1,165 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.audio_ecommerce.exception.ResourceNotFoundException;
+import org.example.audio_ecommerce.exception.UpstreamUnavailableException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Stub GHN cục bộ (JDK HttpServer) trả master data; bật/tắt lỗi để kiểm tra fallback snapshot.
+ */
+class GhnMasterDataStoreTest {
+
+    @TempDir
+    Path tmp;
+
+    private HttpServer stub;
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+    private volatile boolean stubDown;
+    private volatile String provinceName = "Hà Nội";
+
+    private Path snapshot;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.createContext("/master-data/province", exchange -> {
+            upstreamCalls.incrementAndGet();
+            respond(exchange, stubDown ? 500 : 200,
+                    "{\"code\":200,\"message\":\"Success\",\"data\":[{\"ProvinceID\":201,\"ProvinceName\":\"" + provinceName + "\"},"
+                            + "{\"ProvinceID\":202,\"ProvinceName\":\"Hồ Chí Minh\"},{\"ProvinceID\":203,\"ProvinceName\":\"Đà Nẵng\"}]}");
+        });
+        stub.createContext("/master-data/district", exchange -> {
+            upstreamCalls.incrementAndGet();
+            respond(exchange, stubDown ? 500 : 200,
+                    "{\"code\":200,\"message\":\"Success\",\"data\":[{\"DistrictID\":1454,\"ProvinceID\":202}]}");
+        });
+        stub.createContext("/master-data/ward", exchange -> {
+            upstreamCalls.incrementAndGet();
+            respond(exchange, stubDown ? 500 : 200,
+                    "{\"code\":200,\"message\":\"Success\",\"data\":[{\"WardCode\":\"21211\",\"DistrictID\":1454}]}");
+        });
+        stub.start();
+        snapshot = tmp.resolve("ghn-master-data.json");
+    }
+
+    @AfterEach
+    void tearDown() {
+        stub.stop(0);
+    }
+
+    @Test
+    @DisplayName("Đọc lặp lại phục vụ từ bộ nhớ, chỉ gọi GHN 1 lần mỗi key")
+    void servesFromMemory() {
+        GhnMasterDataStore store = newStore();
+
+        GhnMasterDataStore.MasterData first = store.provinces();
+        GhnMasterDataStore.MasterData second = store.provinces();
+        store.districts(202);
+        store.districts(202);
+
+        assertSame(first, second);
+        assertTrue(first.body().contains("Hà Nội"));
+        assertEquals(2, upstreamCalls.get());
+    }
+
+    @Test
+    @DisplayName("Refresh ghi snapshot; instance mới nạp snapshot và phục vụ khi GHN sập")
+    void fallsBackToSnapshotWhenGhnIsDown() {
+        GhnMasterDataStore store = newStore();
+        store.provinces();
+        store.districts(202);
+        store.refreshAll();
+        assertTrue(Files.exists(snapshot));
+
+        stubDown = true;
+        upstreamCalls.set(0);
+        GhnMasterDataStore restarted = newStore();
+
+        assertTrue(restarted.provinces().body().contains("Hà Nội"));
+        assertTrue(restarted.districts(202).body().contains("1454"));
+        assertEquals(0, upstreamCalls.get());
+        assertThrows(UpstreamUnavailableException.class, () -> restarted.districts(203));
+    }
+
+    @Test
+    @DisplayName("Key nạp lười được ghi gộp xuống snapshot → khởi động lại không gọi GHN")
+    void lazyFetchIsPersisted() {
+        GhnMasterDataStore store = newStore();
+        assertFalse(store.saveSnapshotIfDirty());
+
+        store.districts(202);
+        assertTrue(store.saveSnapshotIfDirty());
+        assertFalse(store.saveSnapshotIfDirty(), "không có key mới → không ghi lại");
+
+        stubDown = true;
+        upstreamCalls.set(0);
+        assertTrue(newStore().districts(202).body().contains("1454"));
+        assertEquals(0, upstreamCalls.get());
+    }
+
+    @Test
+    @DisplayName("Refresh lỗi giữ dữ liệu cũ; nội dung đổi thì ETag đổi")
+    void refreshKeepsOldDataOnFailure() {
+        GhnMasterDataStore store = newStore();
+        String etag = store.provinces().etag();
+
+        stubDown = true;
+        store.refreshAll();
+        assertEquals(etag, store.provinces().etag());
+
+        stubDown = false;
+        provinceName = "Hồ Chí Minh";
+        store.refreshAll();
+        assertNotEquals(etag, store.provinces().etag());
+        assertTrue(store.provinces().body().contains("Hồ Chí Minh"));
+    }
+
+    @Test
+    @DisplayName("Id không có trong danh sách cha → 404, không gọi GHN (không thêm key vào bộ nhớ)")
+    void unknownIdsAreRejectedWithoutFetching() {
+        GhnMasterDataStore store = newStore();
+        store.districts(202);
+        upstreamCalls.set(0);
+
+        assertThrows(ResourceNotFoundException.class, () -> store.districts(999_999));
+        assertThrows(ResourceNotFoundException.class, () -> store.wards(-1));
+        assertEquals(0, upstreamCalls.get());
+
+        assertTrue(store.wards(1454).body().contains("21211"));
+        assertEquals(1, upstreamCalls.get());
+    }
+
+    private GhnMasterDataStore newStore() {
+        GhnMasterDataStore store = new GhnMasterDataStore(new RestTemplate(), new ObjectMapper(), new SimpleMeterRegistry(),
+                "token", "http://127.0.0.1:" + stub.getAddress().getPort(), snapshot.toString(), 1000);
+        store.loadSnapshot();
+        return store;
+    }
+
+    private static void respond(com.sun.net.httpserver.HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
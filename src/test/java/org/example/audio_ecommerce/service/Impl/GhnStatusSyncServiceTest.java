@@ -0,0 +1,208 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.example.audio_ecommerce.entity.Enum.GhnStatus;
+import org.example.audio_ecommerce.entity.GhnOrder;
+import org.example.audio_ecommerce.integration.ghn.dto.GhnOrderDetail;
+import org.example.audio_ecommerce.repository.CustomerOrderRepository;
+import org.example.audio_ecommerce.repository.GhnOrderRepository;
+import org.example.audio_ecommerce.repository.ReturnShippingFeeRepository;
+import org.example.audio_ecommerce.repository.StoreOrderRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class GhnStatusSyncServiceTest {
+
+    private static final int ORDER_COUNT = 40;
+
+    private HttpServer ghnStub;
+    private final AtomicInteger detailCalls = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    // Đặt trước khi chạy bản song song: 2 request đầu chờ nhau → chắc chắn có chồng lấn, không phụ thuộc thời gian
+    private volatile CountDownLatch overlapGate;
+
+    @BeforeEach
+    void startStub() throws Exception {
+        ghnStub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        ghnStub.setExecutor(Executors.newFixedThreadPool(32));
+        ghnStub.createContext("/v2/shipping-order/detail", exchange -> {
+            detailCalls.incrementAndGet();
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                CountDownLatch gate = overlapGate;
+                if (gate != null) {
+                    gate.countDown();
+                    gate.await(5, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            byte[] body = "{\"code\":200,\"message\":\"Success\",\"data\":{\"order_code\":\"X\",\"status\":\"delivering\"}}"
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        ghnStub.start();
+    }
+
+    @AfterEach
+    void stopStub() {
+        ghnStub.stop(0);
+    }
+
+    @Test
+    @DisplayName("Poll tuần tự: tối đa 1 request GHN cùng lúc; status không đổi thì không ghi")
+    void testSerialSyncPollsOneAtATime() {
+        runSync(1);
+
+        assertEquals(ORDER_COUNT, detailCalls.get());
+        assertEquals(1, maxInFlight.get());
+    }
+
+    @Test
+    @DisplayName("Poll song song: nhiều request chồng lấn nhưng không vượt giới hạn concurrency")
+    void testConcurrentSyncIsBoundedByConcurrency() {
+        overlapGate = new CountDownLatch(2);
+        runSync(8);
+
+        assertEquals(ORDER_COUNT, detailCalls.get());
+        assertTrue(maxInFlight.get() >= 2, "phải có ít nhất 2 request chạy cùng lúc");
+        assertTrue(maxInFlight.get() <= 8, "không vượt concurrency đã cấu hình");
+    }
+
+    @Test
+    @DisplayName("Thời điểm status lấy từ log GHN mới nhất cùng status, không có thì updated_date")
+    void statusTimeComesFromGhn() {
+        GhnOrderDetail detail = detail("delivering",
+                log("picked", "2025-11-18T01:00:00Z"),
+                log("delivering", "2025-11-18T02:00:00Z"),
+                log("delivering", "2025-11-18T03:00:00Z"));
+        detail.setUpdated_date("2025-11-18T09:00:00Z");
+        assertEquals(local("2025-11-18T03:00:00Z"), GhnStatusSyncService.statusTime(detail));
+
+        GhnOrderDetail noLog = detail("delivering");
+        noLog.setUpdated_date("2025-11-18T09:00:00Z");
+        assertEquals(local("2025-11-18T09:00:00Z"), GhnStatusSyncService.statusTime(noLog));
+
+        assertNull(GhnStatusSyncService.statusTime(detail("delivering")));
+    }
+
+    @Test
+    @DisplayName("Kết quả poll cũ hơn status webhook đã áp → bỏ qua; áp được thì lưu mốc GHN, không lưu giờ local")
+    void pollRespectsOrderingAndNeverStampsLocalClock() {
+        GhnStatusSyncService service = service(mock(GhnOrderRepository.class), "http://127.0.0.1:1", 1);
+        try {
+            LocalDateTime webhookAt = LocalDateTime.of(2025, 11, 18, 10, 0);
+            GhnOrder order = activeOrders().get(0);
+            order.setLastStatusAt(webhookAt);
+
+            assertFalse(service.applyStatus(order, detail("picking"), GhnStatus.PICKING, webhookAt.minusMinutes(5)));
+            assertFalse(service.applyStatus(order, detail("picking"), GhnStatus.PICKING, null));
+            assertEquals(GhnStatus.DELIVERING, order.getStatus());
+
+            assertTrue(service.applyStatus(order, detail("delivered"), GhnStatus.DELIVERED, webhookAt.plusMinutes(5)));
+            assertEquals(webhookAt.plusMinutes(5), order.getLastStatusAt());
+
+            GhnOrder fresh = activeOrders().get(0);
+            assertTrue(service.applyStatus(fresh, detail("delivered"), GhnStatus.DELIVERED, null));
+            assertNull(fresh.getLastStatusAt());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    private static GhnOrderDetail detail(String status, GhnOrderDetail.StatusLog... logs) {
+        GhnOrderDetail d = new GhnOrderDetail();
+        d.setOrder_code("GHN0");
+        d.setStatus(status);
+        if (logs.length > 0) d.setLog(List.of(logs));
+        return d;
+    }
+
+    private static GhnOrderDetail.StatusLog log(String status, String at) {
+        GhnOrderDetail.StatusLog entry = new GhnOrderDetail.StatusLog();
+        entry.setStatus(status);
+        entry.setUpdated_date(at);
+        return entry;
+    }
+
+    private static LocalDateTime local(String iso) {
+        return OffsetDateTime.parse(iso).atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+    }
+
+    private GhnStatusSyncService service(GhnOrderRepository ghnRepo, String baseUrl, int concurrency) {
+        return new GhnStatusSyncService(
+                new RestTemplate(),
+                ghnRepo,
+                mock(StoreOrderRepository.class),
+                mock(CustomerOrderRepository.class),
+                new ObjectMapper(),
+                mock(ReturnShippingFeeRepository.class),
+                mock(SettlementService.class),
+                mock(PlatformTransactionManager.class),
+                "test-token",
+                baseUrl,
+                concurrency,
+                1_000,
+                200
+        );
+    }
+
+    private void runSync(int concurrency) {
+        GhnOrderRepository ghnRepo = mock(GhnOrderRepository.class);
+        when(ghnRepo.findDueForSync(any(), any(), any())).thenReturn(activeOrders(), List.of());
+
+        GhnStatusSyncService service = service(ghnRepo, "http://127.0.0.1:" + ghnStub.getAddress().getPort(), concurrency);
+        try {
+            service.syncAllActiveOrders();
+
+            verify(ghnRepo, never()).save(any());
+            verify(ghnRepo, atLeastOnce()).scheduleNextSync(any(), any(LocalDateTime.class));
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    private static List<GhnOrder> activeOrders() {
+        List<GhnOrder> orders = new ArrayList<>();
+        for (int i = 0; i < ORDER_COUNT; i++) {
+            orders.add(GhnOrder.builder()
+                    .id(UUID.randomUUID())
+                    .storeOrderId(UUID.randomUUID())
+                    .storeId(UUID.randomUUID())
+                    .orderGhn("GHN" + i)
+                    .status(GhnStatus.DELIVERING)
+                    .build());
+        }
+        return orders;
+    }
+}
@@ -0,0 +1,182 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.audio_ecommerce.dto.request.GhnWebhookRequest;
+import org.example.audio_ecommerce.entity.Enum.GhnStatus;
+import org.example.audio_ecommerce.entity.Enum.WebhookInboxStatus;
+import org.example.audio_ecommerce.entity.GhnOrder;
+import org.example.audio_ecommerce.entity.GhnWebhookInbox;
+import org.example.audio_ecommerce.repository.GhnOrderRepository;
+import org.example.audio_ecommerce.repository.GhnWebhookInboxRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class GhnWebhookServiceTest {
+
+    private GhnOrderRepository ghnOrderRepo;
+    private GhnWebhookInboxRepository inboxRepo;
+    private GhnStatusSyncService syncService;
+    private GhnWebhookService service;
+
+    @BeforeEach
+    void setUp() {
+        ghnOrderRepo = mock(GhnOrderRepository.class);
+        inboxRepo = mock(GhnWebhookInboxRepository.class);
+        syncService = mock(GhnStatusSyncService.class);
+        // Không gọi start() → worker không chạy, test gọi processBatch trực tiếp
+        service = new GhnWebhookService(ghnOrderRepo, inboxRepo, syncService,
+                mock(PlatformTransactionManager.class), new SimpleMeterRegistry(),
+                200, 30, 3, "s3cret", List.of("10.0.0.5"));
+    }
+
+    @Test
+    @DisplayName("Chỉ nhận callback đúng token hoặc đúng IP allowlist")
+    void rejectsUnauthenticatedCallbacks() {
+        assertTrue(service.isAuthorized("s3cret", "1.2.3.4"));
+        assertTrue(service.isAuthorized(null, "10.0.0.5"));
+        assertFalse(service.isAuthorized("wrong", "1.2.3.4"));
+        assertFalse(service.isAuthorized(null, "1.2.3.4"));
+    }
+
+    @Test
+    @DisplayName("Chưa cấu hình token lẫn IP → từ chối mọi callback")
+    void failsClosedWithoutConfig() {
+        GhnWebhookService open = new GhnWebhookService(ghnOrderRepo, inboxRepo, syncService,
+                mock(PlatformTransactionManager.class), new SimpleMeterRegistry(),
+                200, 30, 3, "", List.of());
+
+        assertFalse(open.isAuthorized("", "127.0.0.1"));
+        assertFalse(open.isAuthorized(null, null));
+    }
+
+    @Test
+    @DisplayName("Sự kiện được ghi inbox trước khi ack; trùng thì ack, lỗi DB thì 503")
+    void enqueuePersistsBeforeAck() {
+        when(inboxRepo.saveAndFlush(any())).thenAnswer(inv -> inv.getArgument(0));
+        assertTrue(service.enqueue(request("GHN1", "delivered")));
+        verify(inboxRepo).saveAndFlush(argThat(row -> row.getDedupeKey().equals("GHN1|delivered|2025-01-01T10:00:00+07:00")
+                && row.getStatus() == WebhookInboxStatus.PENDING));
+
+        when(inboxRepo.saveAndFlush(any())).thenThrow(new DataIntegrityViolationException("uk_ghn_webhook_dedupe"));
+        assertTrue(service.enqueue(request("GHN1", "delivered")));
+
+        reset(inboxRepo);
+        when(inboxRepo.saveAndFlush(any())).thenThrow(new QueryTimeoutException("db down"));
+        assertFalse(service.enqueue(request("GHN2", "delivered")));
+    }
+
+    @Test
+    @DisplayName("Lô áp thành công → các row được đóng DONE trong cùng transaction")
+    void successfulBatchMarksDone() {
+        GhnOrder order = new GhnOrder();
+        order.setOrderGhn("GHN1");
+        when(ghnOrderRepo.findAllByOrderGhnIn(any())).thenReturn(List.of(order));
+        when(syncService.applyStatus(any(GhnOrder.class), any(), any(), any())).thenReturn(true);
+        GhnWebhookInbox row = row("GHN1", 0);
+
+        service.processBatch(List.of(row));
+
+        verify(syncService).applyStatus(same(order), any(), eq(GhnStatus.DELIVERED), any());
+        verify(inboxRepo).markDone(eq(List.of(row.getId())), any());
+        verify(inboxRepo, never()).recordFailure(any(), any(), any(), any(), any());
+        assertNotNull(order.getNextSyncAt());
+    }
+
+    @Test
+    @DisplayName("Cả nhóm sự kiện cũ / trùng bị bỏ qua → vẫn đóng DONE nhưng không lùi lịch poll")
+    void skippedGroupKeepsPollSchedule() {
+        GhnOrder order = new GhnOrder();
+        order.setOrderGhn("GHN1");
+        when(ghnOrderRepo.findAllByOrderGhnIn(any())).thenReturn(List.of(order));
+        when(syncService.applyStatus(any(GhnOrder.class), any(), any(), any())).thenReturn(false);
+        GhnWebhookInbox row = row("GHN1", 0);
+
+        service.processBatch(List.of(row));
+
+        verify(inboxRepo).markDone(eq(List.of(row.getId())), any());
+        assertNull(order.getNextSyncAt());
+    }
+
+    @Test
+    @DisplayName("Order áp lỗi → không đóng DONE, giữ PENDING và lùi lịch thử lại")
+    void failedApplyIsRetried() {
+        GhnOrder order = new GhnOrder();
+        order.setOrderGhn("GHN1");
+        when(ghnOrderRepo.findAllByOrderGhnIn(any())).thenReturn(List.of(order));
+        when(syncService.applyStatus(any(GhnOrder.class), any(), any(), any()))
+                .thenThrow(new IllegalStateException("lock timeout"));
+        GhnWebhookInbox row = row("GHN1", 0);
+
+        LocalDateTime before = LocalDateTime.now();
+        service.processBatch(List.of(row));
+
+        verify(inboxRepo, never()).markDone(any(), any());
+        verify(inboxRepo).recordFailure(eq(List.of(row.getId())), eq(WebhookInboxStatus.PENDING),
+                eq("lock timeout"), argThat(next -> !next.isBefore(before.plusSeconds(30))), isNull());
+    }
+
+    @Test
+    @DisplayName("Quá số lần thử → row chuyển FAILED")
+    void givesUpAfterMaxAttempts() {
+        when(ghnOrderRepo.findAllByOrderGhnIn(any())).thenThrow(new IllegalStateException("boom"));
+        GhnWebhookInbox row = row("GHN1", 2);
+
+        service.processBatch(List.of(row));
+
+        verify(inboxRepo).recordFailure(eq(List.of(row.getId())), eq(WebhookInboxStatus.FAILED),
+                eq("boom"), any(), notNull());
+    }
+
+    @Test
+    @DisplayName("Scrape gauge pending không COUNT DB; worker đếm lại tối đa 1 lần mỗi chu kỳ")
+    void pendingGaugeIsCachedOnWorkerTick() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        GhnWebhookService cached = new GhnWebhookService(ghnOrderRepo, inboxRepo, syncService,
+                mock(PlatformTransactionManager.class), registry,
+                200, 30, 3, "s3cret", List.of());
+        when(inboxRepo.countByStatus(WebhookInboxStatus.PENDING)).thenReturn(7L);
+
+        registry.get("ghn.webhook.inbox.pending").gauge().value();
+        verify(inboxRepo, never()).countByStatus(any());
+
+        cached.refreshPendingGauge();
+        cached.refreshPendingGauge();
+        assertEquals(7.0, registry.get("ghn.webhook.inbox.pending").gauge().value());
+        verify(inboxRepo, times(1)).countByStatus(WebhookInboxStatus.PENDING);
+    }
+
+    private static GhnWebhookInbox row(String orderCode, int attempts) {
+        LocalDateTime now = LocalDateTime.now();
+        return GhnWebhookInbox.builder()
+                .id(UUID.randomUUID())
+                .dedupeKey(orderCode + "|delivered|t")
+                .orderCode(orderCode)
+                .rawStatus("delivered")
+                .eventTime(now)
+                .status(WebhookInboxStatus.PENDING)
+                .attempts(attempts)
+                .receivedAt(now)
+                .nextAttemptAt(now)
+                .build();
+    }
+
+    private static GhnWebhookRequest request(String orderCode, String status) {
+        GhnWebhookRequest req = new GhnWebhookRequest();
+        req.setOrderCode(orderCode);
+        req.setStatus(status);
+        req.setTime("2025-01-01T10:00:00+07:00");
+        return req;
+    }
+}
@@ -0,0 +1,80 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.audio_ecommerce.entity.Enum.NotificationTarget;
+import org.example.audio_ecommerce.entity.Enum.NotificationType;
+import org.example.audio_ecommerce.entity.Notification;
+import org.example.audio_ecommerce.entity.OutboxMessage;
+import org.example.audio_ecommerce.repository.OutboxMessageRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class NotificationOutboxTest {
+
+    private static final long WINDOW_MS = 60_000;
+
+    private OutboxMessageRepository repo;
+    private NotificationOutbox outbox;
+
+    @BeforeEach
+    void setUp() {
+        repo = mock(OutboxMessageRepository.class);
+        outbox = new NotificationOutbox(repo, new ObjectMapper(), WINDOW_MS);
+    }
+
+    @Test
+    @DisplayName("Push đầu tiên trong cửa sổ được gửi ngay")
+    void firstPushIsImmediate() {
+        when(repo.findLatestAvailableAt(anyString(), any())).thenReturn(null);
+
+        LocalDateTime before = LocalDateTime.now();
+        OutboxMessage row = enqueue();
+
+        assertFalse(row.getAvailableAt().isBefore(before));
+        assertFalse(row.getAvailableAt().isAfter(LocalDateTime.now()));
+        assertTrue(row.getCoalesceKey().startsWith("PUSH:CUSTOMER:"));
+    }
+
+    @Test
+    @DisplayName("Push kế tiếp dồn về cuối cửa sổ, các push sau nhập vào cùng digest")
+    void laterPushesJoinDigest() {
+        LocalDateTime sentAt = LocalDateTime.now().minusSeconds(10);
+        when(repo.findLatestAvailableAt(anyString(), any())).thenReturn(sentAt);
+
+        OutboxMessage second = enqueue();
+        assertEquals(sentAt.plus(Duration.ofMillis(WINDOW_MS)), second.getAvailableAt());
+
+        reset(repo);
+        when(repo.findLatestAvailableAt(anyString(), any())).thenReturn(second.getAvailableAt());
+
+        OutboxMessage third = enqueue();
+        assertEquals(second.getAvailableAt(), third.getAvailableAt());
+    }
+
+    private OutboxMessage enqueue() {
+        Notification n = Notification.builder()
+                .target(NotificationTarget.CUSTOMER)
+                .targetId(UUID.fromString("00000000-0000-0000-0000-000000000001"))
+                .type(NotificationType.NEW_ORDER)
+                .title("Đặt hàng thành công")
+                .message("Đơn hàng A1 đã được tạo")
+                .build();
+        outbox.enqueuePush(n, Map.of("screen", "ORDER_DETAIL"));
+
+        ArgumentCaptor<OutboxMessage> captor = ArgumentCaptor.forClass(OutboxMessage.class);
+        verify(repo).save(captor.capture());
+        return captor.getValue();
+    }
+}
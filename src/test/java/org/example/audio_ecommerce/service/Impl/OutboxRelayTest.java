@@ -0,0 +1,211 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.audio_ecommerce.email.AccountData;
+import org.example.audio_ecommerce.email.EmailService;
+import org.example.audio_ecommerce.email.EmailTemplateType;
+import org.example.audio_ecommerce.email.PasswordResetData;
+import org.example.audio_ecommerce.entity.Account;
+import org.example.audio_ecommerce.entity.DeviceToken;
+import org.example.audio_ecommerce.entity.Enum.NotificationTarget;
+import org.example.audio_ecommerce.entity.Enum.NotificationType;
+import org.example.audio_ecommerce.entity.Enum.OutboxChannel;
+import org.example.audio_ecommerce.entity.Enum.RoleEnum;
+import org.example.audio_ecommerce.entity.Notification;
+import org.example.audio_ecommerce.entity.OutboxMessage;
+import org.example.audio_ecommerce.repository.AccountRepository;
+import org.example.audio_ecommerce.repository.DeviceTokenRepository;
+import org.example.audio_ecommerce.repository.OutboxMessageRepository;
+import org.example.audio_ecommerce.service.FirebasePushService;
+import org.example.audio_ecommerce.service.FirebasePushService.DeliveryReport;
+import org.example.audio_ecommerce.service.Impl.NotificationOutbox.EmailPayload;
+import org.example.audio_ecommerce.service.Impl.NotificationOutbox.PushPayload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class OutboxRelayTest {
+
+    private static final UUID CUSTOMER = UUID.fromString("00000000-0000-0000-0000-000000000001");
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private OutboxMessageRepository outboxRepo;
+    private FirebasePushService push;
+    private AccountRepository accountRepo;
+    private EmailService emailService;
+    private OutboxRelay relay;
+
+    @BeforeEach
+    void setUp() {
+        outboxRepo = mock(OutboxMessageRepository.class);
+        push = mock(FirebasePushService.class);
+        accountRepo = mock(AccountRepository.class);
+        emailService = mock(EmailService.class);
+        DeviceTokenRepository deviceTokenRepo = mock(DeviceTokenRepository.class);
+        when(deviceTokenRepo.findByTargetAndTargetId(NotificationTarget.CUSTOMER, CUSTOMER)).thenReturn(List.of(
+                DeviceToken.builder().token("token-a").build(),
+                DeviceToken.builder().token("token-b").build()));
+        relay = new OutboxRelay(outboxRepo, deviceTokenRepo, accountRepo, push, emailService, mapper,
+                mock(PlatformTransactionManager.class), new SimpleMeterRegistry(),
+                200, MAX_ATTEMPTS, 1_000, 60_000, 2, 1, "https://shop.test");
+    }
+
+    @AfterEach
+    void tearDown() {
+        relay.shutdown();
+    }
+
+    @Test
+    @DisplayName("FCM nhận được → đóng dòng SENT")
+    void deliveredPushIsMarkedSent() throws Exception {
+        OutboxMessage row = claimed(pushRow("Đơn A1 đã giao", 0)).get(0);
+        when(push.deliverNow(any(), any(), any())).thenReturn(new DeliveryReport(2, 0, 0, 0));
+
+        relay.drain();
+
+        verify(push).deliverNow(eq(List.of("token-a", "token-b")), any(), any());
+        verify(outboxRepo).markSent(eq(List.of(row.getId())), any());
+        verify(outboxRepo, never()).reschedule(any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("Không token nào nhận được (lỗi tạm) → không đóng SENT, hẹn gửi lại")
+    void undeliveredPushIsRescheduled() throws Exception {
+        OutboxMessage row = claimed(pushRow("Đơn A1 đã giao", 0)).get(0);
+        when(push.deliverNow(any(), any(), any())).thenReturn(new DeliveryReport(0, 0, 2, 0));
+
+        relay.drain();
+
+        verify(outboxRepo).reschedule(eq(List.of(row.getId())), contains("FCM"), any());
+        verify(outboxRepo, never()).markSent(any(), any());
+    }
+
+    @Test
+    @DisplayName("Hết lượt thử mà vẫn không gửi được → FAILED")
+    void lastAttemptMarksFailed() throws Exception {
+        OutboxMessage row = claimed(pushRow("Đơn A1 đã giao", MAX_ATTEMPTS - 1)).get(0);
+        when(push.deliverNow(any(), any(), any())).thenReturn(new DeliveryReport(0, 0, 1, 1));
+
+        relay.drain();
+
+        verify(outboxRepo).markFailed(eq(List.of(row.getId())), contains("FCM"));
+        verify(outboxRepo, never()).markSent(any(), any());
+    }
+
+    @Test
+    @DisplayName("Mọi token đều đã chết (bị xoá) → không còn gì để gửi, đóng SENT")
+    void allTokensPrunedIsComplete() throws Exception {
+        OutboxMessage row = claimed(pushRow("Đơn A1 đã giao", 0)).get(0);
+        when(push.deliverNow(any(), any(), any())).thenReturn(new DeliveryReport(0, 2, 0, 0));
+
+        relay.drain();
+
+        verify(outboxRepo).markSent(eq(List.of(row.getId())), any());
+    }
+
+    @Test
+    @DisplayName("Các dòng cùng coalesce key → 1 push digest, đóng cả nhóm")
+    void sameKeyIsSentAsDigest() throws Exception {
+        List<OutboxMessage> rows = claimed(pushRow("Đơn A1 đã xác nhận", 0), pushRow("Đơn A1 đã giao", 0));
+        when(push.deliverNow(any(), any(), any())).thenReturn(new DeliveryReport(2, 0, 0, 0));
+
+        relay.drain();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Map<String, String>> extra = ArgumentCaptor.forClass(Map.class);
+        ArgumentCaptor<Notification> notification = ArgumentCaptor.forClass(Notification.class);
+        verify(push, times(1)).deliverNow(any(), notification.capture(), extra.capture());
+        assertEquals("2", extra.getValue().get("digestCount"));
+        assertTrue(notification.getValue().getMessage().contains("Đơn A1 đã giao"));
+        verify(outboxRepo).markSent(eq(rows.stream().map(OutboxMessage::getId).toList()), any());
+    }
+
+    @Test
+    @DisplayName("Email reset mật khẩu: outbox không chứa token, link dựng từ token hiện tại lúc gửi")
+    void resetPasswordLinkIsBuiltAtDelivery() throws Exception {
+        Account account = account("tok-123", LocalDateTime.now().plusMinutes(30));
+        OutboxMessage row = claimed(resetRow(account.getId())).get(0);
+        assertFalse(row.getPayload().contains("tok-123"));
+
+        relay.drain();
+
+        ArgumentCaptor<Object> data = ArgumentCaptor.forClass(Object.class);
+        verify(emailService).deliver(eq(EmailTemplateType.RESET_PASSWORD), data.capture());
+        AccountData mail = assertInstanceOf(AccountData.class, data.getValue());
+        assertEquals("https://shop.test/reset-password?token=tok-123", mail.getSiteUrl());
+        assertEquals("a@shop.test", mail.getEmail());
+        verify(outboxRepo).markSent(eq(List.of(row.getId())), any());
+    }
+
+    @Test
+    @DisplayName("Token reset đã dùng / hết hạn trước khi relay gửi → không gửi email, đóng dòng")
+    void staleResetTokenIsNotSent() throws Exception {
+        Account used = account(null, null);
+        Account expired = account("tok-old", LocalDateTime.now().minusMinutes(1));
+        List<OutboxMessage> rows = claimed(resetRow(used.getId()), resetRow(expired.getId()));
+
+        relay.drain();
+
+        verify(emailService, never()).deliver(any(), any());
+        for (OutboxMessage row : rows) {
+            verify(outboxRepo).markSent(eq(List.of(row.getId())), any());
+        }
+    }
+
+    private Account account(String token, LocalDateTime expiry) {
+        Account account = Account.builder()
+                .name("A").email("a@shop.test").role(RoleEnum.CUSTOMER)
+                .resetPasswordToken(token).resetPasswordTokenExpiry(expiry)
+                .build();
+        account.setId(UUID.randomUUID());
+        when(accountRepo.findById(account.getId())).thenReturn(Optional.of(account));
+        return account;
+    }
+
+    private OutboxMessage resetRow(UUID accountId) throws Exception {
+        PasswordResetData data = new PasswordResetData(accountId);
+        return OutboxMessage.builder()
+                .id(UUID.randomUUID())
+                .channel(OutboxChannel.EMAIL)
+                .payloadType(PasswordResetData.class.getName())
+                .payload(mapper.writeValueAsString(new EmailPayload(EmailTemplateType.RESET_PASSWORD, data)))
+                .createdAt(LocalDateTime.now().minusSeconds(5))
+                .build();
+    }
+
+    private List<OutboxMessage> claimed(OutboxMessage... rows) {
+        List<OutboxMessage> list = List.of(rows);
+        when(outboxRepo.findDueIds(any(), any())).thenReturn(list.stream().map(OutboxMessage::getId).toList());
+        when(outboxRepo.findByClaimTokenOrderByCreatedAt(any())).thenReturn(list);
+        return list;
+    }
+
+    private OutboxMessage pushRow(String message, int attempts) throws Exception {
+        PushPayload payload = new PushPayload(NotificationTarget.CUSTOMER, CUSTOMER, NotificationType.NEW_ORDER,
+                "Cập nhật đơn hàng", message, Map.of("screen", "ORDER_DETAIL"));
+        return OutboxMessage.builder()
+                .id(UUID.randomUUID())
+                .channel(OutboxChannel.PUSH)
+                .coalesceKey("PUSH:CUSTOMER:" + CUSTOMER)
+                .payloadType(PushPayload.class.getName())
+                .payload(mapper.writeValueAsString(payload))
+                .attempts(attempts)
+                .createdAt(LocalDateTime.now().minusSeconds(5))
+                .build();
+    }
+}
@@ -0,0 +1,136 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.audio_ecommerce.entity.Enum.WebhookInboxStatus;
+import org.example.audio_ecommerce.entity.PaymentWebhookInbox;
+import org.example.audio_ecommerce.repository.PaymentWebhookInboxRepository;
+import org.example.audio_ecommerce.service.PayOSEcomService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import vn.payos.model.webhooks.WebhookData;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PaymentWebhookInboxServiceTest {
+
+    private PaymentWebhookInboxRepository repo;
+    private PayOSEcomService payOS;
+    private SimpleMeterRegistry registry;
+    private PaymentWebhookInboxService inbox;
+
+    @BeforeEach
+    void setUp() {
+        repo = mock(PaymentWebhookInboxRepository.class);
+        payOS = mock(PayOSEcomService.class);
+        registry = new SimpleMeterRegistry();
+        inbox = new PaymentWebhookInboxService(repo, payOS, mock(PlatformTransactionManager.class),
+                registry, 2, 3, 30_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        inbox.shutdown();
+    }
+
+    @Test
+    @DisplayName("Callback trùng (orderCode, code) bị bỏ qua và được đếm")
+    void duplicateIsDropped() {
+        when(repo.saveAndFlush(any())).thenThrow(new DataIntegrityViolationException("uk_payos_webhook_code"));
+
+        assertFalse(inbox.receive(webhook(123L, "00"), "{}"));
+
+        assertEquals(1.0, registry.counter("payos.webhook.duplicates").count());
+        verifyNoInteractions(payOS);
+    }
+
+    @Test
+    @DisplayName("Webhook mới được worker xử lý và đóng inbox")
+    void newWebhookIsProcessed() {
+        UUID id = UUID.randomUUID();
+        when(repo.saveAndFlush(any())).thenAnswer(inv -> {
+            PaymentWebhookInbox row = inv.getArgument(0);
+            row.setId(id);
+            when(repo.findById(id)).thenReturn(Optional.of(row));
+            return row;
+        });
+        when(repo.close(eq(id), eq(WebhookInboxStatus.DONE), any(), isNull())).thenReturn(1);
+
+        assertTrue(inbox.receive(webhook(456L, "00"), "{}"));
+
+        verify(payOS, timeout(2_000)).processWebhook(456L, "00", "ok");
+        verify(repo, timeout(2_000)).close(eq(id), eq(WebhookInboxStatus.DONE), any(), isNull());
+    }
+
+    @Test
+    @DisplayName("Thua claim (webhook đã DONE ở worker khác) → không áp dụng nghiệp vụ")
+    void lostClaimSkipsBusinessEffects() {
+        PaymentWebhookInbox row = stalePending(0);
+        when(repo.close(eq(row.getId()), eq(WebhookInboxStatus.DONE), any(), isNull())).thenReturn(0);
+
+        assertEquals(1, inbox.redispatchStale());
+
+        verify(repo, timeout(2_000)).close(eq(row.getId()), eq(WebhookInboxStatus.DONE), any(), isNull());
+        verify(payOS, after(200).never()).processWebhook(anyLong(), anyString(), anyString());
+    }
+
+    @Test
+    @DisplayName("Nghiệp vụ lỗi khi còn lượt thử → ghi lỗi, giữ PENDING để sweep thử lại")
+    void failureIsRetried() {
+        PaymentWebhookInbox row = stalePending(0);
+        when(repo.close(eq(row.getId()), eq(WebhookInboxStatus.DONE), any(), isNull())).thenReturn(1);
+        doThrow(new IllegalStateException("db down")).when(payOS).processWebhook(anyLong(), anyString(), anyString());
+
+        inbox.redispatchStale();
+
+        verify(repo, timeout(2_000)).recordFailure(row.getId(), "db down");
+        verify(repo, never()).close(eq(row.getId()), eq(WebhookInboxStatus.FAILED), any(), any());
+        assertEquals(1.0, registry.counter("payos.webhook.processed", "outcome", "error").count());
+    }
+
+    @Test
+    @DisplayName("Nghiệp vụ lỗi ở lượt thử cuối → inbox đóng FAILED kèm lỗi")
+    void lastFailureClosesAsFailed() {
+        PaymentWebhookInbox row = stalePending(2); // maxAttempts = 3
+        when(repo.close(eq(row.getId()), eq(WebhookInboxStatus.DONE), any(), isNull())).thenReturn(1);
+        doThrow(new IllegalStateException("db down")).when(payOS).processWebhook(anyLong(), anyString(), anyString());
+
+        inbox.redispatchStale();
+
+        verify(repo, timeout(2_000)).close(eq(row.getId()), eq(WebhookInboxStatus.FAILED), any(), eq("db down"));
+        verify(repo, never()).recordFailure(any(), any());
+    }
+
+    private PaymentWebhookInbox stalePending(int attempts) {
+        PaymentWebhookInbox row = PaymentWebhookInbox.builder()
+                .id(UUID.randomUUID())
+                .orderCode(789L)
+                .resultCode("00")
+                .description("ok")
+                .status(WebhookInboxStatus.PENDING)
+                .attempts(attempts)
+                .receivedAt(LocalDateTime.now().minusMinutes(5))
+                .build();
+        when(repo.findStalePending(any(), any())).thenReturn(List.of(row));
+        when(repo.findById(row.getId())).thenReturn(Optional.of(row));
+        return row;
+    }
+
+    private static WebhookData webhook(long orderCode, String code) {
+        WebhookData data = mock(WebhookData.class);
+        when(data.getOrderCode()).thenReturn(orderCode);
+        when(data.getCode()).thenReturn(code);
+        when(data.getDesc()).thenReturn("ok");
+        return data;
+    }
+}
@@ -0,0 +1,108 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.audio_ecommerce.entity.JobWatermark;
+import org.example.audio_ecommerce.repository.JobWatermarkRepository;
+import org.example.audio_ecommerce.repository.ReturnRequestRepository;
+import org.example.audio_ecommerce.repository.StoreOrderItemRepository;
+import org.example.audio_ecommerce.repository.StoreOrderRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PayoutEligibilityServiceTest {
+
+    private final StoreOrderItemRepository itemRepo = mock(StoreOrderItemRepository.class);
+    private final ReturnRequestRepository returnRepo = mock(ReturnRequestRepository.class);
+    private final StoreOrderRepository storeOrderRepo = mock(StoreOrderRepository.class);
+    private final JobWatermarkRepository watermarkRepo = mock(JobWatermarkRepository.class);
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final LocalDateTime watermark = LocalDateTime.of(2026, 1, 10, 12, 0);
+    private PayoutEligibilityService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new PayoutEligibilityService(itemRepo, storeOrderRepo, returnRepo,
+                watermarkRepo, registry, 5, 48);
+        when(watermarkRepo.findById(anyString())).thenReturn(Optional.of(
+                JobWatermark.builder().watermark(watermark).build()));
+    }
+
+    @Test
+    @DisplayName("Cửa sổ quét lùi overlap so với watermark → row commit trễ / deliveredAt sync muộn vẫn được xét")
+    void rescansWithOverlap() {
+        when(itemRepo.findPayoutCandidateIds(any(), any())).thenReturn(List.of());
+        when(returnRepo.findOrderItemIdsUpdatedSince(any())).thenReturn(List.of());
+
+        service.evaluateEligibility();
+        service.checkReturnedItems();
+
+        verify(itemRepo).findPayoutCandidateIds(eq(watermark.minusHours(48)), any());
+        verify(returnRepo).findOrderItemIdsUpdatedSince(watermark.minusMinutes(5));
+        verify(itemRepo).findRefundedUnmarkedIds(watermark.minusMinutes(5));
+    }
+
+    @Test
+    @DisplayName("Item quét lại trong vùng overlap: UPDATE có điều kiện, lần 2 không mở khoá thêm")
+    void rescanIsIdempotent() {
+        UUID item = UUID.randomUUID();
+        when(itemRepo.findPayoutCandidateIds(any(), any())).thenReturn(List.of(item));
+        when(returnRepo.findOrderItemIdsUpdatedSince(any())).thenReturn(List.of());
+        when(itemRepo.markEligibleForPayout(List.of(item))).thenReturn(1, 0);
+
+        service.evaluateEligibility();
+        service.evaluateEligibility();
+
+        verify(itemRepo, times(2)).markEligibleForPayout(List.of(item));
+        assertEquals(1.0, registry.get("payout.eligibility.rows").tag("step", "evaluate").counter().count(),
+                "chỉ lần đầu đổi trạng thái");
+    }
+
+    @Test
+    @DisplayName("Không có ứng viên → chỉ chạy SELECT, không phát UPDATE nào")
+    void emptyCandidatesSkipUpdates() {
+        when(itemRepo.findPayoutCandidateIds(any(), any())).thenReturn(List.of());
+        when(returnRepo.findOrderItemIdsUpdatedSince(any())).thenReturn(List.of());
+        when(itemRepo.findRefundedUnmarkedIds(any())).thenReturn(List.of());
+        when(itemRepo.findDeliveredAtSyncIds()).thenReturn(List.of());
+        when(storeOrderRepo.findShippingFeeForStoreStaleIds()).thenReturn(List.of());
+
+        service.syncDeliveredAtForItems();
+        service.checkReturnedItems();
+        service.evaluateEligibility();
+        service.calculateShippingFeeDifference();
+
+        verify(itemRepo, never()).syncDeliveredAtFromStoreOrder(any());
+        verify(itemRepo, never()).markReturned(any());
+        verify(itemRepo, never()).markEligibleForPayout(any());
+        verify(storeOrderRepo, never()).recalculateShippingFeeForStore(any());
+    }
+
+    @Test
+    @DisplayName("Có ứng viên → UPDATE chỉ trên đúng các id đó")
+    void updatesAreScopedToCandidateIds() {
+        UUID item = UUID.randomUUID();
+        UUID storeOrder = UUID.randomUUID();
+        when(itemRepo.findDeliveredAtSyncIds()).thenReturn(List.of(item));
+        when(itemRepo.findRefundedUnmarkedIds(any())).thenReturn(List.of(item));
+        when(storeOrderRepo.findShippingFeeForStoreStaleIds()).thenReturn(List.of(storeOrder));
+
+        service.syncDeliveredAtForItems();
+        service.checkReturnedItems();
+        service.calculateShippingFeeDifference();
+
+        verify(itemRepo).syncDeliveredAtFromStoreOrder(List.of(item));
+        verify(itemRepo).markReturned(List.of(item));
+        verify(storeOrderRepo).recalculateShippingFeeForStore(List.of(storeOrder));
+    }
+}
@@ -0,0 +1,139 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import org.example.audio_ecommerce.H2DataJpaTest;
+import org.example.audio_ecommerce.entity.Enum.WalletOwnerType;
+import org.example.audio_ecommerce.entity.PlatformWallet;
+import org.example.audio_ecommerce.entity.PlatformWalletStripe;
+import org.example.audio_ecommerce.repository.PlatformWalletRepository;
+import org.example.audio_ecommerce.repository.PlatformWalletStripeRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Settlement song song cùng ghi vào ví PLATFORM qua stripe, đồng thời job gộp chạy xen kẽ:
+ * tổng cuối cùng phải đúng bằng tổng các transaction đã commit (không mất, không thừa update).
+ */
+@H2DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class PlatformLedgerTest {
+
+    private static final int THREADS = 6;
+    private static final int SETTLEMENTS_PER_THREAD = 50;
+    private static final int STRIPES = 4;
+    private static final BigDecimal AMOUNT = new BigDecimal("1000.00");
+
+    @Autowired
+    private PlatformWalletRepository walletRepo;
+
+    @Autowired
+    private PlatformWalletStripeRepository stripeRepo;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private PlatformLedger ledger;
+    private TransactionTemplate tx;
+
+    @BeforeEach
+    void setUp() {
+        stripeRepo.deleteAll();
+        walletRepo.deleteAll();
+        walletRepo.save(PlatformWallet.builder()
+                .ownerType(WalletOwnerType.PLATFORM)
+                .totalBalance(BigDecimal.ZERO)
+                .pendingBalance(BigDecimal.ZERO)
+                .doneBalance(BigDecimal.ZERO)
+                .receivedTotal(BigDecimal.ZERO)
+                .refundedTotal(BigDecimal.ZERO)
+                .currency("VND")
+                .createdAt(LocalDateTime.now())
+                .updatedAt(LocalDateTime.now())
+                .build());
+        ledger = new PlatformLedger(walletRepo, stripeRepo, transactionManager, STRIPES, 0);
+        tx = new TransactionTemplate(transactionManager);
+        ledger.current(); // tạo stripe trước khi các luồng chạy
+    }
+
+    @Test
+    @DisplayName("Ghi song song + gộp xen kẽ: tổng khớp số transaction đã commit, rollback không để lại gì")
+    void concurrentAppliesAreNotLost() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<Future<Integer>> writers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            writers.add(pool.submit(() -> {
+                start.await();
+                int committed = 0;
+                for (int i = 0; i < SETTLEMENTS_PER_THREAD; i++) {
+                    // Mỗi lần thứ 5 rollback (settlement lỗi sau khi đã ghi ledger)
+                    boolean rollback = i % 5 == 4;
+                    tx.executeWithoutResult(st -> {
+                        ledger.apply(PlatformLedger.Delta.ZERO.total(AMOUNT).pending(AMOUNT).received(AMOUNT));
+                        if (rollback) st.setRollbackOnly();
+                    });
+                    if (!rollback) committed++;
+                }
+                return committed;
+            }));
+        }
+        Future<Integer> folder = pool.submit(() -> {
+            start.await();
+            int folds = 0;
+            while (writing.get()) {
+                ledger.fold();
+                folds++;
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+            return folds;
+        });
+
+        start.countDown();
+        int committed = 0;
+        for (Future<Integer> f : writers) committed += f.get(60, TimeUnit.SECONDS);
+        writing.set(false);
+        assertTrue(folder.get(60, TimeUnit.SECONDS) > 0);
+        pool.shutdown();
+
+        BigDecimal expected = AMOUNT.multiply(BigDecimal.valueOf(committed));
+        assertEquals(THREADS * SETTLEMENTS_PER_THREAD * 4 / 5, committed);
+        PlatformLedger.Delta before = ledger.current();
+        assertEquals(0, expected.compareTo(before.total()));
+        assertEquals(0, expected.compareTo(before.pending()));
+        assertEquals(0, expected.compareTo(before.received()));
+        assertEquals(0, BigDecimal.ZERO.compareTo(before.done()));
+
+        // Gộp lần cuối: toàn bộ về dòng ví, stripe về 0, tổng không đổi
+        ledger.fold();
+        PlatformWallet wallet = walletRepo.findFirstByOwnerType(WalletOwnerType.PLATFORM).orElseThrow();
+        assertEquals(0, expected.compareTo(wallet.getTotalBalance()));
+        assertEquals(0, expected.compareTo(ledger.current().total()));
+        for (PlatformWalletStripe s : stripeRepo.findAllByWalletId(wallet.getId())) {
+            assertEquals(0, BigDecimal.ZERO.compareTo(s.getTotalBalance()), "stripe " + s.getStripeNo());
+        }
+    }
+
+    @Test
+    @DisplayName("pendingDebit không cho pending xuống dưới 0")
+    void pendingDebitIsClamped() {
+        tx.executeWithoutResult(st -> ledger.apply(PlatformLedger.Delta.ZERO.pending(new BigDecimal("300"))));
+
+        assertEquals(0, new BigDecimal("300").compareTo(ledger.pendingDebit(new BigDecimal("500"))));
+        assertEquals(0, new BigDecimal("200").compareTo(ledger.pendingDebit(new BigDecimal("200"))));
+    }
+}
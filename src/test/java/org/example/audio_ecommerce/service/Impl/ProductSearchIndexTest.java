@@ -0,0 +1,127 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.audio_ecommerce.entity.Category;
+import org.example.audio_ecommerce.entity.Enum.ProductStatus;
+import org.example.audio_ecommerce.entity.Product;
+import org.example.audio_ecommerce.repository.ProductRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+class ProductSearchIndexTest {
+
+    private ProductRepository repo;
+    private ProductSearchIndex index;
+
+    private final Category speaker = category("Loa");
+    private final Category headphone = category("Tai nghe");
+
+    private final Product jbl = product("Loa Bluetooth JBL Charge 5", "JBL", ProductStatus.ACTIVE, speaker);
+    private final Product sony = product("Loa di động Sony SRS-XB13", "Sony", ProductStatus.ACTIVE, speaker);
+    private final Product senn = product("Tai nghe Sennheiser HD 660S", "Sennheiser", ProductStatus.ACTIVE, headphone);
+    private final Product draft = product("Loa Bluetooth Marshall", "Marshall", ProductStatus.PENDING_APPROVAL, speaker);
+
+    @BeforeEach
+    void setUp() {
+        repo = mock(ProductRepository.class);
+        index = new ProductSearchIndex(repo, mock(PlatformTransactionManager.class), new SimpleMeterRegistry());
+        when(repo.findSearchIndexBatch(isNull(), any())).thenReturn(List.of(jbl, sony, senn, draft));
+        index.rebuildAll();
+    }
+
+    @Test
+    @DisplayName("Không phân biệt dấu, mọi từ khoá đều phải khớp")
+    void foldsAccentsAndRequiresAllTerms() {
+        var result = index.search("LOA BLUETOOTH", ProductStatus.ACTIVE, null, null, 0, 10).orElseThrow();
+        assertEquals(List.of(jbl.getProductId()), ids(result));
+
+        result = index.search("loa di dong", ProductStatus.ACTIVE, null, null, 0, 10).orElseThrow();
+        assertEquals(List.of(sony.getProductId()), ids(result));
+    }
+
+    @Test
+    @DisplayName("Khớp tiền tố và gõ sai nhẹ")
+    void prefixAndFuzzy() {
+        assertEquals(List.of(senn.getProductId()),
+                ids(index.search("sennhiser", null, null, null, 0, 10).orElseThrow()));
+        assertEquals(List.of(senn.getProductId()),
+                ids(index.search("tai ng", null, null, null, 0, 10).orElseThrow()));
+    }
+
+    @Test
+    @DisplayName("Facet thương hiệu bỏ qua bộ lọc thương hiệu")
+    void facetsIgnoreOwnFilter() {
+        var result = index.search("loa", ProductStatus.ACTIVE, null, "jbl", 0, 10).orElseThrow();
+
+        assertEquals(List.of(jbl.getProductId()), ids(result));
+        assertEquals(Set.of("JBL", "Sony"), result.brands().keySet());
+        assertEquals(1, result.categories().size());
+        assertEquals(1, result.categories().get(0).count());
+    }
+
+    @Test
+    @DisplayName("Cập nhật 1 sản phẩm thay term cũ bằng term mới")
+    void reindexReplacesTerms() {
+        jbl.setName("Loa karaoke JBL PartyBox");
+        when(repo.findAllById(List.of(jbl.getProductId()))).thenReturn(List.of(jbl));
+
+        index.reindex(List.of(jbl.getProductId()));
+
+        assertTrue(ids(index.search("charge", null, null, null, 0, 10).orElseThrow()).isEmpty());
+        assertEquals(List.of(jbl.getProductId()),
+                ids(index.search("karaoke", null, null, null, 0, 10).orElseThrow()));
+    }
+
+    @Test
+    @DisplayName("Rebuild không ghi đè sản phẩm được reindex trong lúc nó đang đọc DB")
+    void rebuildKeepsConcurrentReindex() {
+        Product stale = product("Loa Bluetooth JBL Charge 5", "JBL", ProductStatus.ACTIVE, speaker);
+        stale.setProductId(jbl.getProductId());
+        when(repo.findAllById(List.of(jbl.getProductId()))).thenReturn(List.of(jbl));
+        when(repo.findSearchIndexBatch(isNull(), any())).thenAnswer(inv -> {
+            // Sản phẩm được sửa + reindex sau khi rebuild đã đọc bản cũ
+            jbl.setName("Loa karaoke JBL PartyBox");
+            index.reindex(List.of(jbl.getProductId()));
+            return List.of(stale, sony, senn, draft);
+        });
+
+        index.rebuildAll();
+
+        assertTrue(ids(index.search("charge", null, null, null, 0, 10).orElseThrow()).isEmpty());
+        assertEquals(List.of(jbl.getProductId()),
+                ids(index.search("karaoke", null, null, null, 0, 10).orElseThrow()));
+        assertEquals(4, index.size());
+    }
+
+    private static List<UUID> ids(ProductSearchIndex.SearchResult result) {
+        return result.hits().stream().map(ProductSearchIndex.Hit::productId).toList();
+    }
+
+    private static Category category(String name) {
+        Category c = new Category();
+        c.setCategoryId(UUID.randomUUID());
+        c.setName(name);
+        return c;
+    }
+
+    private static Product product(String name, String brand, ProductStatus status, Category category) {
+        Product p = new Product();
+        p.setProductId(UUID.randomUUID());
+        p.setName(name);
+        p.setBrandName(brand);
+        p.setStatus(status);
+        p.setCategories(List.of(category));
+        return p;
+    }
+}
@@ -0,0 +1,111 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import org.example.audio_ecommerce.entity.Enum.PaymentMethod;
+import org.example.audio_ecommerce.entity.Enum.SettlementReportType;
+import org.example.audio_ecommerce.repository.StoreOrderItemRepository;
+import org.example.audio_ecommerce.repository.StoreOrderItemRepository.SettlementItemRow;
+import org.example.audio_ecommerce.util.StreamingSheetWriter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SettlementReportServiceTest {
+
+    private static final UUID STORE = UUID.randomUUID();
+    private static final UUID ORDER_A = UUID.randomUUID();
+    private static final UUID ORDER_B = UUID.randomUUID();
+    private static final LocalDate DATE = LocalDate.of(2025, 5, 2);
+
+    private StoreOrderItemRepository itemRepo;
+    private SettlementReportService service;
+
+    @BeforeEach
+    void setUp() {
+        itemRepo = mock(StoreOrderItemRepository.class);
+        service = new SettlementReportService(itemRepo);
+        // 2 đơn: A có 2 item, B có 1 item; phí sàn 10%, B có phụ phí ship 5
+        when(itemRepo.streamSettlementItems(any(), any(), anyBoolean(), anyBoolean(), anyBoolean(), any(), any()))
+                .thenAnswer(inv -> Stream.of(
+                        item(ORDER_A, "A-1", "100", BigDecimal.ZERO),
+                        item(ORDER_A, "A-1", "50", BigDecimal.ZERO),
+                        item(ORDER_B, "B-1", "200", new BigDecimal("5"))));
+    }
+
+    private static SettlementItemRow item(UUID storeOrderId, String code, String lineTotal, BigDecimal extra) {
+        SettlementItemRow row = mock(SettlementItemRow.class);
+        when(row.getStoreOrderId()).thenReturn(storeOrderId);
+        when(row.getOrderCode()).thenReturn(code);
+        when(row.getStoreId()).thenReturn(STORE);
+        when(row.getPaymentMethod()).thenReturn(PaymentMethod.COD);
+        when(row.getCreatedAt()).thenReturn(LocalDateTime.of(2025, 5, 1, 9, 0));
+        when(row.getDeliveredAt()).thenReturn(DATE.atTime(15, 0));
+        when(row.getItemId()).thenReturn(UUID.randomUUID());
+        when(row.getProductName()).thenReturn("Loa");
+        when(row.getQuantity()).thenReturn(1);
+        when(row.getLineTotal()).thenReturn(new BigDecimal(lineTotal));
+        when(row.getPlatformFeePercentage()).thenReturn(new BigDecimal("10"));
+        when(row.getShippingExtraForStore()).thenReturn(extra);
+        return row;
+    }
+
+    private String[][] export(SettlementReportType type) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.exportReport(type, DATE, STORE, StreamingSheetWriter.Format.CSV, out);
+        String[] lines = out.toString(StandardCharsets.UTF_8).replace("\uFEFF", "").split("\r\n");
+        String[][] cells = new String[lines.length][];
+        for (int i = 0; i < lines.length; i++) cells[i] = lines[i].split(",", -1);
+        return cells;
+    }
+
+    @Test
+    @DisplayName("Export: 1 dòng / item, dòng TOTAL có cùng số cột với header")
+    void totalRowMatchesHeaderWidth() throws Exception {
+        String[][] rows = export(SettlementReportType.DELI_COD);
+
+        assertEquals(5, rows.length, "header + 3 item + TOTAL");
+        String[] header = rows[0];
+        String[] total = rows[4];
+        assertEquals(header.length, total.length);
+        assertEquals("TOTAL DELI_COD", total[0]);
+        assertEquals(STORE.toString(), total[2]);
+        assertEquals(DATE.toString(), total[5]);
+        assertEquals("", total[3], "cột paymentMethod không bị chiếm bởi giá trị khác");
+    }
+
+    @Test
+    @DisplayName("Export: tổng nằm dưới đúng cột mà loại báo cáo cộng dồn")
+    void totalUnderMatchingColumn() throws Exception {
+        // DELI_*: net = 350 - 35 (phí sàn) - 5 (phụ phí ship) = 310 → cột netPayoutItem
+        String[][] deli = export(SettlementReportType.DELI_COD);
+        int net = indexOf(deli[0], "netPayoutItem");
+        assertEquals(0, new BigDecimal("310.00").compareTo(new BigDecimal(deli[4][net])));
+        assertEquals("", deli[4][indexOf(deli[0], "lineTotal")]);
+
+        // UNDELI_*: tổng tiền hàng → cột lineTotal
+        String[][] undeli = export(SettlementReportType.UNDELI_COD);
+        assertEquals(0, new BigDecimal("350").compareTo(new BigDecimal(undeli[4][indexOf(undeli[0], "lineTotal")])));
+
+        // PLATFORM_FEE_TO_COLLECT: tổng phí sàn → cột platformFeeAmount
+        String[][] fee = export(SettlementReportType.PLATFORM_FEE_TO_COLLECT);
+        assertEquals(0, new BigDecimal("35.00").compareTo(new BigDecimal(fee[4][indexOf(fee[0], "platformFeeAmount")])));
+    }
+
+    private static int indexOf(String[] header, String column) {
+        for (int i = 0; i < header.length; i++) {
+            if (header[i].equals(column)) return i;
+        }
+        throw new AssertionError("Không có cột " + column);
+    }
+}
@@ -0,0 +1,87 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import org.example.audio_ecommerce.LangChain4J.AiSqlResultCache;
+import org.example.audio_ecommerce.entity.Enum.StockReservationStatus;
+import org.example.audio_ecommerce.entity.StockReservation;
+import org.example.audio_ecommerce.repository.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class StockReservationServiceImplTest {
+
+    private StockReservationRepository reservationRepo;
+    private CustomerOrderRepository customerOrderRepo;
+    private StoreOrderRepository storeOrderRepo;
+    private ProductRepository productRepo;
+    private StockReservationServiceImpl service;
+
+    private final UUID paidOrder = UUID.randomUUID();
+    private final UUID expiredOrder = UUID.randomUUID();
+    private final StockReservation paidHold = hold(paidOrder);
+    private final StockReservation expiredHold = hold(expiredOrder);
+
+    @BeforeEach
+    void setUp() {
+        reservationRepo = mock(StockReservationRepository.class);
+        customerOrderRepo = mock(CustomerOrderRepository.class);
+        storeOrderRepo = mock(StoreOrderRepository.class);
+        productRepo = mock(ProductRepository.class);
+        service = new StockReservationServiceImpl(productRepo, mock(ProductVariantRepository.class), reservationRepo,
+                customerOrderRepo, storeOrderRepo, mock(AiSqlResultCache.class), 16, 15);
+
+        when(reservationRepo.findExpiredHeldOrderIds(any(), any())).thenReturn(List.of(paidOrder, expiredOrder));
+        when(reservationRepo.findAllByCustomerOrderIdInAndStatus(any(), eq(StockReservationStatus.HELD)))
+                .thenReturn(List.of(paidHold, expiredHold));
+        // Webhook PayOS đã COMMITTED reservation của paidOrder trước → HELD → RELEASED thua
+        when(reservationRepo.transition(eq(paidHold.getId()), any(), any(), any())).thenReturn(0);
+        when(reservationRepo.transition(eq(expiredHold.getId()), any(), any(), any())).thenReturn(1);
+    }
+
+    @Test
+    @DisplayName("releaseForOrders trả về đúng các đơn mà lời gọi này chuyển được sang RELEASED")
+    void releaseReturnsOnlyWonOrders() {
+        assertEquals(Set.of(expiredOrder), service.releaseForOrders(List.of(paidOrder, expiredOrder)));
+        verify(productRepo).incrementStock(expiredHold.getProductId(), 2);
+        verify(productRepo, never()).incrementStock(eq(paidHold.getProductId()), anyInt());
+    }
+
+    @Test
+    @DisplayName("Job hết hạn chỉ huỷ đơn đã thực sự trả hàng, bằng UPDATE có điều kiện trạng thái")
+    void expiredSweepCancelsOnlyReleasedOrders() {
+        assertEquals(1, service.releaseExpiredReservations());
+
+        verify(customerOrderRepo).cancelIfUnpaid(Set.of(expiredOrder));
+        verify(storeOrderRepo).cancelForCancelledOrders(eq(Set.of(expiredOrder)), any());
+        verify(customerOrderRepo, never()).findAllById(any());
+    }
+
+    @Test
+    @DisplayName("Không trả được reservation nào (đã thanh toán hết) → không huỷ đơn nào")
+    void nothingReleasedCancelsNothing() {
+        when(reservationRepo.transition(eq(expiredHold.getId()), any(), any(), any())).thenReturn(0);
+
+        assertEquals(0, service.releaseExpiredReservations());
+
+        verify(customerOrderRepo, never()).cancelIfUnpaid(any());
+        verify(storeOrderRepo, never()).cancelForCancelledOrders(any(), any());
+    }
+
+    private static StockReservation hold(UUID orderId) {
+        return StockReservation.builder()
+                .id(UUID.randomUUID())
+                .customerOrderId(orderId)
+                .productId(UUID.randomUUID())
+                .quantity(2)
+                .status(StockReservationStatus.HELD)
+                .build();
+    }
+}
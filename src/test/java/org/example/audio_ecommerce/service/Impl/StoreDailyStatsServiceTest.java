@@ -0,0 +1,341 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.audio_ecommerce.dto.response.LifetimeStatsResponse;
+import org.example.audio_ecommerce.entity.Enum.OrderStatus;
+import org.example.audio_ecommerce.entity.Enum.ReturnStatus;
+import org.example.audio_ecommerce.entity.JobWatermark;
+import org.example.audio_ecommerce.entity.ReturnRequest;
+import org.example.audio_ecommerce.entity.StoreDailyProductStats;
+import org.example.audio_ecommerce.entity.StoreDailyStats;
+import org.example.audio_ecommerce.entity.StoreOrder;
+import org.example.audio_ecommerce.entity.StoreOrderItem;
+import org.example.audio_ecommerce.repository.JobWatermarkRepository;
+import org.example.audio_ecommerce.repository.StoreDailyProductStatsRepository;
+import org.example.audio_ecommerce.repository.StoreDailyStatsRepository;
+import org.example.audio_ecommerce.repository.StoreStatsRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class StoreDailyStatsServiceTest {
+
+    private static final UUID STORE = UUID.randomUUID();
+    private static final LocalDate D1 = LocalDate.of(2025, 3, 10);
+    private static final LocalDate D2 = LocalDate.of(2025, 3, 11);
+    private static final UUID P1 = UUID.randomUUID();
+    private static final UUID P2 = UUID.randomUUID();
+    private static final UUID P3 = UUID.randomUUID();
+    private static final UUID P4 = UUID.randomUUID();
+
+    private StoreStatsRepository sourceRepo;
+    private StoreDailyStatsRepository dailyRepo;
+    private StoreDailyProductStatsRepository productRepo;
+    private JobWatermarkRepository watermarkRepo;
+    private StoreDailyStatsService service;
+
+    // Dữ liệu gốc: 2 đơn có ngày giao, 1 đơn cũ đã giao nhưng thiếu deliveredAt
+    private final Map<StoreOrder, List<StoreOrderItem>> orders = new LinkedHashMap<>();
+    private final List<ReturnRequest> returns = new ArrayList<>();
+
+    // Dòng rollup đã ghi
+    private final Map<LocalDate, StoreDailyStats> savedDays = new HashMap<>();
+    private final Map<LocalDate, List<StoreDailyProductStats>> savedProducts = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        sourceRepo = mock(StoreStatsRepository.class);
+        dailyRepo = mock(StoreDailyStatsRepository.class);
+        productRepo = mock(StoreDailyProductStatsRepository.class);
+        watermarkRepo = mock(JobWatermarkRepository.class);
+        service = new StoreDailyStatsService(sourceRepo, dailyRepo, productRepo, watermarkRepo,
+                mock(PlatformTransactionManager.class), new SimpleMeterRegistry(), 7);
+
+        StoreOrder o1 = order(D1.atTime(10, 0), "500");
+        orders.put(o1, List.of(item(o1, P1, "Loa A", 2, "200", "10"), item(o1, P2, "Tai nghe B", 1, "300", "5")));
+        StoreOrder o2 = order(D2.atTime(9, 30), "400");
+        orders.put(o2, List.of(item(o2, P1, "Loa A", 1, "100", "10"), item(o2, P3, "Cáp C", 5, "300", null)));
+        StoreOrder undated = order(null, "650");
+        orders.put(undated, List.of(item(undated, P2, "Tai nghe B", 3, "600", "5"), item(undated, P4, "Micro D", 1, "50", "10")));
+
+        returns.add(returnRequest(P1, "Loa A", ReturnStatus.REFUNDED, D1.atTime(15, 0)));
+        returns.add(returnRequest(P2, "Tai nghe B", ReturnStatus.RETURN_DONE, D2.atTime(8, 0)));
+        returns.add(returnRequest(P1, "Loa A", ReturnStatus.PENDING, D2.atTime(11, 0)));
+
+        stubSource();
+        stubRollup();
+    }
+
+    @Test
+    @DisplayName("Tính lại 1 ngày: tổng đơn, doanh thu item, phí nền tảng và dòng theo sản phẩm")
+    void recomputeDayAggregates() {
+        service.recomputeDay(STORE, D1);
+
+        StoreDailyStats day = savedDays.get(D1);
+        assertEquals(1, day.getDeliveredOrders());
+        assertEquals(0, new BigDecimal("500").compareTo(day.getOrderGrandTotal()));
+        assertEquals(0, new BigDecimal("500").compareTo(day.getItemRevenue()));
+        assertEquals(0, new BigDecimal("35.00").compareTo(day.getPlatformFee())); // 200*10% + 300*5%
+        assertEquals(1, day.getReturnSuccess());
+
+        Map<UUID, StoreDailyProductStats> byProduct = savedProducts.get(D1).stream()
+                .collect(Collectors.toMap(StoreDailyProductStats::getProductId, p -> p));
+        assertEquals(2, byProduct.get(P1).getSoldQuantity());
+        assertEquals(1, byProduct.get(P1).getReturnSuccess());
+        assertEquals(1, byProduct.get(P2).getSoldQuantity());
+    }
+
+    @Test
+    @DisplayName("Ngày không còn số liệu → xoá dòng rollup thay vì ghi số 0")
+    void emptyDayIsDeleted() {
+        LocalDate quiet = D2.plusDays(5);
+
+        service.recomputeDay(STORE, quiet);
+
+        verify(dailyRepo).deleteDay(STORE, quiet);
+        verify(dailyRepo, never()).save(any());
+    }
+
+    @Test
+    @DisplayName("Mọi ngày tính thành công → watermark tiến tới thời điểm bắt đầu lượt chạy")
+    void watermarkAdvancesWhenAllDaysSucceed() {
+        LocalDateTime before = LocalDateTime.now();
+
+        assertEquals(2, service.refreshChanged());
+
+        verify(watermarkRepo).save(argThat(w -> !w.getWatermark().isBefore(before)));
+    }
+
+    @Test
+    @DisplayName("Có ngày tính lỗi → giữ watermark để lượt sau quét lại")
+    void watermarkHeldWhenADayFails() {
+        doThrow(new IllegalStateException("deadlock"))
+                .when(sourceRepo).findDeliveredOrdersBetween(eq(STORE), eq(D2.atStartOfDay()), any());
+
+        assertEquals(1, service.refreshChanged());
+
+        verify(watermarkRepo, never()).save(any(JobWatermark.class));
+        assertTrue(savedDays.containsKey(D1));
+    }
+
+    @Test
+    @DisplayName("Thống kê trọn đời từ rollup khớp cách tính cũ theo trạng thái (kể cả đơn thiếu deliveredAt)")
+    void lifetimeFromRollupMatchesLegacy() {
+        service.recomputeDay(STORE, D1);
+        service.recomputeDay(STORE, D2);
+
+        StoreDailyStatsService notReady = mock(StoreDailyStatsService.class);
+        when(notReady.isReady()).thenReturn(false);
+        StoreDailyStatsService ready = mock(StoreDailyStatsService.class);
+        when(ready.isReady()).thenReturn(true);
+
+        LifetimeStatsResponse legacy = new ShopStatsServiceImpl(sourceRepo, dailyRepo, productRepo, notReady)
+                .getLifetimeStats(STORE);
+        LifetimeStatsResponse rollup = new ShopStatsServiceImpl(sourceRepo, dailyRepo, productRepo, ready)
+                .getLifetimeStats(STORE);
+
+        assertEquals(3, legacy.getTotalDeliveredOrders());
+        assertEquals(legacy.getTotalDeliveredOrders(), rollup.getTotalDeliveredOrders());
+        assertEquals(0, legacy.getTotalRevenue().compareTo(rollup.getTotalRevenue()));
+        assertEquals(0, legacy.getTotalPlatformFee().compareTo(rollup.getTotalPlatformFee()));
+        assertEquals(0, legacy.getTotalNetRevenue().compareTo(rollup.getTotalNetRevenue()));
+        assertEquals(legacy.getTotalReturnRequests(), rollup.getTotalReturnRequests());
+        assertEquals(legacy.getReturnRate(), rollup.getReturnRate());
+        assertEquals(legacy.getTop10Products(), rollup.getTop10Products());
+        assertEquals(List.of(P3, P2, P1, P4),
+                rollup.getTop10Products().stream().map(p -> p.getProductId()).toList());
+    }
+
+    @Test
+    @DisplayName("Thống kê theo khoảng ngày từ rollup khớp cách tính cũ")
+    void rangeFromRollupMatchesLegacy() {
+        service.recomputeDay(STORE, D1);
+        service.recomputeDay(STORE, D2);
+
+        StoreDailyStatsService notReady = mock(StoreDailyStatsService.class);
+        StoreDailyStatsService ready = mock(StoreDailyStatsService.class);
+        when(ready.isReady()).thenReturn(true);
+
+        LifetimeStatsResponse legacy = new ShopStatsServiceImpl(sourceRepo, dailyRepo, productRepo, notReady)
+                .getLifetimeStatsByRange(STORE, D2, D2);
+        LifetimeStatsResponse rollup = new ShopStatsServiceImpl(sourceRepo, dailyRepo, productRepo, ready)
+                .getLifetimeStatsByRange(STORE, D2, D2);
+
+        assertEquals(1, rollup.getTotalDeliveredOrders());
+        assertEquals(legacy.getTotalDeliveredOrders(), rollup.getTotalDeliveredOrders());
+        assertEquals(0, legacy.getTotalRevenue().compareTo(rollup.getTotalRevenue()));
+        assertEquals(0, legacy.getTotalPlatformFee().compareTo(rollup.getTotalPlatformFee()));
+        assertEquals(legacy.getTotalReturnRequests(), rollup.getTotalReturnRequests());
+        assertEquals(legacy.getTop10Products(), rollup.getTop10Products());
+    }
+
+    // ==================== Nguồn dữ liệu giả lập ====================
+
+    private void stubSource() {
+        when(sourceRepo.findAllDeliveredOrders(STORE)).thenAnswer(inv -> new ArrayList<>(orders.keySet()));
+        when(sourceRepo.findAllReturnRequests(STORE)).thenAnswer(inv -> new ArrayList<>(returns));
+        when(sourceRepo.findDeliveredOrdersWithoutDate(STORE)).thenAnswer(inv -> orders.keySet().stream()
+                .filter(o -> o.getDeliveredAt() == null).toList());
+        when(sourceRepo.findDeliveredOrdersBetween(eq(STORE), any(), any())).thenAnswer(inv -> {
+            LocalDateTime start = inv.getArgument(1);
+            LocalDateTime end = inv.getArgument(2);
+            return orders.keySet().stream()
+                    .filter(o -> o.getDeliveredAt() != null
+                            && !o.getDeliveredAt().isBefore(start) && o.getDeliveredAt().isBefore(end))
+                    .toList();
+        });
+        when(sourceRepo.findItemsByOrderIds(anyList())).thenAnswer(inv -> {
+            List<UUID> ids = inv.getArgument(0);
+            return orders.entrySet().stream()
+                    .filter(e -> ids.contains(e.getKey().getId()))
+                    .flatMap(e -> e.getValue().stream())
+                    .toList();
+        });
+        when(sourceRepo.findReturnRequestsBetween(eq(STORE), any(), any())).thenAnswer(inv -> {
+            LocalDateTime start = inv.getArgument(1);
+            LocalDateTime end = inv.getArgument(2);
+            return returns.stream()
+                    .filter(r -> !r.getCreatedAt().isBefore(start) && r.getCreatedAt().isBefore(end))
+                    .toList();
+        });
+        when(sourceRepo.sumShippingDifferenceBetween(any(), any(), any())).thenReturn(BigDecimal.ZERO);
+        when(sourceRepo.sumActualShippingFeeBetween(any(), any(), any())).thenReturn(BigDecimal.ZERO);
+        when(sourceRepo.sumReturnShippingFeeBetween(any(), any(), any())).thenReturn(BigDecimal.ZERO);
+
+        List<Object[]> changedDays = new ArrayList<>();
+        changedDays.add(new Object[]{STORE, D1});
+        changedDays.add(new Object[]{STORE, D2});
+        when(sourceRepo.findDeliveredDaysChangedSince(any())).thenReturn(changedDays);
+        when(sourceRepo.findReturnDaysChangedSince(any())).thenReturn(List.of());
+        when(sourceRepo.findReturnFeeDaysChangedSince(any())).thenReturn(List.of());
+        when(watermarkRepo.findById(StoreDailyStatsService.JOB_NAME)).thenReturn(Optional.empty());
+    }
+
+    private void stubRollup() {
+        when(dailyRepo.findByStoreIdAndStatDate(any(), any())).thenReturn(Optional.empty());
+        when(dailyRepo.save(any())).thenAnswer(inv -> {
+            StoreDailyStats row = inv.getArgument(0);
+            savedDays.put(row.getStatDate(), row);
+            return row;
+        });
+        when(productRepo.saveAll(anyCollection())).thenAnswer(inv -> {
+            Collection<StoreDailyProductStats> rows = inv.getArgument(0);
+            rows.forEach(r -> savedProducts.computeIfAbsent(r.getStatDate(), d -> new ArrayList<>()).add(r));
+            return new ArrayList<>(rows);
+        });
+        when(productRepo.deleteDay(any(), any())).thenAnswer(inv -> {
+            savedProducts.remove((LocalDate) inv.getArgument(1));
+            return 0;
+        });
+
+        when(dailyRepo.sumBetween(eq(STORE), any(), any())).thenAnswer(inv ->
+                totals(days(inv.getArgument(1), inv.getArgument(2))));
+        when(productRepo.findTopSelling(eq(STORE), any(), any(), any(Pageable.class))).thenAnswer(inv ->
+                productTotals(inv.getArgument(1), inv.getArgument(2), null).stream()
+                        .filter(p -> p.getSoldQuantity() > 0)
+                        .sorted(Comparator.comparing(StoreDailyProductStatsRepository.ProductTotals::getSoldQuantity).reversed())
+                        .limit(((Pageable) inv.getArgument(3)).getPageSize())
+                        .toList());
+        when(productRepo.findTopReturned(eq(STORE), any(), any(), any(Pageable.class))).thenAnswer(inv ->
+                productTotals(inv.getArgument(1), inv.getArgument(2), null).stream()
+                        .filter(p -> p.getReturnSuccess() > 0)
+                        .sorted(Comparator.comparing(StoreDailyProductStatsRepository.ProductTotals::getReturnSuccess).reversed())
+                        .limit(((Pageable) inv.getArgument(3)).getPageSize())
+                        .toList());
+        when(productRepo.findLifetimeTotals(eq(STORE), anyCollection())).thenAnswer(inv ->
+                productTotals(null, null, inv.getArgument(1)));
+    }
+
+    private List<StoreDailyStats> days(LocalDate from, LocalDate to) {
+        return savedDays.values().stream()
+                .filter(d -> (from == null || !d.getStatDate().isBefore(from)) && (to == null || !d.getStatDate().isAfter(to)))
+                .toList();
+    }
+
+    private static StoreDailyStatsRepository.Totals totals(List<StoreDailyStats> rows) {
+        long delivered = rows.stream().mapToLong(StoreDailyStats::getDeliveredOrders).sum();
+        long returned = rows.stream().mapToLong(StoreDailyStats::getReturnSuccess).sum();
+        BigDecimal grand = rows.stream().map(StoreDailyStats::getOrderGrandTotal).reduce(BigDecimal.ZERO, BigDecimal::add);
+        BigDecimal revenue = rows.stream().map(StoreDailyStats::getItemRevenue).reduce(BigDecimal.ZERO, BigDecimal::add);
+        BigDecimal fee = rows.stream().map(StoreDailyStats::getPlatformFee).reduce(BigDecimal.ZERO, BigDecimal::add);
+        return new StoreDailyStatsRepository.Totals() {
+            public Long getDeliveredOrders() { return delivered; }
+            public BigDecimal getOrderGrandTotal() { return grand; }
+            public BigDecimal getItemRevenue() { return revenue; }
+            public BigDecimal getPlatformFee() { return fee; }
+            public Long getReturnSuccess() { return returned; }
+            public BigDecimal getShippingDifference() { return BigDecimal.ZERO; }
+            public BigDecimal getShippingCollected() { return BigDecimal.ZERO; }
+            public BigDecimal getReturnShippingFee() { return BigDecimal.ZERO; }
+        };
+    }
+
+    private List<StoreDailyProductStatsRepository.ProductTotals> productTotals(LocalDate from, LocalDate to,
+                                                                                Collection<UUID> only) {
+        Map<UUID, List<StoreDailyProductStats>> byProduct = savedProducts.entrySet().stream()
+                .filter(e -> (from == null || !e.getKey().isBefore(from)) && (to == null || !e.getKey().isAfter(to)))
+                .flatMap(e -> e.getValue().stream())
+                .filter(p -> only == null || only.contains(p.getProductId()))
+                .collect(Collectors.groupingBy(StoreDailyProductStats::getProductId));
+
+        List<StoreDailyProductStatsRepository.ProductTotals> out = new ArrayList<>();
+        byProduct.forEach((id, rows) -> {
+            String name = rows.get(0).getProductName();
+            long sold = rows.stream().mapToLong(StoreDailyProductStats::getSoldQuantity).sum();
+            long returned = rows.stream().mapToLong(StoreDailyProductStats::getReturnSuccess).sum();
+            BigDecimal revenue = rows.stream().map(StoreDailyProductStats::getRevenue).reduce(BigDecimal.ZERO, BigDecimal::add);
+            out.add(new StoreDailyProductStatsRepository.ProductTotals() {
+                public UUID getProductId() { return id; }
+                public String getProductName() { return name; }
+                public Long getSoldQuantity() { return sold; }
+                public BigDecimal getRevenue() { return revenue; }
+                public Long getReturnSuccess() { return returned; }
+            });
+        });
+        return out;
+    }
+
+    private static StoreOrder order(LocalDateTime deliveredAt, String grandTotal) {
+        StoreOrder o = new StoreOrder();
+        o.setId(UUID.randomUUID());
+        o.setStatus(OrderStatus.DELIVERY_SUCCESS);
+        o.setDeliveredAt(deliveredAt);
+        o.setGrandTotal(new BigDecimal(grandTotal));
+        return o;
+    }
+
+    private static StoreOrderItem item(StoreOrder order, UUID productId, String name, int qty,
+                                       String lineTotal, String feePercent) {
+        StoreOrderItem i = new StoreOrderItem();
+        i.setId(UUID.randomUUID());
+        i.setStoreOrder(order);
+        i.setRefId(productId);
+        i.setName(name);
+        i.setQuantity(qty);
+        i.setFinalLineTotal(new BigDecimal(lineTotal));
+        i.setPlatformFeePercentage(feePercent == null ? null : new BigDecimal(feePercent));
+        return i;
+    }
+
+    private static ReturnRequest returnRequest(UUID productId, String name, ReturnStatus status, LocalDateTime createdAt) {
+        ReturnRequest r = new ReturnRequest();
+        r.setShopId(STORE);
+        r.setProductId(productId);
+        r.setProductName(name);
+        r.setStatus(status);
+        r.setCreatedAt(createdAt);
+        return r;
+    }
+}
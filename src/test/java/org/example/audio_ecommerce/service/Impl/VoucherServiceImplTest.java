@@ -0,0 +1,84 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import org.example.audio_ecommerce.dto.response.BaseResponse;
+import org.example.audio_ecommerce.entity.PlatformCampaignProductUsage;
+import org.example.audio_ecommerce.entity.ShopVoucherUsage;
+import org.example.audio_ecommerce.repository.PlatformCampaignProductUsageRepository;
+import org.example.audio_ecommerce.repository.PlatformCampaignProductRepository;
+import org.example.audio_ecommerce.repository.ShopVoucherRepository;
+import org.example.audio_ecommerce.repository.ShopVoucherUsageRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class VoucherServiceImplTest {
+
+    private ShopVoucherUsageRepository shopVoucherUsageRepo;
+    private PlatformCampaignProductUsageRepository platformUsageRepo;
+    private VoucherServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        shopVoucherUsageRepo = mock(ShopVoucherUsageRepository.class);
+        platformUsageRepo = mock(PlatformCampaignProductUsageRepository.class);
+        service = new VoucherServiceImpl(mock(ShopVoucherRepository.class), mock(PlatformCampaignProductRepository.class),
+                shopVoucherUsageRepo, platformUsageRepo);
+        when(shopVoucherUsageRepo.searchUsage(any(), any(), any(), any(), any(), any()))
+                .thenAnswer(inv -> new PageImpl<ShopVoucherUsage>(List.of(), inv.getArgument(5), 1_000));
+        when(platformUsageRepo.searchUsage(any(), any(), any(), any(), any(), any(), any()))
+                .thenAnswer(inv -> new PageImpl<PlatformCampaignProductUsage>(List.of(), inv.getArgument(6), 1_000));
+    }
+
+    @Test
+    @DisplayName("Shop usage: size quá lớn bị clamp về 200, response trả đúng size đã clamp")
+    void shopUsageReportsClampedSize() {
+        Map<String, Object> data = service.getShopVoucherUsage(null, null, null, null, null, 3, 10_000).getData();
+
+        Pageable used = captureShopPageable();
+        assertEquals(200, used.getPageSize());
+        assertEquals(200, data.get("size"));
+        assertEquals(3, data.get("page"));
+        assertEquals(1_000L, data.get("totalElements"));
+    }
+
+    @Test
+    @DisplayName("Platform usage: page âm → 0, size ≤ 0 → 1, response khớp Pageable thực dùng")
+    void platformUsageReportsNormalizedPaging() {
+        BaseResponse<Map<String, Object>> resp =
+                service.getPlatformVoucherUsage(null, null, null, null, null, null, -2, 0);
+
+        ArgumentCaptor<Pageable> pageable = ArgumentCaptor.forClass(Pageable.class);
+        verify(platformUsageRepo).searchUsage(any(), any(), any(), any(), any(), any(), pageable.capture());
+        assertEquals(0, pageable.getValue().getPageNumber());
+        assertEquals(1, pageable.getValue().getPageSize());
+        assertEquals(0, resp.getData().get("page"));
+        assertEquals(1, resp.getData().get("size"));
+    }
+
+    @Test
+    @DisplayName("Sort theo lastUsedAt giảm dần, id làm tie-break")
+    void sortsByLastUsedThenId() {
+        service.getShopVoucherUsage(null, null, null, null, null, 0, 20);
+
+        Sort sort = captureShopPageable().getSort();
+        assertEquals(List.of(Sort.Order.desc("lastUsedAt"), Sort.Order.desc("id")), sort.toList());
+    }
+
+    private Pageable captureShopPageable() {
+        ArgumentCaptor<Pageable> pageable = ArgumentCaptor.forClass(Pageable.class);
+        verify(shopVoucherUsageRepo).searchUsage(any(), any(), any(), any(), any(), pageable.capture());
+        return pageable.getValue();
+    }
+}
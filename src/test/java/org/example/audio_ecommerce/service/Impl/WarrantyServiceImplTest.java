@@ -0,0 +1,120 @@
+package org.example.audio_ecommerce.service.Impl;
+
+import org.example.audio_ecommerce.dto.request.WarrantySearchRequest;
+import org.example.audio_ecommerce.dto.response.WarrantyResponse;
+import org.example.audio_ecommerce.entity.CustomerOrder;
+import org.example.audio_ecommerce.entity.CustomerOrderItem;
+import org.example.audio_ecommerce.entity.Warranty;
+import org.example.audio_ecommerce.repository.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class WarrantyServiceImplTest {
+
+    private CustomerOrderRepository customerOrderRepo;
+    private WarrantyRepository warrantyRepo;
+    private CustomerRepository customerRepo;
+    private StoreOrderItemRepository storeOrderItemRepo;
+    private WarrantyServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        customerOrderRepo = mock(CustomerOrderRepository.class);
+        warrantyRepo = mock(WarrantyRepository.class);
+        customerRepo = mock(CustomerRepository.class);
+        storeOrderItemRepo = mock(StoreOrderItemRepository.class);
+        service = new WarrantyServiceImpl(
+                mock(StoreOrderRepository.class), mock(ProductRepository.class), customerOrderRepo, warrantyRepo,
+                mock(LogWarrantyRepository.class), mock(WarrantyPartRepository.class), mock(WarrantyReviewRepository.class),
+                customerRepo, mock(StoreRepository.class), storeOrderItemRepo);
+    }
+
+    @Test
+    @DisplayName("Theo đơn: 1 query warranty với id StoreOrderItem + CustomerOrderItem, không findAll")
+    void byOrderQueriesItemIds() {
+        UUID orderId = UUID.randomUUID();
+        UUID customerItemId = UUID.randomUUID();
+        UUID storeItemId = UUID.randomUUID();
+        CustomerOrder co = new CustomerOrder();
+        co.setId(orderId);
+        CustomerOrderItem ci = new CustomerOrderItem();
+        ci.setId(customerItemId);
+        co.setItems(List.of(ci));
+        when(customerOrderRepo.findById(orderId)).thenReturn(Optional.of(co));
+        when(storeOrderItemRepo.findIdsByCustomerOrderId(orderId)).thenReturn(List.of(storeItemId));
+        when(warrantyRepo.findDetailedByStoreOrderItemIdIn(Set.of(customerItemId, storeItemId)))
+                .thenReturn(List.of(warranty("SN-1")));
+
+        List<WarrantyResponse> result = service.search(byOrder(orderId));
+
+        assertEquals(List.of("SN-1"), result.stream().map(WarrantyResponse::getSerialNumber).toList());
+        verify(warrantyRepo, never()).findAll();
+    }
+
+    @Test
+    @DisplayName("Theo SĐT: chuẩn hoá rồi lấy warranty của MỌI customer trùng số (dữ liệu cũ)")
+    void byPhoneReturnsAllCollidingCustomers() {
+        UUID a = UUID.randomUUID();
+        UUID b = UUID.randomUUID();
+        when(customerRepo.findIdsByPhoneNormalized("0912345678")).thenReturn(List.of(a, b));
+        when(warrantyRepo.findDetailedByCustomerIdIn(List.of(a, b)))
+                .thenReturn(List.of(warranty("SN-A"), warranty("SN-B")));
+
+        List<WarrantyResponse> result = service.search(byContact("+84 912 345 678"));
+
+        assertEquals(2, result.size());
+        verify(customerRepo, never()).findAll();
+    }
+
+    @Test
+    @DisplayName("Theo email: không phân biệt hoa thường / khoảng trắng")
+    void byEmailIsNormalized() {
+        UUID a = UUID.randomUUID();
+        when(customerRepo.findIdsByEmailNormalized("an@example.com")).thenReturn(List.of(a));
+        when(warrantyRepo.findDetailedByCustomerIdIn(List.of(a))).thenReturn(List.of(warranty("SN-A")));
+
+        assertEquals(1, service.search(byContact("  An@Example.COM ")).size());
+    }
+
+    @Test
+    @DisplayName("Không khớp customer / SĐT không có chữ số → rỗng, không query warranty")
+    void noMatchSkipsWarrantyQuery() {
+        when(customerRepo.findIdsByPhoneNormalized(anyString())).thenReturn(List.of());
+
+        assertTrue(service.search(byContact("0900000000")).isEmpty());
+        assertTrue(service.search(byContact("không có số")).isEmpty());
+        verify(warrantyRepo, never()).findDetailedByCustomerIdIn(any());
+        verify(customerRepo, times(1)).findIdsByPhoneNormalized(anyString());
+    }
+
+    private static WarrantySearchRequest byOrder(UUID orderId) {
+        WarrantySearchRequest req = new WarrantySearchRequest();
+        req.setOrderId(orderId);
+        return req;
+    }
+
+    private static WarrantySearchRequest byContact(String phoneOrEmail) {
+        WarrantySearchRequest req = new WarrantySearchRequest();
+        req.setPhoneOrEmail(phoneOrEmail);
+        return req;
+    }
+
+    private static Warranty warranty(String serial) {
+        LocalDate start = LocalDate.now().minusMonths(1);
+        return Warranty.builder()
+                .id(UUID.randomUUID())
+                .serialNumber(serial)
+                .durationMonths(12)
+                .purchaseDate(start)
+                .startDate(start)
+                .build();
+    }
+}
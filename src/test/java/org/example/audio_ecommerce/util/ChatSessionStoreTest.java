@@ -0,0 +1,79 @@
+package org.example.audio_ecommerce.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatSessionStoreTest {
+
+    @Test
+    @DisplayName("Vượt ngân sách token → lượt cũ gộp vào tóm tắt, giữ nguyên văn các lượt gần nhất")
+    void compactsOldTurnsIntoSummary() {
+        ChatSessionStore store = new ChatSessionStore("test", 100, 60_000, 200, 2, 400, new SimpleMeterRegistry());
+
+        for (int i = 0; i < 50; i++) {
+            store.append("u1", "User", "Câu hỏi số " + i + " về loa bookshelf " + "x".repeat(100));
+            store.append("u1", "AI", "Trả lời số " + i + " " + "y".repeat(100));
+        }
+
+        String history = store.history("u1");
+        assertTrue(history.startsWith("Tóm tắt các lượt trước:"));
+        assertTrue(history.contains("Câu hỏi số 49"));
+        assertTrue(history.contains("Trả lời số 49"));
+        assertFalse(history.contains("Câu hỏi số 0 "), "lượt quá cũ đã bị bỏ khỏi tóm tắt");
+        assertTrue(store.tokens("u1") <= 200 + ChatSessionStore.estimateTokens("x".repeat(400)));
+    }
+
+    @Test
+    @DisplayName("Các lượt gần nhất (ít hơn keepRecentTurns) đã vượt ngân sách → vẫn ép tổng về trong ngân sách")
+    void recentTurnsAloneAreKeptWithinBudget() {
+        ChatSessionStore store = new ChatSessionStore("test", 100, 60_000, 50, 6, 400, new SimpleMeterRegistry());
+
+        for (int i = 0; i < 4; i++) {
+            store.append("u1", i % 2 == 0 ? "User" : "AI", "Lượt " + i + " " + "z".repeat(80));
+            assertTrue(store.tokens("u1") <= 50, "sau lượt " + i + ": " + store.tokens("u1"));
+        }
+
+        String history = store.history("u1");
+        assertTrue(history.contains("Lượt 3 " + "z".repeat(80)), "lượt mới nhất giữ nguyên văn khi còn vừa");
+        assertFalse(history.contains("Lượt 0 " + "z".repeat(80)));
+    }
+
+    @Test
+    @DisplayName("1 lượt dài hơn cả ngân sách → cắt ngắn, tổng vẫn trong ngân sách")
+    void singleOversizedTurnIsTruncated() {
+        ChatSessionStore store = new ChatSessionStore("test", 100, 60_000, 50, 4, 400, new SimpleMeterRegistry());
+
+        store.append("u1", "User", "ngắn");
+        store.append("u1", "AI", "w".repeat(1_000));
+
+        assertTrue(store.tokens("u1") <= 50, String.valueOf(store.tokens("u1")));
+        String history = store.history("u1");
+        assertTrue(history.contains("AI: " + "w".repeat(150)));
+        assertTrue(history.contains("…"));
+        assertFalse(history.contains("w".repeat(300)));
+    }
+
+    @Test
+    @DisplayName("Vượt số session tối đa → bỏ session ít dùng nhất; idle quá hạn bị dọn")
+    void boundsSessions() throws InterruptedException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ChatSessionStore store = new ChatSessionStore("test", 2, 30, 1_000, 4, 400, registry);
+
+        store.append("a", "User", "hi");
+        store.append("b", "User", "hi");
+        store.history("a"); // a mới dùng → b là cũ nhất
+        store.append("c", "User", "hi");
+
+        assertEquals(2, store.size());
+        assertEquals(0, store.tokens("b"));
+        assertEquals(1.0, registry.counter("chat.sessions.evicted", "store", "test", "reason", "size").count());
+
+        Thread.sleep(60);
+        assertEquals(2, store.evictIdle());
+        assertEquals(0, store.size());
+        assertEquals(0.0, registry.get("chat.sessions.retained_bytes").gauge().value());
+    }
+}
@@ -0,0 +1,42 @@
+package org.example.audio_ecommerce.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContactNormalizerTest {
+
+    @Test
+    @DisplayName("Email: trim + chữ thường, rỗng → null")
+    void email() {
+        assertEquals("an.nguyen@example.com", ContactNormalizer.email("  An.Nguyen@Example.COM "));
+        assertNull(ContactNormalizer.email("   "));
+        assertNull(ContactNormalizer.email(null));
+    }
+
+    @Test
+    @DisplayName("SĐT: mọi cách viết của cùng 1 số về cùng 1 dạng 0xxxxxxxxx")
+    void phoneVariantsCollapse() {
+        for (String raw : new String[]{"0912345678", "0912 345 678", "0912.345.678", "+84 912 345 678", "84912345678", "(+84) 912-345-678"}) {
+            assertEquals("0912345678", ContactNormalizer.phone(raw), raw);
+        }
+    }
+
+    @Test
+    @DisplayName("SĐT: số ngắn bắt đầu bằng 84 không bị coi là mã quốc gia; không có chữ số → null")
+    void phoneEdgeCases() {
+        assertEquals("8412345", ContactNormalizer.phone("8412345"));
+        assertNull(ContactNormalizer.phone("không có"));
+        assertNull(ContactNormalizer.phone(""));
+        assertNull(ContactNormalizer.phone(null));
+    }
+
+    @Test
+    @DisplayName("Chuỗi có '@' là email, còn lại là SĐT")
+    void looksLikeEmail() {
+        assertTrue(ContactNormalizer.looksLikeEmail("a@b.vn"));
+        assertFalse(ContactNormalizer.looksLikeEmail("0912345678"));
+        assertFalse(ContactNormalizer.looksLikeEmail(null));
+    }
+}
@@ -0,0 +1,239 @@
+package org.example.audio_ecommerce.util;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.audio_ecommerce.exception.UpstreamUnavailableException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeminiClientTest {
+
+    @Test
+    @DisplayName("chunkText nối mọi part của candidate đầu; chunk chỉ có finishReason / không candidate → rỗng")
+    void chunkText() {
+        assertEquals("Loa bookshelf", GeminiClient.chunkText(new JSONObject("""
+                {"candidates":[{"content":{"parts":[{"text":"Loa "},{"text":"bookshelf"}]}},
+                               {"content":{"parts":[{"text":"bỏ qua"}]}}]}""")));
+        assertEquals("", GeminiClient.chunkText(new JSONObject("""
+                {"candidates":[{"finishReason":"STOP"}]}""")));
+        assertEquals("", GeminiClient.chunkText(new JSONObject("""
+                {"candidates":[{"content":{"parts":[{"inlineData":{}}]}}]}""")));
+        assertEquals("", GeminiClient.chunkText(new JSONObject("{\"candidates\":[]}")));
+        assertEquals("", GeminiClient.chunkText(new JSONObject("{\"usageMetadata\":{}}")));
+    }
+
+    @Test
+    @DisplayName("LineSubscriber chỉ đọc dòng data:, bỏ chunk rỗng / hỏng, nối toàn văn, đọc từng dòng một")
+    void lineSubscriberPushesTokens() {
+        TestSink sink = new TestSink();
+        TestSubscription subscription = new TestSubscription();
+        GeminiClient.LineSubscriber lines = new GeminiClient.LineSubscriber(sink);
+
+        lines.onSubscribe(subscription);
+        lines.onNext("data: {\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Xin \"}]}}]}");
+        lines.onNext("");
+        lines.onNext(": keep-alive");
+        lines.onNext("data: {hỏng");
+        lines.onNext("data: {\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"chào\"}]}}]}");
+        lines.onNext("data: {\"candidates\":[{\"finishReason\":\"STOP\"}]}");
+
+        assertEquals(List.of("Xin ", "chào"), sink.tokens);
+        assertEquals("Xin chào", lines.text());
+        assertEquals(7, subscription.requested.get()); // 1 lúc subscribe + 1 sau mỗi dòng
+    }
+
+    @Test
+    @DisplayName("Sink đóng → subscription bị huỷ, dòng tới sau không đẩy vào sink")
+    void closingSinkCancelsSubscription() {
+        TestSink sink = new TestSink();
+        TestSubscription subscription = new TestSubscription();
+        GeminiClient.LineSubscriber lines = new GeminiClient.LineSubscriber(sink);
+        lines.onSubscribe(subscription);
+
+        sink.cancel();
+        lines.onNext("data: {\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"muộn\"}]}}]}");
+
+        assertTrue(subscription.cancelled.get());
+        assertEquals(List.of(), sink.tokens);
+    }
+
+    @Test
+    @DisplayName("Bulkhead giữ slot suốt stream (không giữ thread gọi): stream thứ 2 bị từ chối; client ngắt → trả slot, không tính lỗi upstream")
+    void bulkheadBoundsWholeStream() throws Exception {
+        CountDownLatch releaseServer = new CountDownLatch(1);
+        HttpServer server = geminiStub(releaseServer);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        GeminiClient client = client(server, registry);
+
+        try {
+            // chatStream trả về ngay sau khi gửi request, token tới trên executor của HttpClient
+            TestSink first = new TestSink();
+            client.chatStream("u1", "loa nào hay", first);
+            assertTrue(first.firstToken.await(5, TimeUnit.SECONDS));
+            assertEquals(1, registry.get("http.client.upstream.inflight").tag("upstream", "gemini").gauge().value());
+
+            TestSink second = new TestSink();
+            client.chatStream("u2", "tai nghe nào hay", second);
+            assertInstanceOf(UpstreamUnavailableException.class, second.error);
+
+            // Client ngắt → close hook trả slot ngay, dù Gemini vẫn đang treo
+            first.cancel();
+            assertEquals(0, registry.get("http.client.upstream.inflight").tag("upstream", "gemini").gauge().value());
+            assertNull(first.error);
+            assertNull(first.completed);
+            assertEquals(0, registry.get("http.client.upstream").tag("upstream", "gemini")
+                    .tag("outcome", "io_error").timer().count());
+
+            TestSink third = new TestSink();
+            client.chatStream("u3", "dac nào hay", third);
+            assertTrue(third.firstToken.await(5, TimeUnit.SECONDS));
+            third.cancel();
+        } finally {
+            releaseServer.countDown();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    @DisplayName("Stream xong → onComplete với toàn văn, slot trả lại và ghi nhận thành công")
+    void completedStreamReleasesSlot() throws Exception {
+        HttpServer server = geminiStub(null);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        GeminiClient client = client(server, registry);
+        try {
+            TestSink sink = new TestSink();
+            client.chatStream("u1", "loa nào hay", sink);
+
+            assertTrue(sink.done.await(5, TimeUnit.SECONDS));
+            assertEquals("Xin chào", sink.completed);
+            assertEquals(List.of("Xin ", "chào"), sink.tokens);
+            assertEquals(0, registry.get("http.client.upstream.inflight").tag("upstream", "gemini").gauge().value());
+            assertEquals(1, registry.get("http.client.upstream").tag("upstream", "gemini")
+                    .tag("outcome", "success").timer().count());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /** Gemini giả: gửi "Xin " rồi treo tới khi hold mở (hold = null → gửi thêm "chào" và kết thúc). */
+    private static HttpServer geminiStub(CountDownLatch hold) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(chunk("Xin "));
+                out.flush();
+                if (hold != null) {
+                    hold.await(10, TimeUnit.SECONDS); // Gemini "treo" giữa chừng
+                } else {
+                    out.write(chunk("chào"));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException ignored) {
+                // client đã đóng
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        return server;
+    }
+
+    private static byte[] chunk(String text) {
+        return ("data: {\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"" + text + "\"}]}}]}\n\n")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Bulkhead "gemini" 1 slot, chờ slot tối đa 50ms
+    private static GeminiClient client(HttpServer server, SimpleMeterRegistry registry) {
+        MockEnvironment env = new MockEnvironment()
+                .withProperty("http.upstream.gemini.max-concurrent", "1")
+                .withProperty("http.upstream.gemini.acquire-timeout-ms", "50");
+        GeminiClient client = new GeminiClient(new UpstreamGuards(env, registry), registry, 100, 60_000, 1500, 6, 1200);
+        ReflectionTestUtils.setField(client, "API_KEY", "test");
+        ReflectionTestUtils.setField(client, "MODEL", "gemini-test");
+        ReflectionTestUtils.setField(client, "BASE_URL", "http://127.0.0.1:" + server.getAddress().getPort());
+        return client;
+    }
+
+    /** Sink giống Session: cancel() đánh dấu đóng rồi chạy hook. */
+    private static class TestSink implements TokenSink {
+        final List<String> tokens = new CopyOnWriteArrayList<>();
+        final CountDownLatch firstToken = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<Runnable> hooks = new ArrayList<>();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        volatile Throwable error;
+        volatile String completed;
+
+        @Override
+        public void onToken(String token) {
+            tokens.add(token);
+            firstToken.countDown();
+        }
+
+        @Override
+        public void onComplete(String fullText) {
+            completed = fullText;
+            done.countDown();
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            error = e;
+            done.countDown();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        @Override
+        public synchronized void onClose(Runnable hook) {
+            if (cancelled.get()) hook.run();
+            else hooks.add(hook);
+        }
+
+        synchronized void cancel() {
+            cancelled.set(true);
+            hooks.forEach(Runnable::run);
+        }
+    }
+
+    private static class TestSubscription implements Flow.Subscription {
+        final AtomicLong requested = new AtomicLong();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+
+        @Override
+        public void request(long n) {
+            requested.addAndGet(n);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled.set(true);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.example.audio_ecommerce.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightCacheTest {
+
+    @Test
+    @DisplayName("Vượt maxSize → bỏ key ít dùng nhất")
+    void evictsLeastRecentlyUsed() {
+        AtomicInteger loads = new AtomicInteger();
+        SingleFlightCache<String, String> cache =
+                new SingleFlightCache<>("test", 60_000, 2, v -> true, new SimpleMeterRegistry());
+
+        cache.get("a", k -> k + loads.incrementAndGet());
+        cache.get("b", k -> k + loads.incrementAndGet());
+        cache.get("a", k -> k + loads.incrementAndGet()); // a mới dùng → b là cũ nhất
+        cache.get("c", k -> k + loads.incrementAndGet());
+
+        assertEquals(3, loads.get());
+        assertEquals(2, cache.size());
+        assertEquals("a1", cache.get("a", k -> "reloaded"));
+        assertEquals("reloaded", cache.get("b", k -> "reloaded"));
+    }
+
+    @Test
+    @DisplayName("Hết TTL → nạp lại")
+    void expiresAfterTtl() throws InterruptedException {
+        SingleFlightCache<String, Integer> cache =
+                new SingleFlightCache<>("test", 30, 10, v -> true, new SimpleMeterRegistry());
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("k", k -> loads.incrementAndGet());
+        cache.get("k", k -> loads.incrementAndGet());
+        Thread.sleep(60);
+        cache.get("k", k -> loads.incrementAndGet());
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    @DisplayName("Nhiều luồng hỏi liên tục cùng key → loader chỉ chạy 1 lần")
+    void concurrentCallersLoadOnce() throws Exception {
+        SingleFlightCache<String, String> cache =
+                new SingleFlightCache<>("test", 60_000, 10, v -> true, new SimpleMeterRegistry());
+        AtomicInteger loads = new AtomicInteger();
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < 500; i++) {
+                    assertEquals("v", cache.get("k", k -> {
+                        loads.incrementAndGet();
+                        return "v";
+                    }));
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> f : futures) f.get(10, TimeUnit.SECONDS);
+        pool.shutdown();
+
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    @DisplayName("Loader lỗi → không cache, lần sau gọi lại")
+    void failuresAreNotCached() {
+        SingleFlightCache<String, String> cache =
+                new SingleFlightCache<>("test", 60_000, 10, v -> true, new SimpleMeterRegistry());
+
+        assertThrows(IllegalStateException.class, () -> cache.get("k", k -> {
+            throw new IllegalStateException("upstream down");
+        }));
+        assertEquals("ok", cache.get("k", k -> "ok"));
+    }
+}
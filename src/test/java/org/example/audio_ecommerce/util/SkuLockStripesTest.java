@@ -0,0 +1,76 @@
+package org.example.audio_ecommerce.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SkuLockStripesTest {
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    @DisplayName("Khoá nhiều SKU theo thứ tự ngược nhau không bị deadlock")
+    void testNoDeadlockWithReversedOrder() throws Exception {
+        SkuLockStripes stripes = new SkuLockStripes(8);
+        List<UUID> skus = new ArrayList<>();
+        for (int i = 0; i < 6; i++) skus.add(UUID.randomUUID());
+        List<UUID> reversed = new ArrayList<>(skus);
+        Collections.reverse(reversed);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            List<UUID> order = (i % 2 == 0) ? skus : reversed;
+            futures.add(pool.submit(() -> stripes.withLocks(order, () -> null)));
+        }
+        for (Future<?> f : futures) f.get(10, TimeUnit.SECONDS);
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    @DisplayName("lockUntilCompletion giữ stripe tới khi transaction kết thúc, không phải tới hết hàm")
+    void testLockHeldUntilTransactionCompletes() throws Exception {
+        SkuLockStripes stripes = new SkuLockStripes(16);
+        UUID sku = UUID.randomUUID();
+
+        TransactionSynchronizationManager.initSynchronization();
+        stripes.lockUntilCompletion(List.of(sku));
+
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> contender = other.submit(() -> stripes.withLocks(List.of(sku), () -> true));
+            assertThrows(TimeoutException.class, () -> contender.get(100, TimeUnit.MILLISECONDS),
+                    "transaction chưa kết thúc → luồng khác phải chờ");
+
+            for (TransactionSynchronization sync : TransactionSynchronizationManager.getSynchronizations()) {
+                sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+            }
+            assertTrue(contender.get(5, TimeUnit.SECONDS));
+        } finally {
+            other.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("lockUntilCompletion ngoài transaction → báo lỗi thay vì khoá mãi mãi")
+    void testLockUntilCompletionRequiresTransaction() {
+        SkuLockStripes stripes = new SkuLockStripes(4);
+        assertThrows(IllegalStateException.class, () -> stripes.lockUntilCompletion(List.of(UUID.randomUUID())));
+    }
+}
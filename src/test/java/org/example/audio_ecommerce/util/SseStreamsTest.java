@@ -0,0 +1,119 @@
+package org.example.audio_ecommerce.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.audio_ecommerce.exception.UpstreamUnavailableException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SseStreamsTest {
+
+    @Test
+    @DisplayName("Hết slot stream → từ chối ngay, không chạy task; stream cũ đóng thì nhận lại")
+    void rejectsWhenAllSlotsBusy() throws InterruptedException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SseStreams streams = new SseStreams(registry, 2, 10, 1, 60_000);
+        try {
+            AtomicReference<SseStreams.Session> first = new AtomicReference<>();
+            CountDownLatch started = new CountDownLatch(1);
+            streams.start(session -> {
+                first.set(session);
+                started.countDown();
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertEquals(1, registry.get("ai.stream.active").gauge().value());
+
+            CountDownLatch rejectedRan = new CountDownLatch(1);
+            streams.start(session -> rejectedRan.countDown());
+            assertFalse(rejectedRan.await(200, TimeUnit.MILLISECONDS));
+            assertEquals(1, registry.get("ai.stream.rejected").tag("reason", "busy").counter().count());
+
+            // Token + done qua sink → stream đóng, slot được trả
+            TokenSink sink = first.get().sink();
+            sink.onToken("Xin ");
+            sink.onComplete("Xin chào");
+            assertTrue(sink.isCancelled());
+            assertEquals(0, registry.get("ai.stream.active").gauge().value());
+
+            CountDownLatch accepted = new CountDownLatch(1);
+            streams.start(session -> {
+                accepted.countDown();
+                session.complete();
+            });
+            assertTrue(accepted.await(5, TimeUnit.SECONDS));
+        } finally {
+            streams.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Task ném lỗi → stream đóng bằng event error, slot không bị giữ")
+    void failingTaskReleasesSlot() throws InterruptedException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SseStreams streams = new SseStreams(registry, 1, 10, 1, 60_000);
+        try {
+            CountDownLatch ran = new CountDownLatch(1);
+            streams.start(session -> {
+                ran.countDown();
+                throw new IllegalStateException("LLM lỗi");
+            });
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (registry.get("ai.stream.active").gauge().value() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, registry.get("ai.stream.active").gauge().value());
+            assertEquals(0, registry.find("ai.stream.rejected").tag("reason", "busy").counter().count());
+        } finally {
+            streams.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Close hook chạy đúng 1 lần khi stream đóng; đăng ký sau khi đóng thì chạy ngay")
+    void closeHooksRunOnce() throws InterruptedException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SseStreams streams = new SseStreams(registry, 1, 10, 1, 60_000);
+        try {
+            AtomicReference<SseStreams.Session> opened = new AtomicReference<>();
+            CountDownLatch started = new CountDownLatch(1);
+            streams.start(session -> {
+                opened.set(session);
+                started.countDown();
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            SseStreams.Session session = opened.get();
+
+            AtomicInteger closedBody = new AtomicInteger();
+            session.sink().onClose(closedBody::incrementAndGet);
+            assertEquals(0, closedBody.get());
+
+            session.complete();
+            session.complete();
+            assertEquals(1, closedBody.get());
+
+            AtomicInteger late = new AtomicInteger();
+            session.onClose(late::incrementAndGet);
+            assertEquals(1, late.get());
+        } finally {
+            streams.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Event error không lộ message exception; chỉ lỗi bận có câu riêng")
+    void errorEventHidesExceptionDetails() {
+        assertEquals(SseStreams.ERROR_MESSAGE,
+                SseStreams.userMessage(new RuntimeException("Gemini Error: HTTP 400 key=AIza... SELECT * FROM users")));
+        assertEquals(SseStreams.ERROR_MESSAGE, SseStreams.userMessage(new NullPointerException()));
+        assertEquals(SseStreams.BUSY_MESSAGE,
+                SseStreams.userMessage(new UpstreamUnavailableException("gemini", "bulkhead_full")));
+    }
+}
@@ -0,0 +1,51 @@
+package org.example.audio_ecommerce.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingSheetWriterTest {
+
+    private static String csv(Object... cells) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (StreamingSheetWriter writer = StreamingSheetWriter.open(StreamingSheetWriter.Format.CSV, out)) {
+            writer.row(cells);
+        }
+        return out.toString(StandardCharsets.UTF_8).replace("\uFEFF", "");
+    }
+
+    @Test
+    @DisplayName("CSV: quote ô có dấu phẩy / nháy kép, null → ô trống, BigDecimal dạng plain")
+    void csvEscaping() throws Exception {
+        assertEquals("a,\"b,c\",\"say \"\"hi\"\"\",,1000\r\n",
+                csv("a", "b,c", "say \"hi\"", null, new BigDecimal("1E+3")));
+    }
+
+    @Test
+    @DisplayName("CSV: chuỗi bắt đầu bằng = + - @ được thêm ' để Excel không chạy công thức")
+    void csvFormulaInjection() throws Exception {
+        assertEquals("'+1,'-2,'@SUM(A1)\r\n", csv("+1", "-2", "@SUM(A1)"));
+        assertEquals("\"'=HYPERLINK(\"\"http://x\"\")\"\r\n", csv("=HYPERLINK(\"http://x\")"));
+        // Số âm thật vẫn là số
+        assertEquals("-5,-1.50\r\n", csv(-5, new BigDecimal("-1.50")));
+    }
+
+    @Test
+    @DisplayName("flush() đẩy dữ liệu trong buffer xuống OutputStream gốc trước khi đóng")
+    void flushReachesUnderlyingStream() throws Exception {
+        for (StreamingSheetWriter.Format format : StreamingSheetWriter.Format.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            StreamingSheetWriter writer = StreamingSheetWriter.open(format, out);
+            writer.row("orderCode", "x");
+            int before = out.size();
+            writer.flush();
+            assertTrue(out.size() > before, format + ": flush phải ghi xuống stream gốc");
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.example.audio_ecommerce.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.audio_ecommerce.exception.UpstreamUnavailableException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UpstreamGuardTest {
+
+    private SimpleMeterRegistry registry;
+    private final AtomicLong clock = new AtomicLong();
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+    }
+
+    private UpstreamGuard guard(int maxConcurrent, int failureThreshold, long openMs) {
+        return new UpstreamGuard("test",
+                new UpstreamGuard.Settings(maxConcurrent, 10, failureThreshold, openMs, 1000, 1000, 10, 10),
+                registry, clock::get);
+    }
+
+    @Test
+    @DisplayName("Lỗi 5xx liên tiếp mở mạch, request sau bị chặn không gọi ra ngoài")
+    void opensAfterConsecutiveFailures() throws Exception {
+        UpstreamGuard g = guard(5, 3, 60_000);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(503, g.call(() -> 503, s -> s));
+        }
+
+        assertThrows(UpstreamUnavailableException.class, () -> g.call(() -> fail("không được gọi"), s -> 200));
+        assertEquals(1.0, registry.counter("http.client.upstream.rejected",
+                "upstream", "test", "reason", "circuit_open").count());
+    }
+
+    @Test
+    @DisplayName("4xx không tính là lỗi upstream")
+    void clientErrorsDoNotOpen() throws Exception {
+        UpstreamGuard g = guard(5, 2, 60_000);
+        for (int i = 0; i < 5; i++) {
+            g.call(() -> 404, s -> s);
+        }
+        assertEquals(200, g.call(() -> 200, s -> s));
+    }
+
+    @Test
+    @DisplayName("Hết thời gian mở → 1 request thử, thành công thì đóng mạch")
+    void halfOpenTrialCloses() throws Exception {
+        UpstreamGuard g = guard(5, 1, 50);
+        assertThrows(IOException.class, () -> g.call(() -> { throw new IOException("timeout"); }, s -> 200));
+        assertThrows(UpstreamUnavailableException.class, () -> g.call(() -> 200, s -> s));
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(49));
+        assertThrows(UpstreamUnavailableException.class, () -> g.call(() -> 200, s -> s));
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(200, g.call(() -> 200, s -> s));
+        assertEquals(200, g.call(() -> 200, s -> s));
+    }
+
+    @Test
+    @DisplayName("Request thử lúc half-open lỗi → mở mạch lại thêm openMs")
+    void halfOpenTrialFailureReopens() throws Exception {
+        UpstreamGuard g = guard(5, 1, 50);
+        assertEquals(503, g.call(() -> 503, s -> s));
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(503, g.call(() -> 503, s -> s));
+        assertThrows(UpstreamUnavailableException.class, () -> g.call(() -> 200, s -> s));
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(200, g.call(() -> 200, s -> s));
+    }
+
+    @Test
+    @DisplayName("Bulkhead đầy → từ chối ngay thay vì chờ upstream chậm")
+    void bulkheadRejectsWhenFull() throws Exception {
+        UpstreamGuard g = guard(1, 5, 60_000);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Thread slow = new Thread(() -> {
+            try {
+                g.call(() -> {
+                    entered.countDown();
+                    release.await(5, TimeUnit.SECONDS);
+                    return 200;
+                }, s -> s);
+            } catch (Exception ignored) {
+            }
+        });
+        slow.start();
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        assertThrows(UpstreamUnavailableException.class, () -> g.call(() -> 200, s -> s));
+
+        release.countDown();
+        slow.join();
+        assertEquals(200, g.call(() -> 200, s -> s));
+    }
+
+    @Test
+    @DisplayName("Lease giữ slot tới khi kết thúc (không cần thread chờ); kết thúc lần 2 không trả slot lần nữa")
+    void leaseHoldsSlotUntilFinished() throws Exception {
+        UpstreamGuard g = guard(1, 5, 60_000);
+        UpstreamGuard.Lease lease = g.lease();
+
+        assertThrows(UpstreamUnavailableException.class, g::lease);
+        assertEquals(1, registry.get("http.client.upstream.inflight").tag("upstream", "test").gauge().value());
+
+        lease.complete(200);
+        lease.cancel();
+        assertEquals(0, registry.get("http.client.upstream.inflight").tag("upstream", "test").gauge().value());
+
+        UpstreamGuard.Lease next = g.lease();
+        assertThrows(UpstreamUnavailableException.class, g::lease);
+        next.cancel();
+    }
+
+    @Test
+    @DisplayName("Lease bị huỷ (client ngắt) không tính lỗi; request thử half-open bị huỷ → cho request khác thử")
+    void cancelledLeaseIsNeutral() throws Exception {
+        UpstreamGuard g = guard(5, 1, 50);
+        g.lease().cancel();
+        assertEquals(200, g.call(() -> 200, s -> s));
+
+        assertEquals(503, g.call(() -> 503, s -> s));
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(50));
+        UpstreamGuard.Lease trial = g.lease();
+        assertThrows(UpstreamUnavailableException.class, g::lease);
+        trial.cancel();
+
+        assertEquals(200, g.call(() -> 200, s -> s));
+    }
+}